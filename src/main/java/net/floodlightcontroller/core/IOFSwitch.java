@@ -304,9 +304,16 @@ public interface IOFSwitch {
                             IOFMessageListener caller) throws IOException;
 
     /**
-     * Flush all flows queued for this switch in the current thread.
-     * NOTE: The contract is limited to the current thread
+     * Flush all flows queued for this switch, whichever thread wrote them.
+     * Queued flows are also flushed on their own after a short deadline.
      */
      public void flush();
 
+    /**
+     * Get the counters of the switch's outbound message batching
+     * @return number of batches and messages written, the batch size
+     * histogram and the number of batches flushed for each reason
+     */
+    public Map<String, Object> getWriteBatchStats();
+
 }
@@ -227,6 +227,7 @@ public class Controller implements IFloodlightProviderService,
     // Perf. related configuration
     protected static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
     protected static final int BATCH_MAX_SIZE = 100;
+    protected static final long BATCH_MAX_DELAY_MICROS = 200;
     protected static final boolean ALWAYS_DECODE_ETH = true;
 
     /**
@@ -499,20 +500,23 @@ public class Controller implements IFloodlightProviderService,
                 @SuppressWarnings("unchecked")
                 List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
 
-                for (OFMessage ofm : msglist) {
-                    try {
-                        processOFMessage(ofm);
-                    }
-                    catch (Exception ex) {
-                        // We are the last handler in the stream, so run the 
-                        // exception through the channel again by passing in 
-                        // ctx.getChannel().
-                        Channels.fireExceptionCaught(ctx.getChannel(), ex);
+                OFSwitchImpl.start_batch();
+                try {
+                    for (OFMessage ofm : msglist) {
+                        try {
+                            processOFMessage(ofm);
+                        }
+                        catch (Exception ex) {
+                            // We are the last handler in the stream, so run the 
+                            // exception through the channel again by passing in 
+                            // ctx.getChannel().
+                            Channels.fireExceptionCaught(ctx.getChannel(), ex);
+                        }
                     }
+                } finally {
+                    // Flush all flow-mods/packet-out generated from this "train"
+                    OFSwitchImpl.flush_all();
                 }
-
-                // Flush all flow-mods/packet-out generated from this "train"
-                OFSwitchImpl.flush_all();
             }
         }
         
@@ -0,0 +1,224 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound message queue of a switch, shared by every thread writing to it.
+ * Flow mods and packet outs are held back and coalesced into a single
+ * channel write, which goes out when the batch is full, when the oldest
+ * message in it has waited for the deadline, or when someone flushes.
+ * Any other message is written right away, along with whatever was
+ * queued before it, so messages always reach the switch in the order
+ * they were written.
+ */
+public class OFMessageBatcher {
+    protected static Logger log = LoggerFactory.getLogger(OFMessageBatcher.class);
+
+    public enum FlushReason {
+        /** The batch reached its maximum size */
+        SIZE,
+        /** The oldest message in the batch reached its deadline */
+        DEADLINE,
+        /** flush() was called */
+        EXPLICIT,
+        /** A message that can't be held back was written */
+        IMMEDIATE
+    }
+
+    protected static ScheduledExecutorService flusher;
+
+    protected final Channel channel;
+    protected final int maxSize;
+    protected final long maxDelayMicros;
+    protected final ScheduledExecutorService executor;
+
+    // All guarded by this
+    protected List<OFMessage> pending;
+    protected boolean deadlineScheduled;
+    protected long batches;
+    protected long messages;
+    protected final long[] batchSizes;
+    protected final long[] flushReasons;
+
+    protected final Runnable deadlineTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (OFMessageBatcher.this) {
+                deadlineScheduled = false;
+                flushLocked(FlushReason.DEADLINE);
+            }
+        }
+    };
+
+    /**
+     * @param channel the switch's channel
+     * @param maxSize number of messages that cause the batch to be written
+     * @param maxDelayMicros longest a message is held back for
+     */
+    public OFMessageBatcher(Channel channel, int maxSize, long maxDelayMicros) {
+        this(channel, maxSize, maxDelayMicros, getFlusher());
+    }
+
+    protected OFMessageBatcher(Channel channel, int maxSize,
+                               long maxDelayMicros,
+                               ScheduledExecutorService executor) {
+        this.channel = channel;
+        this.maxSize = maxSize;
+        this.maxDelayMicros = maxDelayMicros;
+        this.executor = executor;
+        this.pending = new ArrayList<OFMessage>(maxSize);
+        this.batchSizes = new long[bucket(maxSize) + 1];
+        this.flushReasons = new long[FlushReason.values().length];
+    }
+
+    /**
+     * The deadline timer shared by all switches. It only ever writes
+     * to channels, so one thread is plenty.
+     */
+    protected static synchronized ScheduledExecutorService getFlusher() {
+        if (flusher == null) {
+            flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "OFSwitchFlusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return flusher;
+    }
+
+    /**
+     * Queue a message, writing the batch if it is due
+     * @param m the message
+     */
+    public synchronized void write(OFMessage m) {
+        pending.add(m);
+
+        if ((m.getType() != OFType.PACKET_OUT) &&
+            (m.getType() != OFType.FLOW_MOD)) {
+            flushLocked(FlushReason.IMMEDIATE);
+        } else if (pending.size() >= maxSize) {
+            flushLocked(FlushReason.SIZE);
+        } else if (!deadlineScheduled) {
+            deadlineScheduled = true;
+            executor.schedule(deadlineTask, maxDelayMicros,
+                              TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Write a list of messages right away, behind anything already queued
+     * @param msglist the messages
+     */
+    public synchronized void write(List<OFMessage> msglist) {
+        pending.addAll(msglist);
+        flushLocked(FlushReason.IMMEDIATE);
+    }
+
+    /**
+     * Write whatever is queued
+     */
+    public synchronized void flush() {
+        flushLocked(FlushReason.EXPLICIT);
+    }
+
+    /**
+     * @return number of messages waiting to be written
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return batch and message counters, the batch size histogram and
+     * the number of batches written for each reason
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("batches", batches);
+        stats.put("messages", messages);
+        stats.put("pending", pending.size());
+        stats.put("maxBatchSize", maxSize);
+        stats.put("maxDelayMicros", maxDelayMicros);
+
+        Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < batchSizes.length; i++) {
+            int low = 1 << i;
+            int high = Math.min((low << 1) - 1, maxSize);
+            sizes.put((low == high) ? String.valueOf(low) : low + "-" + high,
+                      batchSizes[i]);
+        }
+        stats.put("batchSizes", sizes);
+
+        Map<String, Long> reasons = new LinkedHashMap<String, Long>();
+        for (FlushReason reason : FlushReason.values()) {
+            reasons.put(reason.name(), flushReasons[reason.ordinal()]);
+        }
+        stats.put("flushReasons", reasons);
+        return stats;
+    }
+
+    /**
+     * Write the batch in one go. The channel write happens under the lock,
+     * so that batches can't overtake each other.
+     */
+    protected void flushLocked(FlushReason reason) {
+        if (pending.isEmpty())
+            return;
+
+        List<OFMessage> batch = pending;
+        pending = new ArrayList<OFMessage>(maxSize);
+
+        batches++;
+        messages += batch.size();
+        batchSizes[Math.min(bucket(batch.size()), batchSizes.length - 1)]++;
+        flushReasons[reason.ordinal()]++;
+
+        try {
+            channel.write(batch);
+        } catch (Exception e) {
+            log.error("Failed to write {} messages to switch at {} - {}",
+                      new Object[] {batch.size(), channel.getRemoteAddress(), e});
+        }
+    }
+
+    /**
+     * @return the histogram bucket for a batch of size n, floor(log2(n))
+     */
+    protected static int bucket(int n) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+}
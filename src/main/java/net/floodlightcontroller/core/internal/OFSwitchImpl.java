@@ -21,10 +21,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
@@ -104,13 +105,18 @@ public class OFSwitchImpl implements IOFSwitch {
     protected LinkedList<PendingRoleRequestEntry> pendingRoleRequests;
     
     public static IOFSwitchFeatures switchFeatures;
-    protected static final ThreadLocal<Map<OFSwitchImpl,List<OFMessage>>> local_msg_buffer =
-            new ThreadLocal<Map<OFSwitchImpl,List<OFMessage>>>() {
-            @Override
-            protected Map<OFSwitchImpl,List<OFMessage>> initialValue() {
-                return new HashMap<OFSwitchImpl,List<OFMessage>>();
-            }
-    };
+    /**
+     * Outbound queue shared by every thread writing to this switch
+     */
+    protected OFMessageBatcher batcher;
+    /**
+     * Switches written to by the current thread since its start_batch(),
+     * or null if the thread hasn't started a batch. Threads that don't
+     * start batches leave it to the batcher's deadline to send their
+     * writes, and don't hold on to the switches they wrote to.
+     */
+    protected static final ThreadLocal<Set<OFSwitchImpl>> local_written_switches =
+            new ThreadLocal<Set<OFSwitchImpl>>();
     
     // for managing our map sizes
     protected static final int MAX_MACS_PER_SWITCH  = 1000;
@@ -180,6 +186,8 @@ public class OFSwitchImpl implements IOFSwitch {
 
     public void setChannel(Channel channel) {
         this.channel = channel;
+        this.batcher = new OFMessageBatcher(channel, Controller.BATCH_MAX_SIZE,
+                                            Controller.BATCH_MAX_DELAY_MICROS);
     }
     
     // TODO: document the difference between the different write functions
@@ -196,21 +204,14 @@ public class OFSwitchImpl implements IOFSwitch {
                          stringId, new Exception().getStackTrace());
     	    }
     	}
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msg_buffer = msg_buffer_map.get(this);
-        if (msg_buffer == null) {
-            msg_buffer = new ArrayList<OFMessage>();
-            msg_buffer_map.put(this, msg_buffer);
-        }
-
         this.floodlightProvider.handleOutgoingMessage(this, m, bc);
-        msg_buffer.add(m);
-
-        if ((msg_buffer.size() >= Controller.BATCH_MAX_SIZE) ||
-            ((m.getType() != OFType.PACKET_OUT) && (m.getType() != OFType.FLOW_MOD))) {
-            this.write(msg_buffer);
-            msg_buffer.clear();
+        Set<OFSwitchImpl> written = local_written_switches.get();
+        if (written != null) {
+            written.add(this);
         }
+        // Flow mods and packet outs are held back for at most
+        // BATCH_MAX_DELAY_MICROS, whichever thread wrote them
+        this.batcher.write(m);
     }
 
     public void write(List<OFMessage> msglist, FloodlightContext bc) throws IOException {
@@ -234,7 +235,7 @@ public class OFSwitchImpl implements IOFSwitch {
     }
 
     public void write(List<OFMessage> msglist) throws IOException {
-        this.channel.write(msglist);
+        this.batcher.write(msglist);
     }
     
     public void disconnectOutputStream() {
@@ -474,27 +475,40 @@ public class OFSwitchImpl implements IOFSwitch {
     }
     
 
+    @Override
     public void flush() {
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msglist = msg_buffer_map.get(this);
-        if ((msglist != null) && (msglist.size() > 0)) {
-            try {
-                this.write(msglist);
-            } catch (IOException e) {
-                // TODO: log exception
-                e.printStackTrace();
-            }
-            msglist.clear();
-        }
+        this.batcher.flush();
     }
 
+    /**
+     * Start tracking the switches the current thread writes to,
+     * until its next flush_all()
+     */
+    public static void start_batch() {
+        local_written_switches.set(new HashSet<OFSwitchImpl>());
+    }
+
+    /**
+     * Flush the switches the current thread has written to since
+     * start_batch(), and stop tracking them
+     */
     public static void flush_all() {
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        for (OFSwitchImpl sw : msg_buffer_map.keySet()) {
+        Set<OFSwitchImpl> switches = local_written_switches.get();
+        local_written_switches.remove();
+        if (switches == null) {
+            return;
+        }
+        for (OFSwitchImpl sw : switches) {
             sw.flush();
         }
     }
 
+    @Override
+    @JsonIgnore
+    public Map<String, Object> getWriteBatchStats() {
+        return this.batcher.getStats();
+    }
+
     /**
      * Return a read lock that must be held while calling the listeners for
      * messages from the switch. Holding the read lock prevents the active
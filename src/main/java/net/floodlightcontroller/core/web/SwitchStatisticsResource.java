@@ -71,6 +71,12 @@ public class SwitchStatisticsResource extends SwitchResourceBase {
                 result.put(sw.getStringId(), fr);
             }
             return result;
+        } else if (statType.equals("batching")) {
+            IOFSwitch sw = floodlightProvider.getSwitches().get(HexString.toLong(switchId));
+            if (sw != null) {
+                result.put(sw.getStringId(), sw.getWriteBatchStats());
+            }
+            return result;
         }
         
         result.put(switchId, values);
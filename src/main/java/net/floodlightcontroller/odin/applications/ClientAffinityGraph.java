@@ -0,0 +1,365 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * The clients of a pool, the agents that hear each of them and
+ * how well, and which agent each client is on. The graph is kept
+ * up to date as signal reports come in, and remembers which
+ * clients' neighbourhoods have changed since they were last
+ * looked at, so that rebalancing only has to look at those.
+ *
+ * Placing a client c on agent a is worth
+ *
+ *   signal(c, a) - loadWeight * load(a) / capacity
+ *
+ * and no agent takes more than capacity clients by a move. A
+ * client is moved if that gains more than the hysteresis margin,
+ * and hasn't been moved within the dwell time.
+ *
+ * Not thread-safe; the load balancer synchronizes on it.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ClientAffinityGraph {
+	private final int capacity;
+	private final double loadWeight;
+	private final double margin;
+	private final long dwellMillis;
+	private final long staleMillis;
+
+	private final Map<MACAddress, ClientNode> clients = new HashMap<MACAddress, ClientNode>();
+	private final Map<InetAddress, Set<MACAddress>> agentClients = new HashMap<InetAddress, Set<MACAddress>>();
+	private final LinkedHashSet<MACAddress> dirty = new LinkedHashSet<MACAddress>();
+
+
+	/**
+	 * A planned handoff
+	 */
+	static class Move {
+		final MACAddress client;
+		final InetAddress from;
+		final InetAddress to;
+		final double gain;
+
+		Move(MACAddress client, InetAddress from, InetAddress to, double gain) {
+			this.client = client;
+			this.from = from;
+			this.to = to;
+			this.gain = gain;
+		}
+	}
+
+
+	/**
+	 * @param capacity clients per agent
+	 * @param loadWeight how much signal a full agent costs
+	 * @param margin gain needed to move a client
+	 * @param dwellMillis time a client stays put after a move
+	 * @param staleMillis time after which a report from an agent
+	 *        other than the client's own is forgotten
+	 */
+	ClientAffinityGraph(int capacity, double loadWeight, double margin, long dwellMillis, long staleMillis) {
+		this.capacity = capacity;
+		this.loadWeight = loadWeight;
+		this.margin = margin;
+		this.dwellMillis = dwellMillis;
+		this.staleMillis = staleMillis;
+	}
+
+
+	/**
+	 * Record that an agent heard a client
+	 *
+	 * @param clientHwAddr
+	 * @param agentAddr
+	 * @param signal (smoothed) signal strength
+	 * @param now in ms
+	 */
+	void observe(MACAddress clientHwAddr, InetAddress agentAddr, long signal, long now) {
+		ClientNode node = clients.get(clientHwAddr);
+
+		if (node == null) {
+			node = new ClientNode();
+			clients.put(clientHwAddr, node);
+		}
+
+		Edge edge = node.edges.get(agentAddr);
+
+		if (edge == null) {
+			edge = new Edge();
+			node.edges.put(agentAddr, edge);
+		}
+
+		edge.signal = signal;
+		edge.lastHeard = now;
+		dirty.add(clientHwAddr);
+	}
+
+
+	/**
+	 * Record the agent a client is on, as the master has it
+	 *
+	 * @param clientHwAddr
+	 * @param agentAddr the agent, or null if the client isn't placed
+	 */
+	void setAgent(MACAddress clientHwAddr, InetAddress agentAddr) {
+		ClientNode node = clients.get(clientHwAddr);
+
+		if (node == null) {
+			if (agentAddr == null)
+				return;
+
+			node = new ClientNode();
+			clients.put(clientHwAddr, node);
+		}
+
+		if (agentAddr == null ? node.agent == null : agentAddr.equals(node.agent))
+			return;
+
+		if (node.agent != null)
+			leave(clientHwAddr, node.agent);
+
+		node.agent = agentAddr;
+
+		if (agentAddr != null) {
+			Set<MACAddress> onAgent = agentClients.get(agentAddr);
+
+			if (onAgent == null) {
+				onAgent = new HashSet<MACAddress>();
+				agentClients.put(agentAddr, onAgent);
+			}
+
+			onAgent.add(clientHwAddr);
+		}
+	}
+
+
+	/**
+	 * Forget a client that has left the pool
+	 */
+	void removeClient(MACAddress clientHwAddr) {
+		ClientNode node = clients.remove(clientHwAddr);
+		dirty.remove(clientHwAddr);
+
+		if (node != null && node.agent != null)
+			leave(clientHwAddr, node.agent);
+	}
+
+
+	/**
+	 * Bring every client's agent up to date, for moves the
+	 * balancer didn't make, and forget clients that are gone
+	 *
+	 * @param agents every client in the pool, and its agent
+	 */
+	void recount(Map<MACAddress, InetAddress> agents) {
+		Iterator<MACAddress> it = new ArrayList<MACAddress>(clients.keySet()).iterator();
+
+		while (it.hasNext()) {
+			MACAddress clientHwAddr = it.next();
+
+			if (!agents.containsKey(clientHwAddr))
+				removeClient(clientHwAddr);
+		}
+
+		for (Entry<MACAddress, InetAddress> entry: agents.entrySet()) {
+			setAgent(entry.getKey(), entry.getValue());
+		}
+	}
+
+
+	/**
+	 * Take the clients whose neighbourhood changed, oldest first
+	 *
+	 * @param max most clients to take; the rest stay dirty
+	 * @return the clients
+	 */
+	List<MACAddress> takeDirty(int max) {
+		List<MACAddress> taken = new ArrayList<MACAddress>(Math.min(max, dirty.size()));
+		Iterator<MACAddress> it = dirty.iterator();
+
+		while (it.hasNext() && taken.size() < max) {
+			taken.add(it.next());
+			it.remove();
+		}
+
+		return taken;
+	}
+
+
+	int getLoad(InetAddress agentAddr) {
+		Set<MACAddress> onAgent = agentClients.get(agentAddr);
+
+		return (onAgent == null) ? 0 : onAgent.size();
+	}
+
+
+	int getNumClients() {
+		return clients.size();
+	}
+
+
+	int getNumDirty() {
+		return dirty.size();
+	}
+
+
+	/**
+	 * Plan up to maxMoves handoffs that improve the placement of
+	 * the candidates, and of the clients of overloaded agents they
+	 * could move to. Moves are applied to the graph as planned,
+	 * best first, re-checking each against the loads left by the
+	 * moves before it.
+	 *
+	 * @param candidates clients to consider
+	 * @param maxMoves
+	 * @param now in ms
+	 * @return the moves, to be carried out by the caller
+	 */
+	List<Move> plan(Collection<MACAddress> candidates, int maxMoves, long now) {
+		Set<MACAddress> neighbourhood = new LinkedHashSet<MACAddress>(candidates);
+
+		// Clients stuck on an overloaded agent can make room
+		for (MACAddress clientHwAddr: candidates) {
+			ClientNode node = clients.get(clientHwAddr);
+
+			if (node == null)
+				continue;
+
+			for (InetAddress agentAddr: node.edges.keySet()) {
+				if (getLoad(agentAddr) > capacity)
+					neighbourhood.addAll(agentClients.get(agentAddr));
+			}
+		}
+
+		PriorityQueue<Move> queue = new PriorityQueue<Move>(Math.max(1, neighbourhood.size()), new Comparator<Move>() {
+			@Override
+			public int compare(Move a, Move b) {
+				return Double.compare(b.gain, a.gain);
+			}
+		});
+
+		for (MACAddress clientHwAddr: neighbourhood) {
+			Move move = bestMove(clientHwAddr, now);
+
+			if (move != null)
+				queue.add(move);
+		}
+
+		List<Move> moves = new ArrayList<Move>();
+
+		while (moves.size() < maxMoves && !queue.isEmpty()) {
+			Move planned = queue.poll();
+
+			// Earlier moves may have changed the loads
+			Move move = bestMove(planned.client, now);
+
+			if (move == null)
+				continue;
+
+			if (!queue.isEmpty() && move.gain < queue.peek().gain) {
+				queue.add(move);
+				continue;
+			}
+
+			setAgent(move.client, move.to);
+			clients.get(move.client).lastMoved = now;
+			moves.add(move);
+		}
+
+		return moves;
+	}
+
+
+	/**
+	 * @return the most worthwhile move of a client, or null
+	 */
+	private Move bestMove(MACAddress clientHwAddr, long now) {
+		ClientNode node = clients.get(clientHwAddr);
+
+		if (node == null || node.agent == null || now - node.lastMoved < dwellMillis)
+			return null;
+
+		// Forget other agents that no longer hear the client. The
+		// client's own agent only reports it when its signal changes
+		// enough, so silence there means nothing has changed, and
+		// its last report stands
+		Iterator<Entry<InetAddress, Edge>> it = node.edges.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<InetAddress, Edge> entry = it.next();
+
+			if (now - entry.getValue().lastHeard > staleMillis && !entry.getKey().equals(node.agent))
+				it.remove();
+		}
+
+		Edge current = node.edges.get(node.agent);
+
+		// Nothing to compare the other agents against yet
+		if (current == null)
+			return null;
+
+		double currentValue = current.signal - loadWeight * getLoad(node.agent) / capacity;
+
+		Move best = null;
+
+		for (Entry<InetAddress, Edge> entry: node.edges.entrySet()) {
+			InetAddress agentAddr = entry.getKey();
+
+			if (agentAddr.equals(node.agent))
+				continue;
+
+			int load = getLoad(agentAddr);
+
+			if (load + 1 > capacity)
+				continue;
+
+			double gain = entry.getValue().signal - loadWeight * (load + 1) / capacity - currentValue;
+
+			if (gain > margin && (best == null || gain > best.gain))
+				best = new Move(clientHwAddr, node.agent, agentAddr, gain);
+		}
+
+		return best;
+	}
+
+
+	private void leave(MACAddress clientHwAddr, InetAddress agentAddr) {
+		Set<MACAddress> onAgent = agentClients.get(agentAddr);
+
+		if (onAgent != null) {
+			onAgent.remove(clientHwAddr);
+
+			if (onAgent.isEmpty())
+				agentClients.remove(agentAddr);
+		}
+	}
+
+
+	private static class ClientNode {
+		final Map<InetAddress, Edge> edges = new HashMap<InetAddress, Edge>(4);
+		InetAddress agent;
+		long lastMoved = Long.MIN_VALUE / 2;
+	}
+
+
+	private static class Edge {
+		long signal;
+		long lastHeard;
+	}
+}
@@ -0,0 +1,186 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.odin.master.BatchNotificationCallback;
+import net.floodlightcontroller.odin.master.NotificationCallbackContext;
+import net.floodlightcontroller.odin.master.OdinApplication;
+import net.floodlightcontroller.odin.master.OdinClient;
+import net.floodlightcontroller.odin.master.OdinEventSubscription;
+import net.floodlightcontroller.odin.master.OdinEventSubscription.Relation;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Balances the clients of a pool across its agents, every few
+ * seconds. Unlike SimpleLoadBalancer, it doesn't poll every agent
+ * and re-place every client each time: agents report the clients
+ * they hear through a subscription, smoothed by the master, and
+ * each cycle only re-places the clients whose reports changed,
+ * along with the clients of overloaded agents next to them. See
+ * ClientAffinityGraph for how clients are placed.
+ *
+ * The number of clients looked at and handed off in a cycle is
+ * bounded, so a burst of reports is worked off over a few cycles.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinLoadBalancer extends OdinApplication {
+	protected static Logger log = LoggerFactory.getLogger(OdinLoadBalancer.class);
+
+	private final long INTERVAL = 3000; // ms between cycles
+	private final int RECOUNT_CYCLES = 20; // cycles between full recounts of the agents' loads
+	private final long SIGNAL_THRESHOLD = 100; // weakest signal that counts as hearing a client
+	private final double SIGNAL_ALPHA = 0.3;
+	private final long SIGNAL_MIN_CHANGE = 3;
+	private final int MAX_EVALUATIONS = 2048; // clients looked at per cycle
+	private final int MAX_HANDOFFS = 32; // per cycle
+
+	private final ClientAffinityGraph graph;
+	private long cycles = 0;
+
+
+	public OdinLoadBalancer () {
+		// 64 clients per agent, a full agent costs 40 signal
+		// units, moves must gain 15, and clients stay put for 30 s
+		this(new ClientAffinityGraph(64, 40, 15, 30000, 10000));
+	}
+
+
+	// Used for testing
+	OdinLoadBalancer (ClientAffinityGraph graph) {
+		this.graph = graph;
+	}
+
+
+	/**
+	 * Register subscriptions
+	 */
+	private void init () {
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setSubscription("*", "signal", Relation.GREATER_THAN, SIGNAL_THRESHOLD);
+		oes.setEwma(SIGNAL_ALPHA);
+		oes.setMinChange(SIGNAL_MIN_CHANGE);
+
+		registerSubscription(oes, new BatchNotificationCallback() {
+
+			@Override
+			public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+				long now = System.currentTimeMillis();
+
+				synchronized (graph) {
+					graph.observe(cntx.clientHwAddress, cntx.agent.getIpAddress(), cntx.value, now);
+				}
+			}
+
+			@Override
+			public void execBatch(OdinEventSubscription oes, List<NotificationCallbackContext> batch) {
+				long now = System.currentTimeMillis();
+
+				synchronized (graph) {
+					for (NotificationCallbackContext cntx: batch) {
+						graph.observe(cntx.clientHwAddress, cntx.agent.getIpAddress(), cntx.value, now);
+					}
+				}
+			}
+		});
+	}
+
+
+	@Override
+	public void run() {
+		init ();
+
+		while (true) {
+			try {
+				Thread.sleep(INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				balance();
+			} catch (RuntimeException e) {
+				log.error("Load balancing cycle failed", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Run one cycle
+	 */
+	void balance() {
+		long start = System.nanoTime();
+
+		// Moves made by others, like first connections and
+		// the mobility manager, are picked up lazily below,
+		// and fully every so often
+		if (cycles++ % RECOUNT_CYCLES == 0) {
+			Map<MACAddress, InetAddress> agents = new HashMap<MACAddress, InetAddress>();
+
+			for (OdinClient client: getClients()) {
+				agents.put(client.getMacAddress(), getAgentAddr(client));
+			}
+
+			synchronized (graph) {
+				graph.recount(agents);
+			}
+		}
+
+		List<MACAddress> candidates;
+
+		synchronized (graph) {
+			candidates = graph.takeDirty(MAX_EVALUATIONS);
+		}
+
+		if (candidates.isEmpty())
+			return;
+
+		// Look up where the candidates are now
+		Map<MACAddress, InetAddress> agents = new HashMap<MACAddress, InetAddress>(candidates.size() * 2);
+
+		for (MACAddress clientHwAddr: candidates) {
+			OdinClient client = getClientFromHwAddress(clientHwAddr);
+			agents.put(clientHwAddr, (client == null) ? null : getAgentAddr(client));
+		}
+
+		List<ClientAffinityGraph.Move> moves;
+
+		synchronized (graph) {
+			for (Map.Entry<MACAddress, InetAddress> entry: agents.entrySet()) {
+				graph.setAgent(entry.getKey(), entry.getValue());
+			}
+
+			moves = graph.plan(candidates, MAX_HANDOFFS, System.currentTimeMillis());
+		}
+
+		for (ClientAffinityGraph.Move move: moves) {
+			log.info("Load balancer: handing off client " + move.client + " from agent "
+					+ move.from + " to agent " + move.to);
+			handoffClientToAp(move.client, move.to);
+		}
+
+		log.debug("Load balancer: looked at " + candidates.size() + " clients, made " + moves.size()
+				+ " handoffs in " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us");
+	}
+
+
+	/**
+	 * @return the address of the client's agent, or null if the
+	 *         client isn't on one or hasn't finished connecting
+	 */
+	private static InetAddress getAgentAddr(OdinClient client) {
+		if (client.getIpAddress() == null || client.getIpAddress().getHostAddress().equals("0.0.0.0"))
+			return null;
+
+		return (client.getLvap().getAgent() == null) ? null : client.getLvap().getAgent().getIpAddress();
+	}
+}
@@ -9,16 +9,20 @@ import java.util.Set;
 
 import net.floodlightcontroller.odin.master.OdinApplication;
 import net.floodlightcontroller.odin.master.OdinClient;
+import net.floodlightcontroller.odin.master.OdinRxStatsSweep;
+import net.floodlightcontroller.odin.master.OdinRxStatsTable;
 import net.floodlightcontroller.util.MACAddress;
 
 public class SimpleLoadBalancer extends OdinApplication {
 
 	private final int INTERVAL = 60000;
 	private final int SIGNAL_THRESHOLD = 160;
+	private final int RX_STATS_TIMEOUT = 2000;
 
-	HashSet<OdinClient> clients;
+	Set<OdinClient> clients;
 	Map<MACAddress, Set<InetAddress>> hearingMap = new HashMap<MACAddress, Set<InetAddress>> ();
 	Map<InetAddress, Integer> newMapping = new HashMap<InetAddress, Integer> ();
+	OdinRxStatsSweep rxStats = null;
 	
 	
 	@Override
@@ -29,7 +33,8 @@ public class SimpleLoadBalancer extends OdinApplication {
 			try {
 				Thread.sleep(INTERVAL);
 								
-				clients = new HashSet<OdinClient>(getClients());
+				// An immutable snapshot of the pool, no need to copy it
+				clients = getClients();
 				
 				hearingMap.clear();
 				newMapping.clear();
@@ -40,26 +45,27 @@ public class SimpleLoadBalancer extends OdinApplication {
 				 * 
 				 *  We then build the hearing table.
 				 */
-				for (InetAddress agentAddr: getAgents()) {
-					Map<MACAddress, Map<String, String>> vals = getRxStatsFromAgent(agentAddr);
+				rxStats = getRxStatsFromAgents(RX_STATS_TIMEOUT, rxStats);
+				
+				for (Entry<InetAddress, OdinRxStatsTable> stats_entry: rxStats.getStats().entrySet()) {
+					InetAddress agentAddr = stats_entry.getKey();
+					OdinRxStatsTable vals = stats_entry.getValue();
 					
-					for (Entry<MACAddress, Map<String, String>> vals_entry: vals.entrySet()) {
-						
-						MACAddress staHwAddr = vals_entry.getKey();
+					for (OdinClient oc: clients) {
+						int row = vals.indexOf(oc.getMacAddress());
 						
-						for (OdinClient oc: clients) {
-							if (oc.getMacAddress().equals(staHwAddr)
-									&& oc.getIpAddress() != null
-									&& !oc.getIpAddress().getHostAddress().equals("0.0.0.0")
-									&& Integer.parseInt(vals_entry.getValue().get("signal")) >= SIGNAL_THRESHOLD) {
+						if (row >= 0
+								&& oc.getIpAddress() != null
+								&& !oc.getIpAddress().getHostAddress().equals("0.0.0.0")
+								&& vals.getSignal(row) >= SIGNAL_THRESHOLD) {
 							
-								if (!hearingMap.containsKey(staHwAddr))
-									hearingMap.put(staHwAddr, new HashSet<InetAddress> ());
-									
-								hearingMap.get(staHwAddr).add(agentAddr);
-							}
-						}
+							MACAddress staHwAddr = oc.getMacAddress();
 							
+							if (!hearingMap.containsKey(staHwAddr))
+								hearingMap.put(staHwAddr, new HashSet<InetAddress> ());
+								
+							hearingMap.get(staHwAddr).add(agentAddr);
+						}
 					}
 				}
 				
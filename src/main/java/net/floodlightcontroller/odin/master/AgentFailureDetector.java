@@ -0,0 +1,221 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heartbeat failure detector for agents. The time each agent
+ * was last heard from is kept in a primitive array, and the
+ * whole array is swept at once, so a sweep over thousands of
+ * agents is a tight loop with no allocation unless agents
+ * have failed.
+ *
+ * An agent that hasn't been heard from for the suspect timeout
+ * is suspected, and one that hasn't been heard from for the
+ * failure timeout has failed. Failed agents are dropped from the
+ * detector by the sweep that finds them, and handed back to the
+ * caller in one batch.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class AgentFailureDetector {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Map<InetAddress, Integer> slots = new HashMap<InetAddress, Integer>();
+	private IOdinAgent[] agents = new IOdinAgent[INITIAL_CAPACITY];
+	private long[] lastHeard = new long[INITIAL_CAPACITY];
+	private boolean[] suspected = new boolean[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private long sweeps = 0;
+	private long suspicions = 0;
+	private long failures = 0;
+	private long lastSweepNanos = 0;
+	private final LatencyHistogram detectionLatency = new LatencyHistogram();
+
+
+	/**
+	 * Start watching an agent, replacing any agent
+	 * previously watched at the same address
+	 *
+	 * @param agent the agent
+	 * @param now time the agent was last heard from, in ms
+	 */
+	synchronized void register(IOdinAgent agent, long now) {
+		Integer slot = slots.get(agent.getIpAddress());
+
+		if (slot == null) {
+			if (size == agents.length)
+				grow();
+
+			slot = size++;
+			slots.put(agent.getIpAddress(), slot);
+		}
+
+		agents[slot] = agent;
+		lastHeard[slot] = now;
+		suspected[slot] = false;
+	}
+
+
+	/**
+	 * Stop watching an agent
+	 *
+	 * @param agentAddr the agent's address
+	 * @return true if the agent was being watched
+	 */
+	synchronized boolean unregister(InetAddress agentAddr) {
+		Integer slot = slots.remove(agentAddr);
+
+		if (slot == null)
+			return false;
+
+		removeSlot(slot);
+		return true;
+	}
+
+
+	/**
+	 * Record that an agent was heard from
+	 *
+	 * @param agentAddr the agent's address
+	 * @param now time the agent was heard from, in ms
+	 * @return true if the agent is being watched
+	 */
+	synchronized boolean heartbeat(InetAddress agentAddr, long now) {
+		Integer slot = slots.get(agentAddr);
+
+		if (slot == null)
+			return false;
+
+		if (now > lastHeard[slot])
+			lastHeard[slot] = now;
+
+		suspected[slot] = false;
+		return true;
+	}
+
+
+	/**
+	 * Check every agent against the timeouts. Agents that have
+	 * failed are no longer watched once this returns.
+	 *
+	 * @param now the current time, in ms
+	 * @param suspectTimeout ms of silence after which an agent is suspected
+	 * @param failureTimeout ms of silence after which an agent has failed
+	 * @param newlySuspected if not null, gets the agents that became
+	 *        suspected on this sweep
+	 * @return the agents that have failed
+	 */
+	synchronized List<IOdinAgent> sweep(long now, long suspectTimeout, long failureTimeout, List<IOdinAgent> newlySuspected) {
+		long start = System.nanoTime();
+		List<IOdinAgent> failed = null;
+		long failBefore = now - failureTimeout;
+		long suspectBefore = now - suspectTimeout;
+
+		int i = 0;
+		while (i < size) {
+			long heard = lastHeard[i];
+
+			if (heard <= failBefore) {
+				if (failed == null)
+					failed = new ArrayList<IOdinAgent>();
+
+				failed.add(agents[i]);
+				detectionLatency.record((now - heard) * 1000);
+				slots.remove(agents[i].getIpAddress());
+				removeSlot(i);
+
+				// The last agent was moved into this slot
+				continue;
+			}
+
+			if (heard <= suspectBefore && !suspected[i]) {
+				suspected[i] = true;
+				suspicions++;
+
+				if (newlySuspected != null)
+					newlySuspected.add(agents[i]);
+			}
+
+			i++;
+		}
+
+		sweeps++;
+		lastSweepNanos = System.nanoTime() - start;
+
+		if (failed == null)
+			return new ArrayList<IOdinAgent>(0);
+
+		failures += failed.size();
+		return failed;
+	}
+
+
+	synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 * @return counters, and how long after they were last heard
+	 *         from failed agents were detected, for the REST API
+	 */
+	synchronized Map<String, Object> getStats() {
+		int suspectedNow = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (suspected[i])
+				suspectedNow++;
+		}
+
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("agents", size);
+		stats.put("suspected", suspectedNow);
+		stats.put("sweeps", sweeps);
+		stats.put("suspicions", suspicions);
+		stats.put("failures", failures);
+		stats.put("lastSweepMicros", lastSweepNanos / 1000);
+		stats.put("detectionLatency", detectionLatency.toMap());
+
+		return stats;
+	}
+
+
+	/**
+	 * Fill a slot with the last agent, so that
+	 * the watched agents stay packed
+	 */
+	private void removeSlot(int slot) {
+		int last = --size;
+
+		if (slot != last) {
+			agents[slot] = agents[last];
+			lastHeard[slot] = lastHeard[last];
+			suspected[slot] = suspected[last];
+			slots.put(agents[slot].getIpAddress(), slot);
+		}
+
+		agents[last] = null;
+	}
+
+
+	private void grow() {
+		int capacity = agents.length * 2;
+		IOdinAgent[] newAgents = new IOdinAgent[capacity];
+		long[] newLastHeard = new long[capacity];
+		boolean[] newSuspected = new boolean[capacity];
+
+		System.arraycopy(agents, 0, newAgents, 0, size);
+		System.arraycopy(lastHeard, 0, newLastHeard, 0, size);
+		System.arraycopy(suspected, 0, newSuspected, 0, size);
+
+		agents = newAgents;
+		lastHeard = newLastHeard;
+		suspected = newSuspected;
+	}
+}
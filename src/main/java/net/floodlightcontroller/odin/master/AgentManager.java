@@ -2,12 +2,14 @@ package net.floodlightcontroller.odin.master;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,14 +24,27 @@ import net.floodlightcontroller.odin.master.OdinMaster;
 
 class AgentManager {
 	private final ConcurrentHashMap<InetAddress, IOdinAgent> agentMap = new ConcurrentHashMap<InetAddress,IOdinAgent>();
+	
+	// Switches by IP address, and when agents that pinged before their switch connected did so
+	private final ConcurrentHashMap<InetAddress, IOFSwitch> switchMap = new ConcurrentHashMap<InetAddress, IOFSwitch>();
+	private final ConcurrentHashMap<InetAddress, Long> parkedPings = new ConcurrentHashMap<InetAddress, Long>();
+	private static final int MAX_PARKED_PINGS = 4096;
     protected static Logger log = LoggerFactory.getLogger(OdinMaster.class);
     
     private IFloodlightProviderService floodlightProvider;
     private final ClientManager clientManager;
     private final PoolManager poolManager;
     
-	private final Timer failureDetectionTimer = new Timer();
-	private int agentTimeout = 6000;
+	private final AgentFailureDetector failureDetector = new AgentFailureDetector();
+	private Thread failureDetectorThread = null;
+	private volatile int agentTimeout = 6000;
+	private volatile int agentSuspectTimeout = 0; // 0: half of agentTimeout
+	
+	private static final int NUM_AGENT_LOCK_STRIPES = 64;
+	private final StripedLock agentLocks = new StripedLock(NUM_AGENT_LOCK_STRIPES);
+	
+	// Null until the master is initialised
+	private volatile ChangeFeed changeFeed;
 
 	protected AgentManager (ClientManager clientManager, PoolManager poolManager) {
 		this.clientManager = clientManager;
@@ -41,12 +56,35 @@ class AgentManager {
     }
     
     
+    /**
+     * Log agents coming and going to a feed from now on
+     * 
+     * @param changeFeed
+     */
+    protected void setChangeFeed(final ChangeFeed changeFeed) {
+    	this.changeFeed = changeFeed;
+    }
+    
+    
     protected void setAgentTimeout (final int timeout) {
     	assert (timeout > 0);
     	agentTimeout = timeout;
     }
     
     
+    /**
+     * Set how long an agent may stay silent before it is
+     * suspected to have failed. Suspected agents are only
+     * logged; they are removed once agentTimeout passes.
+     * 
+     * @param timeout in ms, or 0 for half of agentTimeout
+     */
+    protected void setAgentSuspectTimeout (final int timeout) {
+    	assert (timeout >= 0);
+    	agentSuspectTimeout = timeout;
+    }
+    
+    
     /**
 	 * Confirm if the agent corresponding to an InetAddress
 	 * is being tracked.
@@ -79,6 +117,19 @@ class AgentManager {
 	}
 	
 	
+	/**
+	 * Get the lock that serialises registration, removal and
+	 * failure handling of an agent. See OdinMaster for the order
+	 * in which locks are taken.
+	 * 
+	 * @param agentInetAddr
+	 * @return the agent's lock stripe
+	 */
+	protected Lock getAgentLock(final InetAddress agentInetAddr) {
+		return agentLocks.get(agentInetAddr);
+	}
+	
+	
 	/**
 	 * Removes an agent from the agent manager
 	 * 
@@ -86,15 +137,148 @@ class AgentManager {
 	 */
 	protected void removeAgent(InetAddress agentInetAddr) {
 		synchronized (this) {
-			agentMap.remove(agentInetAddr);
+			IOdinAgent agent = agentMap.remove(agentInetAddr);
+			failureDetector.unregister(agentInetAddr);
+			
+			ChangeFeed f = changeFeed;
+			if (f != null && agent != null)
+				f.agentRemoved(agent);
 		}
 	}
 	
+	
+	/**
+	 * Record that an agent was heard from, for failure detection
+	 * 
+	 * @param agentInetAddr
+	 * @param now the current time, in ms
+	 */
+	protected void receiveHeartbeat(final InetAddress agentInetAddr, final long now) {
+		IOdinAgent agent = agentMap.get(agentInetAddr);
+		
+		if (agent != null) {
+			agent.setLastHeard(now);
+			failureDetector.heartbeat(agentInetAddr, now);
+		}
+	}
+	
+	
+	/**
+	 * Get the failure detector's counters
+	 * 
+	 * @return agents watched and suspected, failures, and
+	 *         how long failures took to detect
+	 */
+	protected Map<String, Object> getFailureDetectorStats() {
+		Map<String, Object> stats = failureDetector.getStats();
+		stats.put("agentTimeout", agentTimeout);
+		stats.put("agentSuspectTimeout", getSuspectTimeout());
+		
+		return stats;
+	}
+	
+	/**
+	 * Index a switch that has connected to the controller
+	 * 
+	 * @param sw
+	 * @return true if an agent at the same address pinged us
+	 *         before the switch connected, and should now be
+	 *         registered
+	 */
+	protected boolean addSwitch(final IOFSwitch sw) {
+		InetAddress switchIpAddr = getSwitchIpAddress(sw);
+		
+		if (switchIpAddr == null)
+			return false;
+		
+		switchMap.put(switchIpAddr, sw);
+		
+		Long parkedAt = parkedPings.remove(switchIpAddr);
+		
+		return parkedAt != null && !isParkedPingExpired(parkedAt, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * @param sw
+	 * @return true if a registered agent runs alongside the switch
+	 */
+	protected boolean isAgentSwitch(final IOFSwitch sw) {
+		InetAddress switchIpAddr = getSwitchIpAddress(sw);
+		
+		if (switchIpAddr == null)
+			return false;
+		
+		IOdinAgent agent = agentMap.get(switchIpAddr);
+		
+		return agent != null && agent.getSwitch() == sw;
+	}
+	
+	
+	/**
+	 * Drop a switch that has disconnected from the index
+	 * 
+	 * @param sw
+	 */
+	protected void removeSwitch(final IOFSwitch sw) {
+		InetAddress switchIpAddr = getSwitchIpAddress(sw);
+		
+		if (switchIpAddr != null)
+			switchMap.remove(switchIpAddr, sw);
+	}
+	
+	
+	/**
+	 * @param sw
+	 * @return the IP address the switch connected from,
+	 *         or null if it isn't connected over IP
+	 */
+	protected static InetAddress getSwitchIpAddress(final IOFSwitch sw) {
+		SocketAddress addr = (sw.getChannel() == null) ? null : sw.getChannel().getRemoteAddress();
+		
+		if (!(addr instanceof InetSocketAddress))
+			return null;
+		
+		return ((InetSocketAddress) addr).getAddress();
+	}
+	
+	
+	/**
+	 * Find the switch that an agent runs alongside
+	 * 
+	 * @param odinAgentAddr
+	 * @return the switch, or null if it hasn't connected
+	 */
+	private IOFSwitch getSwitchForAgent(final InetAddress odinAgentAddr) {
+		IOFSwitch sw = switchMap.get(odinAgentAddr);
+		
+		if (sw != null)
+			return sw;
+		
+		/* Switches are normally indexed as they connect, but
+		 * one may have connected without being indexed. Look
+		 * for it in the controller's switch map, and index it
+		 * without disturbing the other entries, which may be
+		 * read meanwhile.
+		 */
+		for (IOFSwitch ofSwitch: floodlightProvider.getSwitches().values()) {
+			if (odinAgentAddr.equals(getSwitchIpAddress(ofSwitch))) {
+				IOFSwitch existing = switchMap.putIfAbsent(odinAgentAddr, ofSwitch);
+				
+				return (existing == null) ? ofSwitch : existing;
+			}
+		}
+		
+		return null;
+	}
+	
 	// Handle protocol messages here
 	
 	/**
      * Handle a ping from an agent. If an agent was added to the
-     * agent map, return true.
+     * agent map, return true. The agent is connected to and its
+     * LVAP table read in the caller's thread, see AgentOnboarder
+     * for registering agents in parallel.
      * 
      * @param odinAgentAddr
      * @return true if an agent was added
@@ -110,141 +294,303 @@ class AgentManager {
     		return false;
     	}
     	
-    	IOFSwitch ofSwitch = null;
+    	IOdinAgent oa = connectAgent(odinAgentAddr);
     	
+    	if (oa == null)
+    		return false;
+    	
+		return registerAgent(oa, oa.getLvapsRemote());
+	}
+	
+	
+	/**
+	 * Create and connect to a new agent, without registering it
+	 * 
+	 * @param odinAgentAddr
+	 * @return the agent, or null if its switch hasn't connected yet
+	 */
+	protected IOdinAgent connectAgent(final InetAddress odinAgentAddr) {
 		/* 
 		 * If the OFSwitch corresponding to the agent has already
 		 * registered here, then set it in the OdinAgent object.
 		 * We avoid registering the agent until its corresponding
-		 * OFSwitch has done so.
+		 * OFSwitch has done so. We're binding by IP addresses,
+		 * because we want to pool an OFSwitch with its
+		 * corresponding OdinAgent, if any.
 		 */
-		for (IOFSwitch sw: floodlightProvider.getSwitches().values()) {
+    	IOFSwitch ofSwitch = getSwitchForAgent(odinAgentAddr);
+		
+		if (ofSwitch == null) {
+			// Registered once the switch connects
+			long now = System.currentTimeMillis();
 			
-			/* 
-			 * We're binding by IP addresses now, because we want to pool
-			 * an OFSwitch with its corresponding OdinAgent, if any.
-			 */
-			String switchIpAddr = ((InetSocketAddress) sw.getChannel().getRemoteAddress()).getAddress().getHostAddress();
+			if (parkedPings.size() >= MAX_PARKED_PINGS)
+				expireParkedPings(now);
 			
-			if (switchIpAddr.equals(odinAgentAddr.getHostAddress())) {
-				ofSwitch = sw;
-				break;
-			}
+			if (parkedPings.size() < MAX_PARKED_PINGS)
+				parkedPings.put(odinAgentAddr, now);
+			
+			return null;
 		}
 		
-		if (ofSwitch == null)
+		parkedPings.remove(odinAgentAddr);
+		
+		IOdinAgent oa = OdinAgentFactory.getOdinAgent();
+		oa.setSwitch(ofSwitch);
+		oa.init(odinAgentAddr);
+		
+		return oa;
+	}
+	
+	
+	/**
+	 * An agent that pinged longer ago than the agent timeout
+	 * has likely gone, and is not worth registering when its
+	 * switch connects.
+	 * 
+	 * @param parkedAt when the ping was parked, in ms
+	 * @param now in ms
+	 */
+	private boolean isParkedPingExpired(final long parkedAt, final long now) {
+		return now - parkedAt > agentTimeout;
+	}
+	
+	
+	/**
+	 * Drop parked pings from agents that have likely gone, so
+	 * they don't keep newer ones out
+	 * 
+	 * @param now in ms
+	 */
+	private void expireParkedPings(final long now) {
+		for (Map.Entry<InetAddress, Long> entry: parkedPings.entrySet()) {
+			if (isParkedPingExpired(entry.getValue(), now))
+				parkedPings.remove(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	
+	/**
+	 * Reconcile a connected agent's LVAPs with the client tracker,
+	 * and add the agent to the agent map. Callers hold the agent's
+	 * lock, if other threads may register agents.
+	 * 
+	 * @param oa the agent, from connectAgent()
+	 * @param lvaps the LVAPs the agent reported
+	 * @return true if the agent was added
+	 */
+	protected boolean registerAgent(final IOdinAgent oa, final Set<OdinClient> lvaps) {
+		final InetAddress odinAgentAddr = oa.getIpAddress();
+		
+		/* Possible if the agent was registered
+		 * while we were connecting to it, or its
+		 * switch went away meanwhile
+		 */
+		if (isTracked(odinAgentAddr) || getSwitchForAgent(odinAgentAddr) != oa.getSwitch())
 			return false;
 		
-		synchronized (this) {
+		List<String> poolListForAgent = poolManager.getPoolsForAgent(odinAgentAddr);
+		
+		/* 
+		 * It is possible that the controller is recovering from a failure,
+		 * so add the LVAPs the agent hosts to our client tracker
+		 * accordingly.
+		 */
+		for (OdinClient client: lvaps) {
+			Lock clientLock = clientManager.getClientLock(client.getMacAddress());
+			clientLock.lock();
 			
-			/* Possible if a thread has waited
-			 * outside this critical region for
-			 * too long
-			 */
+			try {
+				reconcileRemoteLvap(oa, odinAgentAddr, client, poolListForAgent);
+			} finally {
+				clientLock.unlock();
+			}
+		}
+		
+		// Only the map update needs to be atomic
+		synchronized (this) {
 			if (isTracked(odinAgentAddr))
 				return false;
 			
-			IOdinAgent oa = OdinAgentFactory.getOdinAgent();
-			oa.setSwitch(ofSwitch);
-			oa.init(odinAgentAddr);
-			oa.setLastHeard(System.currentTimeMillis());
-			List<String> poolListForAgent = poolManager.getPoolsForAgent(odinAgentAddr);
-    		
-    		/* 
-    		 * It is possible that the controller is recovering from a failure,
-    		 * so query the agent to see what LVAPs it hosts, and add them
-    		 * to our client tracker accordingly.
-    		 */
-    		for (OdinClient client: oa.getLvapsRemote()) {
-    			
-    			OdinClient trackedClient = clientManager.getClients().get(client.getMacAddress());
-    			
-    			if (trackedClient == null){
-    				clientManager.addClient(client);
-    				trackedClient = clientManager.getClients().get(client.getMacAddress());
-    				
-    				/* 
-    				 * We need to find the pool the client was previously assigned to.
-    				 * The only information we have at this point is the
-    				 * SSID list of the client's LVAP. This can be simplified in
-    				 * future by adding a "pool" field to the LVAP struct.
-    				 */
-    				            				
-    				for (String pool: poolListForAgent) {
-    					/* 
-    					 * Every SSID in every pool is unique, so we need to use only one
-    					 * of the lvap's SSIDs to find the right pool.
-    					 */            					
-    					String ssid = client.getLvap().getSsids().get(0); 
-    					if (poolManager.getSsidListForPool(pool).contains(ssid)) {
-    						poolManager.mapClientToPool(trackedClient, pool);
-    						break;
-    					}
-    						
-    				}
-    			}
-    			
-    			if (trackedClient.getLvap().getAgent() == null) {
-    				trackedClient.getLvap().setAgent(oa);
-    			}
-    			else if (!trackedClient.getLvap().getAgent().getIpAddress().equals(odinAgentAddr)) {
-        			/* 
-        			 * Race condition: 
-        			 * - client associated at AP1 before the master failure,
-        			 * - master crashes.
-        			 * - master re-starts, AP2 connects to the master first.
-        			 * - client scans, master assigns it to AP2.
-        			 * - AP1 now joins the master again, but it has the client's LVAP as well.
-        			 * - Master should now clear the LVAP from AP1.
-        			 */
-    				oa.removeClientLvap(client);
-    			}
-    		}
-    		
+			long now = System.currentTimeMillis();
+			oa.setLastHeard(now);
    			agentMap.put(odinAgentAddr, oa);
 		
     		log.info("Adding OdinAgent to map: " + odinAgentAddr.getHostAddress());
     		
-    		/* This TimerTask checks the lastHeard value
-    		 * of the agent in order to handle failure detection
-    		 */
-    		failureDetectionTimer.scheduleAtFixedRate(new OdinAgentFailureDetectorTask(oa), 1, agentTimeout/2);
+    		failureDetector.register(oa, now);
+    		
+    		ChangeFeed f = changeFeed;
+    		if (f != null)
+    			f.agentAdded(oa);
+    		
+    		if (failureDetectorThread == null) {
+    			failureDetectorThread = new Thread(new OdinAgentFailureDetectorTask(), "OdinAgentFailureDetector");
+    			failureDetectorThread.setDaemon(true);
+    			failureDetectorThread.start();
+    		}
 		}
     	
 		return true;
 	}
 	
 	
-	private class OdinAgentFailureDetectorTask extends TimerTask {
-		private final IOdinAgent agent;
+	/**
+	 * Reconcile an LVAP reported by a newly registered agent
+	 * with the client tracker. Called with the client's lock held.
+	 * 
+	 * @param oa the agent
+	 * @param odinAgentAddr the agent's address
+	 * @param client the client, as reported by the agent
+	 * @param poolListForAgent pools that the agent belongs to
+	 */
+	private void reconcileRemoteLvap(final IOdinAgent oa, final InetAddress odinAgentAddr, final OdinClient client, final List<String> poolListForAgent) {
+		OdinClient trackedClient = clientManager.getClients().get(client.getMacAddress());
 		
-		OdinAgentFailureDetectorTask (final IOdinAgent oa){
-			this.agent = oa;
+		if (trackedClient == null){
+			clientManager.addClient(client);
+			trackedClient = clientManager.getClients().get(client.getMacAddress());
+			
+			/* 
+			 * We need to find the pool the client was previously assigned to.
+			 * The only information we have at this point is the
+			 * SSID list of the client's LVAP. This can be simplified in
+			 * future by adding a "pool" field to the LVAP struct.
+			 */
+			            				
+			for (String pool: poolListForAgent) {
+				/* 
+				 * Every SSID in every pool is unique, so we need to use only one
+				 * of the lvap's SSIDs to find the right pool.
+				 */            					
+				String ssid = client.getLvap().getSsids().get(0); 
+				if (poolManager.getSsidListForPool(pool).contains(ssid)) {
+					poolManager.mapClientToPool(trackedClient, pool);
+					break;
+				}
+					
+			}
 		}
 		
-		@Override
-		public void run() {
-			log.info("Executing failure check against: " + agent.getIpAddress());
-			if ((System.currentTimeMillis() - agent.getLastHeard()) >= agentTimeout) {
-				log.error("Agent: " + agent.getIpAddress() + " has timed out");
-				
-				/* This is default behaviour, maybe we should
-				 * re-assign the client based on some specific
-				 * behaviour
-				 */
+		if (trackedClient.getLvap().getAgent() == null) {
+			clientManager.setClientAgent(trackedClient, oa);
+		}
+		else if (!trackedClient.getLvap().getAgent().getIpAddress().equals(odinAgentAddr)) {
+			/* 
+			 * Race condition: 
+			 * - client associated at AP1 before the master failure,
+			 * - master crashes.
+			 * - master re-starts, AP2 connects to the master first.
+			 * - client scans, master assigns it to AP2.
+			 * - AP1 now joins the master again, but it has the client's LVAP as well.
+			 * - Master should now clear the LVAP from AP1.
+			 */
+			oa.removeClientLvap(client);
+		}
+	}
+	
+	
+	private int getSuspectTimeout() {
+		int suspectTimeout = agentSuspectTimeout;
+		
+		return (suspectTimeout > 0 && suspectTimeout < agentTimeout) ? suspectTimeout : agentTimeout / 2;
+	}
+	
+	
+	/**
+	 * Clear out agents that have failed. Their clients are
+	 * left without an agent, to be picked up again by
+	 * whichever agent hears them next.
+	 * 
+	 * @param failedAgents
+	 */
+	private void removeFailedAgents(final List<IOdinAgent> failedAgents) {
+		for (IOdinAgent agent: failedAgents) {
+			log.error("Agent: " + agent.getIpAddress() + " has timed out");
+			
+			/* This is default behaviour, maybe we should
+			 * re-assign the client based on some specific
+			 * behaviour
+			 */
+			
+			Lock agentLock = getAgentLock(agent.getIpAddress());
+			agentLock.lock();
+			
+			try {
+				// The agent may have been removed and re-registered
+				// since the sweep, in which case it is alive
+				if (agentMap.get(agent.getIpAddress()) != agent)
+					continue;
 				
-				// TODO: There should be a way to lock the master
-				// during such operations	
 				for (OdinClient oc: agent.getLvapsLocal()) {
-					clientManager.getClients().get(oc.getMacAddress()).getLvap().setAgent(null);
+					Lock clientLock = clientManager.getClientLock(oc.getMacAddress());
+					clientLock.lock();
+					
+					try {
+						OdinClient trackedClient = clientManager.getClient(oc.getMacAddress());
+						
+						// The client may have been handed off to another
+						// agent since this agent last reported it
+						if (trackedClient != null && trackedClient.getLvap().getAgent() == agent) {
+							clientManager.setClientAgent(trackedClient, null);
+						}
+					} finally {
+						clientLock.unlock();
+					}
 				}
 				
 				// Agent should now be cleared out
-				removeAgent(agent.getIpAddress());
-				this.cancel();
+				synchronized (this) {
+					if (agentMap.remove(agent.getIpAddress(), agent)) {
+						ChangeFeed f = changeFeed;
+						if (f != null)
+							f.agentRemoved(agent);
+					}
+				}
+			} finally {
+				agentLock.unlock();
 			}
 		}
+	}
+	
+	
+	/**
+	 * Sweeps the failure detector a few times per agentTimeout,
+	 * so that a failed agent is removed within 1.25 agentTimeouts
+	 * of last being heard from
+	 */
+	private class OdinAgentFailureDetectorTask implements Runnable {
+		private static final long MIN_SWEEP_INTERVAL = 10;
+		private static final long MAX_SWEEP_INTERVAL = 1000;
 		
+		@Override
+		public void run() {
+			List<IOdinAgent> suspected = new ArrayList<IOdinAgent>();
+			
+			while (!Thread.currentThread().isInterrupted()) {
+				long interval = Math.max(MIN_SWEEP_INTERVAL, Math.min(MAX_SWEEP_INTERVAL, agentTimeout / 4));
+				
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					return;
+				}
+				
+				try {
+					suspected.clear();
+					List<IOdinAgent> failed = failureDetector.sweep(System.currentTimeMillis(),
+												getSuspectTimeout(), agentTimeout, suspected);
+					
+					for (IOdinAgent agent: suspected) {
+						log.warn("Agent: " + agent.getIpAddress() + " is suspected to have failed");
+					}
+					
+					if (!failed.isEmpty())
+						removeFailedAgents(failed);
+				} catch (RuntimeException e) {
+					log.error("Failure detector sweep failed", e);
+				}
+			}
+		}
 	}
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,258 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers agents that ping the master for the first time. Each
+ * agent goes through the stages of a pipeline: connecting to it,
+ * reading its LVAP table, reconciling the table with the master's
+ * clients and adding the agent to the agent map, and pushing its
+ * clients' flows. The first two stages are network round trips,
+ * and run without any of the master's locks held.
+ *
+ * Up to parallelism agents are registered at a time, so that when
+ * a whole floor of APs reboots they don't wait on each other, and
+ * each agent is only registered by one pipeline at a time however
+ * often it pings meanwhile. An agent that is connected to but not
+ * registered, because a stage failed or the agent map already had
+ * it, has its control channel closed again.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class AgentOnboarder {
+	protected static Logger log = LoggerFactory.getLogger(AgentOnboarder.class);
+
+	// Workers run on the shared thread pool, which has 15 threads
+	// for the protocol server, applications, event lanes and
+	// periodic tasks too, so only a few are taken by default
+	static final int DEFAULT_PARALLELISM = 4;
+
+	/**
+	 * The stages an agent goes through, in order
+	 */
+	interface Stages {
+		/**
+		 * @return a new agent, connected, or null if it
+		 *         can't be registered yet
+		 */
+		IOdinAgent connect(InetAddress agentAddr);
+
+		/**
+		 * @return the LVAPs the agent hosts
+		 */
+		Set<OdinClient> readLvapTable(IOdinAgent agent);
+
+		/**
+		 * Reconcile the agent's LVAPs with the master's
+		 * clients, and add it to the agent map
+		 *
+		 * @return true if the agent was added
+		 */
+		boolean register(IOdinAgent agent, Set<OdinClient> lvaps);
+
+		/**
+		 * Push the flows of the agent's clients to its switch
+		 */
+		void pushFlows(IOdinAgent agent);
+	}
+
+	private final Stages stages;
+	private final Executor executor;
+	private volatile int parallelism = DEFAULT_PARALLELISM;
+
+	private final ConcurrentMap<InetAddress, Boolean> onboarding = new ConcurrentHashMap<InetAddress, Boolean>();
+	private final ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<Job>();
+	private final AtomicInteger workers = new AtomicInteger();
+	private final AtomicInteger maxWorkers = new AtomicInteger();
+
+	private final AtomicLong registered = new AtomicLong();
+	private final AtomicLong notReady = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final LatencyHistogram queueLatency = new LatencyHistogram();
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	private final LatencyHistogram readTableLatency = new LatencyHistogram();
+	private final LatencyHistogram registerLatency = new LatencyHistogram();
+	private final LatencyHistogram pushFlowsLatency = new LatencyHistogram();
+	private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+
+	AgentOnboarder(Stages stages, Executor executor) {
+		this.stages = stages;
+		this.executor = executor;
+	}
+
+
+	/**
+	 * @param parallelism number of agents registered at a time. Each
+	 *        holds a thread of the executor while it waits on its
+	 *        agent, so keep it to a small share of the executor's threads
+	 */
+	void setParallelism(int parallelism) {
+		assert (parallelism > 0);
+		this.parallelism = parallelism;
+	}
+
+
+	/**
+	 * Register an agent, in the background, unless it is
+	 * already being registered
+	 *
+	 * @param agentAddr
+	 * @return true if the agent was queued
+	 */
+	boolean onboard(InetAddress agentAddr) {
+		if (onboarding.putIfAbsent(agentAddr, Boolean.TRUE) != null) {
+			coalesced.incrementAndGet();
+			return false;
+		}
+
+		queue.add(new Job(agentAddr, System.nanoTime()));
+		startWorkers();
+
+		return true;
+	}
+
+
+	/**
+	 * @return true if the agent is queued or being registered
+	 */
+	boolean isOnboarding(InetAddress agentAddr) {
+		return onboarding.containsKey(agentAddr);
+	}
+
+
+	/**
+	 * @return counters, and the time spent in each stage
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("parallelism", parallelism);
+		stats.put("inProgress", onboarding.size());
+		stats.put("maxConcurrent", maxWorkers.get());
+		stats.put("registered", registered.get());
+		stats.put("notReady", notReady.get());
+		stats.put("failed", failed.get());
+		stats.put("coalescedPings", coalesced.get());
+		stats.put("queue", queueLatency.toMap());
+		stats.put("connect", connectLatency.toMap());
+		stats.put("readTable", readTableLatency.toMap());
+		stats.put("register", registerLatency.toMap());
+		stats.put("pushFlows", pushFlowsLatency.toMap());
+		stats.put("total", totalLatency.toMap());
+
+		return stats;
+	}
+
+
+	private void startWorkers() {
+		while (!queue.isEmpty()) {
+			int n = workers.get();
+
+			if (n >= parallelism)
+				return;
+
+			if (workers.compareAndSet(n, n + 1)) {
+				int max;
+				while (n + 1 > (max = maxWorkers.get()) && !maxWorkers.compareAndSet(max, n + 1));
+
+				executor.execute(new Worker());
+			}
+		}
+	}
+
+
+	private void run(Job job) {
+		long start = System.nanoTime();
+		queueLatency.record(micros(job.queuedNanos, start));
+
+		IOdinAgent agent = null;
+		boolean added = false;
+
+		try {
+			agent = stages.connect(job.agentAddr);
+			long connected = System.nanoTime();
+			connectLatency.record(micros(start, connected));
+
+			if (agent == null) {
+				notReady.incrementAndGet();
+				return;
+			}
+
+			Set<OdinClient> lvaps = stages.readLvapTable(agent);
+			long read = System.nanoTime();
+			readTableLatency.record(micros(connected, read));
+
+			added = stages.register(agent, lvaps);
+			long done = System.nanoTime();
+			registerLatency.record(micros(read, done));
+
+			if (!added)
+				return;
+
+			stages.pushFlows(agent);
+			long pushed = System.nanoTime();
+			pushFlowsLatency.record(micros(done, pushed));
+			totalLatency.record(micros(job.queuedNanos, pushed));
+			registered.incrementAndGet();
+		} catch (RuntimeException e) {
+			// The next ping tries again
+			failed.incrementAndGet();
+			log.error("Failed to register agent " + job.agentAddr, e);
+		} finally {
+			// Only a registered agent keeps its control channel
+			if (agent != null && !added)
+				agent.close();
+
+			onboarding.remove(job.agentAddr);
+		}
+	}
+
+
+	private static long micros(long fromNanos, long toNanos) {
+		return TimeUnit.NANOSECONDS.toMicros(toNanos - fromNanos);
+	}
+
+
+	private static class Job {
+		final InetAddress agentAddr;
+		final long queuedNanos;
+
+		Job(InetAddress agentAddr, long queuedNanos) {
+			this.agentAddr = agentAddr;
+			this.queuedNanos = queuedNanos;
+		}
+	}
+
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			Job job;
+
+			while ((job = queue.poll()) != null) {
+				AgentOnboarder.this.run(job);
+			}
+
+			workers.decrementAndGet();
+
+			// A job may have been queued after the last poll,
+			// while this worker still counted against the limit
+			startWorkers();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Queues published events for one application callback, so that
+ * agents' publishes are never held up by the application.
+ *
+ * The queue is split into lanes by client. Each lane is drained by
+ * at most one task at a time, so the application sees a client's
+ * events one at a time and in order, while events of clients in
+ * different lanes are delivered in parallel. Each wakeup of a lane
+ * delivers up to batchSize events, and a lane with more waiting is
+ * then resubmitted to the executor behind the other lanes' tasks,
+ * so a busy lane doesn't hold on to a pool thread.
+ *
+ * Lanes are bounded. When a lane is full, the oldest event in it
+ * is dropped, or, with COALESCE_PER_CLIENT, an event that is still
+ * queued for the same client and subscription is overwritten with
+ * the new value.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ApplicationEventQueue {
+	protected static Logger log = LoggerFactory.getLogger(ApplicationEventQueue.class);
+
+	enum OverflowPolicy { DROP_OLDEST, COALESCE_PER_CLIENT }
+
+	static final int DEFAULT_LANES = 8;
+	static final int DEFAULT_CAPACITY = 1024; // per lane
+	static final int DEFAULT_BATCH_SIZE = 32;
+
+	private final NotificationCallback cb;
+	private final Executor executor;
+	private final Lane[] lanes;
+	private final int capacity;
+	private final int batchSize;
+	private final OverflowPolicy policy;
+
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+
+	/**
+	 * @param cb the application's callback
+	 * @param executor runs the lanes' deliveries
+	 * @param numLanes number of clients whose events can be
+	 *        delivered in parallel
+	 * @param capacity events each lane holds
+	 * @param batchSize events delivered per wakeup
+	 * @param policy what to do when a lane is full
+	 */
+	ApplicationEventQueue(NotificationCallback cb, Executor executor, int numLanes,
+							int capacity, int batchSize, OverflowPolicy policy) {
+		this.cb = cb;
+		this.executor = executor;
+		this.capacity = Math.max(1, capacity);
+		this.batchSize = Math.max(1, batchSize);
+		this.policy = policy;
+		this.lanes = new Lane[Math.max(1, numLanes)];
+
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new Lane();
+		}
+	}
+
+
+	/**
+	 * Queue an event for delivery
+	 *
+	 * @param subscriptionId
+	 * @param oes the subscription the event matched
+	 * @param cntx the event
+	 */
+	void offer(long subscriptionId, OdinEventSubscription oes, NotificationCallbackContext cntx) {
+		int hash = cntx.clientHwAddress.hashCode();
+		hash ^= (hash >>> 16);
+		Lane lane = lanes[(hash & 0x7fffffff) % lanes.length];
+
+		if (lane.offer(new Event(subscriptionId, oes, cntx))) {
+			executor.execute(lane);
+		}
+	}
+
+
+	/**
+	 * @return events waiting to be delivered
+	 */
+	int getDepth() {
+		int depth = 0;
+
+		for (Lane lane: lanes) {
+			depth += lane.size();
+		}
+
+		return depth;
+	}
+
+
+	/**
+	 * @return counters and queue depths, for the REST API
+	 */
+	Map<String, Object> getStats() {
+		int maxDepth = 0;
+
+		for (Lane lane: lanes) {
+			maxDepth = Math.max(maxDepth, lane.getMaxDepth());
+		}
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("callback", cb.getClass().getName());
+		stats.put("depth", getDepth());
+		stats.put("maxDepth", maxDepth);
+		stats.put("capacity", capacity * lanes.length);
+		stats.put("enqueued", enqueued.get());
+		stats.put("delivered", delivered.get());
+		stats.put("dropped", dropped.get());
+		stats.put("coalesced", coalesced.get());
+		stats.put("batches", batches.get());
+		stats.put("failures", failures.get());
+
+		return stats;
+	}
+
+
+	/**
+	 * Hand a batch of a lane's events to the application.
+	 * Runs of events for the same subscription go to a
+	 * BatchNotificationCallback in one call.
+	 */
+	private void deliver(List<Event> batch) {
+		batches.incrementAndGet();
+
+		int i = 0;
+		while (i < batch.size()) {
+			Event first = batch.get(i);
+			int end = i + 1;
+
+			if (cb instanceof BatchNotificationCallback) {
+				while (end < batch.size() && batch.get(end).subscriptionId == first.subscriptionId)
+					end++;
+			}
+
+			try {
+				if (cb instanceof BatchNotificationCallback) {
+					List<NotificationCallbackContext> contexts = new ArrayList<NotificationCallbackContext>(end - i);
+
+					for (int j = i; j < end; j++) {
+						contexts.add(batch.get(j).cntx);
+					}
+
+					((BatchNotificationCallback) cb).execBatch(first.oes, contexts);
+				}
+				else {
+					cb.exec(first.oes, first.cntx);
+				}
+			} catch (RuntimeException e) {
+				// One bad event shouldn't stall the lane
+				failures.incrementAndGet();
+				log.error("Notification callback " + cb + " failed", e);
+			}
+
+			delivered.addAndGet(end - i);
+			i = end;
+		}
+	}
+
+
+	private static class Event {
+		final long subscriptionId;
+		final OdinEventSubscription oes;
+		NotificationCallbackContext cntx;
+
+		Event(long subscriptionId, OdinEventSubscription oes, NotificationCallbackContext cntx) {
+			this.subscriptionId = subscriptionId;
+			this.oes = oes;
+			this.cntx = cntx;
+		}
+
+		MACAddress getClient() {
+			return cntx.clientHwAddress;
+		}
+	}
+
+
+	private class Lane implements Runnable {
+		private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+		private boolean draining = false;
+		private int maxDepth = 0;
+
+		/**
+		 * @return true if the lane needs a task to drain it
+		 */
+		synchronized boolean offer(Event event) {
+			enqueued.incrementAndGet();
+
+			if (events.size() >= capacity) {
+				if (policy == OverflowPolicy.COALESCE_PER_CLIENT && coalesce(event)) {
+					coalesced.incrementAndGet();
+					return false;
+				}
+
+				events.pollFirst();
+				dropped.incrementAndGet();
+			}
+
+			events.addLast(event);
+			maxDepth = Math.max(maxDepth, events.size());
+
+			if (draining)
+				return false;
+
+			draining = true;
+			return true;
+		}
+
+		/**
+		 * Overwrite a queued event of the same client and
+		 * subscription. The newest one is the most relevant.
+		 */
+		private boolean coalesce(Event event) {
+			Iterator<Event> it = events.descendingIterator();
+
+			while (it.hasNext()) {
+				Event queued = it.next();
+
+				if (queued.subscriptionId == event.subscriptionId
+						&& queued.getClient().equals(event.getClient())) {
+					queued.cntx = event.cntx;
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		synchronized int size() {
+			return events.size();
+		}
+
+		synchronized int getMaxDepth() {
+			return maxDepth;
+		}
+
+		private synchronized List<Event> takeBatch() {
+			if (events.isEmpty()) {
+				draining = false;
+				return null;
+			}
+
+			List<Event> batch = new ArrayList<Event>(Math.min(batchSize, events.size()));
+
+			while (batch.size() < batchSize && !events.isEmpty()) {
+				batch.add(events.pollFirst());
+			}
+
+			return batch;
+		}
+
+		/**
+		 * @return true if the lane needs another task to drain it
+		 */
+		private synchronized boolean batchDone() {
+			if (events.isEmpty()) {
+				draining = false;
+				return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public void run() {
+			List<Event> batch = takeBatch();
+
+			if (batch == null)
+				return;
+
+			deliver(batch);
+
+			if (batchDone())
+				executor.execute(this);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.List;
+
+/**
+ * A NotificationCallback that takes events in batches. Events
+ * that queue up for the application while it is busy are handed
+ * to it together, one batch per subscription, in the order they
+ * were published.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public interface BatchNotificationCallback extends NotificationCallback {
+
+	/**
+	 * @param oes the subscription the events matched
+	 * @param batch the events, oldest first
+	 */
+	public void execBatch(OdinEventSubscription oes, List<NotificationCallbackContext> batch);
+}
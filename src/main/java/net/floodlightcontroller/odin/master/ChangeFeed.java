@@ -0,0 +1,229 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * A log of changes to clients, their LVAPs and agents, for
+ * monitoring the network without fetching every client on
+ * every poll. Each change gets the next sequence number, and
+ * readers ask for the changes after the last one they have
+ * seen, waiting for a while if there are none yet.
+ *
+ * Only the most recent changes are kept, in a ring. A reader
+ * that falls further behind than that, or that has a sequence
+ * number from before a restart, is told to start over from
+ * a snapshot.
+ *
+ * Each waiting reader holds a REST thread, so only a few readers
+ * wait at a time. Any more are answered right away, and poll again.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ChangeFeed {
+	static final int DEFAULT_CAPACITY = 65536;
+	static final int DEFAULT_PAGE_SIZE = 1000;
+	static final long MAX_WAIT_MILLIS = 30000;
+	static final int MAX_WAITING = 4;
+
+	enum Type {
+		CLIENT_ADDED,
+		CLIENT_REMOVED,
+		CLIENT_IP_CHANGED,
+		CLIENT_AGENT_CHANGED,
+		CLIENT_POOL_CHANGED,
+		AGENT_ADDED,
+		AGENT_REMOVED
+	}
+
+	// All guarded by this
+	private final Change[] ring;
+	private long lastSeq = 0;
+	private long waiting = 0;
+
+
+	ChangeFeed(int capacity) {
+		assert (capacity > 0);
+		ring = new Change[capacity];
+	}
+
+
+	void clientAdded(OdinClient oc) {
+		Change change = new Change(Type.CLIENT_ADDED, oc.getMacAddress(), oc.getLvap().getAgent());
+		change.ipAddress = oc.getIpAddress();
+		change.lvapBssid = oc.getLvap().getBssid();
+		append(change);
+	}
+
+
+	void clientRemoved(MACAddress clientHwAddress) {
+		append(new Change(Type.CLIENT_REMOVED, clientHwAddress, null));
+	}
+
+
+	void ipChanged(MACAddress clientHwAddress, InetAddress ipAddress) {
+		Change change = new Change(Type.CLIENT_IP_CHANGED, clientHwAddress, null);
+		change.ipAddress = ipAddress;
+		append(change);
+	}
+
+
+	void agentChanged(MACAddress clientHwAddress, IOdinAgent agent) {
+		append(new Change(Type.CLIENT_AGENT_CHANGED, clientHwAddress, agent));
+	}
+
+
+	void poolChanged(MACAddress clientHwAddress, String pool) {
+		Change change = new Change(Type.CLIENT_POOL_CHANGED, clientHwAddress, null);
+		change.pool = pool;
+		append(change);
+	}
+
+
+	void agentAdded(IOdinAgent agent) {
+		append(new Change(Type.AGENT_ADDED, null, agent));
+	}
+
+
+	void agentRemoved(IOdinAgent agent) {
+		append(new Change(Type.AGENT_REMOVED, null, agent));
+	}
+
+
+	/**
+	 * @return sequence number of the last change, 0 if none
+	 */
+	synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+
+	/**
+	 * @return readers waiting for a change
+	 */
+	synchronized long getWaiting() {
+		return waiting;
+	}
+
+
+	/**
+	 * Get the changes after a sequence number, waiting for
+	 * one to happen if there are none yet
+	 *
+	 * @param seq sequence number of the last change seen
+	 * @param limit most changes to return
+	 * @param waitMillis how long to wait for a change, 0 to return right
+	 *        away. Ignored if MAX_WAITING readers are waiting already
+	 * @return the changes, the sequence number to ask from next,
+	 *         and whether the reader has to start over
+	 * @throws InterruptedException
+	 */
+	Map<String, Object> getChangesSince(long seq, int limit, long waitMillis) throws InterruptedException {
+		List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+		boolean reset = false;
+		List<Change> found = new ArrayList<Change>();
+
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + Math.min(waitMillis, MAX_WAIT_MILLIS);
+
+			while (seq == lastSeq) {
+				long left = deadline - System.currentTimeMillis();
+
+				if (left <= 0 || waiting >= MAX_WAITING)
+					break;
+
+				waiting++;
+
+				try {
+					wait(left);
+				} finally {
+					waiting--;
+				}
+			}
+
+			long oldest = Math.max(lastSeq - ring.length + 1, 1);
+
+			if (seq > lastSeq || seq < oldest - 1) {
+				reset = true;
+				seq = oldest - 1;
+			}
+
+			for (long s = seq + 1; s <= lastSeq && found.size() < limit; s++) {
+				found.add(ring[(int) (s % ring.length)]);
+			}
+
+			if (!found.isEmpty())
+				seq = found.get(found.size() - 1).seq;
+		}
+
+		// Changes are immutable once appended
+		for (Change change: found) {
+			changes.add(change.toMap());
+		}
+
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("seq", seq);
+		ret.put("reset", reset);
+		ret.put("changes", changes);
+
+		return ret;
+	}
+
+
+	private synchronized void append(Change change) {
+		change.seq = ++lastSeq;
+		ring[(int) (change.seq % ring.length)] = change;
+
+		if (waiting > 0)
+			notifyAll();
+	}
+
+
+	private static class Change {
+		final long time = System.currentTimeMillis();
+		final Type type;
+		final MACAddress clientHwAddress;
+		final IOdinAgent agent;
+		long seq;
+		InetAddress ipAddress;
+		MACAddress lvapBssid;
+		String pool;
+
+		Change(Type type, MACAddress clientHwAddress, IOdinAgent agent) {
+			this.type = type;
+			this.clientHwAddress = clientHwAddress;
+			this.agent = agent;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new HashMap<String, Object>();
+			map.put("seq", seq);
+			map.put("time", time);
+			map.put("type", type.name());
+
+			if (clientHwAddress != null)
+				map.put("client", clientHwAddress.toString());
+
+			// A client's agent is null when its LVAP isn't hosted
+			if (agent != null || type == Type.CLIENT_AGENT_CHANGED || type == Type.CLIENT_ADDED)
+				map.put("agent", (agent == null) ? null : agent.getIpAddress().getHostAddress());
+
+			if (ipAddress != null)
+				map.put("ipAddress", ipAddress.getHostAddress());
+
+			if (lvapBssid != null)
+				map.put("lvapBssid", lvapBssid.toString());
+
+			if (type == Type.CLIENT_POOL_CHANGED)
+				map.put("pool", pool);
+
+			return map;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Map;
+
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Changes to clients and agents after ?since=seq, at most ?limit
+ * of them. With ?wait=ms, the request is held until there is
+ * a change or the time is up, unless too many requests are held
+ * already, in which case it is answered right away.
+ */
+public class ChangeFeedResource extends ServerResource {
+
+	@Get("json")
+    public Map<String, Object> retreive() {
+    	OdinMaster oc = (OdinMaster) getContext().getAttributes().
+        					get(OdinMaster.class.getCanonicalName());
+    	
+    	Form form = getQuery();
+    	long since;
+    	int limit;
+    	long waitMillis;
+    	
+    	try {
+    		since = Long.parseLong(form.getFirstValue("since", true, "0"));
+    		limit = Integer.parseInt(form.getFirstValue("limit", true, String.valueOf(ChangeFeed.DEFAULT_PAGE_SIZE)));
+    		waitMillis = Long.parseLong(form.getFirstValue("wait", true, "0"));
+    	} catch (NumberFormatException e) {
+    		setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "since, limit and wait must be numbers");
+    		return null;
+    	}
+    	
+    	try {
+    		return oc.getChangesSince(since, Math.max(limit, 1), Math.max(waitMillis, 0));
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+    		return null;
+    	}
+    }
+}
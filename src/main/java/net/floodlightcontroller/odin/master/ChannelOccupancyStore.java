@@ -0,0 +1,288 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Spectral scans from the agents, kept as a time series per agent
+ * and channel. Each series is a ring buffer of the last few scans
+ * in primitive arrays, so recording a scan allocates nothing once
+ * the agent's channels have been seen, and old scans fall off on
+ * their own.
+ *
+ * Each agent's series are guarded by their own monitor, taken by
+ * the collector once per scan and by readers copying a series out,
+ * so readers of one agent don't hold up scans from the others.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ChannelOccupancyStore {
+	static final int DEFAULT_HISTORY = 120;
+
+	// Channels are numbered from 1 to 255 in the 2.4 and 5 GHz bands
+	private static final int MAX_CHANNEL = 255;
+
+	private final int history;
+	private final ConcurrentMap<InetAddress, AgentSpectrum> agents = new ConcurrentHashMap<InetAddress, AgentSpectrum>();
+
+
+	/**
+	 * @param history number of scans kept per agent and channel
+	 */
+	ChannelOccupancyStore(int history) {
+		assert (history > 0);
+
+		this.history = history;
+	}
+
+
+	/**
+	 * Add an agent's scan to its series
+	 *
+	 * @param agentAddr the agent
+	 * @param now when the scan was collected, in ms
+	 * @param scan the scan
+	 */
+	void record(InetAddress agentAddr, long now, OdinSpectralScan scan) {
+		AgentSpectrum spectrum = agents.get(agentAddr);
+
+		if (spectrum == null) {
+			spectrum = new AgentSpectrum();
+			AgentSpectrum existing = agents.putIfAbsent(agentAddr, spectrum);
+
+			if (existing != null)
+				spectrum = existing;
+		}
+
+		synchronized (spectrum) {
+			for (int i = 0; i < scan.size(); i++) {
+				int channel = scan.getChannel(i);
+
+				if (channel <= 0 || channel > MAX_CHANNEL)
+					continue;
+
+				Series series = spectrum.channels[channel];
+
+				if (series == null) {
+					series = new Series(history);
+					spectrum.channels[channel] = series;
+				}
+
+				series.add(now, scan.getBusy(i), scan.getNoise(i));
+			}
+		}
+	}
+
+
+	/**
+	 * Drop the series of agents that have gone
+	 *
+	 * @param agentAddrs the agents to keep
+	 */
+	void retainAgents(Collection<InetAddress> agentAddrs) {
+		agents.keySet().retainAll(new HashSet<InetAddress>(agentAddrs));
+	}
+
+
+	/**
+	 * @return agents that have a series
+	 */
+	Set<InetAddress> getAgentAddrs() {
+		return new HashSet<InetAddress>(agents.keySet());
+	}
+
+
+	/**
+	 * Copy out the scans of a channel around an agent
+	 *
+	 * @param agentAddr the agent
+	 * @param channel the channel
+	 * @param since oldest scan to include, in ms
+	 * @return the scans since then, oldest first, or null if
+	 *         the agent has never scanned the channel
+	 */
+	OdinChannelOccupancy getOccupancy(InetAddress agentAddr, int channel, long since) {
+		AgentSpectrum spectrum = agents.get(agentAddr);
+
+		if (spectrum == null || channel <= 0 || channel > MAX_CHANNEL)
+			return null;
+
+		synchronized (spectrum) {
+			Series series = spectrum.channels[channel];
+
+			return (series == null) ? null : series.copy(agentAddr, channel, since);
+		}
+	}
+
+
+	/**
+	 * Rate how much interference each channel sees around a set of
+	 * agents. A channel's index is the mean share of busy samples
+	 * over the agents that scanned it, from 0 (idle) to 1 (always
+	 * busy), each agent's scans since the given time averaged first.
+	 *
+	 * @param agentAddrs the agents, such as those of a pool
+	 * @param since oldest scan to include, in ms
+	 * @return the index of each channel scanned, by channel
+	 */
+	Map<Integer, Double> getInterferenceIndex(Collection<InetAddress> agentAddrs, long since) {
+		double[] sum = new double[MAX_CHANNEL + 1];
+		int[] count = new int[MAX_CHANNEL + 1];
+
+		for (InetAddress agentAddr: agentAddrs) {
+			AgentSpectrum spectrum = agents.get(agentAddr);
+
+			if (spectrum == null)
+				continue;
+
+			synchronized (spectrum) {
+				for (int channel = 1; channel <= MAX_CHANNEL; channel++) {
+					Series series = spectrum.channels[channel];
+					double mean = (series == null) ? -1 : series.meanBusy(since);
+
+					if (mean >= 0) {
+						sum[channel] += mean;
+						count[channel]++;
+					}
+				}
+			}
+		}
+
+		Map<Integer, Double> index = new TreeMap<Integer, Double>();
+
+		for (int channel = 1; channel <= MAX_CHANNEL; channel++) {
+			if (count[channel] > 0)
+				index.put(channel, sum[channel] / count[channel] / 100);
+		}
+
+		return index;
+	}
+
+
+	/**
+	 * @param since oldest scan to include, in ms
+	 * @return for each agent and channel scanned, the last scan
+	 *         and the mean since then
+	 */
+	Map<String, Object> getSummary(long since) {
+		Map<String, Object> summary = new TreeMap<String, Object>();
+
+		for (Map.Entry<InetAddress, AgentSpectrum> entry: agents.entrySet()) {
+			Map<Integer, Object> channels = new TreeMap<Integer, Object>();
+			AgentSpectrum spectrum = entry.getValue();
+
+			synchronized (spectrum) {
+				for (int channel = 1; channel <= MAX_CHANNEL; channel++) {
+					Series series = spectrum.channels[channel];
+
+					if (series == null || series.count == 0)
+						continue;
+
+					int last = series.last();
+					Map<String, Object> stats = new LinkedHashMap<String, Object>();
+					stats.put("busy", series.busy[last]);
+					stats.put("noise", series.noise[last]);
+					stats.put("lastScanMillis", series.timeMillis[last]);
+					stats.put("meanBusy", Math.max(series.meanBusy(since), 0));
+					channels.put(channel, stats);
+				}
+			}
+
+			summary.put(entry.getKey().getHostAddress(), channels);
+		}
+
+		return summary;
+	}
+
+
+	private static class AgentSpectrum {
+		final Series[] channels = new Series[MAX_CHANNEL + 1];
+	}
+
+
+	/**
+	 * Ring buffer of one agent's scans of one channel
+	 */
+	private static class Series {
+		final long[] timeMillis;
+		final byte[] busy;
+		final byte[] noise;
+		int next = 0;
+		int count = 0;
+
+		Series(int capacity) {
+			timeMillis = new long[capacity];
+			busy = new byte[capacity];
+			noise = new byte[capacity];
+		}
+
+		void add(long now, int busy, int noise) {
+			timeMillis[next] = now;
+			this.busy[next] = (byte) busy;
+			this.noise[next] = (byte) noise;
+			next = (next + 1) % timeMillis.length;
+
+			if (count < timeMillis.length)
+				count++;
+		}
+
+		int last() {
+			return (next + timeMillis.length - 1) % timeMillis.length;
+		}
+
+		/**
+		 * @return number of the latest scans taken since then
+		 */
+		int countSince(long since) {
+			int n = 0;
+
+			for (int i = last(); n < count && timeMillis[i] >= since; i = (i + timeMillis.length - 1) % timeMillis.length) {
+				n++;
+			}
+
+			return n;
+		}
+
+		/**
+		 * @return mean busy percentage since then, -1 if there are no scans
+		 */
+		double meanBusy(long since) {
+			int n = countSince(since);
+
+			if (n == 0)
+				return -1;
+
+			long sum = 0;
+
+			for (int k = 0, i = last(); k < n; k++, i = (i + timeMillis.length - 1) % timeMillis.length) {
+				sum += busy[i];
+			}
+
+			return (double) sum / n;
+		}
+
+		OdinChannelOccupancy copy(InetAddress agentAddr, int channel, long since) {
+			int n = countSince(since);
+			long[] times = new long[n];
+			int[] busyCopy = new int[n];
+			int[] noiseCopy = new int[n];
+			int i = (next + timeMillis.length - n) % timeMillis.length;
+
+			for (int k = 0; k < n; k++, i = (i + 1) % timeMillis.length) {
+				times[k] = timeMillis[i];
+				busyCopy[k] = busy[i];
+				noiseCopy[k] = noise[i];
+			}
+
+			return new OdinChannelOccupancy(agentAddr, channel, times, busyCopy, noiseCopy);
+		}
+	}
+}
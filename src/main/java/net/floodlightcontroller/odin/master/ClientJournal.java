@@ -0,0 +1,573 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the master's client state, so that a restarted master
+ * knows its clients, their LVAPs, pools and IP addresses straight
+ * away, instead of waiting for every agent to re-register and
+ * report its LVAPs.
+ *
+ * Changes are queued by the threads that make them, and written
+ * out by a background thread to an append-only journal, which is
+ * a memory-mapped file. Once the journal fills up, or has been
+ * around for long enough, it is compacted: the current state is
+ * written to a snapshot file, and the journal starts over. State
+ * is recovered by reading the snapshot and replaying the journal
+ * on top of it.
+ *
+ * Every record carries a CRC, and replay stops at the first record
+ * that doesn't check out, so a record torn by a crash is ignored.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ClientJournal {
+	protected static Logger log = LoggerFactory.getLogger(ClientJournal.class);
+
+	static final int DEFAULT_CAPACITY = 8 * 1024 * 1024; // bytes
+	static final long COMPACT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	private static final long FLUSH_INTERVAL_MILLIS = 100;
+
+	private static final String SNAPSHOT_FILE = "clients.snapshot";
+	private static final String JOURNAL_FILE = "clients.journal";
+
+	private static final byte CLIENT = 1;
+	private static final byte IP = 2;
+	private static final byte AGENT = 3;
+	private static final byte POOL = 4;
+	private static final byte REMOVE = 5;
+
+	private final File snapshotFile;
+	private final File journalFile;
+	private final int capacity;
+
+	// Only touched by the writer thread, once started
+	private final Map<Long, Entry> image = new LinkedHashMap<Long, Entry>();
+	private RandomAccessFile journalRaf;
+	private MappedByteBuffer journal;
+	private long lastCompaction;
+
+	private final BlockingQueue<Record> pending = new LinkedBlockingQueue<Record>();
+	private volatile Thread writer;
+	private volatile boolean closed = false;
+
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong compactions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+
+	/**
+	 * The state of a client, as last journaled
+	 */
+	static class Entry {
+		final MACAddress clientHwAddress;
+		InetAddress ipAddress;
+		MACAddress bssid;
+		List<String> ssids;
+		InetAddress agentAddress; // null if the LVAP isn't placed
+		String pool; // null if the client isn't in a pool
+
+		Entry(MACAddress clientHwAddress) {
+			this.clientHwAddress = clientHwAddress;
+		}
+	}
+
+
+	/**
+	 * @param dir directory for the snapshot and journal files
+	 * @param capacity size of the journal, in bytes
+	 */
+	ClientJournal(File dir, int capacity) {
+		this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+		this.journalFile = new File(dir, JOURNAL_FILE);
+		this.capacity = capacity;
+	}
+
+
+	/**
+	 * Recover the persisted state, and start journaling. The
+	 * recovered state is compacted into a fresh snapshot first.
+	 *
+	 * @return the clients, as they were last journaled
+	 * @throws IOException
+	 */
+	synchronized Collection<Entry> open() throws IOException {
+		File dir = journalFile.getParentFile();
+
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create " + dir);
+
+		if (snapshotFile.exists())
+			replay(readFile(snapshotFile));
+
+		if (journalFile.exists())
+			replay(readFile(journalFile));
+
+		journalRaf = new RandomAccessFile(journalFile, "rw");
+		journal = journalRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+		// What was replayed is all in the new snapshot
+		journal.position(capacity - 4);
+		compact();
+
+		List<Entry> entries = new ArrayList<Entry>(image.values());
+
+		writer = new Thread(new JournalWriter(), "OdinClientJournal");
+		writer.setDaemon(true);
+		writer.start();
+
+		return entries;
+	}
+
+
+	/**
+	 * Write out everything that is queued, and stop journaling
+	 *
+	 * @throws InterruptedException
+	 */
+	void close() throws InterruptedException {
+		closed = true;
+		Thread t = writer;
+
+		if (t != null) {
+			t.interrupt();
+			t.join();
+		}
+	}
+
+
+	// Called by the threads that change a client, with the
+	// client's lock held, so each client's records are in order
+
+	void clientAdded(OdinClient oc) {
+		Lvap lvap = oc.getLvap();
+		IOdinAgent agent = lvap.getAgent();
+		Record record = new Record(CLIENT, oc.getMacAddress());
+		record.addr = oc.getIpAddress();
+		record.bssid = lvap.getBssid();
+		record.ssids = new ArrayList<String>(lvap.getSsids());
+		record.addr2 = (agent == null) ? null : agent.getIpAddress();
+		offer(record);
+	}
+
+
+	void ipChanged(MACAddress clientHwAddress, InetAddress ipAddress) {
+		Record record = new Record(IP, clientHwAddress);
+		record.addr = ipAddress;
+		offer(record);
+	}
+
+
+	void agentChanged(MACAddress clientHwAddress, IOdinAgent agent) {
+		Record record = new Record(AGENT, clientHwAddress);
+		record.addr = (agent == null) ? null : agent.getIpAddress();
+		offer(record);
+	}
+
+
+	void poolChanged(MACAddress clientHwAddress, String pool) {
+		Record record = new Record(POOL, clientHwAddress);
+		record.pool = pool;
+		offer(record);
+	}
+
+
+	void clientRemoved(MACAddress clientHwAddress) {
+		offer(new Record(REMOVE, clientHwAddress));
+	}
+
+
+	/**
+	 * @return records waiting to be written, and counters
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("pending", pending.size());
+		stats.put("records", records.get());
+		stats.put("compactions", compactions.get());
+		stats.put("failures", failures.get());
+
+		return stats;
+	}
+
+
+	private void offer(Record record) {
+		if (!closed)
+			pending.offer(record);
+	}
+
+
+	/**
+	 * Append records to the journal, compacting it
+	 * first if they don't fit
+	 */
+	private void append(List<Record> batch) throws IOException {
+		for (Record record: batch) {
+			byte[] payload = record.encode();
+
+			// Leave room for the terminating 0
+			if (journal.remaining() < payload.length + 12) {
+				compact();
+
+				if (journal.remaining() < payload.length + 12)
+					throw new IOException("Journal record too large: " + payload.length);
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			journal.putInt(payload.length);
+			journal.putInt((int) crc.getValue());
+			journal.put(payload);
+			apply(record);
+			records.incrementAndGet();
+		}
+
+		// Replay stops here
+		journal.putInt(journal.position(), 0);
+	}
+
+
+	/**
+	 * Write the image out as a new snapshot, and empty the journal.
+	 * The snapshot replaces the old one only once it is on disk,
+	 * and replaying a journal on top of the snapshot it was
+	 * compacted into leaves the state as it was.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+			for (Entry entry: image.values()) {
+				for (Record record: Record.fromEntry(entry)) {
+					byte[] payload = record.encode();
+
+					if (buf.remaining() < payload.length + 8) {
+						out.write(buf.array(), 0, buf.position());
+						buf.clear();
+					}
+
+					if (buf.remaining() < payload.length + 8) {
+						buf = ByteBuffer.allocate(payload.length + 8);
+					}
+
+					CRC32 crc = new CRC32();
+					crc.update(payload);
+					buf.putInt(payload.length);
+					buf.putInt((int) crc.getValue());
+					buf.put(payload);
+				}
+			}
+
+			out.write(buf.array(), 0, buf.position());
+			out.write(new byte[4]);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!tmp.renameTo(snapshotFile))
+			throw new IOException("Can't replace " + snapshotFile);
+
+		// Zero out the old records, so that replay can't run
+		// into them past the end of the new ones
+		int used = Math.min(journal.position() + 4, journal.capacity());
+		journal.clear();
+		for (int i = 0; i < used; i++) {
+			journal.put(i, (byte) 0);
+		}
+		journal.force();
+		lastCompaction = System.currentTimeMillis();
+		compactions.incrementAndGet();
+	}
+
+
+	private static byte[] readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Apply the valid prefix of a snapshot or journal to the image
+	 */
+	private void replay(byte[] data) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+
+		while (buf.remaining() >= 8) {
+			int length = buf.getInt();
+			int checksum = buf.getInt();
+
+			if (length <= 0 || length > buf.remaining())
+				return;
+
+			CRC32 crc = new CRC32();
+			crc.update(data, buf.position(), length);
+
+			if ((int) crc.getValue() != checksum) {
+				log.warn("Ignoring torn client journal record at offset " + (buf.position() - 8));
+				return;
+			}
+
+			apply(Record.decode(new DataInputStream(new ByteArrayInputStream(data, buf.position(), length))));
+			buf.position(buf.position() + length);
+		}
+	}
+
+
+	private void apply(Record record) {
+		Long key = record.clientHwAddress.toLong();
+		Entry entry = image.get(key);
+
+		if (record.type == REMOVE) {
+			image.remove(key);
+			return;
+		}
+
+		if (record.type == CLIENT) {
+			entry = new Entry(record.clientHwAddress);
+			entry.ipAddress = record.addr;
+			entry.bssid = record.bssid;
+			entry.ssids = record.ssids;
+			entry.agentAddress = record.addr2;
+
+			// Keep the pool of a client that was re-added
+			Entry old = image.put(key, entry);
+			if (old != null)
+				entry.pool = old.pool;
+
+			return;
+		}
+
+		// Changes to a client we don't know of
+		if (entry == null)
+			return;
+
+		switch (record.type) {
+		case IP:
+			entry.ipAddress = record.addr;
+			break;
+		case AGENT:
+			entry.agentAddress = record.addr;
+			break;
+		case POOL:
+			entry.pool = record.pool;
+			break;
+		}
+	}
+
+
+	private class JournalWriter implements Runnable {
+		@Override
+		public void run() {
+			List<Record> batch = new ArrayList<Record>();
+
+			while (true) {
+				try {
+					Record first = pending.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+					if (first != null) {
+						batch.add(first);
+						pending.drainTo(batch);
+					}
+				} catch (InterruptedException e) {
+					if (!closed)
+						continue;
+				}
+
+				// Once closed, write out what's left, then stop. Records
+				// may have been queued while the last batch was written.
+				if (closed)
+					pending.drainTo(batch);
+
+				boolean done = closed && pending.isEmpty();
+
+				try {
+					if (!batch.isEmpty())
+						append(batch);
+
+					if (done || (journal.position() > 0
+							&& System.currentTimeMillis() - lastCompaction > COMPACT_INTERVAL_MILLIS)) {
+						compact();
+					}
+				} catch (IOException e) {
+					failures.incrementAndGet();
+					log.error("Failed to write the client journal", e);
+				} catch (RuntimeException e) {
+					failures.incrementAndGet();
+					log.error("Failed to write the client journal", e);
+				}
+
+				batch.clear();
+
+				if (done) {
+					try {
+						journalRaf.close();
+					} catch (IOException e) {
+						// skip
+					}
+					return;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A change to a client
+	 */
+	private static class Record {
+		final byte type;
+		final MACAddress clientHwAddress;
+		InetAddress addr;
+		InetAddress addr2;
+		MACAddress bssid;
+		List<String> ssids;
+		String pool;
+
+		Record(byte type, MACAddress clientHwAddress) {
+			this.type = type;
+			this.clientHwAddress = clientHwAddress;
+		}
+
+		static List<Record> fromEntry(Entry entry) {
+			Record client = new Record(CLIENT, entry.clientHwAddress);
+			client.addr = entry.ipAddress;
+			client.bssid = entry.bssid;
+			client.ssids = entry.ssids;
+			client.addr2 = entry.agentAddress;
+
+			if (entry.pool == null)
+				return Collections.singletonList(client);
+
+			Record pool = new Record(POOL, entry.clientHwAddress);
+			pool.pool = entry.pool;
+
+			List<Record> records = new ArrayList<Record>(2);
+			records.add(client);
+			records.add(pool);
+			return records;
+		}
+
+		byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(type);
+			out.writeLong(clientHwAddress.toLong());
+
+			switch (type) {
+			case CLIENT:
+				writeAddr(out, addr);
+				out.writeLong(bssid.toLong());
+				out.writeShort(ssids.size());
+				for (String ssid: ssids) {
+					out.writeUTF(ssid);
+				}
+				writeAddr(out, addr2);
+				break;
+			case IP:
+			case AGENT:
+				writeAddr(out, addr);
+				break;
+			case POOL:
+				out.writeBoolean(pool != null);
+				if (pool != null)
+					out.writeUTF(pool);
+				break;
+			}
+
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		static Record decode(DataInputStream in) throws IOException {
+			byte type = in.readByte();
+			Record record = new Record(type, MACAddress.valueOf(in.readLong()));
+
+			switch (type) {
+			case CLIENT:
+				record.addr = readAddr(in);
+				record.bssid = MACAddress.valueOf(in.readLong());
+				int numSsids = in.readUnsignedShort();
+				record.ssids = new ArrayList<String>(numSsids);
+				for (int i = 0; i < numSsids; i++) {
+					record.ssids.add(in.readUTF());
+				}
+				record.addr2 = readAddr(in);
+				break;
+			case IP:
+			case AGENT:
+				record.addr = readAddr(in);
+				break;
+			case POOL:
+				record.pool = in.readBoolean() ? in.readUTF() : null;
+				break;
+			case REMOVE:
+				break;
+			default:
+				throw new IOException("Unknown client journal record: " + type);
+			}
+
+			return record;
+		}
+
+		private static void writeAddr(DataOutputStream out, InetAddress addr) throws IOException {
+			if (addr == null) {
+				out.writeByte(0);
+				return;
+			}
+
+			byte[] raw = addr.getAddress();
+			out.writeByte(raw.length);
+			out.write(raw);
+		}
+
+		private static InetAddress readAddr(DataInputStream in) throws IOException {
+			int length = in.readUnsignedByte();
+
+			if (length == 0)
+				return null;
+
+			byte[] raw = new byte[length];
+			in.readFully(raw);
+			return InetAddress.getByAddress(raw);
+		}
+	}
+}
@@ -3,12 +3,26 @@ package net.floodlightcontroller.odin.master;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import net.floodlightcontroller.odin.master.OdinClient;
 import net.floodlightcontroller.util.MACAddress;
 
 class ClientManager {
+	private static final int NUM_CLIENT_LOCK_STRIPES = 256;
+	
 	private final Map<MACAddress, OdinClient> odinClientMap = new ConcurrentHashMap<MACAddress, OdinClient> ();
+	private final StripedLock clientLocks = new StripedLock(NUM_CLIENT_LOCK_STRIPES);
+	
+	// Bumped after each client is added or removed, see getClientSetVersion()
+	private final AtomicLong clientSetVersion = new AtomicLong();
+	
+	// Null unless client state is persisted
+	private volatile ClientJournal journal;
+	
+	// Null until the master is initialised
+	private volatile ChangeFeed changeFeed;
 
 	
 	/**
@@ -20,7 +34,7 @@ class ClientManager {
 	 * @param vapEssid Client specific VAP essid
 	 */
 	protected void addClient (final MACAddress clientHwAddress, final InetAddress ipv4Address, final Lvap lvap) {
-		odinClientMap.put(clientHwAddress, new OdinClient (clientHwAddress, ipv4Address, lvap));
+		addClient(new OdinClient (clientHwAddress, ipv4Address, lvap));
 	}
 	
 	
@@ -34,6 +48,15 @@ class ClientManager {
 	 */
 	protected void addClient (final OdinClient oc) {
 		odinClientMap.put(oc.getMacAddress(), oc);
+		clientSetVersion.incrementAndGet();
+		
+		ClientJournal j = journal;
+		if (j != null)
+			j.clientAdded(oc);
+		
+		ChangeFeed f = changeFeed;
+		if (f != null)
+			f.clientAdded(oc);
 	}
 	
 	
@@ -44,6 +67,55 @@ class ClientManager {
 	 */
 	protected void removeClient (final MACAddress clientHwAddress) {
 		odinClientMap.remove(clientHwAddress);
+		clientSetVersion.incrementAndGet();
+		
+		ClientJournal j = journal;
+		if (j != null)
+			j.clientRemoved(clientHwAddress);
+		
+		ChangeFeed f = changeFeed;
+		if (f != null)
+			f.clientRemoved(clientHwAddress);
+	}
+	
+	
+	/**
+	 * Place a client's LVAP on an agent, or on none.
+	 * Called with the client's lock held.
+	 * 
+	 * @param oc the client
+	 * @param agent the agent now hosting the LVAP, or null
+	 */
+	protected void setClientAgent (final OdinClient oc, final IOdinAgent agent) {
+		oc.getLvap().setAgent(agent);
+		
+		ClientJournal j = journal;
+		if (j != null)
+			j.agentChanged(oc.getMacAddress(), agent);
+		
+		ChangeFeed f = changeFeed;
+		if (f != null)
+			f.agentChanged(oc.getMacAddress(), agent);
+	}
+	
+	
+	/**
+	 * Update a client's IP address. Called with
+	 * the client's lock held.
+	 * 
+	 * @param oc the client
+	 * @param ipv4Address
+	 */
+	protected void setClientIpAddress (final OdinClient oc, final InetAddress ipv4Address) {
+		oc.setIpAddress(ipv4Address);
+		
+		ClientJournal j = journal;
+		if (j != null)
+			j.ipChanged(oc.getMacAddress(), ipv4Address);
+		
+		ChangeFeed f = changeFeed;
+		if (f != null)
+			f.ipChanged(oc.getMacAddress(), ipv4Address);
 	}
 	
 	
@@ -62,4 +134,50 @@ class ClientManager {
 	protected Map<MACAddress, OdinClient> getClients () {
 		return odinClientMap;
 	}
+	
+	
+	/**
+	 * Get the version of the client set. It changes after every
+	 * client added or removed, including a client replaced by a
+	 * new one with the same hw address, so a copy of the clients
+	 * taken after reading the version is current until it changes.
+	 * 
+	 * @return the version
+	 */
+	protected long getClientSetVersion () {
+		return clientSetVersion.get();
+	}
+	
+	
+	/**
+	 * Get the lock that guards changes to a client's state
+	 * (its LVAP's agent, IP address and flows). See OdinMaster
+	 * for the order in which locks are taken.
+	 * 
+	 * @param clientHwAddress
+	 * @return the client's lock stripe
+	 */
+	protected Lock getClientLock (final MACAddress clientHwAddress) {
+		return clientLocks.get(clientHwAddress);
+	}
+	
+	
+	/**
+	 * Persist changes to clients from now on
+	 * 
+	 * @param journal
+	 */
+	protected void setJournal (final ClientJournal journal) {
+		this.journal = journal;
+	}
+	
+	
+	/**
+	 * Log changes to clients to a feed from now on
+	 * 
+	 * @param changeFeed
+	 */
+	protected void setChangeFeed (final ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
 }
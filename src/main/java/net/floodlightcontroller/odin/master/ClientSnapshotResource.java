@@ -0,0 +1,41 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * A page of at most ?limit clients, starting after the client
+ * with hw address ?after
+ */
+public class ClientSnapshotResource extends ServerResource {
+
+	@Get("json")
+    public Map<String, Object> retreive() {
+    	OdinMaster oc = (OdinMaster) getContext().getAttributes().
+        					get(OdinMaster.class.getCanonicalName());
+    	
+    	Form form = getQuery();
+    	String afterStr = form.getFirstValue("after", true);
+    	MACAddress after = null;
+    	int limit;
+    	
+    	try {
+    		if (afterStr != null && !afterStr.isEmpty()) {
+    			after = MACAddress.valueOf(afterStr);
+    		}
+    		
+    		limit = Integer.parseInt(form.getFirstValue("limit", true, String.valueOf(ChangeFeed.DEFAULT_PAGE_SIZE)));
+    	} catch (IllegalArgumentException e) {
+    		setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "after must be a hw address, and limit a number");
+    		return null;
+    	}
+    	
+    	return oc.getClientSnapshot(after, Math.max(limit, 1));
+    }
+}
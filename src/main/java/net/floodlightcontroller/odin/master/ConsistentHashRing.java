@@ -0,0 +1,144 @@
+package net.floodlightcontroller.odin.master;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Maps keys to nodes by consistent hashing. Each node is placed
+ * at a number of points on a 64-bit ring, and a key belongs to the
+ * node at the first point at or after the key's hash. When a node
+ * joins or leaves, only the keys between its points and their
+ * predecessors change hands, about 1/n of them.
+ *
+ * Rings are immutable, so a lookup needs no locking; a change of
+ * membership builds a new ring.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ConsistentHashRing {
+	static final int DEFAULT_POINTS_PER_NODE = 128;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final List<String> nodes;
+	private final long[] points;
+	private final String[] owners;
+
+
+	/**
+	 * @param nodes ids of the nodes, at least one
+	 * @param pointsPerNode points each node is placed at
+	 */
+	ConsistentHashRing(Collection<String> nodes, int pointsPerNode) {
+		assert (!nodes.isEmpty() && pointsPerNode > 0);
+
+		this.nodes = Collections.unmodifiableList(new ArrayList<String>(new TreeSet<String>(nodes)));
+
+		int size = this.nodes.size() * pointsPerNode;
+		long[] unsorted = new long[size];
+		int i = 0;
+
+		for (String node: this.nodes) {
+			for (int p = 0; p < pointsPerNode; p++) {
+				unsorted[i++] = pointOf(node, p);
+			}
+		}
+
+		// Sort the points along with their owners
+		Integer[] order = new Integer[size];
+		for (i = 0; i < size; i++) {
+			order[i] = i;
+		}
+
+		final long[] keys = unsorted;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long x = keys[a];
+				long y = keys[b];
+				return (x < y) ? -1 : ((x == y) ? a.compareTo(b) : 1);
+			}
+		});
+
+		points = new long[size];
+		owners = new String[size];
+
+		for (i = 0; i < size; i++) {
+			points[i] = unsorted[order[i]];
+			owners[i] = this.nodes.get(order[i] / pointsPerNode);
+		}
+	}
+
+
+	/**
+	 * @return ids of the nodes on the ring, sorted
+	 */
+	List<String> getNodes() {
+		return nodes;
+	}
+
+
+	/**
+	 * @param key
+	 * @return id of the node that owns the key
+	 */
+	String getOwner(long key) {
+		int i = Arrays.binarySearch(points, hash(key));
+
+		if (i < 0)
+			i = -i - 1;
+
+		return owners[(i == points.length) ? 0 : i];
+	}
+
+
+	/**
+	 * Spread a key over the ring. Keys such as MAC and IP
+	 * addresses are dense in their low bits, so they are
+	 * mixed first (the 64-bit finaliser of MurmurHash3).
+	 */
+	static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+
+		return key;
+	}
+
+
+	/**
+	 * @return where a node's p-th point is, the first 8 bytes
+	 *         of the MD5 of "<node>#<p>". Every master computes
+	 *         the same ring from the same member list.
+	 */
+	private static long pointOf(String node, int p) {
+		MessageDigest md5;
+
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has MD5
+			throw new IllegalStateException(e);
+		}
+
+		byte[] digest = md5.digest((node + "#" + p).getBytes(UTF8));
+		long point = 0;
+
+		for (int i = 0; i < 8; i++) {
+			point = (point << 8) | (digest[i] & 0xff);
+		}
+
+		return point;
+	}
+}
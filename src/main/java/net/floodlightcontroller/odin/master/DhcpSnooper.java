@@ -0,0 +1,120 @@
+package net.floodlightcontroller.odin.master;
+
+/**
+ * Picks DHCP replies out of raw packet-in frames, reading only
+ * the few fields the master needs at their fixed offsets rather
+ * than decoding every frame into a packet tree. Anything that
+ * isn't an IPv4 UDP datagram to the DHCP client port, carrying
+ * a BOOTP header with an Ethernet client address, is skipped.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class DhcpSnooper {
+	private static final int ETH_HEADER_LEN = 14;
+	private static final int VLAN_TAG_LEN = 4;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int IP_PROTO_UDP = 17;
+	private static final int UDP_HEADER_LEN = 8;
+	private static final int DHCP_CLIENT_PORT = 68;
+
+	// BOOTP header
+	private static final int BOOTP_OP = 0;
+	private static final int BOOTP_HTYPE = 1;
+	private static final int BOOTP_HLEN = 2;
+	private static final int BOOTP_YIADDR = 16;
+	private static final int BOOTP_CHADDR = 28;
+	private static final int BOOTP_REPLY = 2;
+	private static final int HTYPE_ETHERNET = 1;
+	private static final int MAC_LEN = 6;
+
+
+	private DhcpSnooper() {
+	}
+
+
+	/**
+	 * Find the DHCP reply in a frame
+	 *
+	 * @param data the frame, as sent in the packet-in
+	 * @return offset of the BOOTP header, or -1 if the
+	 *         frame isn't a DHCP reply to a client
+	 */
+	static int findReply(byte[] data) {
+		if (data == null || data.length < ETH_HEADER_LEN)
+			return -1;
+
+		int l3 = ETH_HEADER_LEN;
+		int etherType = getShort(data, l3 - 2);
+
+		if (etherType == ETHERTYPE_VLAN) {
+			l3 += VLAN_TAG_LEN;
+
+			if (data.length < l3)
+				return -1;
+
+			etherType = getShort(data, l3 - 2);
+		}
+
+		if (etherType != ETHERTYPE_IPV4 || data.length < l3 + 20)
+			return -1;
+
+		// Later fragments of a datagram carry no UDP header
+		int versionIhl = data[l3] & 0xff;
+		int ihl = (versionIhl & 0x0f) * 4;
+
+		if ((versionIhl >> 4) != 4 || ihl < 20
+			|| (data[l3 + 9] & 0xff) != IP_PROTO_UDP
+			|| (getShort(data, l3 + 6) & 0x1fff) != 0)
+			return -1;
+
+		int l4 = l3 + ihl;
+		int bootp = l4 + UDP_HEADER_LEN;
+
+		if (data.length < bootp + BOOTP_CHADDR + MAC_LEN
+			|| getShort(data, l4 + 2) != DHCP_CLIENT_PORT)
+			return -1;
+
+		if (data[bootp + BOOTP_OP] != BOOTP_REPLY
+			|| data[bootp + BOOTP_HTYPE] != HTYPE_ETHERNET
+			|| data[bootp + BOOTP_HLEN] != MAC_LEN)
+			return -1;
+
+		return bootp;
+	}
+
+
+	/**
+	 * @param data the frame
+	 * @param bootp offset from findReply()
+	 * @return the address offered to the client (yiaddr), 0 if none
+	 */
+	static int getYourIpAddress(byte[] data, int bootp) {
+		int i = bootp + BOOTP_YIADDR;
+
+		return ((data[i] & 0xff) << 24) | ((data[i + 1] & 0xff) << 16)
+				| ((data[i + 2] & 0xff) << 8) | (data[i + 3] & 0xff);
+	}
+
+
+	/**
+	 * @param data the frame
+	 * @param bootp offset from findReply()
+	 * @return the client's hw address (chaddr), as a long
+	 */
+	static long getClientHwAddress(byte[] data, int bootp) {
+		long addr = 0;
+
+		for (int i = bootp + BOOTP_CHADDR; i < bootp + BOOTP_CHADDR + MAC_LEN; i++) {
+			addr = (addr << 8) | (data[i] & 0xff);
+		}
+
+		return addr;
+	}
+
+
+	private static int getShort(byte[] data, int offset) {
+		return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+	}
+}
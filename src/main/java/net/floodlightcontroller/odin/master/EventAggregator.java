@@ -0,0 +1,286 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.odin.master.OdinEventSubscription.Aggregate;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Applies a subscription's aggregation operator to its events as
+ * they are published. Every operator keeps a small amount of state
+ * per client and agent, and updates it in constant time per event,
+ * except for BEST_AGENT, which re-ranks the agents hearing a client.
+ *
+ * An event only comes out if the aggregate has changed by at least
+ * the subscription's minChange since the last one delivered.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class EventAggregator {
+	// Forget clients that haven't published for this long
+	static final long IDLE_CLIENT_MILLIS = 60000;
+	private static final int PURGE_INTERVAL = 4096;
+
+	private final OdinEventSubscription oes;
+	private final ConcurrentMap<MACAddress, ClientState> clients = new ConcurrentHashMap<MACAddress, ClientState>();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong emitted = new AtomicLong();
+
+
+	EventAggregator(OdinEventSubscription oes) {
+		this.oes = oes;
+	}
+
+
+	/**
+	 * @param oes
+	 * @return an aggregator for the subscription, or null
+	 *         if its events are delivered as they are
+	 */
+	static EventAggregator forSubscription(OdinEventSubscription oes) {
+		return (oes.getAggregate() == Aggregate.NONE) ? null : new EventAggregator(oes);
+	}
+
+
+	/**
+	 * Feed an event through the operator
+	 *
+	 * @param cntx the published event
+	 * @param now the current time, in ms
+	 * @return the event to deliver, or null if there is none
+	 */
+	NotificationCallbackContext update(NotificationCallbackContext cntx, long now) {
+		if (received.incrementAndGet() % PURGE_INTERVAL == 0)
+			purge(now);
+
+		ClientState state = clients.get(cntx.clientHwAddress);
+
+		if (state == null) {
+			state = new ClientState();
+			ClientState existing = clients.putIfAbsent(cntx.clientHwAddress, state);
+
+			if (existing != null)
+				state = existing;
+		}
+
+		NotificationCallbackContext out;
+
+		synchronized (state) {
+			state.lastHeard = now;
+			out = (oes.getAggregate() == Aggregate.BEST_AGENT) ? rank(state, cntx, now) : aggregate(state, cntx, now);
+		}
+
+		if (out != null)
+			emitted.incrementAndGet();
+
+		return out;
+	}
+
+
+	long getReceived() {
+		return received.get();
+	}
+
+
+	long getEmitted() {
+		return emitted.get();
+	}
+
+
+	/**
+	 * Per-stream operators. Called with the client's state locked.
+	 */
+	private NotificationCallbackContext aggregate(ClientState state, NotificationCallbackContext cntx, long now) {
+		InetAddress agentAddr = cntx.agent.getIpAddress();
+		Stream stream = state.streams.get(agentAddr);
+
+		if (stream == null) {
+			stream = new Stream();
+			state.streams.put(agentAddr, stream);
+		}
+
+		double result;
+
+		switch (oes.getAggregate()) {
+		case EWMA:
+			stream.ewma = stream.hasEwma ? oes.getAlpha() * cntx.value + (1 - oes.getAlpha()) * stream.ewma : cntx.value;
+			stream.hasEwma = true;
+			result = stream.ewma;
+			break;
+
+		case RATE:
+			boolean first = stream.lastTime < 0;
+			double rate = first ? 0 : (cntx.value - stream.lastValue) * 1000.0 / Math.max(1, now - stream.lastTime);
+			stream.lastTime = now;
+			stream.lastValue = cntx.value;
+
+			if (first)
+				return null;
+
+			result = rate;
+			break;
+
+		default:
+			result = stream.window(cntx.value, now);
+		}
+
+		long value = Math.round(result);
+
+		if (stream.hasEmitted && oes.getMinChange() > 0
+				&& Math.abs(value - stream.lastEmitted) < oes.getMinChange()) {
+			return null;
+		}
+
+		stream.hasEmitted = true;
+		stream.lastEmitted = value;
+
+		return new NotificationCallbackContext(cntx.clientHwAddress, cntx.agent, value);
+	}
+
+
+	/**
+	 * BEST_AGENT. Called with the client's state locked.
+	 */
+	private NotificationCallbackContext rank(ClientState state, NotificationCallbackContext cntx, long now) {
+		InetAddress agentAddr = cntx.agent.getIpAddress();
+		Stream stream = state.streams.get(agentAddr);
+
+		if (stream == null) {
+			stream = new Stream();
+			state.streams.put(agentAddr, stream);
+		}
+
+		stream.agent = cntx.agent;
+		stream.lastTime = now;
+		stream.ewma = stream.hasEwma ? oes.getAlpha() * cntx.value + (1 - oes.getAlpha()) * stream.ewma : cntx.value;
+		stream.hasEwma = true;
+
+		List<Stream> ranking = new ArrayList<Stream>(state.streams.size());
+		Iterator<Stream> it = state.streams.values().iterator();
+
+		while (it.hasNext()) {
+			Stream candidate = it.next();
+
+			if (now - candidate.lastTime > oes.getWindowMillis())
+				it.remove();
+			else
+				ranking.add(candidate);
+		}
+
+		Collections.sort(ranking, BY_EWMA_DESCENDING);
+
+		List<IOdinAgent> top = new ArrayList<IOdinAgent>(oes.getTopK());
+		for (int i = 0; i < ranking.size() && i < oes.getTopK(); i++) {
+			top.add(ranking.get(i).agent);
+		}
+
+		if (top.equals(state.lastTop))
+			return null;
+
+		state.lastTop = top;
+		Stream best = ranking.get(0);
+
+		return new NotificationCallbackContext(cntx.clientHwAddress, best.agent, Math.round(best.ewma),
+												Collections.unmodifiableList(top));
+	}
+
+
+	private void purge(long now) {
+		Iterator<Map.Entry<MACAddress, ClientState>> it = clients.entrySet().iterator();
+
+		while (it.hasNext()) {
+			ClientState state = it.next().getValue();
+
+			synchronized (state) {
+				if (now - state.lastHeard > IDLE_CLIENT_MILLIS)
+					it.remove();
+			}
+		}
+	}
+
+
+	private static final Comparator<Stream> BY_EWMA_DESCENDING = new Comparator<Stream>() {
+		@Override
+		public int compare(Stream a, Stream b) {
+			return Double.compare(b.ewma, a.ewma);
+		}
+	};
+
+
+	private static class ClientState {
+		final Map<InetAddress, Stream> streams = new HashMap<InetAddress, Stream>();
+		List<IOdinAgent> lastTop = Collections.emptyList();
+		long lastHeard;
+	}
+
+
+	/**
+	 * A client's events from one agent
+	 */
+	private class Stream {
+		IOdinAgent agent;
+
+		// EWMA and BEST_AGENT
+		double ewma;
+		boolean hasEwma = false;
+
+		// RATE, and BEST_AGENT's last update
+		long lastTime = -1;
+		long lastValue;
+
+		// Windows. Min and max keep a monotonic deque of the
+		// samples that can still become the window's extreme.
+		final ArrayDeque<long[]> samples = new ArrayDeque<long[]>(); // seq, time, value
+		final ArrayDeque<long[]> extremes = new ArrayDeque<long[]>(); // seq, value
+		long nextSeq = 0;
+		double sum = 0;
+
+		boolean hasEmitted = false;
+		long lastEmitted;
+
+		double window(long value, long now) {
+			long seq = nextSeq++;
+			samples.addLast(new long[] {seq, now, value});
+			sum += value;
+
+			if (oes.getAggregate() != Aggregate.WINDOW_MEAN) {
+				boolean max = oes.getAggregate() == Aggregate.WINDOW_MAX;
+
+				while (!extremes.isEmpty()
+						&& (max ? extremes.peekLast()[1] <= value : extremes.peekLast()[1] >= value)) {
+					extremes.pollLast();
+				}
+
+				extremes.addLast(new long[] {seq, value});
+			}
+
+			// Slide the window
+			while ((oes.getWindowSamples() > 0 && samples.size() > oes.getWindowSamples())
+					|| (oes.getWindowMillis() > 0 && now - samples.peekFirst()[1] >= oes.getWindowMillis()
+						&& samples.size() > 1)) {
+				long[] oldest = samples.pollFirst();
+				sum -= oldest[2];
+
+				if (!extremes.isEmpty() && extremes.peekFirst()[0] == oldest[0])
+					extremes.pollFirst();
+			}
+
+			if (oes.getAggregate() == Aggregate.WINDOW_MEAN)
+				return sum / samples.size();
+
+			return extremes.peekFirst()[1];
+		}
+	}
+}
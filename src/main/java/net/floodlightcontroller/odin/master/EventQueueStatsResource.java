@@ -0,0 +1,18 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.List;
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+public class EventQueueStatsResource extends ServerResource {
+
+	@Get("json")
+    public List<Map<String, Object>> retreive() {
+    	OdinMaster oc = (OdinMaster) getContext().getAttributes().
+        					get(OdinMaster.class.getCanonicalName());
+    	
+    	return oc.getEventQueueStats();
+    }
+}
@@ -4,6 +4,7 @@ package net.floodlightcontroller.odin.master;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
@@ -28,6 +29,15 @@ public interface IOdinAgent {
 	public Set<OdinClient> getLvapsRemote ();
 	
 	
+	/**
+	 * Get a list of VAPs that the agent is hosting without
+	 * blocking the caller.
+	 * 
+	 * @return a future for the OdinClient entities on the agent
+	 */
+	public Future<Set<OdinClient>> getLvapsRemoteAsync ();
+	
+	
 	/**
 	 * Return a list of LVAPs that the master knows this
 	 * agent is hosting. Between the time an agent has
@@ -48,6 +58,55 @@ public interface IOdinAgent {
 	public Map<MACAddress, Map<String, String>> getRxStats ();
 	
 	
+	/**
+	 * Retrive Rx-stats from the OdinAgent without blocking
+	 * the caller.
+	 * 
+	 *  @return A future for the map of stations' MAC addresses
+	 *  to a map of properties and values.
+	 */
+	public Future<Map<MACAddress, Map<String, String>>> getRxStatsAsync ();
+	
+	
+	/**
+	 * Retrieve Rx-stats from the OdinAgent into a typed table.
+	 * Pass in the table returned by the previous poll to avoid
+	 * allocating a new one. If the agent could not be queried,
+	 * a late reply may still fill the table passed in, so a new
+	 * empty table is returned and the old one must not be used
+	 * again.
+	 * 
+	 * @param table table to fill, or null to allocate one
+	 * @return the filled table, or a new empty one if the agent
+	 *         could not be queried
+	 */
+	public OdinRxStatsTable getRxStatsTable (OdinRxStatsTable table);
+	
+	
+	/**
+	 * Retrieve Rx-stats from the OdinAgent into a typed table
+	 * without blocking the caller. The table is filled in when
+	 * the agent responds, and must not be touched until the
+	 * future is done.
+	 * 
+	 * @param table table to fill, or null to allocate one
+	 * @return a future for the filled table
+	 */
+	public Future<OdinRxStatsTable> getRxStatsTableAsync (OdinRxStatsTable table);
+	
+	
+	/**
+	 * Retrieve the results of the agent's last spectral scan
+	 * without blocking the caller. The scan is filled in when
+	 * the agent responds, and must not be touched until the
+	 * future is done.
+	 * 
+	 * @param scan scan to fill, or null to allocate one
+	 * @return a future for the filled scan
+	 */
+	public Future<OdinSpectralScan> getSpectralScanAsync (OdinSpectralScan scan);
+	
+	
 	/**
 	 * To be called only once, intialises a connection to the OdinAgent's
 	 * control socket. We let the connection persist so as to save on
@@ -83,6 +142,17 @@ public interface IOdinAgent {
 	 */
 	public void removeClientLvap (OdinClient oc);
 	
+	
+	/**
+	 * Remove an LVAP from the AP corresponding to this agent. The
+	 * returned future completes once the agent has acknowledged
+	 * the removal.
+	 * 
+	 * @param oc the client whose LVAP is to be removed
+	 * @return a future for the agent's response code
+	 */
+	public Future<Integer> removeClientLvapAsync (OdinClient oc);
+	
 		
 	/**
 	 * Add an LVAP to the AP corresponding to this agent
@@ -95,6 +165,17 @@ public interface IOdinAgent {
 	public void addClientLvap (OdinClient oc);
 	
 	
+	/**
+	 * Add an LVAP to the AP corresponding to this agent. The
+	 * returned future completes once the agent has acknowledged
+	 * the addition.
+	 * 
+	 * @param oc the client whose LVAP is to be added
+	 * @return a future for the agent's response code
+	 */
+	public Future<Integer> addClientLvapAsync (OdinClient oc);
+	
+	
 	/**
 	 * Update a virtual access point with possibly new IP, BSSID, or SSID
 	 * 
@@ -128,4 +209,11 @@ public interface IOdinAgent {
 	 * @param t timestamp to update lastHeard value
 	 */
 	public void setSubscriptions (String subscriptionList);
+	
+	
+	/**
+	 * Close the connection to the agent's control socket.
+	 * Outstanding requests are failed.
+	 */
+	public void close ();
 }
@@ -36,6 +36,56 @@ interface IOdinApplicationInterface {
 	
 	Map<MACAddress, Map<String, String>> getRxStatsFromAgent (String pool, InetAddress agentAddr);
 	
+	
+	/**
+	 * Retrieve Rx-stats from an agent into a typed table. Pass
+	 * in the table returned by the previous poll to avoid
+	 * allocating a new one.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 * @param table table to fill, or null to allocate one
+	 * @return the filled table, or a new empty one if the agent
+	 *         could not be queried
+	 */
+	OdinRxStatsTable getRxStatsTableFromAgent (String pool, InetAddress agentAddr, OdinRxStatsTable table);
+	
+	
+	/**
+	 * Retrieve Rx-stats from all agents in the pool concurrently.
+	 * Agents that don't answer within the deadline are left out
+	 * of the result and reported as missing.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for each agent, counted from the start of the sweep
+	 * @param previous the caller's previous sweep, whose tables are reused, or null
+	 * @return the stats and latency of each agent that answered in time
+	 */
+	OdinRxStatsSweep getRxStatsFromAgents (String pool, long timeoutMs, OdinRxStatsSweep previous);
+	
+	/**
+	 * Get the recent spectral scans of a channel around an agent.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 * @param channel the channel
+	 * @param windowMs how far back to go
+	 * @return the agent's scans of the channel, oldest first, or null
+	 *         if the agent isn't in the pool or hasn't scanned the channel
+	 */
+	OdinChannelOccupancy getChannelOccupancy (String pool, InetAddress agentAddr, int channel, long windowMs);
+	
+	/**
+	 * Rate the channels by how busy the agents of the pool have
+	 * found them in their recent spectral scans.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param windowMs how far back to go
+	 * @return for each channel scanned, the mean share of busy
+	 *         samples across the pool's agents, from 0 to 1
+	 */
+	Map<Integer, Double> getInterferenceIndex (String pool, long windowMs);
+	
 	/**
 	 * Get a list of Odin agents from the agent tracker
 	 * @return a map of OdinAgent objects keyed by Ipv4 addresses
@@ -43,6 +93,17 @@ interface IOdinApplicationInterface {
 	Set<InetAddress> getAgentAddrs (String pool);
 	
 	
+	/**
+	 * Get the agents that have recently heard probes from a client,
+	 * including probes that were dropped as duplicates.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param clientHwAddress MAC address of the client
+	 * @return addresses of the agents in the pool that heard the client
+	 */
+	Set<InetAddress> getAgentsHearingClient (String pool, MACAddress clientHwAddress);
+	
+	
 	/**
 	 * Add a subscription for a particular event defined by oes. cb is
 	 * defines the application specified callback to be invoked during
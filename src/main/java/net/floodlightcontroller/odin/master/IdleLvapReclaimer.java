@@ -0,0 +1,183 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Keeps track of when each unconnected client's LVAP is due
+ * to be reclaimed, on a hashed timing wheel. Arming, re-arming
+ * and cancelling a client's timer is O(1), and all the timers
+ * that are due are handed out together on each tick.
+ *
+ * The wheel doesn't keep time itself: advance() moves it one
+ * tick forward, and is expected to be called once a tick.
+ * Timers are accurate to a tick.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class IdleLvapReclaimer {
+	static final long TICK_MILLIS = 1000;
+	static final int WHEEL_SIZE = 512; // Must be a power of two
+
+	private final Timer[] wheel = new Timer[WHEEL_SIZE];
+	private final Map<MACAddress, Timer> timers = new HashMap<MACAddress, Timer>();
+	private long tick = 0;
+
+	private final AtomicLong armed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong reclaimed = new AtomicLong();
+
+
+	IdleLvapReclaimer() {
+		// Each slot is a circular list, headed by a sentinel
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new Timer(null);
+			wheel[i].prev = wheel[i];
+			wheel[i].next = wheel[i];
+		}
+	}
+
+
+	/**
+	 * Arm a client's timer, or push it back if it is
+	 * already armed
+	 *
+	 * @param clientHwAddr the client
+	 * @param ticks number of ticks from now, at least 1
+	 */
+	synchronized void arm(MACAddress clientHwAddr, long ticks) {
+		if (ticks < 1)
+			ticks = 1;
+
+		Timer timer = timers.get(clientHwAddr);
+
+		if (timer == null) {
+			timer = new Timer(clientHwAddr);
+			timers.put(clientHwAddr, timer);
+		}
+		else {
+			timer.unlink();
+		}
+
+		// The slot comes round once every WHEEL_SIZE ticks
+		timer.rounds = (ticks - 1) / WHEEL_SIZE;
+		timer.linkBefore(wheel[(int) ((tick + ticks) & (WHEEL_SIZE - 1))]);
+		armed.incrementAndGet();
+	}
+
+
+	/**
+	 * Cancel a client's timer
+	 *
+	 * @param clientHwAddr the client
+	 * @return true if the timer was armed
+	 */
+	synchronized boolean cancel(MACAddress clientHwAddr) {
+		Timer timer = timers.remove(clientHwAddr);
+
+		if (timer == null)
+			return false;
+
+		timer.unlink();
+		cancelled.incrementAndGet();
+		return true;
+	}
+
+
+	synchronized boolean isArmed(MACAddress clientHwAddr) {
+		return timers.containsKey(clientHwAddr);
+	}
+
+
+	synchronized int size() {
+		return timers.size();
+	}
+
+
+	/**
+	 * Move the wheel one tick forward
+	 *
+	 * @return the clients whose timers expired on this tick
+	 */
+	synchronized List<MACAddress> advance() {
+		tick++;
+
+		Timer head = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+		List<MACAddress> due = new ArrayList<MACAddress>();
+		Timer timer = head.next;
+
+		while (timer != head) {
+			Timer next = timer.next;
+
+			if (timer.rounds > 0) {
+				timer.rounds--;
+			}
+			else {
+				timer.unlink();
+				timers.remove(timer.clientHwAddr);
+				due.add(timer.clientHwAddr);
+			}
+
+			timer = next;
+		}
+
+		expired.addAndGet(due.size());
+		return due;
+	}
+
+
+	/**
+	 * Count a client whose LVAP was reclaimed after its timer expired
+	 */
+	void reclaimed() {
+		reclaimed.incrementAndGet();
+	}
+
+
+	/**
+	 * @return counters, for the REST API
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("pending", size());
+		stats.put("armed", armed.get());
+		stats.put("cancelled", cancelled.get());
+		stats.put("expired", expired.get());
+		stats.put("reclaimed", reclaimed.get());
+
+		return stats;
+	}
+
+
+	private static class Timer {
+		final MACAddress clientHwAddr;
+		long rounds;
+		Timer prev;
+		Timer next;
+
+		Timer(MACAddress clientHwAddr) {
+			this.clientHwAddr = clientHwAddr;
+		}
+
+		void linkBefore(Timer head) {
+			prev = head.prev;
+			next = head;
+			head.prev.next = this;
+			head.prev = this;
+		}
+
+		void unlink() {
+			prev.next = next;
+			next.prev = prev;
+			prev = null;
+			next = null;
+		}
+	}
+}
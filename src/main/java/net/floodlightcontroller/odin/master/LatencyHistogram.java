@@ -0,0 +1,113 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds. Bucket i
+ * counts samples below 2^i us, so percentiles are reported as
+ * the upper bound of the bucket they fall in.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class LatencyHistogram {
+	// 2^31 us is about 35 minutes
+	private static final int NUM_BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	void record(long micros) {
+		if (micros < 0)
+			micros = 0;
+
+		buckets.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros));
+	}
+
+
+	long getCount() {
+		return count.get();
+	}
+
+
+	long getMeanMicros() {
+		long n = count.get();
+
+		return (n == 0) ? 0 : sum.get() / n;
+	}
+
+
+	long getMaxMicros() {
+		return max.get();
+	}
+
+
+	/**
+	 * @param fraction between 0 and 1, e.g. 0.99
+	 * @return upper bound of the bucket that holds the percentile,
+	 *         or 0 if there are no samples
+	 */
+	long getPercentileMicros(double fraction) {
+		long n = count.get();
+
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+
+			if (seen >= rank)
+				return Math.min(1L << i, max.get());
+		}
+
+		return max.get();
+	}
+
+
+	/**
+	 * @return a summary of the histogram, for the REST API
+	 */
+	Map<String, Object> toMap() {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			long n = buckets.get(i);
+
+			if (n > 0)
+				counts.put("<" + (1L << i) + "us", n);
+		}
+
+		ret.put("count", getCount());
+		ret.put("meanMicros", getMeanMicros());
+		ret.put("p50Micros", getPercentileMicros(0.5));
+		ret.put("p90Micros", getPercentileMicros(0.9));
+		ret.put("p99Micros", getPercentileMicros(0.99));
+		ret.put("maxMicros", getMaxMicros());
+		ret.put("buckets", counts);
+
+		return ret;
+	}
+
+
+	private static int bucket(long micros) {
+		// Smallest i such that micros < 2^i
+		int i = 64 - Long.numberOfLeadingZeros(micros);
+
+		return Math.min(i, NUM_BUCKETS - 1);
+	}
+}
@@ -17,8 +17,8 @@ import org.openflow.protocol.OFMessage;
 public class Lvap {
 	private final MACAddress lvapBssid;
 	private final List<String> lvapSsids;
-	private IOdinAgent odinAgent;
-	private List<OFMessage> msgList = new ArrayList<OFMessage>();
+	private volatile IOdinAgent odinAgent;
+	private volatile List<OFMessage> msgList = new ArrayList<OFMessage>();
 	
 	Lvap(MACAddress bssid, List<String> ssidList) {
 		lvapBssid = bssid;
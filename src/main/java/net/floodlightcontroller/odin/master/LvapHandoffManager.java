@@ -0,0 +1,441 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import org.openflow.protocol.OFBarrierRequest;
+import org.openflow.protocol.OFMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Moves LVAPs between agents, make-before-break:
+ *
+ *  1. stage: the LVAP is added to the new agent, and we wait
+ *     for the agent to acknowledge it
+ *  2. switch: the master points the client at the new agent,
+ *     and installs the client's flows on the new agent's switch,
+ *     followed by a barrier
+ *  3. remove: once the switch has answered the barrier, the
+ *     LVAP is removed from the old agent
+ *
+ * Phases run on the executor and re-check the client under its lock,
+ * so a handoff that is overtaken by another handoff or by an agent
+ * failure backs off instead of undoing it. A handoff that can't
+ * stage the LVAP in time, or whose agent refuses it, is aborted,
+ * and the client stays where it was. A switch that doesn't answer the barrier in time only delays
+ * the removal by the barrier timeout.
+ *
+ * The duration of each phase is recorded in a histogram.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class LvapHandoffManager {
+	protected static Logger log = LoggerFactory.getLogger(LvapHandoffManager.class);
+
+	static final long STAGE_TIMEOUT_MILLIS = 1000;
+	static final long BARRIER_TIMEOUT_MILLIS = 50;
+	private static final int CLICK_CODE_OK = 200;
+
+	private enum State { STAGING, SWITCHING, REMOVING, DONE, ABORTED }
+
+	private final ClientManager clientManager;
+	private final Lock configReadLock;
+	private final ScheduledExecutorService executor;
+
+	private final ConcurrentMap<BarrierKey, Handoff> pendingBarriers = new ConcurrentHashMap<BarrierKey, Handoff>();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong aborted = new AtomicLong();
+	private final AtomicLong barrierTimeouts = new AtomicLong();
+	private final LatencyHistogram stageLatency = new LatencyHistogram();
+	private final LatencyHistogram switchLatency = new LatencyHistogram();
+	private final LatencyHistogram removeLatency = new LatencyHistogram();
+	private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+
+	/**
+	 * @param clientManager
+	 * @param configReadLock OdinMaster's config lock, read side
+	 * @param executor runs the phases, and their timeouts
+	 */
+	LvapHandoffManager(ClientManager clientManager, Lock configReadLock, ScheduledExecutorService executor) {
+		this.clientManager = clientManager;
+		this.configReadLock = configReadLock;
+		this.executor = executor;
+	}
+
+
+	/**
+	 * Start handing off a client's LVAP. The caller must hold the
+	 * config read lock and the client's lock, and have checked that
+	 * the handoff is allowed. The client is pointed at the new agent
+	 * once the agent has acknowledged the LVAP, which may happen
+	 * before this call returns.
+	 *
+	 * @param client the client, as tracked by the ClientManager
+	 * @param from the agent currently hosting the LVAP
+	 * @param to the agent to move the LVAP to
+	 */
+	void handoff(OdinClient client, IOdinAgent from, IOdinAgent to) {
+		inFlight.incrementAndGet();
+		new Handoff(client, from, to).stage();
+	}
+
+
+	/**
+	 * Called when a switch answers a barrier request
+	 *
+	 * @param sw the switch
+	 * @param xid the barrier's transaction id
+	 */
+	void barrierReplied(IOFSwitch sw, int xid) {
+		final Handoff handoff = pendingBarriers.remove(new BarrierKey(sw.getId(), xid));
+
+		if (handoff != null) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					handoff.switched(false);
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * @return counters and per-phase latencies, for the REST API
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("inFlight", inFlight.get());
+		stats.put("completed", completed.get());
+		stats.put("aborted", aborted.get());
+		stats.put("barrierTimeouts", barrierTimeouts.get());
+		stats.put("stage", stageLatency.toMap());
+		stats.put("switch", switchLatency.toMap());
+		stats.put("remove", removeLatency.toMap());
+		stats.put("total", totalLatency.toMap());
+
+		return stats;
+	}
+
+
+	/**
+	 * Run task once future is done, on the executor
+	 */
+	private void whenDone(final Future<?> future, final Runnable task) {
+		Runnable dispatch = new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(task);
+			}
+		};
+
+		if (future instanceof OdinAgentFuture) {
+			((OdinAgentFuture<?>) future).addListener(dispatch);
+		}
+		else {
+			// Wait for it on the executor
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.get();
+					} catch (Exception e) {
+						// Looked at by the task
+					}
+					task.run();
+				}
+			});
+		}
+	}
+
+
+	private static long elapsedMicros(long fromNanos, long toNanos) {
+		return TimeUnit.NANOSECONDS.toMicros(toNanos - fromNanos);
+	}
+
+
+	private class Handoff {
+		private final MACAddress clientHwAddr;
+		private final OdinClient client;
+		private final IOdinAgent from;
+		private final IOdinAgent to;
+		private final AtomicReference<State> state = new AtomicReference<State>(State.STAGING);
+
+		private volatile long startNanos;
+		private volatile long stagedNanos;
+		private volatile long switchedNanos;
+		private volatile ScheduledFuture<?> timeout;
+		private volatile BarrierKey barrier;
+
+		Handoff(OdinClient client, IOdinAgent from, IOdinAgent to) {
+			this.clientHwAddr = client.getMacAddress();
+			this.client = client;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Phase 1: add the LVAP to the new agent
+		 */
+		void stage() {
+			startNanos = System.nanoTime();
+			final Future<Integer> ack = to.addClientLvapAsync(client);
+
+			timeout = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (state.compareAndSet(State.STAGING, State.ABORTED)) {
+						ack.cancel(false);
+						log.warn("Handoff of " + clientHwAddr + " to " + to.getIpAddress()
+								+ " aborted: no acknowledgement in " + STAGE_TIMEOUT_MILLIS + "ms");
+						abort();
+					}
+				}
+			}, STAGE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+			whenDone(ack, new Runnable() {
+				@Override
+				public void run() {
+					staged(ack);
+				}
+			});
+		}
+
+		/**
+		 * Phase 2: point the client at the new agent, and
+		 * move its flows over
+		 */
+		void staged(Future<Integer> ack) {
+			if (!state.compareAndSet(State.STAGING, State.SWITCHING))
+				return;
+
+			stagedNanos = System.nanoTime();
+			timeout.cancel(false);
+
+			String failure = null;
+
+			try {
+				// Click answers a failed write too, with an error code
+				Integer code = ack.get();
+
+				if (code == null || code != CLICK_CODE_OK)
+					failure = "Click replied " + code;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = "interrupted";
+			} catch (ExecutionException e) {
+				failure = String.valueOf(e.getCause());
+			}
+
+			if (failure != null) {
+				log.warn("Handoff of " + clientHwAddr + " aborted: agent " + to.getIpAddress()
+						+ " could not add the LVAP: " + failure);
+				state.set(State.ABORTED);
+				abort();
+				return;
+			}
+
+			Lock clientLock = clientManager.getClientLock(clientHwAddr);
+			configReadLock.lock();
+			clientLock.lock();
+
+			try {
+				Lvap lvap = currentLvap();
+
+				// Overtaken by another handoff or an agent failure
+				if (lvap == null || lvap.getAgent() != from) {
+					state.set(State.ABORTED);
+
+					if (lvap == null || lvap.getAgent() != to)
+						to.removeClientLvapAsync(client);
+
+					finish(false);
+					return;
+				}
+
+				IOFSwitch sw = to.getSwitch();
+
+				if (sw == null) {
+					log.error("Agent " + to.getIpAddress() + " has no switch to install flows for " + clientHwAddr);
+				}
+				else {
+					// The barrier is answered once the flows are in place
+					OFBarrierRequest barrierRequest = new OFBarrierRequest();
+					barrierRequest.setXid(sw.getNextTransactionId());
+					barrier = new BarrierKey(sw.getId(), barrierRequest.getXid());
+					pendingBarriers.put(barrier, this);
+
+					List<OFMessage> msgList = new ArrayList<OFMessage>(lvap.getOFMessageList());
+					msgList.add(barrierRequest);
+
+					try {
+						sw.write(msgList, null);
+					} catch (IOException e) {
+						log.error("Failed to update switch's flow tables " + sw);
+					}
+				}
+
+				clientManager.setClientAgent(clientManager.getClient(clientHwAddr), to);
+			} finally {
+				clientLock.unlock();
+				configReadLock.unlock();
+			}
+
+			if (barrier == null) {
+				switched(true);
+				return;
+			}
+
+			timeout = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					pendingBarriers.remove(barrier, Handoff.this);
+					switched(true);
+				}
+			}, BARRIER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Phase 3: remove the LVAP from the old agent
+		 */
+		void switched(boolean timedOut) {
+			if (!state.compareAndSet(State.SWITCHING, State.REMOVING))
+				return;
+
+			switchedNanos = System.nanoTime();
+
+			if (timeout != null)
+				timeout.cancel(false);
+
+			if (timedOut && barrier != null) {
+				barrierTimeouts.incrementAndGet();
+				log.debug("Switch " + to.getSwitch() + " did not answer the barrier for " + clientHwAddr);
+			}
+
+			Future<Integer> removed = null;
+			Lock clientLock = clientManager.getClientLock(clientHwAddr);
+			configReadLock.lock();
+			clientLock.lock();
+
+			try {
+				// The client may have been handed back to the old
+				// agent in the meantime, in which case it stays
+				Lvap lvap = currentLvap();
+
+				if (lvap == null || lvap.getAgent() != from) {
+					removed = from.removeClientLvapAsync(client);
+				}
+			} finally {
+				clientLock.unlock();
+				configReadLock.unlock();
+			}
+
+			if (removed == null) {
+				state.set(State.DONE);
+				finish(true);
+				return;
+			}
+
+			whenDone(removed, new Runnable() {
+				@Override
+				public void run() {
+					state.set(State.DONE);
+					finish(true);
+				}
+			});
+		}
+
+		/**
+		 * Undo the staging of an aborted handoff, unless
+		 * the client has ended up on the new agent anyway
+		 */
+		void abort() {
+			Lock clientLock = clientManager.getClientLock(clientHwAddr);
+			configReadLock.lock();
+			clientLock.lock();
+
+			try {
+				Lvap lvap = currentLvap();
+
+				if (lvap == null || lvap.getAgent() != to)
+					to.removeClientLvapAsync(client);
+			} finally {
+				clientLock.unlock();
+				configReadLock.unlock();
+			}
+
+			finish(false);
+		}
+
+		private Lvap currentLvap() {
+			OdinClient trackedClient = clientManager.getClient(clientHwAddr);
+
+			return (trackedClient == null) ? null : trackedClient.getLvap();
+		}
+
+		private void finish(boolean success) {
+			// Counted before it stops being in flight, so that
+			// a reader never sees it in neither
+			if (!success) {
+				aborted.incrementAndGet();
+			}
+			else {
+				long now = System.nanoTime();
+				completed.incrementAndGet();
+				stageLatency.record(elapsedMicros(startNanos, stagedNanos));
+				switchLatency.record(elapsedMicros(stagedNanos, switchedNanos));
+				removeLatency.record(elapsedMicros(switchedNanos, now));
+				totalLatency.record(elapsedMicros(startNanos, now));
+			}
+
+			inFlight.decrementAndGet();
+		}
+	}
+
+
+	private static class BarrierKey {
+		private final long switchId;
+		private final int xid;
+
+		BarrierKey(long switchId, int xid) {
+			this.switchId = switchId;
+			this.xid = xid;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BarrierKey))
+				return false;
+
+			BarrierKey that = (BarrierKey) obj;
+			return switchId == that.switchId && xid == that.xid;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (switchId ^ (switchId >>> 32)) * 31 + xid;
+		}
+	}
+}
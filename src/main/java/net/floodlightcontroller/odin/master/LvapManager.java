@@ -4,74 +4,52 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.openflow.protocol.OFFlowMod;
-import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
-import org.openflow.protocol.action.OFAction;
-import org.openflow.protocol.action.OFActionDataLayerDestination;
-import org.openflow.protocol.action.OFActionOutput;
-import org.openflow.util.U16;
 
-import net.floodlightcontroller.util.MACAddress;
+import net.floodlightcontroller.packet.IPv4;
 
 public class LvapManager {
-			
+	// Ports of the agent's switch
+	static final short DEFAULT_UPLINK_PORT = 1;
+	static final short DEFAULT_LVAP_PORT = 2;
+
+	private volatile OFFlowModTemplate fromClientTemplate;
+	private volatile OFFlowModTemplate toClientTemplate;
+
+
+	public LvapManager() {
+		setPorts(DEFAULT_UPLINK_PORT, DEFAULT_LVAP_PORT);
+	}
+
+
+	/**
+	 * Set the switch ports that the default flows forward
+	 * between. Flows handed out earlier aren't changed.
+	 *
+	 * @param uplinkPort port towards the wired network
+	 * @param lvapPort port towards the agent's LVAPs
+	 */
+	void setPorts(short uplinkPort, short lvapPort) {
+		fromClientTemplate = new OFFlowModTemplate(lvapPort, uplinkPort, true);
+		toClientTemplate = new OFFlowModTemplate(uplinkPort, lvapPort, false);
+	}
+
+
 	/**
 	 * Get the default flow table entries that Odin associates
 	 * with each LVAP
-	 * 
+	 *
 	 * @param inetAddr IP address to use for the flow
 	 * @return a list of flow mods
 	 */
 	public List<OFMessage> getDefaultOFModList(InetAddress inetAddr) {
-		OFFlowMod flow1 = new OFFlowMod();
-		{
-			OFMatch match = new OFMatch();
-			match.fromString("in_port=2,dl_type=0x0800,nw_src=" + inetAddr.getHostAddress());
-			
-			OFActionOutput actionOutput = new OFActionOutput ();
-			actionOutput.setPort((short) 1);
-			actionOutput.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			
-			List<OFAction> actionList = new ArrayList<OFAction>();
-			actionList.add(actionOutput);
-			
-		
-			flow1.setCookie(12345);
-			flow1.setPriority((short) 200); 
-			flow1.setMatch(match);
-			flow1.setIdleTimeout((short) 0);
-			flow1.setActions(actionList);
-	        flow1.setLength(U16.t(OFFlowMod.MINIMUM_LENGTH
-	        		+ OFActionOutput.MINIMUM_LENGTH));	
-		}
-		OFFlowMod flow2 = new OFFlowMod();
-		{
-			OFMatch match = new OFMatch();
-			match.fromString("in_port=1,dl_type=0x0800,nw_dst=" + inetAddr.getHostAddress());
-			
-			OFActionOutput actionOutput = new OFActionOutput ();
-			actionOutput.setPort((short) 2);
-			actionOutput.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			
-			List<OFAction> actionList = new ArrayList<OFAction>();
-			actionList.add(actionOutput);
-			
-		
-			flow2.setCookie(12345);
-			flow2.setPriority((short) 200);
-			flow2.setMatch(match);
-			flow2.setIdleTimeout((short) 0);
-			flow2.setActions(actionList);
-	        flow2.setLength(U16.t(OFFlowMod.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH));
-		}
-		
-		ArrayList<OFMessage> list = new ArrayList<OFMessage>();
-		
-		list.add(flow1);
-		list.add(flow2);
-		
+		int nwAddr = IPv4.toIPv4Address(inetAddr.getAddress());
+		ArrayList<OFMessage> list = new ArrayList<OFMessage>(2);
+
+		list.add(fromClientTemplate.instantiate(nwAddr));
+		list.add(toClientTemplate.instantiate(nwAddr));
+
 		return list;
 	}
 
-}
\ No newline at end of file
+}
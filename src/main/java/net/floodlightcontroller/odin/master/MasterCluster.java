@@ -0,0 +1,836 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Splits the agents between several masters. Each master is given
+ * the same list of members, and the agents are spread over the live
+ * ones by consistent hashing of their IP addresses. An agent can
+ * ping any master: messages from agents that another master owns
+ * are forwarded to it, so each agent is registered, and its LVAPs
+ * and subscriptions managed, by exactly one master. Pools are split
+ * along with their agents; every master reads the same pool file.
+ *
+ * Masters talk over their agent protocol sockets (masterPort), in
+ * the same one-line text messages as the agents:
+ *
+ *   forward <agent-ip> <agent message>
+ *   cluster hello <node>
+ *   cluster claim <node> <mac>
+ *   cluster granted <node> <mac> <holder>
+ *   cluster take <node> <mac>...
+ *   cluster release <node> <mac>...
+ *   cluster adopt <node> <id> <mac> <ip> <bssid> <agent-ip> <pool> <ssid>...
+ *   cluster adopted <node> <id> <mac> ok|fail
+ *   cluster handoff <node> <pool> <mac> <agent-ip>
+ *
+ * Masters greet each other every heartbeat, and a member that hasn't
+ * been heard from within the timeout is dropped from the ring, so
+ * its agents move to the others. When it is heard from again it is
+ * put back, and gets its share of the agents back. Either way, a
+ * master lets go of the agents it no longer owns, without touching
+ * their LVAPs, and the new owner registers them when they next
+ * ping, picking their clients up from their LVAP tables.
+ *
+ * A client is tracked by one master at a time, so that two masters
+ * don't spawn LVAPs for it on their own agents. Before placing a
+ * client it hasn't seen, a master claims it from the client's
+ * registrar, the member that owns the client's MAC address on the
+ * ring. Probes for a client held by another master are forwarded to
+ * that master, so its applications know which agents hear the
+ * client, and they may hand it off to another master's agent: the
+ * LVAP is adopted by the agent's owner, and the client is dropped
+ * here once the owner has it. The applications of the agent's owner
+ * may ask for such a handoff too, which is passed on to the master
+ * holding the client.
+ *
+ * Masters that disagree about who is alive, during a partition or
+ * for a timeout after a change, can both manage an agent. They
+ * converge once they hear from each other again.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class MasterCluster {
+	protected static Logger log = LoggerFactory.getLogger(MasterCluster.class);
+
+	static final String MSG_FORWARD = "forward";
+	static final String MSG_CLUSTER = "cluster";
+
+	static final long DEFAULT_HEARTBEAT_MILLIS = 500;
+	static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+	static final long HANDOFF_TIMEOUT_MILLIS = 5000;
+
+	// How long another master's hold on a client is
+	// believed, and how often an unanswered claim is resent
+	static final long CLAIM_TTL_MILLIS = 1000;
+
+	// Keeps take and release messages under the datagram size
+	private static final int MAX_ADDRS_PER_MESSAGE = 48;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * What the cluster needs from the master
+	 */
+	interface Shard {
+		/**
+		 * The ring has changed. Let go of the agents, and their
+		 * clients, that this master no longer owns
+		 */
+		void ownershipChanged();
+
+		/**
+		 * Take a client handed off by another master
+		 *
+		 * @param pool the client's pool
+		 * @param client the client, as the other master had it
+		 * @param agentAddr one of our agents, to put the LVAP on
+		 * @return true if the agent now hosts the client's LVAP
+		 */
+		boolean adopt(String pool, OdinClient client, InetAddress agentAddr);
+
+		/**
+		 * A client handed off to another master has been adopted.
+		 * Drop the client, and its LVAP from the agent it was on.
+		 */
+		void handedOff(MACAddress clientHwAddr);
+
+		/**
+		 * Another master's applications want a client that
+		 * this master holds handed off to one of their agents
+		 */
+		void handoffRequested(String pool, MACAddress clientHwAddr, InetAddress agentAddr);
+
+		/**
+		 * @return every client this master tracks
+		 */
+		Collection<MACAddress> getClientHwAddrs();
+	}
+
+	private final String selfId;
+	private final Map<String, Member> peers;
+	private final long heartbeatMillis;
+	private final long timeoutMillis;
+
+	private volatile ConsistentHashRing ring;
+	private Shard shard;
+	private ScheduledExecutorService executor;
+	private DatagramSocket socket;
+	private ScheduledFuture<?> ticker;
+
+	// Clients this master is the registrar of, and who holds them
+	private final ConcurrentMap<MACAddress, String> holders = new ConcurrentHashMap<MACAddress, String>();
+
+	// Who holds the clients this master has asked about
+	private final ConcurrentMap<MACAddress, Claim> claims = new ConcurrentHashMap<MACAddress, Claim>();
+
+	// Handoffs to other masters, awaiting adoption
+	private final ConcurrentMap<MACAddress, PendingHandoff> pendingHandoffs = new ConcurrentHashMap<MACAddress, PendingHandoff>();
+	private final AtomicLong nextHandoffId = new AtomicLong();
+
+	private final AtomicLong ownershipChanges = new AtomicLong();
+	private final AtomicLong forwarded = new AtomicLong();
+	private final AtomicLong claimsSent = new AtomicLong();
+	private final AtomicLong handoffsSent = new AtomicLong();
+	private final AtomicLong handoffsCompleted = new AtomicLong();
+	private final AtomicLong handoffsFailed = new AtomicLong();
+	private final AtomicLong handoffRequests = new AtomicLong();
+	private final AtomicLong adopted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sendErrors = new AtomicLong();
+
+
+	/**
+	 * @param selfId this master's id
+	 * @param members every master's id and agent protocol socket, this one included
+	 * @param heartbeatMillis how often masters greet each other
+	 * @param timeoutMillis how long a silent master is considered alive
+	 */
+	MasterCluster(String selfId, Map<String, InetSocketAddress> members, long heartbeatMillis, long timeoutMillis) {
+		if (!members.containsKey(selfId))
+			throw new IllegalArgumentException("Master " + selfId + " isn't one of the cluster's members");
+
+		this.selfId = selfId;
+		this.heartbeatMillis = heartbeatMillis;
+		this.timeoutMillis = timeoutMillis;
+
+		// Every member is taken to be alive until it times out,
+		// so that masters started together don't shuffle agents
+		Map<String, Member> peers = new HashMap<String, Member>();
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, InetSocketAddress> entry: members.entrySet()) {
+			if (!entry.getKey().equals(selfId))
+				peers.put(entry.getKey(), new Member(entry.getKey(), entry.getValue(), now));
+		}
+
+		this.peers = Collections.unmodifiableMap(peers);
+		this.ring = new ConsistentHashRing(members.keySet(), ConsistentHashRing.DEFAULT_POINTS_PER_NODE);
+	}
+
+
+	/**
+	 * Parse a member list of the form "id@host:port,id@host:port,..."
+	 *
+	 * @param members
+	 * @return the members' agent protocol sockets, by id
+	 * @throws UnknownHostException
+	 */
+	static Map<String, InetSocketAddress> parseMembers(String members) throws UnknownHostException {
+		Map<String, InetSocketAddress> map = new LinkedHashMap<String, InetSocketAddress>();
+
+		for (String member: members.split(",")) {
+			member = member.trim();
+
+			if (member.length() == 0)
+				continue;
+
+			int at = member.indexOf('@');
+			int colon = member.lastIndexOf(':');
+
+			if (at <= 0 || colon < at)
+				throw new IllegalArgumentException("Malformed cluster member: " + member);
+
+			InetAddress host = InetAddress.getByName(member.substring(at + 1, colon));
+			int port = Integer.parseInt(member.substring(colon + 1));
+			map.put(member.substring(0, at), new InetSocketAddress(host, port));
+		}
+
+		return map;
+	}
+
+
+	/**
+	 * Start greeting the other masters
+	 *
+	 * @param shard the master
+	 * @param executor sends the greetings, and runs the master's rebalancing
+	 * @throws SocketException
+	 */
+	synchronized void start(Shard shard, ScheduledExecutorService executor) throws SocketException {
+		this.shard = shard;
+		this.executor = executor;
+		this.socket = new DatagramSocket();
+
+		ticker = executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick(System.currentTimeMillis());
+				} catch (RuntimeException e) {
+					// Don't let the executor cancel the task
+					log.error("Cluster heartbeat failed", e);
+				}
+			}
+		}, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Stop greeting the other masters, which then
+	 * take over this master's agents
+	 */
+	synchronized void stop() {
+		if (ticker != null)
+			ticker.cancel(false);
+
+		if (socket != null)
+			socket.close();
+	}
+
+
+	String getSelfId() {
+		return selfId;
+	}
+
+
+	/**
+	 * @return true if this master owns the agent
+	 */
+	boolean ownsAgent(InetAddress agentAddr) {
+		return ring.getOwner(addressToLong(agentAddr)).equals(selfId);
+	}
+
+
+	/**
+	 * @return true if a datagram from this address may be from another master
+	 */
+	boolean isPeerAddress(InetAddress addr) {
+		for (Member member: peers.values()) {
+			if (member.addr.getAddress().equals(addr))
+				return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Pass an agent's message on to the agent's owner
+	 *
+	 * @param agentAddr the agent
+	 * @param msg holds the message
+	 * @param from start of the message
+	 * @param to end of the message
+	 */
+	void forward(InetAddress agentAddr, ChannelBuffer msg, int from, int to) {
+		Member owner = peers.get(ring.getOwner(addressToLong(agentAddr)));
+
+		if (owner == null)
+			return;
+
+		byte[] prefix = (MSG_FORWARD + " " + agentAddr.getHostAddress() + " ").getBytes(ASCII);
+		byte[] data = new byte[prefix.length + to - from];
+		System.arraycopy(prefix, 0, data, 0, prefix.length);
+		msg.getBytes(from, data, prefix.length, to - from);
+
+		send(owner, data);
+		forwarded.incrementAndGet();
+	}
+
+
+	/**
+	 * Pass a probe for a client on to the master that holds it
+	 */
+	void forwardProbe(String holder, InetAddress agentAddr, MACAddress clientHwAddr, String ssid) {
+		Member member = peers.get(holder);
+
+		if (member == null)
+			return;
+
+		send(member, MSG_FORWARD + " " + agentAddr.getHostAddress() + " probe " + clientHwAddr + " " + ssid);
+		forwarded.incrementAndGet();
+	}
+
+
+	/**
+	 * Find out which master holds a client this master doesn't
+	 * track, claiming it if no master does. Claims are answered
+	 * asynchronously: until the answer arrives, the holder isn't
+	 * known, and the caller should wait for the client's next probe.
+	 *
+	 * @param clientHwAddr the client
+	 * @return the id of the master holding the client, this
+	 *         master's if it may place it, or null if not known yet
+	 */
+	String claimClient(MACAddress clientHwAddr) {
+		long now = System.currentTimeMillis();
+		Claim claim = claims.get(clientHwAddr);
+
+		if (claim != null && (selfId.equals(claim.holder)
+				|| (now - claim.time < CLAIM_TTL_MILLIS && (claim.holder == null || isAlive(claim.holder)))))
+			return claim.holder;
+
+		String registrar = ring.getOwner(clientHwAddr.toLong());
+
+		if (registrar.equals(selfId)) {
+			String holder = grant(clientHwAddr, selfId);
+			claims.put(clientHwAddr, new Claim(holder, now));
+			return holder;
+		}
+
+		claims.put(clientHwAddr, new Claim(null, now));
+		send(peers.get(registrar), MSG_CLUSTER + " claim " + selfId + " " + clientHwAddr);
+		claimsSent.incrementAndGet();
+
+		return null;
+	}
+
+
+	/**
+	 * Record that this master now holds some clients, that it
+	 * adopted or found on an agent it registered
+	 */
+	void takeClients(Collection<MACAddress> clientHwAddrs) {
+		long now = System.currentTimeMillis();
+
+		for (MACAddress clientHwAddr: clientHwAddrs) {
+			claims.put(clientHwAddr, new Claim(selfId, now));
+		}
+
+		tellRegistrars("take", clientHwAddrs);
+	}
+
+
+	/**
+	 * Record that this master no longer holds some clients
+	 */
+	void releaseClients(Collection<MACAddress> clientHwAddrs) {
+		for (MACAddress clientHwAddr: clientHwAddrs) {
+			Claim claim = claims.get(clientHwAddr);
+
+			if (claim != null && selfId.equals(claim.holder))
+				claims.remove(clientHwAddr, claim);
+		}
+
+		tellRegistrars("release", clientHwAddrs);
+	}
+
+
+	/**
+	 * Hand a client off to an agent owned by another master. Only
+	 * one handoff of a client to another master is in flight at a
+	 * time. Once the agent's owner has adopted the client, the
+	 * master is told through Shard.handedOff().
+	 *
+	 * @param pool the client's pool
+	 * @param client the client
+	 * @param agentAddr the agent to hand the client off to
+	 * @return false if the agent has no other owner, or a handoff
+	 *         of the client is already in flight
+	 */
+	boolean handOff(String pool, OdinClient client, InetAddress agentAddr) {
+		Member owner = peers.get(ring.getOwner(addressToLong(agentAddr)));
+
+		if (owner == null)
+			return false;
+
+		long id = nextHandoffId.incrementAndGet();
+		MACAddress clientHwAddr = client.getMacAddress();
+
+		if (pendingHandoffs.putIfAbsent(clientHwAddr, new PendingHandoff(id, owner.id, System.currentTimeMillis())) != null)
+			return false;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(MSG_CLUSTER).append(" adopt ").append(selfId).append(' ').append(id)
+			.append(' ').append(clientHwAddr)
+			.append(' ').append(client.getIpAddress().getHostAddress())
+			.append(' ').append(client.getLvap().getBssid())
+			.append(' ').append(agentAddr.getHostAddress())
+			.append(' ').append(pool);
+
+		for (String ssid: client.getLvap().getSsids()) {
+			sb.append(' ').append(ssid);
+		}
+
+		send(owner, sb.toString());
+		handoffsSent.incrementAndGet();
+
+		return true;
+	}
+
+
+	/**
+	 * Ask the master that holds a client to hand it off to an agent.
+	 * The holder is only known if this master has been told about
+	 * the client lately, e.g. because its agents probed for it.
+	 *
+	 * @param pool that the invoking application corresponds to
+	 * @param clientHwAddr the client
+	 * @param agentAddr the agent to hand the client off to
+	 * @return false if no other master is known to hold the client
+	 */
+	boolean requestHandoff(String pool, MACAddress clientHwAddr, InetAddress agentAddr) {
+		Claim claim = claims.get(clientHwAddr);
+		Member holder = (claim == null || claim.holder == null) ? null : peers.get(claim.holder);
+
+		if (holder == null)
+			return false;
+
+		send(holder, MSG_CLUSTER + " handoff " + selfId + " " + pool + " " + clientHwAddr + " " + agentAddr.getHostAddress());
+		handoffRequests.incrementAndGet();
+
+		return true;
+	}
+
+
+	/**
+	 * Handle a message from another master
+	 *
+	 * @param sender where it came from
+	 * @param msg the message, starting with MSG_CLUSTER
+	 */
+	void receive(InetAddress sender, String msg) {
+		String[] fields = msg.trim().split(" +");
+		Member member = (fields.length < 3) ? null : peers.get(fields[2]);
+
+		// Anything else on the agent protocol socket is an agent's
+		if (member == null || !member.addr.getAddress().equals(sender)) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		member.lastHeard = now;
+
+		try {
+			String type = fields[1];
+
+			if (type.equals("hello")) {
+				// Come back, or heard from before it timed out here
+				if (!ring.getNodes().contains(member.id))
+					updateRing(now);
+			}
+			else if (type.equals("claim")) {
+				MACAddress clientHwAddr = MACAddress.valueOf(fields[3]);
+				String holder = grant(clientHwAddr, member.id);
+				send(member, MSG_CLUSTER + " granted " + selfId + " " + clientHwAddr + " " + holder);
+			}
+			else if (type.equals("granted")) {
+				claims.put(MACAddress.valueOf(fields[3]), new Claim(fields[4], now));
+			}
+			else if (type.equals("take")) {
+				for (int i = 3; i < fields.length; i++) {
+					holders.put(MACAddress.valueOf(fields[i]), member.id);
+				}
+			}
+			else if (type.equals("release")) {
+				for (int i = 3; i < fields.length; i++) {
+					holders.remove(MACAddress.valueOf(fields[i]), member.id);
+				}
+			}
+			else if (type.equals("adopt")) {
+				receiveAdopt(member, fields);
+			}
+			else if (type.equals("adopted")) {
+				receiveAdopted(member, fields);
+			}
+			else if (type.equals("handoff")) {
+				shard.handoffRequested(fields[3], MACAddress.valueOf(fields[4]), InetAddress.getByName(fields[5]));
+			}
+			else {
+				dropped.incrementAndGet();
+			}
+		} catch (UnknownHostException e) {
+			// Addresses are always literals
+			dropped.incrementAndGet();
+		} catch (RuntimeException e) {
+			// Malformed addresses or missing fields
+			log.debug("Dropping malformed cluster message from " + sender + ": " + msg);
+			dropped.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * @return members, ownership and handoff counters, for the REST API
+	 */
+	Map<String, Object> getStats() {
+		long now = System.currentTimeMillis();
+		ConsistentHashRing r = ring;
+		List<Map<String, Object>> members = new ArrayList<Map<String, Object>>();
+
+		for (Member member: peers.values()) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("id", member.id);
+			m.put("address", member.addr.getAddress().getHostAddress() + ":" + member.addr.getPort());
+			m.put("alive", r.getNodes().contains(member.id));
+			m.put("lastHeardMillisAgo", now - member.lastHeard);
+			members.add(m);
+		}
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("self", selfId);
+		stats.put("liveMembers", r.getNodes());
+		stats.put("peers", members);
+		stats.put("ownershipChanges", ownershipChanges.get());
+		stats.put("forwarded", forwarded.get());
+		stats.put("claimsSent", claimsSent.get());
+		stats.put("clientsRegistered", holders.size());
+		stats.put("handoffsSent", handoffsSent.get());
+		stats.put("handoffsCompleted", handoffsCompleted.get());
+		stats.put("handoffsFailed", handoffsFailed.get());
+		stats.put("handoffsInFlight", pendingHandoffs.size());
+		stats.put("handoffRequests", handoffRequests.get());
+		stats.put("adopted", adopted.get());
+		stats.put("dropped", dropped.get());
+		stats.put("sendErrors", sendErrors.get());
+
+		return stats;
+	}
+
+
+	/**
+	 * Greet the other masters, drop the ones that have timed out,
+	 * and expire stale claims and handoffs
+	 */
+	void tick(long now) {
+		for (Member member: peers.values()) {
+			send(member, MSG_CLUSTER + " hello " + selfId);
+		}
+
+		updateRing(now);
+
+		for (Iterator<Claim> it = claims.values().iterator(); it.hasNext(); ) {
+			Claim claim = it.next();
+
+			if (!selfId.equals(claim.holder) && now - claim.time > 10 * CLAIM_TTL_MILLIS)
+				it.remove();
+		}
+
+		for (Map.Entry<MACAddress, PendingHandoff> entry: pendingHandoffs.entrySet()) {
+			PendingHandoff handoff = entry.getValue();
+
+			if (now - handoff.sentAt > HANDOFF_TIMEOUT_MILLIS && pendingHandoffs.remove(entry.getKey(), handoff)) {
+				log.warn("Handoff of client " + entry.getKey() + " to master " + handoff.to + " timed out");
+				handoffsFailed.incrementAndGet();
+			}
+		}
+	}
+
+
+	/**
+	 * Rebuild the ring if members have come or gone
+	 */
+	private synchronized void updateRing(long now) {
+		List<String> live = new ArrayList<String>();
+		live.add(selfId);
+
+		for (Member member: peers.values()) {
+			if (now - member.lastHeard < timeoutMillis)
+				live.add(member.id);
+		}
+
+		Collections.sort(live);
+
+		if (live.equals(ring.getNodes()))
+			return;
+
+		log.info("Cluster members changed from " + ring.getNodes() + " to " + live);
+		ring = new ConsistentHashRing(live, ConsistentHashRing.DEFAULT_POINTS_PER_NODE);
+		ownershipChanges.incrementAndGet();
+
+		// Registrars have moved too, drop what is now another's
+		for (MACAddress clientHwAddr: holders.keySet()) {
+			if (!ring.getOwner(clientHwAddr.toLong()).equals(selfId))
+				holders.remove(clientHwAddr);
+		}
+
+		if (executor != null) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					shard.ownershipChanged();
+
+					// Tell the clients' registrars, old and new, who has them
+					takeClients(shard.getClientHwAddrs());
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * As the client's registrar, give it to the claimant unless
+	 * a live master already holds it
+	 *
+	 * @return the client's holder
+	 */
+	private String grant(MACAddress clientHwAddr, String claimant) {
+		while (true) {
+			String holder = holders.putIfAbsent(clientHwAddr, claimant);
+
+			if (holder == null || holder.equals(claimant))
+				return claimant;
+
+			if (isAlive(holder))
+				return holder;
+
+			if (holders.replace(clientHwAddr, holder, claimant))
+				return claimant;
+		}
+	}
+
+
+	private boolean isAlive(String id) {
+		return ring.getNodes().contains(id);
+	}
+
+
+	private void receiveAdopt(Member member, String[] fields) {
+		String id = fields[3];
+		MACAddress clientHwAddr = MACAddress.valueOf(fields[4]);
+		boolean ok = false;
+
+		try {
+			InetAddress ipAddr = InetAddress.getByName(fields[5]);
+			MACAddress bssid = MACAddress.valueOf(fields[6]);
+			InetAddress agentAddr = InetAddress.getByName(fields[7]);
+			String pool = fields[8];
+
+			List<String> ssids = new ArrayList<String>();
+			for (int i = 9; i < fields.length; i++) {
+				ssids.add(fields[i]);
+			}
+
+			ok = ownsAgent(agentAddr)
+					&& shard.adopt(pool, new OdinClient(clientHwAddr, ipAddr, new Lvap(bssid, ssids)), agentAddr);
+		} catch (UnknownHostException e) {
+			// Addresses are always literals
+		}
+
+		if (ok) {
+			adopted.incrementAndGet();
+			takeClients(Collections.singletonList(clientHwAddr));
+		}
+
+		send(member, MSG_CLUSTER + " adopted " + selfId + " " + id + " " + clientHwAddr + " " + (ok ? "ok" : "fail"));
+	}
+
+
+	private void receiveAdopted(Member member, String[] fields) {
+		long id = Long.parseLong(fields[3]);
+		MACAddress clientHwAddr = MACAddress.valueOf(fields[4]);
+		PendingHandoff handoff = pendingHandoffs.get(clientHwAddr);
+
+		// Timed out, or a reply to an earlier handoff
+		if (handoff == null || handoff.id != id || !pendingHandoffs.remove(clientHwAddr, handoff))
+			return;
+
+		if (fields[5].equals("ok")) {
+			claims.put(clientHwAddr, new Claim(member.id, System.currentTimeMillis()));
+			shard.handedOff(clientHwAddr);
+			handoffsCompleted.incrementAndGet();
+		}
+		else {
+			log.warn("Master " + member.id + " refused the handoff of client " + clientHwAddr);
+			handoffsFailed.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Tell each client's registrar that this master
+	 * has taken or released it, a few clients per message
+	 */
+	private void tellRegistrars(String type, Collection<MACAddress> clientHwAddrs) {
+		Map<String, StringBuilder> messages = new HashMap<String, StringBuilder>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		ConsistentHashRing r = ring;
+
+		for (MACAddress clientHwAddr: clientHwAddrs) {
+			String registrar = r.getOwner(clientHwAddr.toLong());
+
+			if (registrar.equals(selfId)) {
+				if (type.equals("take"))
+					holders.put(clientHwAddr, selfId);
+				else
+					holders.remove(clientHwAddr, selfId);
+
+				continue;
+			}
+
+			StringBuilder sb = messages.get(registrar);
+			Integer count = counts.get(registrar);
+
+			if (sb == null || count == MAX_ADDRS_PER_MESSAGE) {
+				if (sb != null)
+					send(peers.get(registrar), sb.toString());
+
+				sb = new StringBuilder(MSG_CLUSTER + " " + type + " " + selfId);
+				messages.put(registrar, sb);
+				count = 0;
+			}
+
+			sb.append(' ').append(clientHwAddr);
+			counts.put(registrar, count + 1);
+		}
+
+		for (Map.Entry<String, StringBuilder> entry: messages.entrySet()) {
+			send(peers.get(entry.getKey()), entry.getValue().toString());
+		}
+	}
+
+
+	private void send(Member member, String msg) {
+		send(member, msg.getBytes(ASCII));
+	}
+
+
+	private void send(Member member, byte[] data) {
+		DatagramSocket s = socket;
+
+		if (member == null || s == null)
+			return;
+
+		try {
+			s.send(new DatagramPacket(data, data.length, member.addr));
+		} catch (IOException e) {
+			// The member is down, or the socket is closed
+			sendErrors.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * @return an IPv4 address, as a long
+	 */
+	private static long addressToLong(InetAddress addr) {
+		long key = 0;
+
+		for (byte b: addr.getAddress()) {
+			key = (key << 8) | (b & 0xff);
+		}
+
+		return key;
+	}
+
+
+	private static class Member {
+		final String id;
+		final InetSocketAddress addr;
+		volatile long lastHeard;
+
+		Member(String id, InetSocketAddress addr, long lastHeard) {
+			this.id = id;
+			this.addr = addr;
+			this.lastHeard = lastHeard;
+		}
+	}
+
+
+	/**
+	 * Who holds a client, as last heard. A null holder
+	 * means the claim hasn't been answered yet.
+	 */
+	private static class Claim {
+		final String holder;
+		final long time;
+
+		Claim(String holder, long time) {
+			this.holder = holder;
+			this.time = time;
+		}
+	}
+
+
+	private static class PendingHandoff {
+		final long id;
+		final String to;
+		final long sentAt;
+
+		PendingHandoff(long id, String to, long sentAt) {
+			this.id = id;
+			this.to = to;
+			this.sentAt = sentAt;
+		}
+	}
+}
@@ -1,15 +1,25 @@
 package net.floodlightcontroller.odin.master;
 
+import java.util.List;
+
 import net.floodlightcontroller.util.MACAddress;
 
 public class NotificationCallbackContext {
 	public final MACAddress clientHwAddress;
 	public final IOdinAgent agent;
 	public final long value;
-	
+
+	// Best agents first, for BEST_AGENT subscriptions. Null otherwise.
+	public final List<IOdinAgent> topAgents;
+
 	public NotificationCallbackContext(final MACAddress clientHwAddress, final IOdinAgent agent, final long value) {
+		this(clientHwAddress, agent, value, null);
+	}
+
+	public NotificationCallbackContext(final MACAddress clientHwAddress, final IOdinAgent agent, final long value, final List<IOdinAgent> topAgents) {
 		this.clientHwAddress = clientHwAddress;
 		this.agent = agent;
 		this.value = value;
+		this.topAgents = topAgents;
 	}
-}
\ No newline at end of file
+}
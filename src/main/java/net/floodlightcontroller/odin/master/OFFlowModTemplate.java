@@ -0,0 +1,122 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.util.U16;
+
+/**
+ * A flow-mod that forwards a single client's IPv4 traffic between
+ * two ports, with the client's address left blank. The flow-mod is
+ * built and serialised once; each client's copy only carries its
+ * address, and is written out by copying the serialised skeleton
+ * and patching in the address and transaction id.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class OFFlowModTemplate {
+	private static final long COOKIE = 12345;
+	private static final short PRIORITY = 200;
+
+	// Offsets into the serialised flow-mod, which starts with the
+	// OpenFlow header followed by the match (see OFMatch.writeTo)
+	private static final int XID_OFFSET = 4;
+	private static final int NW_SRC_OFFSET = OFMessage.MINIMUM_LENGTH + 28;
+	private static final int NW_DST_OFFSET = OFMessage.MINIMUM_LENGTH + 32;
+
+	private final OFFlowMod prototype;
+	private final boolean matchSource;
+	private final byte[] skeleton;
+
+
+	/**
+	 * @param inPort port the client's traffic comes in from
+	 * @param outPort port to forward it to
+	 * @param matchSource match the client's address as the source
+	 *        of the traffic if true, as its destination otherwise
+	 */
+	OFFlowModTemplate(short inPort, short outPort, boolean matchSource) {
+		this.matchSource = matchSource;
+
+		OFMatch match = new OFMatch();
+		match.fromString("in_port=" + U16.f(inPort) + ",dl_type=0x0800,"
+						+ (matchSource ? "nw_src" : "nw_dst") + "=0.0.0.0");
+
+		OFActionOutput actionOutput = new OFActionOutput ();
+		actionOutput.setPort(outPort);
+		actionOutput.setLength((short) OFActionOutput.MINIMUM_LENGTH);
+
+		List<OFAction> actionList = new ArrayList<OFAction>();
+		actionList.add(actionOutput);
+
+		prototype = new OFFlowMod();
+		prototype.setCookie(COOKIE);
+		prototype.setPriority(PRIORITY);
+		prototype.setMatch(match);
+		prototype.setIdleTimeout((short) 0);
+		prototype.setActions(Collections.unmodifiableList(actionList));
+		prototype.setLength(U16.t(OFFlowMod.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH));
+
+		ChannelBuffer buf = ChannelBuffers.buffer(prototype.getLengthU());
+		prototype.writeTo(buf);
+		skeleton = buf.array();
+	}
+
+
+	/**
+	 * Get the flow-mod for a client. The flow-mod must not be
+	 * modified, since it is written out from the template.
+	 *
+	 * @param nwAddr the client's IPv4 address
+	 * @return the flow-mod
+	 */
+	OFFlowMod instantiate(int nwAddr) {
+		OFMatch match = prototype.getMatch().clone();
+
+		if (matchSource)
+			match.setNetworkSource(nwAddr);
+		else
+			match.setNetworkDestination(nwAddr);
+
+		TemplateFlowMod flow = new TemplateFlowMod(skeleton, matchSource ? NW_SRC_OFFSET : NW_DST_OFFSET, nwAddr);
+		flow.setCookie(prototype.getCookie());
+		flow.setPriority(prototype.getPriority());
+		flow.setMatch(match);
+		flow.setIdleTimeout(prototype.getIdleTimeout());
+		flow.setActions(prototype.getActions());
+		flow.setLength(prototype.getLength());
+
+		return flow;
+	}
+
+
+	private static class TemplateFlowMod extends OFFlowMod {
+		private final byte[] skeleton;
+		private final int nwAddrOffset;
+		private final int nwAddr;
+
+		TemplateFlowMod(byte[] skeleton, int nwAddrOffset, int nwAddr) {
+			this.skeleton = skeleton;
+			this.nwAddrOffset = nwAddrOffset;
+			this.nwAddr = nwAddr;
+		}
+
+		@Override
+		public void writeTo(ChannelBuffer data) {
+			int start = data.writerIndex();
+
+			data.writeBytes(skeleton);
+			data.setInt(start + XID_OFFSET, getXid());
+			data.setInt(start + nwAddrOffset, nwAddr);
+		}
+	}
+}
@@ -1,19 +1,21 @@
 package net.floodlightcontroller.odin.master;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPort;
@@ -28,14 +30,13 @@ import net.floodlightcontroller.util.MACAddress;
 
 @JsonSerialize(using=OdinAgentSerializer.class)
 class OdinAgent implements IOdinAgent {
+	protected static Logger log = LoggerFactory.getLogger(OdinAgent.class);
 
-	// Connect to control socket on OdinAgent
-	private Socket odinAgentSocket = null;
-	private PrintWriter outBuf;
-	private BufferedReader inBuf;
-	private IOFSwitch ofSwitch;
+	// Connection to control socket on OdinAgent
+	private final OdinAgentControlChannel controlChannel = new OdinAgentControlChannel();
+	private volatile IOFSwitch ofSwitch;
 	private InetAddress ipAddress;
-	private long lastHeard;
+	private volatile long lastHeard;
 
 	private ConcurrentSkipListSet<OdinClient> clientList = new ConcurrentSkipListSet<OdinClient>();
 
@@ -53,6 +54,7 @@ class OdinAgent implements IOdinAgent {
 
 	private final int RX_STAT_NUM_PROPERTIES = 5;
 	private final int ODIN_AGENT_PORT = 6777;
+	private final long READ_HANDLER_TIMEOUT_MS = 5000;
 
 	
 	/**
@@ -94,51 +96,28 @@ class OdinAgent implements IOdinAgent {
 	 * @return a list of OdinClient entities on the agent
 	 */
 	public Set<OdinClient> getLvapsRemote() {
-		ConcurrentSkipListSet<OdinClient> clients = new ConcurrentSkipListSet<OdinClient>();
-		String handle = invokeReadHandler(READ_HANDLER_TABLE);
-
-		if (handle == null) {
-			return clients; // empty list
-		}
-
-		String tableList[] = handle.split("\n");
-
-		for (String entry : tableList) {
-
-			if (entry.equals(""))
-				break;
-			
-			/* 
-			 * Every entry looks like this:
-			 * properties:  [0]       [1]         [2]         [3, 4, 5...]
-			 *           <sta_mac> <ipv4addr> <lvap bssid> <lvap ssid list>
-			 *
-			 */
-			String properties[] = entry.split(" ");
-			OdinClient oc;
-			Lvap lvap;
-			try {
-				// First, get the list of all the SSIDs
-				ArrayList<String> ssidList = new ArrayList<String>();
-				for (int i = 3; i < properties.length; i++) {
-					ssidList.add (properties[i]);
-				}
-				lvap =  new Lvap (MACAddress.valueOf(properties[2]), ssidList);
-				oc = new OdinClient(MACAddress.valueOf(properties[0]),
-						InetAddress.getByName(properties[1]), lvap);
-				lvap.setAgent(this);
-				clients.add(oc);
-				
-			} catch (UnknownHostException e) {
-				e.printStackTrace();
+		Set<OdinClient> clients = awaitReadHandler(getLvapsRemoteAsync(), READ_HANDLER_TABLE);
+		
+		return (clients == null) ? new ConcurrentSkipListSet<OdinClient>() : clients;
+	}
+	
+	
+	/**
+	 * Asynchronously probe the agent for the list of VAPs it's hosting.
+	 * 
+	 * @return a future for the set of OdinClient entities on the agent
+	 */
+	public Future<Set<OdinClient>> getLvapsRemoteAsync() {
+		return invokeReadHandler(READ_HANDLER_TABLE, new OdinAgentControlChannel.ReadHandlerParser<Set<OdinClient>>() {
+			@Override
+			public Set<OdinClient> parse(ChannelBuffer data) {
+				Set<OdinClient> clients = OdinAgentHandlerParser.parseLvapTable(data, OdinAgent.this);
+				clientList = (ConcurrentSkipListSet<OdinClient>) clients;
+				return clients;
 			}
-		}
-
-		clientList = clients;
-
-		return clients;
+		});
 	}
-
+	
 	
 	/**
 	 * Return a list of LVAPs that the master knows this agent is hosting.
@@ -159,36 +138,82 @@ class OdinAgent implements IOdinAgent {
 	 *         values.
 	 */
 	public Map<MACAddress, Map<String, String>> getRxStats() {
-		String stats = invokeReadHandler(READ_HANDLER_RXSTATS);
+		Map<MACAddress, Map<String, String>> stats = awaitReadHandler(getRxStatsAsync(), READ_HANDLER_RXSTATS);
 		
-		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
-
-		/*
-		 * We basically get rows like this MAC_ADDR1 prop1:<value> prop2:<value>
-		 * MAC_ADDR2 prop1:<value> prop2:<value>
-		 */
-		String arr[] = stats.split("\n");
-		for (String elem : arr) {
-			String row[] = elem.split(" ");
-
-			if (row.length != RX_STAT_NUM_PROPERTIES + 1) {
-				continue;
+		return (stats == null) ? Collections.<MACAddress, Map<String, String>>emptyMap() : stats;
+	}
+	
+	
+	/**
+	 * Asynchronously retrieve Rx-stats from the OdinAgent.
+	 * 
+	 * @return a future for the map of stations' MAC addresses to
+	 *         a map of properties and values.
+	 */
+	public Future<Map<MACAddress, Map<String, String>>> getRxStatsAsync() {
+		return invokeReadHandler(READ_HANDLER_RXSTATS, new OdinAgentControlChannel.ReadHandlerParser<Map<MACAddress, Map<String, String>>>() {
+			@Override
+			public Map<MACAddress, Map<String, String>> parse(ChannelBuffer data) {
+				return OdinAgentHandlerParser.parseRxStats(data, RX_STAT_NUM_PROPERTIES);
 			}
-
-			MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
-
-			Map<String, String> innerMap = new HashMap<String, String>();
-
-			for (int i = 1; i < RX_STAT_NUM_PROPERTIES + 1; i += 1) {
-				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
+		});
+	}
+	
+	
+	/**
+	 * Retrieve Rx-stats from the OdinAgent into a typed table.
+	 * If the agent could not be queried in time, its reply may
+	 * still arrive and be parsed into the table, so the table is
+	 * given up on and a new, empty one is returned instead.
+	 * 
+	 * @param table table to fill, or null to allocate one
+	 * @return the filled table, or a new empty one if the agent
+	 *         could not be queried
+	 */
+	public OdinRxStatsTable getRxStatsTable(OdinRxStatsTable table) {
+		OdinRxStatsTable rxStats = awaitReadHandler(getRxStatsTableAsync(table), READ_HANDLER_RXSTATS);
+		
+		return (rxStats == null) ? new OdinRxStatsTable() : rxStats;
+	}
+	
+	
+	/**
+	 * Asynchronously retrieve Rx-stats from the OdinAgent into a
+	 * typed table.
+	 * 
+	 * @param table table to fill, or null to allocate one
+	 * @return a future for the filled table
+	 */
+	public Future<OdinRxStatsTable> getRxStatsTableAsync(OdinRxStatsTable table) {
+		final OdinRxStatsTable rxStats = (table == null) ? new OdinRxStatsTable() : table;
+		
+		return invokeReadHandler(READ_HANDLER_RXSTATS, new OdinAgentControlChannel.ReadHandlerParser<OdinRxStatsTable>() {
+			@Override
+			public OdinRxStatsTable parse(ChannelBuffer data) {
+				return OdinAgentHandlerParser.parseRxStats(data, RX_STAT_NUM_PROPERTIES, rxStats);
 			}
-
-			ret.put(eth, Collections.unmodifiableMap(innerMap));
-		}
-
-		return Collections.unmodifiableMap(ret);
+		});
 	}
-
+	
+	
+	/**
+	 * Asynchronously retrieve the results of the agent's last
+	 * spectral scan.
+	 * 
+	 * @param scan scan to fill, or null to allocate one
+	 * @return a future for the filled scan
+	 */
+	public Future<OdinSpectralScan> getSpectralScanAsync(OdinSpectralScan scan) {
+		final OdinSpectralScan result = (scan == null) ? new OdinSpectralScan() : scan;
+		
+		return invokeReadHandler(READ_HANDLER_SPECTRAL_SCAN, new OdinAgentControlChannel.ReadHandlerParser<OdinSpectralScan>() {
+			@Override
+			public OdinSpectralScan parse(ChannelBuffer data) {
+				return OdinAgentHandlerParser.parseSpectralScan(data, result);
+			}
+		});
+	}
+	
 	
 	/**
 	 * To be called only once, initialises a connection to the OdinAgent's
@@ -229,19 +254,11 @@ class OdinAgent implements IOdinAgent {
 			e1.printStackTrace();
 		}
 		
-		try {
-			odinAgentSocket = new Socket(host.getHostAddress(), ODIN_AGENT_PORT);
-			outBuf = new PrintWriter(odinAgentSocket.getOutputStream(), true);
-			inBuf = new BufferedReader(new InputStreamReader(odinAgentSocket
-					.getInputStream()));
-			ipAddress = host;
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-			return -1;
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (!controlChannel.connect(host, ODIN_AGENT_PORT)) {
 			return -1;
 		}
+		
+		ipAddress = host;
 
 		return 0;
 	}
@@ -273,9 +290,22 @@ class OdinAgent implements IOdinAgent {
 	 * @param staHwAddr The STA's ethernet address
 	 */
 	public void removeClientLvap(OdinClient oc) {
-		invokeWriteHandler(WRITE_HANDLER_REMOVE_VAP, oc.getMacAddress()
+		removeClientLvapAsync(oc);
+	}
+	
+	
+	/**
+	 * Remove a virtual access point from the AP corresponding to this agent
+	 * 
+	 * @param oc OdinClient entity
+	 * @return a future for the agent's response code
+	 */
+	public Future<Integer> removeClientLvapAsync(OdinClient oc) {
+		Future<Integer> ret = invokeWriteHandler(WRITE_HANDLER_REMOVE_VAP, oc.getMacAddress()
 				.toString());
 		clientList.remove(oc);
+		
+		return ret;
 	}
 
 	
@@ -285,18 +315,23 @@ class OdinAgent implements IOdinAgent {
 	 * @param oc OdinClient entity
 	 */
 	public void addClientLvap(OdinClient oc) {
+		addClientLvapAsync(oc);
+	}
+	
+	
+	/**
+	 * Add a virtual access point to the AP corresponding to this agent
+	 * 
+	 * @param oc OdinClient entity
+	 * @return a future for the agent's response code
+	 */
+	public Future<Integer> addClientLvapAsync(OdinClient oc) {
 		assert (oc.getLvap() != null);
 		
-		String ssidList = "";
-		
-		for (String ssid: oc.getLvap().getSsids()) {
-			ssidList += " " + ssid;
-		}
-		
-		invokeWriteHandler(WRITE_HANDLER_ADD_VAP, oc.getMacAddress().toString()
-				+ " " + oc.getIpAddress().getHostAddress() + " "
-				+ oc.getLvap().getBssid().toString() + ssidList);
+		Future<Integer> ret = invokeWriteHandler(WRITE_HANDLER_ADD_VAP, getLvapString(oc));
 		clientList.add(oc);
+		
+		return ret;
 	}
 
 	
@@ -308,15 +343,7 @@ class OdinAgent implements IOdinAgent {
 	public void updateClientLvap(OdinClient oc) {
 		assert (oc.getLvap() != null);
 		
-		String ssidList = "";
-		
-		for (String ssid: oc.getLvap().getSsids()) {
-			ssidList += " " + ssid;
-		}
-		
-		invokeWriteHandler(WRITE_HANDLER_SET_VAP, oc.getMacAddress().toString()
-				+ " " + oc.getIpAddress().getHostAddress() + " "
-				+ oc.getLvap().getBssid().toString() + ssidList);
+		invokeWriteHandler(WRITE_HANDLER_SET_VAP, getLvapString(oc));
 	}
 
 	
@@ -330,40 +357,71 @@ class OdinAgent implements IOdinAgent {
 		invokeWriteHandler(WRITE_HANDLER_SUBSCRIPTIONS, subscriptionList);
 	}
 
+
+	/**
+	 * Close the connection to the agent's control socket.
+	 * Outstanding requests are failed.
+	 */
+	public void close() {
+		controlChannel.close();
+	}
+
+	
+	/**
+	 * Builds the argument string for the add_vap and set_vap
+	 * write handlers
+	 * 
+	 * @param oc OdinClient entity
+	 * @return <sta_mac> <ipv4addr> <lvap bssid> <lvap ssid list>
+	 */
+	private String getLvapString(OdinClient oc) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(oc.getMacAddress());
+		sb.append(" ");
+		sb.append(oc.getIpAddress().getHostAddress());
+		sb.append(" ");
+		sb.append(oc.getLvap().getBssid());
+		
+		for (String ssid: oc.getLvap().getSsids()) {
+			sb.append(" ");
+			sb.append(ssid);
+		}
+		
+		return sb.toString();
+	}
+	
 	
 	/**
 	 * Internal method to invoke a read handler on the OdinAgent
 	 * 
 	 * @param handlerName OdinAgent handler
-	 * @return read-handler string
+	 * @param parser parser for the handler's payload
+	 * @return a future for the parsed payload
 	 */
-	private synchronized String invokeReadHandler(String handlerName) {
-		outBuf.println("READ " + ODIN_AGENT_ELEMENT + "." + handlerName);
-
-		String line = "";
-
+	private <V> Future<V> invokeReadHandler(String handlerName, OdinAgentControlChannel.ReadHandlerParser<V> parser) {
+		return controlChannel.read(ODIN_AGENT_ELEMENT + "." + handlerName, parser);
+	}
+	
+	
+	/**
+	 * Wait for the result of a read handler invocation. Returns
+	 * null if the agent did not answer in time or the read failed.
+	 * 
+	 * @param future future returned by invokeReadHandler
+	 * @param handlerName OdinAgent handler, for logging
+	 * @return the parsed payload, or null
+	 */
+	private <V> V awaitReadHandler(Future<V> future, String handlerName) {
 		try {
-			String data = null;
-
-			while ((data = inBuf.readLine()).contains("DATA") == false) {
-				// skip all the crap that the Click control
-				// socket tells us
-			}
-
-			int numBytes = Integer.parseInt(data.split(" ")[1]);
-
-			while (numBytes != 0) {
-				numBytes--;
-				char[] buf = new char[1];
-				inBuf.read(buf);
-				line = line + new String(buf);
-			}
-
-			return line;
-		} catch (IOException e) {
-			e.printStackTrace();
+			return future.get(READ_HANDLER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.error("Read handler " + handlerName + " failed on agent " + ipAddress + ": " + e.getCause());
+		} catch (TimeoutException e) {
+			log.error("Read handler " + handlerName + " timed out on agent " + ipAddress);
 		}
-
+		
 		return null;
 	}
 
@@ -373,11 +431,11 @@ class OdinAgent implements IOdinAgent {
 	 * 
 	 * @param handlerName OdinAgent write handler name
 	 * @param handlerText Write string
+	 * @return a future for the agent's response code
 	 */
-	private synchronized void invokeWriteHandler(String handlerName,
+	private Future<Integer> invokeWriteHandler(String handlerName,
 			String handlerText) {
-		outBuf.println("WRITE " + ODIN_AGENT_ELEMENT + "." + handlerName + " "
-				+ handlerText);
+		return controlChannel.write(ODIN_AGENT_ELEMENT + "." + handlerName, handlerText);
 	}
 
 
@@ -0,0 +1,378 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking connection to the Click control socket of an
+ * OdinAgent. All agents share a small pool of NIO selector threads,
+ * and commands are pipelined: any number of READ/WRITE commands
+ * may be outstanding on a connection. Click answers commands in
+ * the order it receives them, so each response is correlated with
+ * the oldest outstanding command.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class OdinAgentControlChannel {
+	protected static Logger log = LoggerFactory.getLogger(OdinAgentControlChannel.class);
+
+	private static final int NUM_IO_THREADS = 2;
+	private static final long CONNECT_TIMEOUT_MS = 3000;
+	private static final int CLICK_CODE_OK = 200;
+	private static final String DATA_PREFIX = "DATA ";
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// Selector threads shared across all agents
+	private static ChannelFactory channelFactory = null;
+
+	private final Queue<PendingCommand<?>> pendingCommands = new ConcurrentLinkedQueue<PendingCommand<?>>();
+	private final Object writeLock = new Object();
+	private volatile Channel channel = null;
+
+
+	/**
+	 * Parses the payload of a read handler into a
+	 * result for the caller. The buffer is a view of the
+	 * channel's receive buffer, and must not be retained
+	 * beyond the call.
+	 */
+	interface ReadHandlerParser<V> {
+		V parse(ChannelBuffer data);
+	}
+
+
+	private static synchronized ChannelFactory getChannelFactory() {
+		if (channelFactory == null) {
+			channelFactory = new NioClientSocketChannelFactory(
+								Executors.newCachedThreadPool(),
+								Executors.newCachedThreadPool(),
+								NUM_IO_THREADS);
+		}
+
+		return channelFactory;
+	}
+
+
+	/**
+	 * Open the connection to the agent's control socket.
+	 *
+	 * @param host agent's address
+	 * @param port agent's control socket port
+	 * @return true if the connection was established
+	 */
+	boolean connect(InetAddress host, int port) {
+		ClientBootstrap bootstrap = new ClientBootstrap(getChannelFactory());
+		bootstrap.setOption("tcpNoDelay", true);
+		bootstrap.setOption("keepAlive", true);
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new ControlSocketDecoder(), new ControlSocketHandler());
+			}
+		});
+
+		ChannelFuture connectFuture = bootstrap.connect(new InetSocketAddress(host, port));
+
+		if (!connectFuture.awaitUninterruptibly(CONNECT_TIMEOUT_MS)
+				|| !connectFuture.isSuccess()) {
+			log.error("Could not connect to control socket of agent " + host.getHostAddress() + ":" + port);
+			connectFuture.cancel();
+			return false;
+		}
+
+		channel = connectFuture.getChannel();
+		return true;
+	}
+
+
+	/**
+	 * Close the connection. Outstanding commands are failed.
+	 */
+	void close() {
+		Channel ch = channel;
+
+		if (ch != null) {
+			ch.close();
+		}
+	}
+
+
+	/**
+	 * Issue a READ against a handler
+	 *
+	 * @param handler fully qualified handler name (element.handler)
+	 * @param parser turns the handler's payload into the result
+	 * @return a future for the parsed payload
+	 */
+	<V> Future<V> read(String handler, ReadHandlerParser<V> parser) {
+		return send("READ " + handler, new ReadCommand<V>(parser));
+	}
+
+
+	/**
+	 * Issue a WRITE against a handler
+	 *
+	 * @param handler fully qualified handler name (element.handler)
+	 * @param text argument string for the handler
+	 * @return a future for Click's response code
+	 */
+	Future<Integer> write(String handler, String text) {
+		return send("WRITE " + handler + " " + text, new WriteCommand());
+	}
+
+
+	private <V> Future<V> send(String command, final PendingCommand<V> cmd) {
+		Channel ch = channel;
+
+		if (ch == null || !ch.isConnected()) {
+			cmd.future.setException(new IOException("Control socket is not connected"));
+			return cmd.future;
+		}
+
+		ChannelFuture writeFuture;
+
+		// The order of the pending queue has to match the
+		// order in which commands go out on the wire.
+		synchronized (writeLock) {
+			pendingCommands.add(cmd);
+			writeFuture = ch.write(ChannelBuffers.copiedBuffer(command + "\n", ASCII));
+		}
+
+		writeFuture.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (!future.isSuccess()) {
+					cmd.future.setException(future.getCause() != null
+							? future.getCause() : new IOException("Write to control socket failed"));
+
+					// The command is still queued, and would be handed the
+					// next command's reply. Closing the channel fails it and
+					// every command behind it.
+					future.getChannel().close();
+				}
+			}
+		});
+
+		return cmd.future;
+	}
+
+
+	private void failPendingCommands(Throwable cause) {
+		PendingCommand<?> cmd;
+
+		while ((cmd = pendingCommands.poll()) != null) {
+			cmd.future.setException(cause);
+		}
+	}
+
+
+	/**
+	 * A single response from the control socket
+	 */
+	private static class ControlSocketReply {
+		final int code;
+		final String message;
+		final ChannelBuffer data;
+
+		ControlSocketReply(int code, String message, ChannelBuffer data) {
+			this.code = code;
+			this.message = message;
+			this.data = data;
+		}
+	}
+
+
+	private static abstract class PendingCommand<V> {
+		final OdinAgentFuture<V> future = new OdinAgentFuture<V>();
+
+		abstract boolean expectsData();
+		abstract void complete(ControlSocketReply reply);
+	}
+
+
+	private static class ReadCommand<V> extends PendingCommand<V> {
+		private final ReadHandlerParser<V> parser;
+
+		ReadCommand(ReadHandlerParser<V> parser) {
+			this.parser = parser;
+		}
+
+		@Override
+		boolean expectsData() {
+			return true;
+		}
+
+		@Override
+		void complete(ControlSocketReply reply) {
+			if (reply.code != CLICK_CODE_OK || reply.data == null) {
+				future.setException(new IOException("Read handler failed: " + reply.code + " " + reply.message));
+				return;
+			}
+
+			try {
+				future.set(parser.parse(reply.data));
+			} catch (RuntimeException e) {
+				future.setException(e);
+			}
+		}
+	}
+
+
+	private static class WriteCommand extends PendingCommand<Integer> {
+		@Override
+		boolean expectsData() {
+			return false;
+		}
+
+		@Override
+		void complete(ControlSocketReply reply) {
+			future.set(reply.code);
+		}
+	}
+
+
+	/**
+	 * Splits the control socket's byte stream into replies. A reply
+	 * is a status line ("200 Read handler 'x' OK"), followed by
+	 * "DATA <n>" and n bytes of payload for successful reads. The
+	 * greeting banner and multi-line continuations ("200-...") are
+	 * skipped.
+	 */
+	private class ControlSocketDecoder extends FrameDecoder {
+
+		@Override
+		protected Object decode(ChannelHandlerContext ctx, Channel ch,
+				ChannelBuffer buf) throws Exception {
+
+			while (true) {
+				buf.markReaderIndex();
+				String line = readLine(buf);
+
+				if (line == null) {
+					buf.resetReaderIndex();
+					return null;
+				}
+
+				if (!isFinalStatusLine(line))
+					continue;
+
+				int code = Integer.parseInt(line.substring(0, 3));
+				String message = line.substring(4);
+				PendingCommand<?> head = pendingCommands.peek();
+
+				if (head == null || !head.expectsData() || code != CLICK_CODE_OK) {
+					return new ControlSocketReply(code, message, null);
+				}
+
+				String dataLine = readLine(buf);
+
+				if (dataLine == null) {
+					buf.resetReaderIndex();
+					return null;
+				}
+
+				if (!dataLine.startsWith(DATA_PREFIX)) {
+					log.error("Expected DATA line from control socket, got: " + dataLine);
+					return new ControlSocketReply(code, message, null);
+				}
+
+				int numBytes = Integer.parseInt(dataLine.substring(DATA_PREFIX.length()).trim());
+
+				if (buf.readableBytes() < numBytes) {
+					buf.resetReaderIndex();
+					return null;
+				}
+
+				// Hand out a view of the payload rather than a copy. It
+				// is parsed before the decoder touches the buffer again.
+				ChannelBuffer data = buf.slice(buf.readerIndex(), numBytes);
+				buf.skipBytes(numBytes);
+
+				return new ControlSocketReply(code, message, data);
+			}
+		}
+
+		private String readLine(ChannelBuffer buf) {
+			int eol = buf.indexOf(buf.readerIndex(), buf.writerIndex(), (byte) '\n');
+
+			if (eol < 0)
+				return null;
+
+			int length = eol - buf.readerIndex();
+
+			if (length > 0 && buf.getByte(eol - 1) == '\r')
+				length--;
+
+			String line = buf.toString(buf.readerIndex(), length, ASCII);
+			buf.readerIndex(eol + 1);
+
+			return line;
+		}
+
+		private boolean isFinalStatusLine(String line) {
+			return line.length() >= 4
+					&& Character.isDigit(line.charAt(0))
+					&& Character.isDigit(line.charAt(1))
+					&& Character.isDigit(line.charAt(2))
+					&& line.charAt(3) == ' ';
+		}
+	}
+
+
+	private class ControlSocketHandler extends SimpleChannelUpstreamHandler {
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+				throws Exception {
+			ControlSocketReply reply = (ControlSocketReply) e.getMessage();
+			PendingCommand<?> cmd = pendingCommands.poll();
+
+			if (cmd == null) {
+				log.warn("Unsolicited reply from control socket: " + reply.code + " " + reply.message);
+				return;
+			}
+
+			cmd.complete(reply);
+		}
+
+		@Override
+		public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+				throws Exception {
+			failPendingCommands(new IOException("Control socket closed"));
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
+				throws Exception {
+			log.error("Error on agent control socket " + e.getChannel().getRemoteAddress() + ": " + e.getCause());
+			e.getChannel().close();
+		}
+	}
+}
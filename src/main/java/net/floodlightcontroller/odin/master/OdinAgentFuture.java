@@ -0,0 +1,163 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Future for the result of a command issued against an
+ * OdinAgent's control socket. It is completed by the agent's
+ * control channel once Click has responded to the command, or
+ * failed if the command could not be delivered.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class OdinAgentFuture<V> implements Future<V> {
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private volatile V result;
+	private volatile Throwable cause;
+	private volatile boolean canceled = false;
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+
+	/**
+	 * Create a future that has already completed with
+	 * the given value. Used by agents that don't talk
+	 * to a real control socket.
+	 *
+	 * @param value the result
+	 * @return a completed future
+	 */
+	static <T> OdinAgentFuture<T> completed(T value) {
+		OdinAgentFuture<T> future = new OdinAgentFuture<T>();
+		future.set(value);
+		return future;
+	}
+
+
+	/**
+	 * Complete the future with a value. Has no effect if
+	 * the future is already done.
+	 *
+	 * @param value the result
+	 * @return true if this call completed the future
+	 */
+	boolean set(V value) {
+		synchronized (latch) {
+			if (isDone())
+				return false;
+
+			result = value;
+			latch.countDown();
+		}
+		notifyListeners();
+		return true;
+	}
+
+
+	/**
+	 * Fail the future. Has no effect if the future is
+	 * already done.
+	 *
+	 * @param t the reason for the failure
+	 * @return true if this call completed the future
+	 */
+	boolean setException(Throwable t) {
+		synchronized (latch) {
+			if (isDone())
+				return false;
+
+			cause = t;
+			latch.countDown();
+		}
+		notifyListeners();
+		return true;
+	}
+
+	/**
+	 * Run a task once the future is done, on the thread that
+	 * completes it. If the future is already done, the task is
+	 * run right away on the calling thread. Tasks should be
+	 * short, as they hold up the control channel's I/O thread.
+	 *
+	 * @param listener the task
+	 */
+	void addListener(Runnable listener) {
+		synchronized (latch) {
+			if (!isDone()) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+
+	private void notifyListeners() {
+		List<Runnable> toRun;
+
+		synchronized (latch) {
+			toRun = listeners;
+			listeners = null;
+		}
+
+		for (Runnable listener: toRun) {
+			listener.run();
+		}
+	}
+
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (latch) {
+			if (isDone())
+				return false;
+
+			canceled = true;
+			latch.countDown();
+		}
+		notifyListeners();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return canceled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException();
+
+		return getResult();
+	}
+
+	private V getResult() throws ExecutionException {
+		if (canceled)
+			throw new CancellationException();
+
+		if (cause != null)
+			throw new ExecutionException(cause);
+
+		return result;
+	}
+}
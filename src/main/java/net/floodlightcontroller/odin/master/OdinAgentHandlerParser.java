@@ -0,0 +1,498 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Parsers for the payloads of the OdinAgent's read handlers. They work
+ * directly on the bytes of the control socket's receive buffer instead
+ * of first copying the payload into a String and splitting it, so a
+ * large table costs one pass over the bytes and only the allocations
+ * needed for the result itself.
+ *
+ * The buffers handed to these methods are views of the channel's
+ * receive buffer, and are only valid for the duration of the call.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+final class OdinAgentHandlerParser {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte SPACE = ' ';
+	private static final byte NEWLINE = '\n';
+	private static final byte COLON = ':';
+
+	// rxstats property names, shared instead of allocated per row
+	private static final String[] RX_STAT_KEYS = {"signal", "noise", "rate", "packets", "last_received"};
+	private static final int RX_STAT_SIGNAL = 0;
+	private static final int RX_STAT_NOISE = 1;
+	private static final int RX_STAT_RATE = 2;
+	private static final int RX_STAT_PACKETS = 3;
+	private static final int RX_STAT_LAST_RECEIVED = 4;
+
+	// spectral_scan properties, and the range of each column
+	private static final String SCAN_BUSY = "busy";
+	private static final String SCAN_NOISE = "noise";
+	private static final int MAX_CHANNEL = 255;
+	private static final int MAX_BUSY = 100;
+	private static final int MIN_NOISE = -128;
+	private static final int MAX_NOISE = 0;
+
+	// Returned by the number parsers for malformed input
+	static final long MALFORMED = Long.MIN_VALUE;
+	private static final int MICROS_DIGITS = 6;
+
+	private OdinAgentHandlerParser() {
+	}
+
+
+	/**
+	 * Parse the rxstats handler. Every row looks like this:
+	 *
+	 *   <sta_mac> prop1:<value> prop2:<value> ...
+	 *
+	 * Rows that don't have exactly numProperties properties are skipped.
+	 *
+	 * @param buf handler payload
+	 * @param numProperties number of properties expected per row
+	 * @return A map of stations' MAC addresses to a map of properties and values.
+	 */
+	static Map<MACAddress, Map<String, String>> parseRxStats(ChannelBuffer buf, int numProperties) {
+		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
+		final int end = buf.writerIndex();
+		int pos = buf.readerIndex();
+
+		while (pos < end) {
+			int eol = lineEnd(buf, pos, end);
+
+			if (countTokens(buf, pos, eol) == numProperties + 1) {
+				int macEnd = tokenEnd(buf, pos, eol);
+				long mac = parseMacAddress(buf, pos, macEnd);
+
+				if (mac >= 0) {
+					Map<String, String> innerMap = new HashMap<String, String>(numProperties * 2);
+					int tokenStart = macEnd + 1;
+
+					while (tokenStart < eol) {
+						int tokenEnd = tokenEnd(buf, tokenStart, eol);
+						int colon = buf.indexOf(tokenStart, tokenEnd, COLON);
+
+						if (colon > tokenStart) {
+							innerMap.put(rxStatKey(buf, tokenStart, colon),
+										buf.toString(colon + 1, tokenEnd - colon - 1, ASCII));
+						}
+
+						tokenStart = tokenEnd + 1;
+					}
+
+					ret.put(MACAddress.valueOf(mac), Collections.unmodifiableMap(innerMap));
+				}
+			}
+
+			pos = eol + 1;
+		}
+
+		return Collections.unmodifiableMap(ret);
+	}
+
+
+	/**
+	 * Parse the rxstats handler into a typed table. The table is
+	 * cleared first. Rows that don't have exactly numProperties
+	 * properties, or that have a malformed value, are skipped.
+	 *
+	 * @param buf handler payload
+	 * @param numProperties number of properties expected per row
+	 * @param table table to fill
+	 * @return the table
+	 */
+	static OdinRxStatsTable parseRxStats(ChannelBuffer buf, int numProperties, OdinRxStatsTable table) {
+		long[] values = new long[RX_STAT_KEYS.length];
+		final int end = buf.writerIndex();
+		int pos = buf.readerIndex();
+
+		table.clear();
+
+		while (pos < end) {
+			int eol = lineEnd(buf, pos, end);
+
+			if (countTokens(buf, pos, eol) == numProperties + 1) {
+				int macEnd = tokenEnd(buf, pos, eol);
+				long mac = parseMacAddress(buf, pos, macEnd);
+				boolean valid = (mac >= 0);
+				int tokenStart = macEnd + 1;
+
+				Arrays.fill(values, 0);
+
+				while (valid && tokenStart < eol) {
+					int tokenEnd = tokenEnd(buf, tokenStart, eol);
+					int colon = buf.indexOf(tokenStart, tokenEnd, COLON);
+					int property = (colon > tokenStart) ? rxStatProperty(buf, tokenStart, colon) : -1;
+
+					if (property >= 0) {
+						long value = (property == RX_STAT_LAST_RECEIVED)
+										? parseTimestampMicros(buf, colon + 1, tokenEnd)
+										: parseLong(buf, colon + 1, tokenEnd);
+						valid = (value != MALFORMED);
+						values[property] = value;
+					}
+
+					tokenStart = tokenEnd + 1;
+				}
+
+				if (valid) {
+					table.put(mac, (int) values[RX_STAT_SIGNAL], (int) values[RX_STAT_NOISE],
+								(int) values[RX_STAT_RATE], values[RX_STAT_PACKETS],
+								values[RX_STAT_LAST_RECEIVED]);
+				}
+			}
+
+			pos = eol + 1;
+		}
+
+		return table;
+	}
+
+
+	/**
+	 * Parse the spectral_scan handler into a scan. The scan is
+	 * cleared first. Every row looks like this:
+	 *
+	 *   <channel> busy:<percent> noise:<dBm>
+	 *
+	 * Rows without a busy value, or with a value out of range,
+	 * are skipped. Other properties are ignored.
+	 *
+	 * @param buf handler payload
+	 * @param scan scan to fill
+	 * @return the scan
+	 */
+	static OdinSpectralScan parseSpectralScan(ChannelBuffer buf, OdinSpectralScan scan) {
+		final int end = buf.writerIndex();
+		int pos = buf.readerIndex();
+
+		scan.clear();
+
+		while (pos < end) {
+			int eol = lineEnd(buf, pos, end);
+			int channelEnd = tokenEnd(buf, pos, eol);
+			long channel = parseLong(buf, pos, channelEnd);
+			long busy = MALFORMED;
+			long noise = MIN_NOISE;
+			boolean valid = (channel > 0 && channel <= MAX_CHANNEL);
+			int tokenStart = channelEnd + 1;
+
+			while (valid && tokenStart < eol) {
+				int tokenEnd = tokenEnd(buf, tokenStart, eol);
+				int colon = buf.indexOf(tokenStart, tokenEnd, COLON);
+
+				if (colon > tokenStart) {
+					if (matches(buf, tokenStart, colon, SCAN_BUSY)) {
+						busy = parseLong(buf, colon + 1, tokenEnd);
+						valid = (busy >= 0 && busy <= MAX_BUSY);
+					}
+					else if (matches(buf, tokenStart, colon, SCAN_NOISE)) {
+						noise = parseLong(buf, colon + 1, tokenEnd);
+						valid = (noise >= MIN_NOISE && noise <= MAX_NOISE);
+					}
+				}
+
+				tokenStart = tokenEnd + 1;
+			}
+
+			if (valid && busy != MALFORMED) {
+				scan.put((int) channel, (int) busy, (int) noise);
+			}
+
+			pos = eol + 1;
+		}
+
+		return scan;
+	}
+
+
+	/**
+	 * Parse the table handler. Every row looks like this:
+	 *
+	 *   <sta_mac> <ipv4addr> <lvap bssid> <lvap ssid list>
+	 *
+	 * Parsing stops at the first empty row.
+	 *
+	 * @param buf handler payload
+	 * @param agent the agent that is hosting the LVAPs
+	 * @return a set of OdinClient entities on the agent
+	 */
+	static Set<OdinClient> parseLvapTable(ChannelBuffer buf, IOdinAgent agent) {
+		ConcurrentSkipListSet<OdinClient> clients = new ConcurrentSkipListSet<OdinClient>();
+		final int end = buf.writerIndex();
+		int pos = buf.readerIndex();
+
+		while (pos < end) {
+			int eol = lineEnd(buf, pos, end);
+
+			if (eol == pos)
+				break;
+
+			int staEnd = tokenEnd(buf, pos, eol);
+			int ipEnd = tokenEnd(buf, staEnd + 1, eol);
+			int bssidEnd = tokenEnd(buf, ipEnd + 1, eol);
+
+			long staMac = parseMacAddress(buf, pos, staEnd);
+			byte[] ipAddr = parseIpv4Address(buf, staEnd + 1, ipEnd);
+			long bssid = parseMacAddress(buf, ipEnd + 1, bssidEnd);
+
+			if (staMac >= 0 && ipAddr != null && bssid >= 0) {
+				// First, get the list of all the SSIDs
+				ArrayList<String> ssidList = new ArrayList<String>();
+				int tokenStart = bssidEnd + 1;
+
+				while (tokenStart < eol) {
+					int tokenEnd = tokenEnd(buf, tokenStart, eol);
+
+					if (tokenEnd > tokenStart) {
+						ssidList.add(buf.toString(tokenStart, tokenEnd - tokenStart, ASCII));
+					}
+
+					tokenStart = tokenEnd + 1;
+				}
+
+				try {
+					Lvap lvap = new Lvap(MACAddress.valueOf(bssid), ssidList);
+					OdinClient oc = new OdinClient(MACAddress.valueOf(staMac),
+										InetAddress.getByAddress(ipAddr), lvap);
+					lvap.setAgent(agent);
+					clients.add(oc);
+				} catch (UnknownHostException e) {
+					// Can't happen for a 4 byte address
+					e.printStackTrace();
+				}
+			}
+
+			pos = eol + 1;
+		}
+
+		return clients;
+	}
+
+
+	/**
+	 * Parse a colon separated MAC address
+	 *
+	 * @return the address as a long, or -1 if it is malformed
+	 */
+	static long parseMacAddress(ChannelBuffer buf, int from, int to) {
+		if (to - from != 17)
+			return -1;
+
+		long mac = 0;
+
+		for (int i = 0; i < MACAddress.MAC_ADDRESS_LENGTH; i++) {
+			int index = from + i * 3;
+			int hi = hexValue(buf.getByte(index));
+			int lo = hexValue(buf.getByte(index + 1));
+
+			if (hi < 0 || lo < 0)
+				return -1;
+
+			if (i < MACAddress.MAC_ADDRESS_LENGTH - 1 && buf.getByte(index + 2) != COLON)
+				return -1;
+
+			mac = (mac << 8) | (hi << 4) | lo;
+		}
+
+		return mac;
+	}
+
+
+	/**
+	 * Parse a dotted-quad IPv4 address
+	 *
+	 * @return the address bytes, or null if it is malformed
+	 */
+	static byte[] parseIpv4Address(ChannelBuffer buf, int from, int to) {
+		byte[] addr = new byte[4];
+		int octet = 0;
+		int value = 0;
+		int digits = 0;
+
+		for (int i = from; i < to; i++) {
+			byte b = buf.getByte(i);
+
+			if (b == '.') {
+				if (digits == 0 || octet == 3)
+					return null;
+
+				addr[octet++] = (byte) value;
+				value = 0;
+				digits = 0;
+			}
+			else if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+
+				if (++digits > 3 || value > 255)
+					return null;
+			}
+			else {
+				return null;
+			}
+		}
+
+		if (digits == 0 || octet != 3)
+			return null;
+
+		addr[3] = (byte) value;
+
+		return addr;
+	}
+
+
+	/**
+	 * Parse a signed decimal number
+	 *
+	 * @return the number, or MALFORMED
+	 */
+	static long parseLong(ChannelBuffer buf, int from, int to) {
+		boolean negative = (from < to && buf.getByte(from) == '-');
+		int i = negative ? from + 1 : from;
+
+		// Longer than 18 digits could overflow
+		if (i >= to || to - i > 18)
+			return MALFORMED;
+
+		long value = 0;
+
+		for (; i < to; i++) {
+			byte b = buf.getByte(i);
+
+			if (b < '0' || b > '9')
+				return MALFORMED;
+
+			value = value * 10 + (b - '0');
+		}
+
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * Parse a Click timestamp ("<sec>.<subsec>") into microseconds.
+	 * Sub-second digits beyond microseconds are dropped.
+	 *
+	 * @return the timestamp in microseconds, or MALFORMED
+	 */
+	static long parseTimestampMicros(ChannelBuffer buf, int from, int to) {
+		int dot = buf.indexOf(from, to, (byte) '.');
+		long sec = parseLong(buf, from, (dot < 0) ? to : dot);
+
+		if (sec == MALFORMED || sec < 0)
+			return MALFORMED;
+
+		long micros = 0;
+
+		if (dot >= 0) {
+			int digits = 0;
+
+			for (int i = dot + 1; i < to; i++) {
+				byte b = buf.getByte(i);
+
+				if (b < '0' || b > '9')
+					return MALFORMED;
+
+				if (digits++ < MICROS_DIGITS)
+					micros = micros * 10 + (b - '0');
+			}
+
+			for (; digits < MICROS_DIGITS; digits++) {
+				micros *= 10;
+			}
+		}
+
+		return sec * 1000000 + micros;
+	}
+
+
+	/**
+	 * @return index of the end of the line starting at pos
+	 */
+	static int lineEnd(ChannelBuffer buf, int pos, int end) {
+		int eol = buf.indexOf(pos, end, NEWLINE);
+		return (eol < 0) ? end : eol;
+	}
+
+
+	/**
+	 * @return index of the end of the token starting at pos
+	 */
+	static int tokenEnd(ChannelBuffer buf, int pos, int eol) {
+		if (pos >= eol)
+			return eol;
+
+		int space = buf.indexOf(pos, eol, SPACE);
+		return (space < 0) ? eol : space;
+	}
+
+
+	private static int countTokens(ChannelBuffer buf, int pos, int eol) {
+		int count = 0;
+
+		while (pos < eol) {
+			count++;
+			pos = tokenEnd(buf, pos, eol) + 1;
+		}
+
+		return count;
+	}
+
+
+	private static String rxStatKey(ChannelBuffer buf, int from, int to) {
+		int property = rxStatProperty(buf, from, to);
+
+		return (property >= 0) ? RX_STAT_KEYS[property] : buf.toString(from, to - from, ASCII);
+	}
+
+
+	private static int rxStatProperty(ChannelBuffer buf, int from, int to) {
+		for (int i = 0; i < RX_STAT_KEYS.length; i++) {
+			if (matches(buf, from, to, RX_STAT_KEYS[i]))
+				return i;
+		}
+
+		return -1;
+	}
+
+
+	static boolean matches(ChannelBuffer buf, int from, int to, String s) {
+		if (to - from != s.length())
+			return false;
+
+		for (int i = 0; i < s.length(); i++) {
+			if (buf.getByte(from + i) != s.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+
+	private static int hexValue(byte b) {
+		if (b >= '0' && b <= '9')
+			return b - '0';
+		if (b >= 'a' && b <= 'f')
+			return b - 'a' + 10;
+		if (b >= 'A' && b <= 'F')
+			return b - 'A' + 10;
+		return -1;
+	}
+}
@@ -1,19 +1,39 @@
 package net.floodlightcontroller.odin.master;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.util.MACAddress;
 
+/**
+ * Receives the agents' ping, probe and publish messages, and
+ * the messages of other masters if the master is one of a cluster.
+ *
+ * A single thread drains every datagram that is ready on each wakeup
+ * into pooled direct buffers, and hands them to the executor in
+ * batches. Messages are parsed in place, so the only objects created
+ * per message are the ones passed on to the master.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
 class OdinAgentProtocolServer implements Runnable {
     protected static Logger log = LoggerFactory.getLogger(OdinAgentProtocolServer.class);
 
@@ -22,100 +42,333 @@ class OdinAgentProtocolServer implements Runnable {
 	private final String ODIN_MSG_PROBE = "probe";
 	private final String ODIN_MSG_PUBLISH = "publish";
 
+	// Agent messages are well below this
+	static final int MAX_DATAGRAM_SIZE = 1024;
+	static final int MAX_BATCH_SIZE = 64;
+	private static final int MAX_POOLED_BUFFERS = 1024;
+
+	private static final Charset SSID_CHARSET = Charset.defaultCharset();
+	private static final Charset CLUSTER_CHARSET = Charset.forName("US-ASCII");
+
 	private final int ODIN_SERVER_PORT;
-	
-	private DatagramSocket controllerSocket;
+
 	private final ExecutorService executor;
 	private final OdinMaster odinMaster;
+	private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS);
 
 	public OdinAgentProtocolServer (OdinMaster om, int port, ExecutorService executor) {
-		this.odinMaster = om; 
+		this.odinMaster = om;
 		this.ODIN_SERVER_PORT = port;
 		this.executor = executor;
 	}
-	
+
 	@Override
 	public void run() {
-		
+		DatagramChannel channel = null;
+		Selector selector = null;
+
 		try {
-			controllerSocket = new DatagramSocket(ODIN_SERVER_PORT);
+			channel = DatagramChannel.open();
+			channel.socket().bind(new InetSocketAddress(ODIN_SERVER_PORT));
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
 		} catch (IOException e) {
+			log.error("Unable to open the agent protocol socket on port " + ODIN_SERVER_PORT);
 			e.printStackTrace();
+			close(channel, selector);
+			return;
 		}
-		
-		while(true)	{
-			
+
+		while (!Thread.currentThread().isInterrupted()) {
+
 			try {
-				final byte[] receiveData = new byte[1024]; // We can probably live with less
-				final DatagramPacket receivedPacket = new DatagramPacket(receiveData, receiveData.length);
-				controllerSocket.receive(receivedPacket);
-				
-				executor.execute(new OdinAgentConnectionHandler(receivedPacket));
+				selector.select();
+				selector.selectedKeys().clear();
+				drain(channel);
 			}
 			catch (IOException e) {
-				log.error("controllerSocket.accept() failed: " + ODIN_SERVER_PORT);
+				log.error("Receiving on the agent protocol socket failed: " + ODIN_SERVER_PORT);
 				e.printStackTrace();
 				System.exit(-1);
 			}
 		}
+
+		close(channel, selector);
+	}
+
+
+	/**
+	 * Read every datagram that is ready, and dispatch them
+	 * in batches of up to MAX_BATCH_SIZE.
+	 */
+	private void drain(DatagramChannel channel) throws IOException {
+		DatagramBatch batch = new DatagramBatch();
+
+		while (true) {
+			ByteBuffer buf = takeBuffer();
+			InetSocketAddress sender = (InetSocketAddress) channel.receive(buf);
+
+			if (sender == null) {
+				releaseBuffer(buf);
+				break;
+			}
+
+			buf.flip();
+			batch.add(buf, sender.getAddress());
+
+			if (batch.isFull()) {
+				executor.execute(batch);
+				batch = new DatagramBatch();
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			executor.execute(batch);
+		}
+	}
+
+
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buf = bufferPool.poll();
+
+		return (buf == null) ? ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE) : buf;
+	}
+
+
+	private void releaseBuffer(ByteBuffer buf) {
+		buf.clear();
+
+		// If the pool is full, let the buffer go
+		bufferPool.offer(buf);
+	}
+
+
+	private void close(DatagramChannel channel, Selector selector) {
+		try {
+			if (selector != null)
+				selector.close();
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			log.error("Closing the agent protocol socket failed: " + ODIN_SERVER_PORT);
+		}
+	}
+
+
+	/**
+	 * Parse a datagram and pass it on to the master. Malformed
+	 * messages are dropped. As before, the message type is matched
+	 * regardless of case and SSIDs are lower-cased.
+	 *
+	 * If the master is one of a cluster, messages from agents that
+	 * another master owns are forwarded to it, and messages from
+	 * the other masters are handled as well, see MasterCluster.
+	 *
+	 * @param msg the datagram's payload
+	 * @param senderAddr the agent, or master, that sent it
+	 */
+	void dispatch (final ChannelBuffer msg, final InetAddress senderAddr) {
+		int end = msg.writerIndex();
+		int pos = msg.readerIndex();
+
+		// Skip surrounding whitespace and padding
+		while (pos < end && (msg.getByte(pos) & 0xff) <= ' ')
+			pos++;
+		while (end > pos && (msg.getByte(end - 1) & 0xff) <= ' ')
+			end--;
+
+		MasterCluster cluster = odinMaster.getCluster();
+
+		if (cluster != null) {
+			int typeEnd = OdinAgentHandlerParser.tokenEnd(msg, pos, end);
+
+			if (matchesIgnoreCase(msg, pos, typeEnd, MasterCluster.MSG_FORWARD)) {
+				receiveForward(cluster, msg, typeEnd + 1, end, senderAddr);
+				return;
+			}
+
+			if (matchesIgnoreCase(msg, pos, typeEnd, MasterCluster.MSG_CLUSTER)) {
+				cluster.receive(senderAddr, msg.toString(pos, end - pos, CLUSTER_CHARSET));
+				return;
+			}
+
+			if (!cluster.ownsAgent(senderAddr)) {
+				cluster.forward(senderAddr, msg, pos, end);
+				return;
+			}
+		}
+
+		dispatchAgentMessage(msg, pos, end, senderAddr);
+	}
+
+
+	/**
+	 * Handle an agent's message forwarded by another master. It
+	 * is handled here whoever owns the agent, so that masters
+	 * that disagree about it don't pass it back and forth.
+	 */
+	private void receiveForward(MasterCluster cluster, ChannelBuffer msg, int pos, int end, InetAddress senderAddr) {
+		int addrEnd = OdinAgentHandlerParser.tokenEnd(msg, pos, end);
+
+		if (addrEnd >= end || !cluster.isPeerAddress(senderAddr)) {
+			log.debug("Dropping forwarded message from " + senderAddr);
+			return;
+		}
+
+		InetAddress odinAgentAddr;
+
+		try {
+			odinAgentAddr = InetAddress.getByName(msg.toString(pos, addrEnd - pos, CLUSTER_CHARSET));
+		} catch (UnknownHostException e) {
+			log.debug("Dropping forwarded message with a malformed address from " + senderAddr);
+			return;
+		}
+
+		dispatchAgentMessage(msg, addrEnd + 1, end, odinAgentAddr);
+	}
+
+
+	/**
+	 * Parse an agent message and pass it on to the master
+	 *
+	 * @param msg holds the message
+	 * @param pos start of the message
+	 * @param end end of the message
+	 * @param odinAgentAddr the agent that sent it
+	 */
+	private void dispatchAgentMessage (final ChannelBuffer msg, final int pos, final int end, final InetAddress odinAgentAddr) {
+		int typeEnd = OdinAgentHandlerParser.tokenEnd(msg, pos, end);
+
+		if (matchesIgnoreCase(msg, pos, typeEnd, ODIN_MSG_PING)) {
+			receivePing(odinAgentAddr);
+			return;
+		}
+
+		// 2nd part of probes and publishes should
+		// contain the STA's MAC address
+		int staStart = typeEnd + 1;
+		int staEnd = OdinAgentHandlerParser.tokenEnd(msg, staStart, end);
+		long staAddress = OdinAgentHandlerParser.parseMacAddress(msg, staStart, staEnd);
+
+		if (matchesIgnoreCase(msg, pos, typeEnd, ODIN_MSG_PROBE)) {
+			if (staAddress == -1) {
+				log.debug("Dropping probe with a malformed address from " + odinAgentAddr);
+				return;
+			}
+
+			String ssid = "";
+
+			if (staEnd < end) {
+				//SSID is specified in the scan
+				ssid = msg.toString(staEnd + 1, end - staEnd - 1, SSID_CHARSET).toLowerCase();
+			}
+
+			receiveProbe(odinAgentAddr, MACAddress.valueOf(staAddress), ssid);
+		}
+		else if (matchesIgnoreCase(msg, pos, typeEnd, ODIN_MSG_PUBLISH)) {
+			int countEnd = OdinAgentHandlerParser.tokenEnd(msg, staEnd + 1, end);
+			long count = OdinAgentHandlerParser.parseLong(msg, staEnd + 1, countEnd);
+
+			if (staAddress == -1 || count < 0) {
+				log.debug("Dropping malformed publish from " + odinAgentAddr);
+				return;
+			}
+
+			final Map<Long, Long> matchingIds = new HashMap<Long,Long> ();
+			int fieldEnd = countEnd;
+
+			for (int i = 0; i < count; i++) {
+				int fieldStart = fieldEnd + 1;
+				fieldEnd = OdinAgentHandlerParser.tokenEnd(msg, fieldStart, end);
+				int colon = (fieldStart < fieldEnd) ? msg.indexOf(fieldStart, fieldEnd, (byte) ':') : -1;
+
+				long id = (colon < 0) ? OdinAgentHandlerParser.MALFORMED
+									  : OdinAgentHandlerParser.parseLong(msg, fieldStart, colon);
+				long value = (colon < 0) ? OdinAgentHandlerParser.MALFORMED
+										 : OdinAgentHandlerParser.parseLong(msg, colon + 1, fieldEnd);
+
+				if (id == OdinAgentHandlerParser.MALFORMED || value == OdinAgentHandlerParser.MALFORMED) {
+					log.debug("Dropping malformed publish from " + odinAgentAddr);
+					return;
+				}
+
+				matchingIds.put(id, value);
+			}
+
+			receivePublish(MACAddress.valueOf(staAddress), odinAgentAddr, matchingIds);
+		}
 	}
-	
+
+
+	private static boolean matchesIgnoreCase(ChannelBuffer buf, int from, int to, String s) {
+		if (to - from != s.length())
+			return false;
+
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.toLowerCase((char) buf.getByte(from + i)) != s.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
 	/** Protocol handlers **/
-	
+
 	private void receivePing (final InetAddress odinAgentAddr) {
 		odinMaster.receivePing(odinAgentAddr);
 	}
-	
+
 	private void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, final String ssid) {
 		odinMaster.receiveProbe(odinAgentAddr, clientHwAddress, ssid);
 	}
-	
+
 	private void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
 		odinMaster.receivePublish(clientHwAddress, odinAgentAddr, subscriptionIds);
 	}
-	
-	private class OdinAgentConnectionHandler implements Runnable {
-		final DatagramPacket receivedPacket;
-		
-		public OdinAgentConnectionHandler(final DatagramPacket dp) {
-			receivedPacket = dp;
-		}
-		
+
+	/**
+	 * Datagrams read in one go, handled in arrival order by a single
+	 * executor thread. Buffers go back to the pool once handled.
+	 */
+	private class DatagramBatch implements Runnable {
+		private final ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH_SIZE];
+		private final InetAddress[] senders = new InetAddress[MAX_BATCH_SIZE];
+		private int size = 0;
+
+		void add(ByteBuffer buf, InetAddress sender) {
+			buffers[size] = buf;
+			senders[size] = sender;
+			size++;
+		}
+
+		boolean isFull() {
+			return size == MAX_BATCH_SIZE;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
 		// Agent message handler
-		public void run() {			
-			final String msg = new String(receivedPacket.getData()).trim().toLowerCase();
-			final String[] fields = msg.split(" ");
-			final String msg_type = fields[0];
-			final InetAddress odinAgentAddr = receivedPacket.getAddress();
-            
-            if (msg_type.equals(ODIN_MSG_PING)) {
-            	receivePing(odinAgentAddr);
-            }
-            else if (msg_type.equals(ODIN_MSG_PROBE)) {
-            	// 2nd part of message should contain
-            	// the STA's MAC address
-            	final String staAddress = fields[1];
-            	String ssid = "";
-            	
-            	if (fields.length > 2) {
-            		//SSID is specified in the scan
-            		ssid = msg.substring(ODIN_MSG_PROBE.length() + staAddress.length() + 2);
-            	}
-
-            	receiveProbe(odinAgentAddr, MACAddress.valueOf(staAddress), ssid);
-            }
-            else if (msg_type.equals(ODIN_MSG_PUBLISH)) {
-            	final String staAddress = fields[1];
-            	final int count = Integer.parseInt(fields[2]);
-            	final Map<Long, Long> matchingIds = new HashMap<Long,Long> ();
-     
-            	for (int i = 0; i < count; i++) {
-            		matchingIds.put(Long.parseLong(fields[3 + i].split(":")[0]),
-            				Long.parseLong(fields[3 + i].split(":")[1]));
-            	}
-            	
-            	receivePublish(MACAddress.valueOf(staAddress), odinAgentAddr, matchingIds);
-            }
+		public void run() {
+			RuntimeException failure = null;
+
+			for (int i = 0; i < size; i++) {
+				try {
+					dispatch(ChannelBuffers.wrappedBuffer(buffers[i]), senders[i]);
+				} catch (RuntimeException e) {
+					// Don't let one message hold up the rest of the batch
+					if (failure == null)
+						failure = e;
+				} finally {
+					releaseBuffer(buffers[i]);
+					buffers[i] = null;
+				}
+			}
+
+			if (failure != null)
+				throw failure;
 		}
 	}
 }
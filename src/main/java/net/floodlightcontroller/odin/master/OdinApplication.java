@@ -62,7 +62,8 @@ public abstract class OdinApplication implements Runnable {
 	/**
 	 * Get the list of clients currently registered with Odin
 	 * 
-	 * @return a map of OdinClient objects keyed by HW Addresses
+	 * @return an immutable snapshot of the clients in the pool,
+	 *         which is safe to iterate without copying it
 	 */
 	protected final Set<OdinClient> getClients () {
 		return odinApplicationInterface.getClients(pool);		
@@ -90,6 +91,69 @@ public abstract class OdinApplication implements Runnable {
 		return odinApplicationInterface.getRxStatsFromAgent(pool, agentAddr);
 	}
 	
+	
+	/**
+	 * Retreive RxStats from the agent into a typed table. Reusing
+	 * the table across polls avoids re-parsing and re-allocating
+	 * the statistics every time. Always carry on with the table
+	 * returned: if the agent didn't answer in time, the table
+	 * passed in is dropped and a new one is returned.
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * @param table table to fill, or null to allocate one
+	 * 
+	 * @return the table, with a row for each client the agent has heard
+	 */
+	protected final OdinRxStatsTable getRxStatsTableFromAgent (InetAddress agentAddr, OdinRxStatsTable table) {
+		return odinApplicationInterface.getRxStatsTableFromAgent(pool, agentAddr, table);
+	}
+	
+	
+	/**
+	 * Retreive RxStats from all agents of the pool concurrently.
+	 * The sweep passed in is recycled, and must not be used by
+	 * the application afterwards.
+	 * 
+	 * @param timeoutMs deadline for each agent
+	 * @param previous the previous sweep, or null
+	 * 
+	 * @return the stats and latency of each agent that answered in time
+	 */
+	protected final OdinRxStatsSweep getRxStatsFromAgents (long timeoutMs, OdinRxStatsSweep previous) {
+		return odinApplicationInterface.getRxStatsFromAgents(pool, timeoutMs, previous);
+	}
+	
+	
+	/**
+	 * Get the recent spectral scans of a channel around an agent.
+	 * Scans are collected by the master, so this doesn't query
+	 * the agent.
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * @param channel the channel
+	 * @param windowMs how far back to go
+	 * 
+	 * @return the agent's scans of the channel, oldest first, or
+	 *         null if it hasn't scanned the channel
+	 */
+	protected final OdinChannelOccupancy getChannelOccupancy (InetAddress agentAddr, int channel, long windowMs) {
+		return odinApplicationInterface.getChannelOccupancy(pool, agentAddr, channel, windowMs);
+	}
+	
+	
+	/**
+	 * Rate the channels by how much interference the agents of
+	 * the pool have seen on them, for channel planning.
+	 * 
+	 * @param windowMs how far back to go
+	 * 
+	 * @return for each channel scanned, the mean share of busy
+	 *         samples across the pool's agents, from 0 to 1
+	 */
+	protected final Map<Integer, Double> getInterferenceIndex (long windowMs) {
+		return odinApplicationInterface.getInterferenceIndex(pool, windowMs);
+	}
+	
 	/**
 	 * Get a list of Odin agents from the agent tracker
 	 * @return a map of OdinAgent objects keyed by Ipv4 addresses
@@ -99,6 +163,18 @@ public abstract class OdinApplication implements Runnable {
 	}
 	
 	
+	/**
+	 * Get the agents that have recently heard probes from a client.
+	 * Useful to find candidate agents to place the client on.
+	 * 
+	 * @param clientHwAddress MAC address of the client
+	 * @return addresses of the agents that heard the client
+	 */
+	protected final Set<InetAddress> getAgentsHearingClient (MACAddress clientHwAddress) {
+		return odinApplicationInterface.getAgentsHearingClient(pool, clientHwAddress);
+	}
+	
+	
 	/**
 	 * Add a subscription for a particular event defined by oes. cb is
 	 * defines the application specified callback to be invoked during
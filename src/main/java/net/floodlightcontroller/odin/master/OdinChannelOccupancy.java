@@ -0,0 +1,88 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+
+/**
+ * How busy a channel has been around one agent, as a time series
+ * of the agent's spectral scans, oldest first. A snapshot is a
+ * copy, and doesn't change as later scans come in.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinChannelOccupancy {
+	private final InetAddress agentAddr;
+	private final int channel;
+	private final long[] timeMillis;
+	private final int[] busy;
+	private final int[] noise;
+
+
+	OdinChannelOccupancy(InetAddress agentAddr, int channel, long[] timeMillis, int[] busy, int[] noise) {
+		this.agentAddr = agentAddr;
+		this.channel = channel;
+		this.timeMillis = timeMillis;
+		this.busy = busy;
+		this.noise = noise;
+	}
+
+
+	public InetAddress getAgentAddr() {
+		return agentAddr;
+	}
+
+
+	public int getChannel() {
+		return channel;
+	}
+
+
+	/**
+	 * @return number of scans in the series
+	 */
+	public int size() {
+		return timeMillis.length;
+	}
+
+
+	/**
+	 * @return when the i-th scan was collected, in ms since the epoch
+	 */
+	public long getTimeMillis(int i) {
+		return timeMillis[i];
+	}
+
+
+	/**
+	 * @return percentage of samples that were busy in the i-th scan
+	 */
+	public int getBusy(int i) {
+		return busy[i];
+	}
+
+
+	/**
+	 * @return noise floor in the i-th scan, in dBm, or -128
+	 *         if the agent didn't report one
+	 */
+	public int getNoise(int i) {
+		return noise[i];
+	}
+
+
+	/**
+	 * @return mean busy percentage over the series, 0 if it is empty
+	 */
+	public double getMeanBusy() {
+		if (busy.length == 0)
+			return 0;
+
+		long sum = 0;
+
+		for (int b: busy) {
+			sum += b;
+		}
+
+		return (double) sum / busy.length;
+	}
+}
@@ -10,8 +10,8 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
 @JsonSerialize(using=OdinClientSerializer.class)
 public class OdinClient implements Comparable {
 	private final MACAddress hwAddress;
-	private InetAddress ipAddress;
-	private Lvap lvap;
+	private volatile InetAddress ipAddress;
+	private volatile Lvap lvap;
 	
 
 	// NOTE: Will need to add security token and temporal keys here later.
@@ -85,6 +85,12 @@ public class OdinClient implements Comparable {
 	}
 
 	
+	@Override
+	public int hashCode() {
+		return hwAddress.hashCode();
+	}
+
+	
 	@Override
 	public int compareTo(Object o) {
 		assert (o instanceof OdinClient);
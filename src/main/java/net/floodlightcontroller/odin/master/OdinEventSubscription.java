@@ -24,11 +24,34 @@ public class OdinEventSubscription {
 	    LESSER_THAN,
 	};
 	
+	/**
+	 * Operators the master can apply to the events of a
+	 * subscription before they reach the application. Each
+	 * client's events from each agent are a separate stream,
+	 * except for BEST_AGENT, which ranks a client's agents.
+	 */
+	public enum Aggregate {
+		NONE,        // every event, as published
+		EWMA,        // exponentially weighted moving average
+		WINDOW_MIN,  // minimum over a sliding window
+		WINDOW_MAX,  // maximum over a sliding window
+		WINDOW_MEAN, // mean over a sliding window
+		RATE,        // change per second between consecutive events
+		BEST_AGENT,  // the client's top agents, when they change
+	};
+	
 	private String client;
 	private String statistic;
 	private Relation relation;
 	private double value;
 	
+	private Aggregate aggregate = Aggregate.NONE;
+	private double alpha = 0;
+	private int windowSamples = 0;
+	private long windowMillis = 0;
+	private int topK = 1;
+	private long minChange = 0;
+	
 	/**
 	 * @return the client
 	 */
@@ -57,6 +80,124 @@ public class OdinEventSubscription {
 		return value;
 	}
 	
+	/**
+	 * @return the operator applied to events at the master
+	 */
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+	
+	/**
+	 * @return the EWMA weight of the newest event, or 0 if unset
+	 */
+	public double getAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * @return number of events in a window, or 0 if unbounded
+	 */
+	public int getWindowSamples() {
+		return windowSamples;
+	}
+	
+	/**
+	 * @return ms covered by a window, or 0 if unbounded
+	 */
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+	
+	/**
+	 * @return number of agents ranked by BEST_AGENT
+	 */
+	public int getTopK() {
+		return topK;
+	}
+	
+	/**
+	 * @return smallest change in the aggregate that is delivered
+	 */
+	public long getMinChange() {
+		return minChange;
+	}
+	
+	/**
+	 * Smooth each stream with an exponentially weighted moving
+	 * average, new = alpha * event + (1 - alpha) * old
+	 * 
+	 * @param alpha weight of the newest event, in (0, 1]
+	 */
+	public void setEwma (double alpha) {
+		if (!(alpha > 0 && alpha <= 1))
+			throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+		
+		this.aggregate = Aggregate.EWMA;
+		this.alpha = alpha;
+	}
+	
+	/**
+	 * Aggregate each stream over a sliding window of the last
+	 * samples events, or of the events of the last millis ms,
+	 * whichever is smaller. Either bound can be 0, but not both.
+	 * 
+	 * @param op WINDOW_MIN, WINDOW_MAX or WINDOW_MEAN
+	 * @param samples
+	 * @param millis
+	 */
+	public void setWindow (Aggregate op, int samples, long millis) {
+		if (op != Aggregate.WINDOW_MIN && op != Aggregate.WINDOW_MAX && op != Aggregate.WINDOW_MEAN)
+			throw new IllegalArgumentException("Not a window operator: " + op);
+		
+		if (samples < 0 || millis < 0 || (samples == 0 && millis == 0))
+			throw new IllegalArgumentException("A window needs a size");
+		
+		this.aggregate = op;
+		this.windowSamples = samples;
+		this.windowMillis = millis;
+	}
+	
+	/**
+	 * Deliver the change per second of each stream
+	 */
+	public void setRateOfChange () {
+		this.aggregate = Aggregate.RATE;
+	}
+	
+	/**
+	 * Rank the agents that report a client by their (smoothed)
+	 * value, highest first, and deliver an event for the best
+	 * one whenever the top k agents change. Agents that haven't
+	 * reported the client for staleMillis drop out of the ranking.
+	 * 
+	 * @param k number of agents to rank
+	 * @param alpha EWMA weight used to smooth each agent's values,
+	 *        or 1 to use the latest value
+	 * @param staleMillis
+	 */
+	public void setBestAgent (int k, double alpha, long staleMillis) {
+		if (k < 1 || !(alpha > 0 && alpha <= 1) || staleMillis <= 0)
+			throw new IllegalArgumentException();
+		
+		this.aggregate = Aggregate.BEST_AGENT;
+		this.topK = k;
+		this.alpha = alpha;
+		this.windowMillis = staleMillis;
+	}
+	
+	/**
+	 * Only deliver an aggregate if it differs by at least
+	 * minChange from the last one delivered for the stream
+	 * 
+	 * @param minChange
+	 */
+	public void setMinChange (long minChange) {
+		if (minChange < 0)
+			throw new IllegalArgumentException();
+		
+		this.minChange = minChange;
+	}
+	
 	/**
 	 * Sets a subscription for an event, defined per client (or 
 	 * for all clients using *), for a particular statistic that
@@ -1,16 +1,21 @@
 package net.floodlightcontroller.odin.master;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,10 +23,17 @@ import java.util.Map.Entry;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +47,6 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
-import net.floodlightcontroller.packet.DHCP;
-import net.floodlightcontroller.packet.Ethernet;
-import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.util.MACAddress;
@@ -62,11 +71,76 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	private final LvapManager lvapManager;
 	private final PoolManager poolManager;
 	
-	private long subscriptionId = 0;
-	private String subscriptionList = "";
+	private final SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry();
 	private int idleLvapTimeout = 60; // Seconds
 	
+	// Off until startUp() reads the configured window
+	private final ProbeCoalescer probeCoalescer = new ProbeCoalescer(0);
+	
+	// Created in setExecutor(), once the thread pool has started
+	private LvapHandoffManager handoffManager;
+	private AgentOnboarder agentOnboarder;
+	
+	// Ticked from startUp()
+	private final IdleLvapReclaimer idleLvapReclaimer = new IdleLvapReclaimer();
+	
+	// Changes to clients and agents, for REST readers. Created in init()
+	private ChangeFeed changeFeed;
+	
+	// Last client set sorted for paging, see getClientSnapshot()
+	private volatile SortedClients sortedClients;
+	
+	// The other masters, if this is one of a cluster. Set in startUp()
+	private volatile MasterCluster cluster;
+	
+	// Persisted client state, if configured. Set in startUp()
+	private volatile ClientJournal clientJournal;
+	
+	// Spectral scans from the agents. Created in init(), and
+	// collected every spectralScanInterval ms, 0 for never
+	private ChannelOccupancyStore channelOccupancy;
+	private SpectralScanCollector spectralScanCollector;
+	private long spectralScanInterval = 0;
+	
 	private final ConcurrentMap<Long, SubscriptionCallbackTuple> subscriptions = new ConcurrentHashMap<Long, SubscriptionCallbackTuple>();
+	
+	// Published events are queued per callback, see ApplicationEventQueue
+	private final ConcurrentMap<NotificationCallback, ApplicationEventQueue> eventQueues = new ConcurrentHashMap<NotificationCallback, ApplicationEventQueue>();
+	private int eventQueueLanes = ApplicationEventQueue.DEFAULT_LANES;
+	private int eventQueueCapacity = ApplicationEventQueue.DEFAULT_CAPACITY;
+	private int eventBatchSize = ApplicationEventQueue.DEFAULT_BATCH_SIZE;
+	private ApplicationEventQueue.OverflowPolicy eventOverflowPolicy = ApplicationEventQueue.OverflowPolicy.DROP_OLDEST;
+	
+	/*
+	 * Events for unrelated clients and agents are handled in parallel.
+	 * The master's state is guarded by the locks below, which are
+	 * always taken in this order:
+	 * 
+	 *  1. configLock: read-locked by every other event, write-locked
+	 *     by addNetwork/removeNetwork, which touch every LVAP in a pool
+	 *  2. agent stripe (AgentManager.getAgentLock): registration and
+	 *     removal of an agent. Agents are connected to and their
+	 *     LVAP tables read before any locks are taken, see
+	 *     AgentOnboarder
+	 *  3. the AgentManager monitor
+	 *  4. client stripe (ClientManager.getClientLock): a client's LVAP,
+	 *     its agent, IP address and flows
+	 *  5. the SubscriptionRegistry monitor: subscription tables, and
+	 *     which of them each agent has been sent. Tables are pushed
+	 *     to agents from the executor, without holding any locks.
+	 *  6. the IdleLvapReclaimer monitor
+	 *  7. the ChangeFeed monitor, taken to log any of the above
+	 * 
+	 * Locks can be skipped but never taken out of order, and no more
+	 * than one stripe of each kind is held at a time. Calls into the
+	 * MasterCluster only send datagrams, and may be made holding any
+	 * of these; it calls back into the master holding none. Application
+	 * callbacks run from their event queues holding no locks, so they
+	 * are free to call back into the master. Each phase of a handoff
+	 * runs on the executor and takes configLock and the client
+	 * stripe afresh.
+	 */
+	private final ReadWriteLock configLock = new ReentrantReadWriteLock();
 
 	// some defaults
 	static private final String DEFAULT_POOL_FILE = "poolfile"; 
@@ -95,39 +169,117 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	 * 
 	 * @param InetAddress of the agent
 	 */
-	synchronized void receivePing (final InetAddress odinAgentAddr) {
-		if (agentManager.receivePing(odinAgentAddr)) {
-			// if the above leads to a new agent being
-			// tracked, push the current subscription list
-			// to it.
-			IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
-			pushSubscriptionListToAgent(agent);
-
-			// Reclaim idle lvaps and also attach flows to lvaps
+	void receivePing (final InetAddress odinAgentAddr) {
+		if (odinAgentAddr == null)
+			return;
+		
+		if (agentManager.isTracked(odinAgentAddr)) {
+			updateAgentLastHeard (odinAgentAddr);
+			return;
+		}
+		
+		// Registered by the master that owns it
+		MasterCluster c = cluster;
+		if (c != null && !c.ownsAgent(odinAgentAddr))
+			return;
+		
+		// First time we're hearing from this agent. It's
+		// registered in the background, see OdinAgentOnboardingStages
+		agentOnboarder.onboard(odinAgentAddr);
+	}
+	
+	/**
+	 * Reconcile a newly connected agent's LVAPs with our clients,
+	 * and add it to the agent map. If that leads to a new agent
+	 * being tracked, push the current subscription list to it.
+	 * 
+	 * @param agent the agent
+	 * @param lvaps the LVAPs it hosts
+	 * @return true if the agent was added
+	 */
+	private boolean registerAgent (final IOdinAgent agent, final Set<OdinClient> lvaps) {
+		final InetAddress odinAgentAddr = agent.getIpAddress();
+		Lock agentLock = agentManager.getAgentLock(odinAgentAddr);
+		configLock.readLock().lock();
+		agentLock.lock();
+		
+		try {
+			if (!agentManager.registerAgent(agent, lvaps))
+				return false;
+			
+			subscriptionRegistry.resetAgent(odinAgentAddr);
+			pushSubscriptions(odinAgentAddr);
+			
+			// The agent's clients are ours now, unless
+			// we already had them on another agent
+			MasterCluster c = cluster;
+			if (c != null) {
+				List<MACAddress> hosted = new ArrayList<MACAddress>();
+				
+				for (OdinClient client: lvaps) {
+					OdinClient trackedClient = clientManager.getClient(client.getMacAddress());
+					
+					if (trackedClient != null && trackedClient.getLvap().getAgent() == agent)
+						hosted.add(client.getMacAddress());
+				}
+				
+				c.takeClients(hosted);
+			}
+			
+			return true;
+		} finally {
+			agentLock.unlock();
+			configLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Reclaim idle lvaps of a newly registered agent, and
+	 * attach flows to its lvaps
+	 * 
+	 * @param agent the agent
+	 */
+	private void pushAgentFlows (final IOdinAgent agent) {
+		final InetAddress odinAgentAddr = agent.getIpAddress();
+		Lock agentLock = agentManager.getAgentLock(odinAgentAddr);
+		configLock.readLock().lock();
+		agentLock.lock();
+		
+		try {
+			// The agent may have gone away since it was registered
+			if (agentManager.getAgent(odinAgentAddr) != agent)
+				return;
+			
 			for (OdinClient client: agent.getLvapsLocal()) {
-				executor.schedule(new IdleLvapReclaimTask(client), idleLvapTimeout, TimeUnit.SECONDS);
+				armIdleLvapTimer(client.getMacAddress());
 				
 				// Assign flow tables
 				if (!client.getIpAddress().getHostAddress().equals("0.0.0.0")) {
+					Lock clientLock = clientManager.getClientLock(client.getMacAddress());
+					clientLock.lock();
 					
-					// Obtain reference to client entity from clientManager, because agent.getLvapsLocal()
-					// returns a separate copy of the client objects.
-					OdinClient trackedClient = clientManager.getClients().get(client.getMacAddress());
-					Lvap lvap = trackedClient.getLvap();
-					assert (lvap != null);
-					lvap.setOFMessageList(lvapManager.getDefaultOFModList(client.getIpAddress()));
-					
-					// Push flow messages associated with the client
-        			try {
-        				lvap.getAgent().getSwitch().write(lvap.getOFMessageList(), null);
-        			} catch (IOException e) {
-        				log.error("Failed to update switch's flow tables " + lvap.getAgent().getSwitch());
-        			}
+					try {
+						// Obtain reference to client entity from clientManager, because agent.getLvapsLocal()
+						// returns a separate copy of the client objects.
+						OdinClient trackedClient = clientManager.getClients().get(client.getMacAddress());
+						Lvap lvap = trackedClient.getLvap();
+						assert (lvap != null);
+						lvap.setOFMessageList(lvapManager.getDefaultOFModList(client.getIpAddress()));
+						
+						// Push flow messages associated with the client
+	        			try {
+	        				lvap.getAgent().getSwitch().write(lvap.getOFMessageList(), null);
+	        			} catch (IOException e) {
+	        				log.error("Failed to update switch's flow tables " + lvap.getAgent().getSwitch());
+	        			}
+					} finally {
+						clientLock.unlock();
+					}
 				}
 			}
-		}
-		else {
-			updateAgentLastHeard (odinAgentAddr);
+		} finally {
+			agentLock.unlock();
+			configLock.readLock().unlock();
 		}
 	}
 	
@@ -138,17 +290,52 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	 * @param odinAgentAddr InetAddress of agent
 	 * @param clientHwAddress MAC address of client that performed probe scan
 	 */
-	synchronized void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, String ssid) {
+	void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, String ssid) {
 		
 		if (odinAgentAddr == null
 	    	|| clientHwAddress == null
 	    	|| clientHwAddress.isBroadcast()
-	    	|| clientHwAddress.isMulticast()
-	    	|| agentManager.isTracked(odinAgentAddr) == false
-	    	|| poolManager.getNumNetworks() == 0) {
+	    	|| clientHwAddress.isMulticast()) {
+			return;
+		}
+		
+		final long now = System.nanoTime();
+		
+		// Every agent in range forwards every probe of a scan,
+		// so most of them have already been acted upon
+		if (probeCoalescer.coalesce(clientHwAddress, ssid, odinAgentAddr, now)) {
+			updateAgentLastHeard(odinAgentAddr);
 			return;
 		}
 		
+		Lock clientLock = clientManager.getClientLock(clientHwAddress);
+		boolean handled;
+		configLock.readLock().lock();
+		clientLock.lock();
+		
+		try {
+			handled = receiveProbeLocked(odinAgentAddr, clientHwAddress, ssid);
+		} finally {
+			clientLock.unlock();
+			configLock.readLock().unlock();
+		}
+		
+		if (handled) {
+			probeCoalescer.decided(clientHwAddress, ssid, odinAgentAddr, now);
+		}
+	}
+	
+	
+	/**
+	 * @return true if the probe was answered or placed the client
+	 */
+	private boolean receiveProbeLocked (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, String ssid) {
+		
+		if (agentManager.isTracked(odinAgentAddr) == false
+	    	|| poolManager.getNumNetworks() == 0) {
+			return false;
+		}
+		
 		updateAgentLastHeard(odinAgentAddr);
 		
 		/*
@@ -172,7 +359,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			
 			executor.execute(new OdinAgentSendProbeResponseRunnable(agent, clientHwAddress, bssid, ssidSet));
 			
-			return;
+			return true;
 		}
 				
 		/*
@@ -185,7 +372,22 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 				OdinClient oc = clientManager.getClient(clientHwAddress);
 		    	
 		    	// Hearing from this client for the first time
-		    	if (oc == null) {		    		
+		    	if (oc == null) {
+		    		// Another master may have it, see MasterCluster
+		    		MasterCluster c = cluster;
+		    		if (c != null) {
+		    			String holder = c.claimClient(clientHwAddress);
+		    			
+		    			// Place it on a later probe, once the claim is answered
+		    			if (holder == null)
+		    				return false;
+		    			
+		    			if (!holder.equals(c.getSelfId())) {
+		    				c.forwardProbe(holder, odinAgentAddr, clientHwAddress, ssid);
+		    				return false;
+		    			}
+		    		}
+		    		
 					List<String> ssidList = new ArrayList<String> ();
 					ssidList.addAll(poolManager.getSsidListForPool(pool));
 					
@@ -212,12 +414,19 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 					// Use global pool for first time connections
 					handoffClientToApInternal(PoolManager.GLOBAL_POOL, clientHwAddress, odinAgentAddr);
 				}
+				else if (oc.getIpAddress().getHostAddress().equals("0.0.0.0")) {
+					// Still trying to connect, so give it
+					// more time before reclaiming the LVAP
+					armIdleLvapTimer(clientHwAddress);
+				}
 				
 				poolManager.mapClientToPool(oc, pool);
 				
-				return;
+				return true;
 			}
 		}
+		
+		return false;
 	}
 	
 	/**
@@ -227,7 +436,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	 * @param odinAgentAddr agent at which the event was triggered
 	 * @param subscriptionIds list of subscription Ids that the event matches
 	 */
-	synchronized void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
+	void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
 
 		// The check for null clientHwAddress might go away
 		// in the future if we end up having events
@@ -242,8 +451,10 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			return;
 
 		// Update last-heard for failure detection
-		oa.setLastHeard(System.currentTimeMillis());
+		agentManager.receiveHeartbeat(odinAgentAddr, System.currentTimeMillis());
 		
+		// Applications get the events from their own queues, so
+		// a slow application doesn't hold up the agents' publishes
 		for (Entry<Long, Long> entry: subscriptionIds.entrySet()) {
 			SubscriptionCallbackTuple tup = subscriptions.get(entry.getKey());
 			
@@ -257,7 +468,15 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 
 			NotificationCallbackContext cntx = new NotificationCallbackContext(clientHwAddress, oa, entry.getValue());
 			
-			tup.cb.exec(tup.oes, cntx);
+			// Aggregating subscriptions only see the operator's output
+			if (tup.aggregator != null) {
+				cntx = tup.aggregator.update(cntx, System.currentTimeMillis());
+				
+				if (cntx == null)
+					continue;
+			}
+			
+			tup.queue.offer(entry.getKey(), tup.oes, cntx);
 		}
 	}
 
@@ -278,10 +497,21 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			return;
 		}
 		
-		synchronized (this) {
+		Lock clientLock = clientManager.getClientLock(clientHwAddr);
+		configLock.readLock().lock();
+		clientLock.lock();
+		
+		try {
 		
 			IOdinAgent newAgent = agentManager.getAgent(newApIpAddr);
 			
+			// The agent may be another master's
+			MasterCluster c = cluster;
+			if (newAgent == null && c != null && !c.ownsAgent(newApIpAddr)) {
+				handoffClientToMaster(c, pool, clientHwAddr, newApIpAddr);
+				return;
+			}
+			
 			// If new agent doesn't exist, ignore request
 			if (newAgent == null) {
 				log.error("Handoff request ignored: OdinAgent " + newApIpAddr + " doesn't exist");
@@ -290,6 +520,12 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			
 			OdinClient client = clientManager.getClient(clientHwAddr);
 			
+			// Another master may have it
+			if (client == null && c != null && c.requestHandoff(pool, clientHwAddr, newApIpAddr)) {
+				log.info("Asked another master to hand client " + clientHwAddr + " off to " + newApIpAddr);
+				return;
+			}
+			
 			// Ignore request if we don't know the client
 			if (client == null) {
 				log.error("Handoff request ignored: OdinClient " + clientHwAddr + " doesn't exist");
@@ -305,17 +541,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			 */
 			if (lvap.getAgent() == null) {
 				log.info ("Client: " + clientHwAddr + " connecting for first time. Assigning to: " + newAgent.getIpAddress());
-	
-				// Push flow messages associated with the client
-				try {
-					newAgent.getSwitch().write(lvap.getOFMessageList(), null);
-				} catch (IOException e) {
-					log.error("Failed to update switch's flow tables " + newAgent.getSwitch());
-				}
-	
-				newAgent.addClientLvap(client);
-				lvap.setAgent(newAgent);
-				executor.schedule(new IdleLvapReclaimTask (client), idleLvapTimeout, TimeUnit.SECONDS);
+				placeClient(client, newAgent);
 				return;
 			}
 			
@@ -351,23 +577,68 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 				return;
 			}
 			
-			// Push flow messages associated with the client
-			try {
-				newAgent.getSwitch().write(lvap.getOFMessageList(), null);
-			} catch (IOException e) {
-				log.error("Failed to update switch's flow tables " + newAgent.getSwitch());
-			}
-			
-			/* Client is with another AP. We remove the VAP from
-			 * the current AP of the client, and spawn it on the new one.
-			 * We split the add and remove VAP operations across two threads
-			 * to make it faster. Note that there is a temporary inconsistent 
-			 * state between setting the agent for the client and it actually 
-			 * being reflected in the network 
+			/* Client is with another AP. The VAP is spawned on the new
+			 * AP first, and the client's agent and flows are only switched
+			 * over once the new AP has it. The VAP is removed from the
+			 * current AP after the new flows are in place.
 			 */
-			lvap.setAgent(newAgent);
-			executor.execute(new OdinAgentLvapAddRunnable(newAgent, client));
-			executor.execute(new OdinAgentLvapRemoveRunnable(agentManager.getAgent(currentApIpAddress), client));
+			handoffManager.handoff(client, lvap.getAgent(), newAgent);
+		} finally {
+			clientLock.unlock();
+			configLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Put the LVAP of a client that no agent hosts on an
+	 * agent. Called with the client's lock held.
+	 * 
+	 * @param client the client, as tracked by the ClientManager
+	 * @param agent the agent
+	 */
+	private void placeClient (final OdinClient client, final IOdinAgent agent) {
+		// Push flow messages associated with the client
+		try {
+			agent.getSwitch().write(client.getLvap().getOFMessageList(), null);
+		} catch (IOException e) {
+			log.error("Failed to update switch's flow tables " + agent.getSwitch());
+		}
+		
+		agent.addClientLvap(client);
+		clientManager.setClientAgent(client, agent);
+		armIdleLvapTimer(client.getMacAddress());
+	}
+	
+	/**
+	 * Hand a client off to an agent that another master owns.
+	 * Called with the client's lock held. The client is dropped
+	 * here once the other master has adopted it, see ClusterShard.
+	 * 
+	 * @param c the cluster
+	 * @param pool that the invoking application corresponds to
+	 * @param clientHwAddr the client
+	 * @param newApIpAddr the other master's agent
+	 */
+	private void handoffClientToMaster (MasterCluster c, String pool, final MACAddress clientHwAddr, final InetAddress newApIpAddr) {
+		OdinClient client = clientManager.getClient(clientHwAddr);
+		
+		if (client == null) {
+			log.error("Handoff request ignored: OdinClient " + clientHwAddr + " doesn't exist");
+			return;
+		}
+		
+		// The other master checks the agent's pools, but
+		// only this one knows which pool the client is in
+		String clientPool = poolManager.getPoolForClient(client);
+		
+		if (clientPool == null || !clientPool.equals(pool)
+				|| !poolManager.getPoolsForAgent(newApIpAddr).contains(pool)) {
+			log.info ("Cannot handoff client '" + clientHwAddr + "' to agent " + newApIpAddr + " outside pool: " + pool);
+			return;
+		}
+		
+		if (c.handOff(pool, client, newApIpAddr)) {
+			log.info ("Handing client " + clientHwAddr + " off to agent " + newApIpAddr + " of another master");
 		}
 	}
 	
@@ -406,7 +677,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	@Override
 	public OdinClient getClientFromHwAddress (String pool, MACAddress clientHwAddress) {
 		OdinClient client = clientManager.getClient(clientHwAddress);
-		return (client != null && poolManager.getPoolForClient(client).equals(pool)) ? client : null;
+		return (client != null && pool.equals(poolManager.getPoolForClient(clientHwAddress.toLong()))) ? client : null;
 	}
 	
 	
@@ -425,206 +696,583 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	
 	
 	/**
-	 * Get a list of Odin agents from the agent tracker
-	 * @return a map of OdinAgent objects keyed by Ipv4 addresses
+	 * Retreive RxStats from the agent into a typed table
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 * @param table table to fill, or null to allocate one
+	 * 
+	 * @return the table, with a row for each client the agent has heard
 	 */
 	@Override
-	public Set<InetAddress> getAgentAddrs (String pool){
-		return poolManager.getAgentAddrsForPool(pool);
+	public OdinRxStatsTable getRxStatsTableFromAgent (String pool, InetAddress agentAddr, OdinRxStatsTable table) {
+		return agentManager.getAgent(agentAddr).getRxStatsTable(table);
 	}
 	
 	
 	/**
-	 * Add a subscription for a particular event defined by oes. cb
-	 * defines the application specified callback to be invoked during
-	 * notification. If the application plans to delete the subscription,
-	 * later, the onus is upon it to keep track of the subscription
-	 * id for removal later.
+	 * Retreive RxStats from all agents in the pool at once. The
+	 * requests are issued to every agent before waiting on any of
+	 * them, so the sweep takes about as long as the slowest agent
+	 * that makes the deadline. Agents that miss it are reported as
+	 * missing.
 	 * 
-	 * @param oes the susbcription
-	 * @param cb the callback
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for each agent, counted from the start of the sweep
+	 * @param previous the caller's previous sweep, whose tables are reused, or null
+	 * 
+	 * @return the stats and latency of each agent that answered in time
 	 */
 	@Override
-	public synchronized long registerSubscription (String pool, final OdinEventSubscription oes, final NotificationCallback cb) {
-		// FIXME: Need to calculate subscriptions per pool
-		assert (oes != null);
-		assert (cb != null);
-		SubscriptionCallbackTuple tup = new SubscriptionCallbackTuple();
-		tup.oes = oes;
-		tup.cb = cb;
-		subscriptionId++;
-		subscriptions.put(subscriptionId, tup);
+	public OdinRxStatsSweep getRxStatsFromAgents (String pool, long timeoutMs, OdinRxStatsSweep previous) {
+		OdinRxStatsSweep sweep = new OdinRxStatsSweep();
+		List<RxStatsRequest> requests = new ArrayList<RxStatsRequest>();
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
 		
-		/**
-		 * Update the subscription list, and push to all agents
-		 * TODO: This is a common subsription string being
-		 * sent to all agents. Replace this with per-agent
-		 * subscriptions.
-		 */
-		subscriptionList = "";
-		int count = 0;
-		for (Entry<Long, SubscriptionCallbackTuple> entry: subscriptions.entrySet()) {
-			count++;
-			final String addr = entry.getValue().oes.getClient();
-			subscriptionList = subscriptionList + 
-								entry.getKey() + " " + 
-								(addr.equals("*") ? MACAddress.valueOf("00:00:00:00:00:00") : addr)  + " " +
-								entry.getValue().oes.getStatistic() + " " +
-								entry.getValue().oes.getRelation().ordinal() + " " +
-								entry.getValue().oes.getValue() + " ";
+		for (InetAddress agentAddr: poolManager.getAgentAddrsForPool(pool)) {
+			IOdinAgent agent = agentManager.getAgent(agentAddr);
+			
+			if (agent == null) {
+				sweep.addMissingAgent(agentAddr);
+				continue;
+			}
+			
+			OdinRxStatsTable table = (previous == null) ? null : previous.getTable(agentAddr);
+			requests.add(new RxStatsRequest(agentAddr, agent.getRxStatsTableAsync(table), start));
 		}
-
-		subscriptionList = String.valueOf(count) + " " + subscriptionList;
-
-		/**
-		 * Should probably have threads to do this
-		 */
-		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-			pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
+		
+		for (RxStatsRequest request: requests) {
+			try {
+				OdinRxStatsTable table = request.future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+				sweep.addStats(request.agentAddr, table, request.getLatencyMicros());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				sweep.addMissingAgent(request.agentAddr);
+			} catch (ExecutionException e) {
+				log.warn("Could not retrieve rxstats from agent " + request.agentAddr + ": " + e.getCause());
+				sweep.addMissingAgent(request.agentAddr);
+			} catch (TimeoutException e) {
+				log.warn("Agent " + request.agentAddr + " missed the rxstats deadline of " + timeoutMs + "ms");
+				sweep.addMissingAgent(request.agentAddr);
+			}
 		}
 		
-		return subscriptionId;
+		sweep.setDurationMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		
+		return sweep;
 	}
 	
 	
 	/**
-	 * Remove a subscription from the list
+	 * Get the recent spectral scans of a channel around an agent
 	 * 
-	 * @param id subscription id to remove
-	 * @return
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 * @param channel the channel
+	 * @param windowMs how far back to go
+	 * @return the agent's scans of the channel, oldest first, or null
+	 *         if the agent isn't in the pool or hasn't scanned the channel
 	 */
 	@Override
-	public synchronized void unregisterSubscription (String pool, final long id) {
-		// FIXME: Need to calculate subscriptions per pool
-		subscriptions.remove(id);
-		
-		subscriptionList = "";
-		int count = 0;
-		for (Entry<Long, SubscriptionCallbackTuple> entry: subscriptions.entrySet()) {
-			count++;
-			final String addr = entry.getValue().oes.getClient();
-			subscriptionList = subscriptionList + 
-								entry.getKey() + " " + 
-								(addr.equals("*") ? MACAddress.valueOf("00:00:00:00:00:00") : addr)  + " " +
-								entry.getValue().oes.getStatistic() + " " +
-								entry.getValue().oes.getRelation().ordinal() + " " +
-								entry.getValue().oes.getValue() + " ";
-		}
-
-		subscriptionList = String.valueOf(count) + " " + subscriptionList;
-
-		/**
-		 * Should probably have threads to do this
-		 */
-		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-			pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
-		}
+	public OdinChannelOccupancy getChannelOccupancy (String pool, InetAddress agentAddr, int channel, long windowMs) {
+		if (!poolManager.getAgentAddrsForPool(pool).contains(agentAddr))
+			return null;
+		
+		return channelOccupancy.getOccupancy(agentAddr, channel, System.currentTimeMillis() - windowMs);
 	}
 	
-
+	
 	/**
-	 * Add an SSID to the Odin network.
+	 * Rate the channels by how busy the agents of the pool have
+	 * found them in their recent spectral scans
 	 * 
-	 * @param networkName
-	 * @return true if the network could be added, false otherwise
+	 * @param pool that the invoking application corresponds to
+	 * @param windowMs how far back to go
+	 * @return for each channel scanned, the mean share of busy
+	 *         samples across the pool's agents, from 0 to 1
 	 */
 	@Override
-	public synchronized boolean addNetwork (String pool, String ssid) {
-		if (poolManager.addNetworkForPool(pool, ssid)) {
-			
-			for(OdinClient oc: poolManager.getClientsFromPool(pool)) {
-				Lvap lvap = oc.getLvap();
-				assert (lvap != null);
-				lvap.getSsids().add(ssid);
-				
-				IOdinAgent agent = lvap.getAgent();
-				
-				if (agent != null) {
-					// FIXME: Ugly API
-					agent.updateClientLvap(oc);
-				}
-			}
-			
-			return true;
-		}
-		
-		return false;
+	public Map<Integer, Double> getInterferenceIndex (String pool, long windowMs) {
+		return channelOccupancy.getInterferenceIndex(poolManager.getAgentAddrsForPool(pool),
+												System.currentTimeMillis() - windowMs);
 	}
 	
 	
 	/**
-	 * Remove an SSID from the Odin network.
-	 * 
-	 * @param networkName
-	 * @return true if the network could be removed, false otherwise
+	 * Get a list of Odin agents from the agent tracker
+	 * @return a map of OdinAgent objects keyed by Ipv4 addresses
 	 */
 	@Override
-	public synchronized boolean removeNetwork (String pool, String ssid) {
-		if (poolManager.removeNetworkFromPool(pool, ssid)){
-			// need to update all existing lvaps in the network as well
-			
-			for (OdinClient oc: poolManager.getClientsFromPool(pool)) {
-				
-				Lvap lvap = oc.getLvap();
-				assert (lvap != null);
-				lvap.getSsids().remove(ssid);
-				
-				IOdinAgent agent = lvap.getAgent();
-				
-				if (agent != null) {
-					// FIXME: Ugly API
-					agent.updateClientLvap(oc);
-				}
-			}
-			
-			return true;
-		}
-			
-		return false;
+	public Set<InetAddress> getAgentAddrs (String pool){
+		return poolManager.getAgentAddrsForPool(pool);
 	}
 	
 	
-	//********* from IFloodlightModule **********//
-	
+	/**
+	 * Get the agents in the pool that have recently forwarded
+	 * a probe from the client, whether or not the probe was
+	 * acted upon.
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param clientHwAddress MAC address of the client
+	 * @return addresses of the agents that heard the client
+	 */
 	@Override
-	public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
-		Collection<Class<? extends IFloodlightService>> l =
-	        new ArrayList<Class<? extends IFloodlightService>>();
-	    l.add(IFloodlightProviderService.class);
-        l.add(IRestApiService.class);
-		return l;
+	public Set<InetAddress> getAgentsHearingClient (String pool, MACAddress clientHwAddress) {
+		Set<InetAddress> agents = probeCoalescer.getAgentsHearingClient(clientHwAddress, System.nanoTime());
+		agents.retainAll(poolManager.getAgentAddrsForPool(pool));
+		
+		return agents;
 	}
-
-	@Override
-	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
-		return null;
+	
+	
+	/**
+	 * Get counters of the probes received from agents
+	 * 
+	 * @return probes received, probes dropped as duplicates,
+	 *         and the ratio of the two
+	 */
+	Map<String, Object> getProbeStats () {
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("received", probeCoalescer.getReceived());
+		stats.put("coalesced", probeCoalescer.getCoalesced());
+		stats.put("dedupRatio", probeCoalescer.getDedupRatio());
+		stats.put("windowMillis", probeCoalescer.getWindowMillis());
+		
+		return stats;
 	}
-
-	@Override
-	public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
-		Map<Class<? extends IFloodlightService>,
-        IFloodlightService> m =
-        new HashMap<Class<? extends IFloodlightService>,
-        IFloodlightService>();
-        m.put(OdinMaster.class, this);
-        return m;
+	
+	
+	/**
+	 * Get counters of the agent failure detector
+	 * 
+	 * @return agents watched and suspected, failures, and
+	 *         how long failures took to detect
+	 */
+	Map<String, Object> getAgentHealthStats () {
+		return agentManager.getFailureDetectorStats();
 	}
-
-	@Override
-	public void init(FloodlightModuleContext context)
-			throws FloodlightModuleException {
-		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
-		restApi = context.getServiceImpl(IRestApiService.class);
-		IThreadPoolService tp = context.getServiceImpl(IThreadPoolService.class);
-		executor = tp.getScheduledExecutor();
+	
+	
+	/**
+	 * Get the cluster's members and counters, if this master
+	 * is one of a cluster, and what this master owns
+	 * 
+	 * @return members, agents and clients owned, and counters
+	 *         of forwarded messages and handoffs between masters
+	 */
+	Map<String, Object> getClusterStats () {
+		MasterCluster c = cluster;
+		Map<String, Object> stats = (c == null) ? new HashMap<String, Object>() : c.getStats();
+		stats.put("enabled", c != null);
+		stats.put("agents", agentManager.getAgents().size());
+		stats.put("clients", clientManager.getClients().size());
+		
+		return stats;
 	}
-
-	@Override
-	public void startUp(FloodlightModuleContext context) {		
+	
+	
+	/**
+	 * Get the client journal's counters, if client state
+	 * is persisted
+	 * 
+	 * @return records written and waiting to be, compactions
+	 *         and write failures
+	 */
+	Map<String, Object> getClientJournalStats () {
+		ClientJournal journal = clientJournal;
+		Map<String, Object> stats = (journal == null) ? new HashMap<String, Object>() : journal.getStats();
+		stats.put("enabled", journal != null);
+		
+		return stats;
+	}
+	
+	
+	/**
+	 * Get the spectral scan collector's counters, and what the
+	 * agents' scans kept so far say about each channel
+	 * 
+	 * @return rounds and scans collected, the interference index of
+	 *         each channel across all agents, and each agent's last
+	 *         and mean scan of each channel
+	 */
+	Map<String, Object> getSpectrumStats () {
+		Map<String, Object> stats = spectralScanCollector.getStats();
+		stats.put("enabled", spectralScanInterval > 0);
+		stats.put("intervalMillis", spectralScanInterval);
+		stats.put("interferenceIndex", channelOccupancy.getInterferenceIndex(channelOccupancy.getAgentAddrs(), 0));
+		stats.put("agents", channelOccupancy.getSummary(0));
+		
+		return stats;
+	}
+	
+	
+	/**
+	 * @return the other masters, or null if this master is on its own
+	 */
+	MasterCluster getCluster () {
+		return cluster;
+	}
+	
+	
+	/**
+	 * Split the agents with other masters from now on
+	 * 
+	 * @param c the cluster, not yet started
+	 * @throws SocketException
+	 */
+	void startCluster (MasterCluster c) throws SocketException {
+		c.start(new ClusterShard(c), executor);
+		cluster = c;
+	}
+	
+	
+	/**
+	 * Get the changes to clients and agents after a sequence
+	 * number, waiting for one if there are none yet
+	 * 
+	 * @param seq sequence number of the last change seen
+	 * @param limit most changes to return
+	 * @param waitMillis how long to wait for a change
+	 * @return the changes, the sequence number to ask from next,
+	 *         and whether the reader has to start over from a snapshot
+	 * @throws InterruptedException
+	 */
+	Map<String, Object> getChangesSince (long seq, int limit, long waitMillis) throws InterruptedException {
+		return changeFeed.getChangesSince(seq, limit, waitMillis);
+	}
+	
+	
+	/**
+	 * Get a page of the clients, ordered by hw address. The sequence
+	 * number is that of the last change before the page was read, so
+	 * a reader can page through the clients and then follow the change
+	 * feed from the first page's sequence number. Changes made while
+	 * paging show up again in the feed.
+	 * 
+	 * The clients are those of the client manager, whose changes the
+	 * feed carries. They are sorted once per version of the client
+	 * set, so paging through a large, steady set sorts it only once.
+	 * 
+	 * @param after the last client of the previous page, or null
+	 * @param limit most clients to return
+	 * @return the sequence number, total number of clients, the page,
+	 *         and the hw address to ask for the next page after
+	 */
+	Map<String, Object> getClientSnapshot (MACAddress after, int limit) {
+		long seq = changeFeed.getLastSeq();
+		long version = clientManager.getClientSetVersion();
+		
+		SortedClients sorted = sortedClients;
+		if (sorted == null || sorted.version != version) {
+			sorted = new SortedClients(version, clientManager.getClients().values());
+			sortedClients = sorted;
+		}
+		
+		int from = (after == null) ? 0 : sorted.indexAfter(after.toLong());
+		int to = Math.min(from + limit, sorted.clients.length);
+		
+		List<OdinClient> page = new ArrayList<OdinClient>(Math.max(to - from, 0));
+		for (int i = from; i < to; i++) {
+			page.add(sorted.clients[i]);
+		}
+		
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("seq", seq);
+		ret.put("total", sorted.clients.length);
+		ret.put("clients", page);
+		ret.put("next", (to < sorted.clients.length && !page.isEmpty()) ?
+							page.get(page.size() - 1).getMacAddress().toString() : null);
+		
+		return ret;
+	}
+	
+	
+	/**
+	 * Get counters of the idle LVAP timers
+	 * 
+	 * @return timers pending, armed, cancelled and expired,
+	 *         and the number of LVAPs reclaimed
+	 */
+	Map<String, Object> getIdleLvapStats () {
+		return idleLvapReclaimer.getStats();
+	}
+	
+	
+	/**
+	 * Get counters and per-phase latencies of LVAP handoffs
+	 * 
+	 * @return handoffs completed, aborted and in flight,
+	 *         and histograms of how long each phase took
+	 */
+	Map<String, Object> getHandoffStats () {
+		return handoffManager.getStats();
+	}
+	
+	
+	/**
+	 * Get the agent registration counters
+	 * 
+	 * @return agents registered and in progress, and
+	 *         histograms of how long each stage took
+	 */
+	Map<String, Object> getOnboardingStats () {
+		return agentOnboarder.getStats();
+	}
+	
+	
+	/**
+	 * Add a subscription for a particular event defined by oes. cb
+	 * defines the application specified callback to be invoked during
+	 * notification. If the application plans to delete the subscription,
+	 * later, the onus is upon it to keep track of the subscription
+	 * id for removal later.
+	 * 
+	 * @param oes the susbcription
+	 * @param cb the callback
+	 */
+	@Override
+	public long registerSubscription (String pool, final OdinEventSubscription oes, final NotificationCallback cb) {
+		assert (oes != null);
+		assert (cb != null);
+		
+		SubscriptionCallbackTuple tup = new SubscriptionCallbackTuple();
+		tup.oes = oes;
+		tup.cb = cb;
+		tup.queue = getEventQueue(cb);
+		tup.aggregator = EventAggregator.forSubscription(oes);
+		
+		long id = subscriptionRegistry.add(pool, oes);
+		subscriptions.put(id, tup);
+		
+		// Only the pool's agents need the new subscription
+		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
+			pushSubscriptions(agentAddr);
+		}
+		
+		return id;
+	}
+	
+	
+	/**
+	 * Remove a subscription from the list
+	 * 
+	 * @param id subscription id to remove
+	 * @return
+	 */
+	@Override
+	public void unregisterSubscription (String pool, final long id) {
+		String subscriptionPool = subscriptionRegistry.remove(id);
+		SubscriptionCallbackTuple tup = subscriptions.remove(id);
+		
+		if (tup != null)
+			releaseEventQueue(tup.cb);
+		
+		if (subscriptionPool == null)
+			return;
+		
+		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(subscriptionPool)) {
+			pushSubscriptions(agentAddr);
+		}
+	}
+	
+
+	/**
+	 * Get the event queue of a callback, creating it
+	 * if this is the callback's first subscription
+	 * 
+	 * @param cb
+	 * @return the callback's queue
+	 */
+	private ApplicationEventQueue getEventQueue (final NotificationCallback cb) {
+		ApplicationEventQueue queue = eventQueues.get(cb);
+		
+		if (queue == null) {
+			queue = new ApplicationEventQueue(cb, executor, eventQueueLanes, eventQueueCapacity,
+												eventBatchSize, eventOverflowPolicy);
+			ApplicationEventQueue existing = eventQueues.putIfAbsent(cb, queue);
+			
+			if (existing != null)
+				queue = existing;
+		}
+		
+		return queue;
+	}
+	
+	
+	/**
+	 * Drop a callback's event queue once it has no subscriptions
+	 * left. Events still queued are delivered regardless.
+	 * 
+	 * @param cb
+	 */
+	private void releaseEventQueue (final NotificationCallback cb) {
+		for (SubscriptionCallbackTuple tup: subscriptions.values()) {
+			if (tup.cb == cb)
+				return;
+		}
+		
+		eventQueues.remove(cb);
+	}
+	
+	
+	/**
+	 * Get the depth and counters of each application's event queue
+	 * 
+	 * @return one entry per callback
+	 */
+	List<Map<String, Object>> getEventQueueStats () {
+		List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>();
+		
+		for (ApplicationEventQueue queue: eventQueues.values()) {
+			stats.add(queue.getStats());
+		}
+		
+		return stats;
+	}
+	
+	
+	/**
+	 * Add an SSID to the Odin network.
+	 * 
+	 * @param networkName
+	 * @return true if the network could be added, false otherwise
+	 */
+	@Override
+	public boolean addNetwork (String pool, String ssid) {
+		// Every LVAP in the pool changes, so keep all other events out
+		configLock.writeLock().lock();
+		
+		try {
+			if (poolManager.addNetworkForPool(pool, ssid)) {
+			
+				for(OdinClient oc: poolManager.getClientsFromPool(pool)) {
+					Lvap lvap = oc.getLvap();
+					assert (lvap != null);
+					lvap.getSsids().add(ssid);
+				
+					IOdinAgent agent = lvap.getAgent();
+				
+					if (agent != null) {
+						// FIXME: Ugly API
+						agent.updateClientLvap(oc);
+					}
+				}
+			
+				return true;
+			}
+		
+			return false;
+		} finally {
+			configLock.writeLock().unlock();
+		}
+	}
+	
+	
+	/**
+	 * Remove an SSID from the Odin network.
+	 * 
+	 * @param networkName
+	 * @return true if the network could be removed, false otherwise
+	 */
+	@Override
+	public boolean removeNetwork (String pool, String ssid) {
+		// Every LVAP in the pool changes, so keep all other events out
+		configLock.writeLock().lock();
+		
+		try {
+			if (poolManager.removeNetworkFromPool(pool, ssid)){
+				// need to update all existing lvaps in the network as well
+			
+				for (OdinClient oc: poolManager.getClientsFromPool(pool)) {
+				
+					Lvap lvap = oc.getLvap();
+					assert (lvap != null);
+					lvap.getSsids().remove(ssid);
+				
+					IOdinAgent agent = lvap.getAgent();
+				
+					if (agent != null) {
+						// FIXME: Ugly API
+						agent.updateClientLvap(oc);
+					}
+				}
+			
+				return true;
+			}
+			
+			return false;
+		} finally {
+			configLock.writeLock().unlock();
+		}
+	}
+	
+	
+	//********* from IFloodlightModule **********//
+	
+	@Override
+	public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+		Collection<Class<? extends IFloodlightService>> l =
+	        new ArrayList<Class<? extends IFloodlightService>>();
+	    l.add(IFloodlightProviderService.class);
+        l.add(IRestApiService.class);
+		return l;
+	}
+
+	@Override
+	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+		return null;
+	}
+
+	@Override
+	public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
+		Map<Class<? extends IFloodlightService>,
+        IFloodlightService> m =
+        new HashMap<Class<? extends IFloodlightService>,
+        IFloodlightService>();
+        m.put(OdinMaster.class, this);
+        return m;
+	}
+
+	@Override
+	public void init(FloodlightModuleContext context)
+			throws FloodlightModuleException {
+		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
+		restApi = context.getServiceImpl(IRestApiService.class);
+		
+		// Before any client is loaded, so that the feed sees them all
+		int changeFeedCapacity = ChangeFeed.DEFAULT_CAPACITY;
+		String changeFeedStr = context.getConfigParams(this).get("changeFeedCapacity");
+		if (changeFeedStr != null) {
+			changeFeedCapacity = Integer.parseInt(changeFeedStr);
+		}
+		changeFeed = new ChangeFeed(changeFeedCapacity);
+		clientManager.setChangeFeed(changeFeed);
+		poolManager.setChangeFeed(changeFeed);
+		agentManager.setChangeFeed(changeFeed);
+		
+		// Scans kept per agent and channel
+		int spectralScanHistory = ChannelOccupancyStore.DEFAULT_HISTORY;
+		String spectralScanHistoryStr = context.getConfigParams(this).get("spectralScanHistory");
+		if (spectralScanHistoryStr != null) {
+			spectralScanHistory = Integer.parseInt(spectralScanHistoryStr);
+		}
+		channelOccupancy = new ChannelOccupancyStore(spectralScanHistory);
+		spectralScanCollector = new SpectralScanCollector(channelOccupancy);
+	}
+
+	@Override
+	public void startUp(FloodlightModuleContext context) {		
 		floodlightProvider.addOFSwitchListener(this);
 		floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
+		floodlightProvider.addOFMessageListener(OFType.BARRIER_REPLY, this);
 		restApi.addRestletRoutable(new OdinMasterWebRoutable());
 		
+		// The thread pool isn't a dependency, and may be initialised
+		// after this module, so its executor is only read here
+		setExecutor(context.getServiceImpl(IThreadPoolService.class).getScheduledExecutor());
+		
 		agentManager.setFloodlightProvider (floodlightProvider);
 		
 		// read config options
@@ -758,6 +1406,19 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 			e.printStackTrace();
 		}
 
+        // Switch ports that client flows forward between
+        short uplinkPort = LvapManager.DEFAULT_UPLINK_PORT;
+        short lvapPort = LvapManager.DEFAULT_LVAP_PORT;
+        String uplinkPortStr = configOptions.get("uplinkPort");
+        String lvapPortStr = configOptions.get("lvapPort");
+        if (uplinkPortStr != null) {
+        	uplinkPort = Short.parseShort(uplinkPortStr);
+        }
+        if (lvapPortStr != null) {
+        	lvapPort = Short.parseShort(lvapPortStr);
+        }
+        lvapManager.setPorts(uplinkPort, lvapPort);
+        
         // Static client - lvap assignments
         String clientListFile = DEFAULT_CLIENT_LIST_FILE;
         String clientListFileConfig = configOptions.get("clientList");
@@ -804,16 +1465,113 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
         	}
         }
         
+        // Persisted client state, for fast restarts
+        String clientJournalDir = configOptions.get("clientJournal");
+        if (clientJournalDir != null) {
+        	restoreClients(new ClientJournal(new File(clientJournalDir), ClientJournal.DEFAULT_CAPACITY));
+        }
+        
+        // Agent failure detection, in ms
+        String agentTimeoutStr = configOptions.get("agentTimeout");
+        if (agentTimeoutStr != null) {
+        	int timeout = Integer.parseInt(agentTimeoutStr);
+        	
+        	if (timeout > 0) {
+        		agentManager.setAgentTimeout(timeout);
+        	}
+        }
+        
+        String agentSuspectTimeoutStr = configOptions.get("agentSuspectTimeout");
+        if (agentSuspectTimeoutStr != null) {
+        	int timeout = Integer.parseInt(agentSuspectTimeoutStr);
+        	
+        	if (timeout > 0) {
+        		agentManager.setAgentSuspectTimeout(timeout);
+        	}
+        }
+        
+        // Number of agents registered at a time. Each takes a thread of
+        // the shared thread pool (15 threads) while it waits on its agent,
+        // so keep it well below that. Defaults to AgentOnboarder.DEFAULT_PARALLELISM
+        String onboardingStr = configOptions.get("agentOnboardingParallelism");
+        if (onboardingStr != null) {
+        	int parallelism = Integer.parseInt(onboardingStr);
+        	
+        	if (parallelism > 0) {
+        		agentOnboarder.setParallelism(parallelism);
+        	}
+        }
+        
+        // Application event queues
+        String eventLanesStr = configOptions.get("eventQueueLanes");
+        if (eventLanesStr != null) {
+        	eventQueueLanes = Integer.parseInt(eventLanesStr);
+        }
+        
+        String eventCapacityStr = configOptions.get("eventQueueCapacity");
+        if (eventCapacityStr != null) {
+        	eventQueueCapacity = Integer.parseInt(eventCapacityStr);
+        }
+        
+        String eventBatchStr = configOptions.get("eventBatchSize");
+        if (eventBatchStr != null) {
+        	eventBatchSize = Integer.parseInt(eventBatchStr);
+        }
+        
+        String eventOverflowStr = configOptions.get("eventOverflowPolicy");
+        if (eventOverflowStr != null) {
+        	eventOverflowPolicy = ApplicationEventQueue.OverflowPolicy.valueOf(eventOverflowStr.trim().toUpperCase());
+        }
+        
+        // Window for merging duplicate probes, 0 disables it
+        long probeWindow = ProbeCoalescer.DEFAULT_WINDOW_MILLIS;
+        String probeWindowStr = configOptions.get("probeCoalesceWindow");
+        if (probeWindowStr != null) {
+        	probeWindow = Long.parseLong(probeWindowStr);
+        }
+        probeCoalescer.setWindowMillis(probeWindow);
+        
+        // Spectral scan collection, in ms. Off unless set
+        String spectralScanIntervalStr = configOptions.get("spectralScanInterval");
+        if (spectralScanIntervalStr != null) {
+        	spectralScanInterval = Long.parseLong(spectralScanIntervalStr);
+        }
+        
         int port = DEFAULT_PORT;
         String portNum = configOptions.get("masterPort");
         if (portNum != null) {
             port = Integer.parseInt(portNum);
         }
         
-        IThreadPoolService tp = context.getServiceImpl(IThreadPoolService.class);
-        executor = tp.getScheduledExecutor();
+        // Masters to split the agents with, as "id@host:masterPort,...",
+        // this one included. See MasterCluster
+        String clusterMembers = configOptions.get("clusterMembers");
+        if (clusterMembers != null) {
+        	long timeout = MasterCluster.DEFAULT_TIMEOUT_MILLIS;
+        	String clusterTimeoutStr = configOptions.get("clusterTimeout");
+        	if (clusterTimeoutStr != null) {
+        		timeout = Long.parseLong(clusterTimeoutStr);
+        	}
+        	
+        	try {
+        		startCluster(new MasterCluster(configOptions.get("clusterMemberId"),
+        							MasterCluster.parseMembers(clusterMembers),
+        							Math.min(MasterCluster.DEFAULT_HEARTBEAT_MILLIS, timeout / 4), timeout));
+        	} catch (IOException e) {
+        		log.error("Failed to join the cluster of masters " + clusterMembers, e);
+        		System.exit(1);
+        	}
+        }
+        
         // Spawn threads for different services
         executor.execute(new OdinAgentProtocolServer(this, port, executor));
+        executor.scheduleAtFixedRate(new IdleLvapReclaimTask(), IdleLvapReclaimer.TICK_MILLIS,
+        							IdleLvapReclaimer.TICK_MILLIS, TimeUnit.MILLISECONDS);
+        
+        if (spectralScanInterval > 0) {
+        	executor.scheduleAtFixedRate(new SpectralScanTask(), spectralScanInterval,
+        							spectralScanInterval, TimeUnit.MILLISECONDS);
+        }
         
         // Spawn applications
         for (OdinApplication app: applicationList) {
@@ -821,11 +1579,117 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
         }
 	}
 
+	/**
+	 * Run the master's background work on an executor from now on,
+	 * and build the parts that need it. Called from startUp().
+	 * 
+	 * @param executor the thread pool's scheduled executor
+	 */
+	void setExecutor(ScheduledExecutorService executor) {
+		this.executor = executor;
+		handoffManager = new LvapHandoffManager(clientManager, configLock.readLock(), executor);
+		agentOnboarder = new AgentOnboarder(new OdinAgentOnboardingStages(), executor);
+	}
+	
+	
+	/**
+	 * Restore the clients that were tracked before a restart, and
+	 * persist changes to clients from here on. Clients are restored
+	 * without an agent, and are picked up by the first agent that
+	 * hosts their LVAP, as after an agent failure. Until then, they
+	 * can be handed off to any agent that has registered. A client
+	 * that still has no agent when its idle LVAP timer expires is
+	 * dropped.
+	 * 
+	 * @param journal
+	 */
+	void restoreClients(final ClientJournal journal) {
+		Collection<ClientJournal.Entry> entries;
+		
+		try {
+			entries = journal.open();
+		} catch (IOException e) {
+			log.error("Failed to open the client journal, client state will not be persisted", e);
+			return;
+		}
+		
+		Set<MACAddress> restored = new HashSet<MACAddress>();
+		
+		for (ClientJournal.Entry entry: entries) {
+			// The static client list takes precedence
+			if (clientManager.getClient(entry.clientHwAddress) != null)
+				continue;
+			
+			Lvap lvap = new Lvap(entry.bssid, entry.ssids);
+			OdinClient oc = new OdinClient(entry.clientHwAddress, entry.ipAddress, lvap);
+			
+			if (!entry.ipAddress.getHostAddress().equals("0.0.0.0")) {
+				lvap.setOFMessageList(lvapManager.getDefaultOFModList(entry.ipAddress));
+			}
+			
+			clientManager.addClient(oc);
+			
+			// Dropped unless an agent turns out to host the LVAP
+			armIdleLvapTimer(entry.clientHwAddress);
+			
+			// The pool may have been removed from the pool file
+			if (entry.pool != null && !poolManager.getSsidListForPool(entry.pool).isEmpty()) {
+				poolManager.mapClientToPool(oc, entry.pool);
+			}
+			
+			restored.add(entry.clientHwAddress);
+		}
+		
+		clientManager.setJournal(journal);
+		poolManager.setJournal(journal);
+		
+		for (OdinClient oc: clientManager.getClients().values()) {
+			if (!restored.contains(oc.getMacAddress()))
+				journal.clientAdded(oc);
+		}
+		
+		clientJournal = journal;
+		
+		// Floodlight doesn't stop its modules, so write out
+		// what is queued when the controller shuts down
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+			}
+		}, "OdinMasterShutdown"));
+		
+		log.info("Restored " + restored.size() + " clients from the client journal");
+	}
+	
+	
+	/**
+	 * Close the client journal, writing out the records
+	 * that are still queued
+	 */
+	void stop() {
+		ClientJournal journal = clientJournal;
+		
+		if (journal == null)
+			return;
+		
+		clientJournal = null;
+		
+		try {
+			journal.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	/** IOFSwitchListener methods **/
 	
 	@Override
 	public void addedSwitch(IOFSwitch sw) {
-		// inform-agent manager
+		// Register the switch's agent if it is waiting for it
+		if (agentManager.addSwitch(sw)) {
+			receivePing(AgentManager.getSwitchIpAddress(sw));
+		}
 	}
 
 	@Override
@@ -837,76 +1701,110 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	public void removedSwitch(IOFSwitch sw) {
 		// Not all OF switches are Odin agents. We should immediately remove
 		// any associated Odin agent then.		
-		final InetAddress switchIpAddr = ((InetSocketAddress) sw.getChannel().getRemoteAddress()).getAddress();
-		agentManager.removeAgent(switchIpAddr);		
+		final InetAddress switchIpAddr = AgentManager.getSwitchIpAddress(sw);
+		agentManager.removeSwitch(sw);
+		
+		if (switchIpAddr == null)
+			return;
+		
+		final Lock agentLock = agentManager.getAgentLock(switchIpAddr);
+		agentLock.lock();
+		
+		try {
+			agentManager.removeAgent(switchIpAddr);
+		} finally {
+			agentLock.unlock();
+		}
 	}
 
 	@Override
 	public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
 		
+		// Barriers are sent during handoffs
+		if (msg.getType() == OFType.BARRIER_REPLY) {
+			handoffManager.barrierReplied(sw, msg.getXid());
+			return Command.CONTINUE;
+		}
+		
 		// We use this to pick up DHCP response frames
-		// and update a client's IP address details accordingly
+		// and update a client's IP address details accordingly.
+		// Only the DHCP fields are read off the raw frame, see
+		// DhcpSnooper, so the decoded frame isn't needed here
+		if (!(msg instanceof OFPacketIn))
+			return Command.CONTINUE;
 		
-		Ethernet frame = IFloodlightProviderService.bcStore.get(cntx, 
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-
-		IPacket payload = frame.getPayload(); // IP
-        if (payload == null)
-        	return Command.CONTINUE;
-        
-        IPacket p2 = payload.getPayload(); // TCP or UDP
-        
-        if (p2 == null) 
-        	return Command.CONTINUE;
-        
-        IPacket p3 = p2.getPayload(); // Application
-        if ((p3 != null) && (p3 instanceof DHCP)) {
-        	DHCP packet = (DHCP) p3;
-        	try {
+		final byte[] data = ((OFPacketIn) msg).getPacketData();
+		final int bootp = DhcpSnooper.findReply(data);
+		
+		// The agents' switches send DHCP replies up, see OdinAgent
+		if (bootp < 0 || !agentManager.isAgentSwitch(sw))
+			return Command.CONTINUE;
+		
+		final int yourIp = DhcpSnooper.getYourIpAddress(data, bootp);
+		
+		if (yourIp == 0)
+			return Command.CONTINUE;
+		
+		final MACAddress clientHwAddr = MACAddress.valueOf(DhcpSnooper.getClientHwAddress(data, bootp));
+		final Lock clientLock = clientManager.getClientLock(clientHwAddr);
+		configLock.readLock().lock();
+		clientLock.lock();
+		
+		try {
+			receiveDhcp(clientHwAddr, yourIp);
+		} finally {
+			clientLock.unlock();
+			configLock.readLock().unlock();
+		}
+			
+		return Command.CONTINUE;
+	}
 
-        		final MACAddress clientHwAddr = MACAddress.valueOf(packet.getClientHardwareAddress());
-        		final OdinClient oc = clientManager.getClients().get(clientHwAddr);
-        		
-    			// Don't bother if we're not tracking the client
-        		// or if the client is unassociated with the agent
-        		// or the agent's switch hasn't been registered yet
-        		if (oc == null || oc.getLvap().getAgent() == null || oc.getLvap().getAgent().getSwitch() == null) {
-        			return Command.CONTINUE;
-        		}
-        		
-        		// Look for the Your-IP field in the DHCP packet
-        		if (packet.getYourIPAddress() != 0) {
-        			
-        			// int -> byte array -> InetAddr
-        			final byte[] arr = ByteBuffer.allocate(4).putInt(packet.getYourIPAddress()).array();
-        			final InetAddress yourIp = InetAddress.getByAddress(arr);
-        			
-        			// No need to invoke agent update protocol if the node
-        			// is assigned the same IP
-        			if (yourIp.equals(oc.getIpAddress())) {
-        				return Command.CONTINUE;
-        			}
-        			
-        			log.info("Updating client: " + clientHwAddr + " with ipAddr: " + yourIp);
-        			oc.setIpAddress(yourIp);
-        			oc.getLvap().setOFMessageList(lvapManager.getDefaultOFModList(yourIp));
-        			
-        			// Push flow messages associated with the client
-        			try {
-        				oc.getLvap().getAgent().getSwitch().write(oc.getLvap().getOFMessageList(), null);
-        			} catch (IOException e) {
-        				log.error("Failed to update switch's flow tables " + oc.getLvap().getAgent().getSwitch());
-        			}
-        			oc.getLvap().getAgent().updateClientLvap(oc);
-        		}
-        		
-			} catch (UnknownHostException e) {
-				// Shouldn't ever happen
-				e.printStackTrace();
+	/**
+	 * Update a client's IP address and flows from a
+	 * DHCP response. Called with the client's lock held.
+	 * 
+	 * @param clientHwAddr the client
+	 * @param yourIpAddress the address offered, not 0
+	 */
+	private void receiveDhcp(final MACAddress clientHwAddr, final int yourIpAddress) {
+		try {
+			final OdinClient oc = clientManager.getClients().get(clientHwAddr);
+			
+			// Don't bother if we're not tracking the client
+			// or if the client is unassociated with the agent
+			// or the agent's switch hasn't been registered yet
+			if (oc == null || oc.getLvap().getAgent() == null || oc.getLvap().getAgent().getSwitch() == null) {
+				return;
 			}
-        }
 			
-		return Command.CONTINUE;
+			// int -> byte array -> InetAddr
+			final byte[] arr = ByteBuffer.allocate(4).putInt(yourIpAddress).array();
+			final InetAddress yourIp = InetAddress.getByAddress(arr);
+			
+			// No need to invoke agent update protocol if the node
+			// is assigned the same IP
+			if (yourIp.equals(oc.getIpAddress())) {
+				return;
+			}
+			
+			log.info("Updating client: " + clientHwAddr + " with ipAddr: " + yourIp);
+			clientManager.setClientIpAddress(oc, yourIp);
+			idleLvapReclaimer.cancel(clientHwAddr);
+			oc.getLvap().setOFMessageList(lvapManager.getDefaultOFModList(yourIp));
+			
+			// Push flow messages associated with the client
+			try {
+				oc.getLvap().getAgent().getSwitch().write(oc.getLvap().getOFMessageList(), null);
+			} catch (IOException e) {
+				log.error("Failed to update switch's flow tables " + oc.getLvap().getAgent().getSwitch());
+			}
+			oc.getLvap().getAgent().updateClientLvap(oc);
+			
+		} catch (UnknownHostException e) {
+			// Shouldn't ever happen
+			e.printStackTrace();
+		}
 	}
 
 	@Override
@@ -920,49 +1818,85 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 	}
 	
 	/**
-	 * Push the subscription list to the agent
+	 * Bring an agent's subscription table up to date, in
+	 * the background. Agents are pushed to in parallel.
 	 * 
-	 * @param oa agent to push subscription list to
+	 * @param agentAddr agent to push subscription list to
 	 */
-	private void pushSubscriptionListToAgent (final IOdinAgent oa) {
-		oa.setSubscriptions(subscriptionList);
+	private void pushSubscriptions (final InetAddress agentAddr) {
+		if (subscriptionRegistry.startPush(agentAddr)) {
+			executor.execute(new OdinAgentSubscriptionPushRunnable(agentAddr));
+		}
 	}
 
+	/**
+	 * (Re)start the countdown to reclaiming a client's LVAP,
+	 * in case the client doesn't follow through to connect
+	 */
+	private void armIdleLvapTimer (MACAddress clientHwAddr) {
+		idleLvapReclaimer.arm(clientHwAddr, TimeUnit.SECONDS.toMillis(idleLvapTimeout) / IdleLvapReclaimer.TICK_MILLIS);
+	}
+	
 	private void updateAgentLastHeard (InetAddress odinAgentAddr) {
-		IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
-		
-		if (agent != null) {
-			// Update last-heard for failure detection
-			agent.setLastHeard(System.currentTimeMillis());
-		}
+		// Update last-heard for failure detection
+		agentManager.receiveHeartbeat(odinAgentAddr, System.currentTimeMillis());
 	}
 	
-	private class OdinAgentLvapAddRunnable implements Runnable {
-		final IOdinAgent oa;
-		final OdinClient oc;
+	/**
+	 * Registers agents for the AgentOnboarder. Connecting to the
+	 * agent and reading its LVAP table hold no locks; the other
+	 * stages take configLock and the agent's stripe afresh.
+	 */
+	private class OdinAgentOnboardingStages implements AgentOnboarder.Stages {
+		@Override
+		public IOdinAgent connect(InetAddress odinAgentAddr) {
+			return agentManager.isTracked(odinAgentAddr) ? null : agentManager.connectAgent(odinAgentAddr);
+		}
 		
-		OdinAgentLvapAddRunnable(IOdinAgent newAgent, OdinClient oc) {
-			this.oa = newAgent;
-			this.oc = oc;
+		@Override
+		public Set<OdinClient> readLvapTable(IOdinAgent agent) {
+			return agent.getLvapsRemote();
 		}
+		
 		@Override
-		public void run() {
-			oa.addClientLvap(oc);
+		public boolean register(IOdinAgent agent, Set<OdinClient> lvaps) {
+			return registerAgent(agent, lvaps);
 		}
 		
+		@Override
+		public void pushFlows(IOdinAgent agent) {
+			pushAgentFlows(agent);
+		}
 	}
 	
-	private class OdinAgentLvapRemoveRunnable implements Runnable {
-		final IOdinAgent oa;
-		final OdinClient oc;
+	private class OdinAgentSubscriptionPushRunnable implements Runnable {
+		final InetAddress odinAgentAddr;
 		
-		OdinAgentLvapRemoveRunnable(IOdinAgent oa, OdinClient oc) {
-			this.oa = oa;
-			this.oc = oc;
+		OdinAgentSubscriptionPushRunnable(InetAddress odinAgentAddr) {
+			this.odinAgentAddr = odinAgentAddr;
 		}
 		@Override
 		public void run() {
-			oa.removeClientLvap(oc);
+			try {
+				while (true) {
+					// Every agent is in the global pool
+					List<String> pools = new ArrayList<String>(poolManager.getPoolsForAgent(odinAgentAddr));
+					pools.add(PoolManager.GLOBAL_POOL);
+					
+					String table = subscriptionRegistry.nextTable(odinAgentAddr, pools);
+					
+					if (table == null)
+						return;
+					
+					IOdinAgent oa = agentManager.getAgent(odinAgentAddr);
+					
+					if (oa != null)
+						oa.setSubscriptions(table);
+				}
+			} catch (RuntimeException e) {
+				subscriptionRegistry.abortPush(odinAgentAddr);
+				log.error("Failed to push subscriptions to agent " + odinAgentAddr, e);
+			}
 		}
 		
 	}
@@ -986,33 +1920,67 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 		
 	}
 	
+	/**
+	 * Ticks the idle LVAP timers, and reclaims the LVAPs
+	 * of clients that haven't connected by the time their
+	 * timer expires, or drops the clients if no agent
+	 * hosts their LVAP
+	 */
 	private class IdleLvapReclaimTask implements Runnable {
-		private final OdinClient oc;
-		
-		IdleLvapReclaimTask(final OdinClient oc) {
-			this.oc = oc;
-		}
 		
 		@Override
 		public void run() {
-			OdinClient client = clientManager.getClients().get(oc.getMacAddress());
+			try {
+				for (MACAddress clientHwAddr: idleLvapReclaimer.advance()) {
+					Lock clientLock = clientManager.getClientLock(clientHwAddr);
+					configLock.readLock().lock();
+					clientLock.lock();
+					
+					try {
+						reclaim(clientHwAddr);
+					} finally {
+						clientLock.unlock();
+						configLock.readLock().unlock();
+					}
+				}
+			} catch (RuntimeException e) {
+				// Don't let the executor cancel the task
+				log.error("Failed to reclaim idle LVAPs", e);
+			}
+		}
+		
+		private void reclaim(MACAddress clientHwAddr) {
+			OdinClient client = clientManager.getClients().get(clientHwAddr);
 			
 			if (client == null) {
 				return;
 			}
 			
+			IOdinAgent agent = client.getLvap().getAgent();
+			
+			// Restored from the journal, and no agent has
+			// turned out to host its LVAP since
+			if (agent == null) {
+				log.info("Dropping client " + client.getMacAddress() + " that no agent hosts");
+				poolManager.removeClientPoolMapping(client);
+				clientManager.removeClient(client.getMacAddress());
+				idleLvapReclaimer.reclaimed();
+				return;
+			}
+			
 			// Client didn't follow through to connect
 			try {
 				if (client.getIpAddress().equals(InetAddress.getByName("0.0.0.0"))) {
-					IOdinAgent agent = client.getLvap().getAgent();
+					log.info("Clearing Lvap " + client.getMacAddress() + 
+							" from agent:" + agent.getIpAddress() + " due to inactivity");
+					poolManager.removeClientPoolMapping(client);
+					agent.removeClientLvap(client);
+					clientManager.removeClient(client.getMacAddress());
+					idleLvapReclaimer.reclaimed();
 					
-					if (agent != null) {
-						log.info("Clearing Lvap " + client.getMacAddress() + 
-								" from agent:" + agent.getIpAddress() + " due to inactivity");
-						poolManager.removeClientPoolMapping(client);
-						agent.removeClientLvap(client);
-						clientManager.removeClient(client.getMacAddress());
-					}
+					MasterCluster c = cluster;
+					if (c != null)
+						c.releaseClients(Collections.singletonList(clientHwAddr));
 				}
 			} catch (UnknownHostException e) {
 				// skip
@@ -1020,8 +1988,243 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinAp
 		}
 	}
 
+	/**
+	 * Moves agents and clients between this master and the others
+	 * of the cluster. Each call takes configLock and the agent's
+	 * or client's stripe afresh.
+	 */
+	private class ClusterShard implements MasterCluster.Shard {
+		private final MasterCluster c;
+		
+		ClusterShard(MasterCluster c) {
+			this.c = c;
+		}
+		
+		@Override
+		public void ownershipChanged() {
+			for (InetAddress agentAddr: new ArrayList<InetAddress>(agentManager.getAgents().keySet())) {
+				if (!c.ownsAgent(agentAddr))
+					releaseAgent(agentAddr);
+			}
+		}
+		
+		/**
+		 * Forget an agent that another master owns now, and the
+		 * clients on it. The agent keeps their LVAPs, and the new
+		 * owner picks them up when it registers the agent.
+		 */
+		private void releaseAgent(InetAddress agentAddr) {
+			List<MACAddress> released = new ArrayList<MACAddress>();
+			Lock agentLock = agentManager.getAgentLock(agentAddr);
+			configLock.readLock().lock();
+			agentLock.lock();
+			
+			try {
+				IOdinAgent agent = agentManager.getAgent(agentAddr);
+				
+				if (agent == null)
+					return;
+				
+				for (OdinClient oc: agent.getLvapsLocal()) {
+					Lock clientLock = clientManager.getClientLock(oc.getMacAddress());
+					clientLock.lock();
+					
+					try {
+						OdinClient trackedClient = clientManager.getClient(oc.getMacAddress());
+						
+						if (trackedClient != null && trackedClient.getLvap().getAgent() == agent) {
+							poolManager.removeClientPoolMapping(trackedClient);
+							clientManager.removeClient(oc.getMacAddress());
+							idleLvapReclaimer.cancel(oc.getMacAddress());
+							released.add(oc.getMacAddress());
+						}
+					} finally {
+						clientLock.unlock();
+					}
+				}
+				
+				agentManager.removeAgent(agentAddr);
+				log.info("Agent " + agentAddr + " and its " + released.size() + " clients moved to another master");
+			} finally {
+				agentLock.unlock();
+				configLock.readLock().unlock();
+			}
+			
+			c.releaseClients(released);
+		}
+		
+		@Override
+		public boolean adopt(String pool, OdinClient client, InetAddress agentAddr) {
+			final MACAddress clientHwAddr = client.getMacAddress();
+			Lock clientLock = clientManager.getClientLock(clientHwAddr);
+			configLock.readLock().lock();
+			clientLock.lock();
+			
+			try {
+				IOdinAgent agent = agentManager.getAgent(agentAddr);
+				
+				if (agent == null || !poolManager.getPoolsForAgent(agentAddr).contains(pool))
+					return false;
+				
+				OdinClient oc = clientManager.getClient(clientHwAddr);
+				
+				if (oc == null) {
+					if (!client.getIpAddress().getHostAddress().equals("0.0.0.0")) {
+						client.getLvap().setOFMessageList(lvapManager.getDefaultOFModList(client.getIpAddress()));
+					}
+					
+					clientManager.addClient(client);
+					poolManager.mapClientToPool(client, pool);
+					oc = client;
+				}
+				
+				if (oc.getLvap().getAgent() == null) {
+					log.info ("Client: " + clientHwAddr + " handed off by another master. Assigning to: " + agentAddr);
+					placeClient(oc, agent);
+				}
+				
+				return oc.getLvap().getAgent() == agent;
+			} finally {
+				clientLock.unlock();
+				configLock.readLock().unlock();
+			}
+		}
+		
+		@Override
+		public void handedOff(MACAddress clientHwAddr) {
+			Lock clientLock = clientManager.getClientLock(clientHwAddr);
+			configLock.readLock().lock();
+			clientLock.lock();
+			
+			try {
+				OdinClient oc = clientManager.getClient(clientHwAddr);
+				
+				if (oc == null)
+					return;
+				
+				IOdinAgent agent = oc.getLvap().getAgent();
+				poolManager.removeClientPoolMapping(oc);
+				clientManager.removeClient(clientHwAddr);
+				idleLvapReclaimer.cancel(clientHwAddr);
+				
+				if (agent != null)
+					agent.removeClientLvap(oc);
+			} finally {
+				clientLock.unlock();
+				configLock.readLock().unlock();
+			}
+		}
+		
+		@Override
+		public void handoffRequested(String pool, MACAddress clientHwAddr, InetAddress agentAddr) {
+			// Not passed on again, if it has moved on meanwhile
+			if (clientManager.getClient(clientHwAddr) == null)
+				return;
+			
+			handoffClientToApInternal(pool, clientHwAddr, agentAddr);
+		}
+		
+		@Override
+		public Collection<MACAddress> getClientHwAddrs() {
+			return new ArrayList<MACAddress>(clientManager.getClients().keySet());
+		}
+	}
+
+	/**
+	 * Collects a round of spectral scans from the agents this
+	 * master has registered, with the interval as the deadline
+	 */
+	private class SpectralScanTask implements Runnable {
+		
+		@Override
+		public void run() {
+			try {
+				spectralScanCollector.collect(new ArrayList<IOdinAgent>(agentManager.getAgents().values()),
+											System.currentTimeMillis(), spectralScanInterval);
+			} catch (RuntimeException e) {
+				// Don't let the executor cancel the task
+				log.error("Failed to collect spectral scans", e);
+			}
+		}
+	}
+	
+	/**
+	 * An outstanding rxstats request of a sweep. The time at
+	 * which the agent answered is taken when the future completes,
+	 * so that waiting on other agents doesn't inflate it.
+	 */
+	private static class RxStatsRequest {
+		final InetAddress agentAddr;
+		final Future<OdinRxStatsTable> future;
+		final long startNanos;
+		volatile long completedNanos = 0;
+		
+		RxStatsRequest(InetAddress agentAddr, Future<OdinRxStatsTable> future, long startNanos) {
+			this.agentAddr = agentAddr;
+			this.future = future;
+			this.startNanos = startNanos;
+			
+			if (future instanceof OdinAgentFuture) {
+				((OdinAgentFuture<OdinRxStatsTable>) future).addListener(new Runnable() {
+					@Override
+					public void run() {
+						completedNanos = System.nanoTime();
+					}
+				});
+			}
+		}
+		
+		long getLatencyMicros() {
+			long end = (completedNanos != 0) ? completedNanos : System.nanoTime();
+			return TimeUnit.NANOSECONDS.toMicros(end - startNanos);
+		}
+	}
+	
 	private class SubscriptionCallbackTuple {
 		OdinEventSubscription oes;
 		NotificationCallback cb;
+		ApplicationEventQueue queue;
+		EventAggregator aggregator; // null if events aren't aggregated
+	}
+	
+	
+	/**
+	 * A copy of the clients, sorted by hw address
+	 */
+	private static class SortedClients {
+		final long version;
+		final OdinClient[] clients;
+		final long[] hwAddrs;
+		
+		/**
+		 * @param version of the client set, read before the clients
+		 * @param source the clients
+		 */
+		SortedClients(long version, Collection<OdinClient> source) {
+			this.version = version;
+			this.clients = source.toArray(new OdinClient[0]);
+			
+			Arrays.sort(clients, new Comparator<OdinClient>() {
+				@Override
+				public int compare(OdinClient a, OdinClient b) {
+					long x = a.getMacAddress().toLong();
+					long y = b.getMacAddress().toLong();
+					return (x < y) ? -1 : ((x == y) ? 0 : 1);
+				}
+			});
+			
+			this.hwAddrs = new long[clients.length];
+			for (int i = 0; i < clients.length; i++) {
+				hwAddrs[i] = clients[i].getMacAddress().toLong();
+			}
+		}
+		
+		/**
+		 * @return index of the first client after hwAddr
+		 */
+		int indexAfter(long hwAddr) {
+			int i = Arrays.binarySearch(hwAddrs, hwAddr);
+			return (i >= 0) ? i + 1 : -i - 1;
+		}
 	}
 }
@@ -18,8 +18,19 @@ class OdinMasterWebRoutable implements RestletRoutable {
 		Router router = new Router(context);
 		router.attach("/clients/all/json", AllClientsResource.class);
 		router.attach("/clients/connected/json", ConnectedClientsResource.class);
+		router.attach("/clients/snapshot/json", ClientSnapshotResource.class);
+		router.attach("/clients/journal/json", ClientJournalResource.class);
+		router.attach("/events/json", ChangeFeedResource.class);
 		router.attach("/agents/json", AgentManagerResource.class);
+		router.attach("/agents/health/json", AgentHealthResource.class);
+		router.attach("/agents/onboarding/json", AgentOnboardingResource.class);
 		router.attach("/handoff/json", LvapHandoffResource.class);
+		router.attach("/probes/json", ProbeStatsResource.class);
+		router.attach("/handoffs/json", HandoffStatsResource.class);
+		router.attach("/apps/queues/json", EventQueueStatsResource.class);
+		router.attach("/lvaps/idle/json", IdleLvapStatsResource.class);
+		router.attach("/cluster/json", ClusterResource.class);
+		router.attach("/spectrum/json", SpectrumResource.class);
 		return router;
 	}
 }
\ No newline at end of file
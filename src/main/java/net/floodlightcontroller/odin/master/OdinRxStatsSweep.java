@@ -0,0 +1,87 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of collecting Rx-stats from all the agents of a pool at
+ * once. Agents that did not answer before the deadline, or that
+ * failed, are reported as missing rather than holding up the
+ * others.
+ *
+ * Passing a sweep back into the next collection lets the tables
+ * of agents that answered be refilled instead of re-allocated.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinRxStatsSweep {
+	private final Map<InetAddress, OdinRxStatsTable> stats = new HashMap<InetAddress, OdinRxStatsTable>();
+	private final Map<InetAddress, Long> latencyMicros = new HashMap<InetAddress, Long>();
+	private final Set<InetAddress> missingAgents = new HashSet<InetAddress>();
+	private long durationMicros = 0;
+
+
+	/**
+	 * @return Rx-stats of each agent that answered in time
+	 */
+	public Map<InetAddress, OdinRxStatsTable> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+
+	/**
+	 * @param agentAddr InetAddress of the agent
+	 * @return Rx-stats of the agent, or null if it is missing
+	 */
+	public OdinRxStatsTable getTable(InetAddress agentAddr) {
+		return stats.get(agentAddr);
+	}
+
+
+	/**
+	 * @param agentAddr InetAddress of the agent
+	 * @return time between the request and the agent's answer,
+	 *         or -1 if the agent is missing
+	 */
+	public long getLatencyMicros(InetAddress agentAddr) {
+		Long latency = latencyMicros.get(agentAddr);
+		return (latency == null) ? -1 : latency;
+	}
+
+
+	/**
+	 * @return agents that failed or missed the deadline
+	 */
+	public Set<InetAddress> getMissingAgents() {
+		return Collections.unmodifiableSet(missingAgents);
+	}
+
+
+	/**
+	 * @return time taken by the whole sweep
+	 */
+	public long getDurationMicros() {
+		return durationMicros;
+	}
+
+
+	void addStats(InetAddress agentAddr, OdinRxStatsTable table, long latencyMicros) {
+		stats.put(agentAddr, table);
+		this.latencyMicros.put(agentAddr, latencyMicros);
+	}
+
+
+	void addMissingAgent(InetAddress agentAddr) {
+		missingAgents.add(agentAddr);
+	}
+
+
+	void setDurationMicros(long durationMicros) {
+		this.durationMicros = durationMicros;
+	}
+}
@@ -0,0 +1,231 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Arrays;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Rx-stats reported by an OdinAgent, one row per station the
+ * agent has heard from. Columns are kept in primitive arrays and
+ * stations are keyed by their MAC address as a long, so a table
+ * can be refilled on every poll without producing garbage once it
+ * has grown to the size of the agent's station list.
+ *
+ * Rows are addressed by index, from 0 to size() - 1:
+ *
+ *   int i = table.indexOf(client.getMacAddress());
+ *   if (i >= 0 && table.getSignal(i) >= SIGNAL_THRESHOLD) ...
+ *
+ * A table is not thread-safe, and is meant to be owned by the
+ * application that polls it.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinRxStatsTable {
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int EMPTY_SLOT = -1;
+
+	private int size = 0;
+	private long[] stationMac;
+	private int[] signal;
+	private int[] noise;
+	private int[] rate;
+	private long[] packets;
+	private long[] lastReceivedMicros;
+
+	// Open addressing index from station MAC to row, sized to
+	// a power of two at least twice the row capacity.
+	private int[] index;
+
+
+	public OdinRxStatsTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	public OdinRxStatsTable(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+
+	/**
+	 * @return number of stations in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Find the row for a station
+	 *
+	 * @param staHwAddr the station's MAC address as a long
+	 * @return the row index, or -1 if the agent hasn't heard the station
+	 */
+	public int indexOf(long staHwAddr) {
+		int mask = index.length - 1;
+
+		for (int slot = hash(staHwAddr) & mask; ; slot = (slot + 1) & mask) {
+			int row = index[slot];
+
+			if (row == EMPTY_SLOT)
+				return -1;
+
+			if (stationMac[row] == staHwAddr)
+				return row;
+		}
+	}
+
+
+	/**
+	 * Find the row for a station
+	 *
+	 * @param staHwAddr the station's MAC address
+	 * @return the row index, or -1 if the agent hasn't heard the station
+	 */
+	public int indexOf(MACAddress staHwAddr) {
+		return indexOf(staHwAddr.toLong());
+	}
+
+
+	public long getStationMac(int row) {
+		checkRow(row);
+		return stationMac[row];
+	}
+
+
+	public int getSignal(int row) {
+		checkRow(row);
+		return signal[row];
+	}
+
+
+	public int getNoise(int row) {
+		checkRow(row);
+		return noise[row];
+	}
+
+
+	public int getRate(int row) {
+		checkRow(row);
+		return rate[row];
+	}
+
+
+	public long getPackets(int row) {
+		checkRow(row);
+		return packets[row];
+	}
+
+
+	/**
+	 * @return time at which the agent last received a frame
+	 *         from the station, in microseconds on the agent's clock
+	 */
+	public long getLastReceivedMicros(int row) {
+		checkRow(row);
+		return lastReceivedMicros[row];
+	}
+
+
+	/**
+	 * Remove all rows. The table keeps its capacity.
+	 */
+	public void clear() {
+		if (size == 0)
+			return;
+
+		Arrays.fill(index, EMPTY_SLOT);
+		size = 0;
+	}
+
+
+	/**
+	 * Add or overwrite the row for a station
+	 *
+	 * @return the row index
+	 */
+	int put(long staHwAddr, int signal, int noise, int rate, long packets, long lastReceivedMicros) {
+		int row = indexOf(staHwAddr);
+
+		if (row < 0) {
+			if (size == stationMac.length)
+				grow();
+
+			row = size++;
+			stationMac[row] = staHwAddr;
+			insertIndex(staHwAddr, row);
+		}
+
+		this.signal[row] = signal;
+		this.noise[row] = noise;
+		this.rate[row] = rate;
+		this.packets[row] = packets;
+		this.lastReceivedMicros[row] = lastReceivedMicros;
+
+		return row;
+	}
+
+
+	private void allocate(int capacity) {
+		stationMac = new long[capacity];
+		signal = new int[capacity];
+		noise = new int[capacity];
+		rate = new int[capacity];
+		packets = new long[capacity];
+		lastReceivedMicros = new long[capacity];
+		index = new int[indexSize(capacity)];
+		Arrays.fill(index, EMPTY_SLOT);
+	}
+
+
+	private void grow() {
+		int capacity = stationMac.length * 2;
+
+		stationMac = Arrays.copyOf(stationMac, capacity);
+		signal = Arrays.copyOf(signal, capacity);
+		noise = Arrays.copyOf(noise, capacity);
+		rate = Arrays.copyOf(rate, capacity);
+		packets = Arrays.copyOf(packets, capacity);
+		lastReceivedMicros = Arrays.copyOf(lastReceivedMicros, capacity);
+
+		index = new int[indexSize(capacity)];
+		Arrays.fill(index, EMPTY_SLOT);
+
+		for (int row = 0; row < size; row++) {
+			insertIndex(stationMac[row], row);
+		}
+	}
+
+
+	private void insertIndex(long staHwAddr, int row) {
+		int mask = index.length - 1;
+		int slot = hash(staHwAddr) & mask;
+
+		while (index[slot] != EMPTY_SLOT) {
+			slot = (slot + 1) & mask;
+		}
+
+		index[slot] = row;
+	}
+
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+	}
+
+
+	private static int indexSize(int capacity) {
+		return Integer.highestOneBit(capacity * 2 - 1) << 1;
+	}
+
+
+	private static int hash(long key) {
+		// Stations from one vendor often have sequential addresses,
+		// so spread them out across the index
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
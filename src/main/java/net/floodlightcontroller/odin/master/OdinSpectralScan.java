@@ -0,0 +1,85 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Arrays;
+
+/**
+ * Result of one spectral scan by an OdinAgent, one row per channel
+ * scanned. Each row has the share of the scan's samples on the
+ * channel that were above the agent's energy threshold (busy, in
+ * percent), and the noise floor it measured.
+ *
+ * Like OdinRxStatsTable, columns are kept in primitive arrays so a
+ * scan can be refilled on every poll without producing garbage. A
+ * scan is not thread-safe.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinSpectralScan {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int size = 0;
+	private int[] channel;
+	private int[] busy;
+	private int[] noise;
+
+
+	public OdinSpectralScan() {
+		channel = new int[DEFAULT_CAPACITY];
+		busy = new int[DEFAULT_CAPACITY];
+		noise = new int[DEFAULT_CAPACITY];
+	}
+
+
+	/**
+	 * @return number of channels scanned
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * @return the i-th channel scanned
+	 */
+	public int getChannel(int i) {
+		return channel[i];
+	}
+
+
+	/**
+	 * @return percentage of samples on the i-th channel that were busy
+	 */
+	public int getBusy(int i) {
+		return busy[i];
+	}
+
+
+	/**
+	 * @return noise floor on the i-th channel, in dBm, or
+	 *         -128 if the agent didn't report one
+	 */
+	public int getNoise(int i) {
+		return noise[i];
+	}
+
+
+	void clear() {
+		size = 0;
+	}
+
+
+	void put(int channel, int busy, int noise) {
+		if (size == this.channel.length) {
+			int capacity = size * 2;
+			this.channel = Arrays.copyOf(this.channel, capacity);
+			this.busy = Arrays.copyOf(this.busy, capacity);
+			this.noise = Arrays.copyOf(this.noise, capacity);
+		}
+
+		this.channel[size] = channel;
+		this.busy[size] = busy;
+		this.noise[size] = noise;
+		size++;
+	}
+}
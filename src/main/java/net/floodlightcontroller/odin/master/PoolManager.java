@@ -3,12 +3,12 @@ package net.floodlightcontroller.odin.master;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.floodlightcontroller.util.MACAddress;
 
@@ -26,16 +26,31 @@ class PoolManager {
 	static public final String GLOBAL_POOL = "global";
 	private final byte[] oui = {(byte) 0x00, (byte) 0x1b, (byte) 0xb3};
 	private final Map<InetAddress, List<String>> agentToPoolListMap = new ConcurrentHashMap<InetAddress, List<String>>();
-	private final Map<String, Set<InetAddress>> poolToAgentSetMap = new ConcurrentHashMap<String, Set<InetAddress>>();
 	private final Map<String, Set<String>> poolToSsidListMap = new ConcurrentHashMap<String, Set<String>>();
-	private final Map<String, Set<OdinClient>> poolToClientSetMap = new ConcurrentHashMap<String, Set<OdinClient>> ();
-	private final Map<OdinClient, String> clientToPoolMap = new ConcurrentHashMap<OdinClient, String>();
-	private int numNetworks = 0;
+	private volatile int numNetworks = 0;
+	
+	/*
+	 * Pool membership is read by applications and the REST API
+	 * while the master updates it from several threads. Readers
+	 * get immutable snapshots of a pool's agents and clients that
+	 * are safe to iterate, and that are only re-copied after the
+	 * membership of the pool changed. Clients are mapped to their
+	 * pool by their MAC address as a long.
+	 */
+	private final Map<String, VersionedSet<InetAddress>> poolToAgentSetMap = new ConcurrentHashMap<String, VersionedSet<InetAddress>>();
+	private final Map<String, VersionedSet<OdinClient>> poolToClientSetMap = new ConcurrentHashMap<String, VersionedSet<OdinClient>> ();
+	private final Map<Long, String> clientToPoolMap = new ConcurrentHashMap<Long, String>();
+	
+	// Null unless client state is persisted
+	private volatile ClientJournal journal;
+	
+	// Null until the master is initialised
+	private volatile ChangeFeed changeFeed;
 	
 	PoolManager () {
-		poolToAgentSetMap.put(GLOBAL_POOL, new HashSet<InetAddress>());
-		poolToSsidListMap.put(GLOBAL_POOL, new TreeSet<String>());
-		poolToClientSetMap.put(GLOBAL_POOL, new TreeSet<OdinClient>());
+		poolToAgentSetMap.put(GLOBAL_POOL, new VersionedSet<InetAddress>());
+		poolToSsidListMap.put(GLOBAL_POOL, new ConcurrentSkipListSet<String>());
+		poolToClientSetMap.put(GLOBAL_POOL, new VersionedSet<OdinClient>());
 	}
 	
 	
@@ -61,20 +76,20 @@ class PoolManager {
 	 * @param pool the pool to add the agent to
 	 * 
 	 */
-	void addPoolForAgent(InetAddress agentInetAddr, String pool) {
+	synchronized void addPoolForAgent(InetAddress agentInetAddr, String pool) {
 		if (agentToPoolListMap.containsKey(agentInetAddr)) {
 			agentToPoolListMap.get(agentInetAddr).add(pool);
 		}				
 		else {
-			List<String> poolList = new ArrayList<String>();
+			List<String> poolList = new CopyOnWriteArrayList<String>();
 			poolList.add(pool);
 			agentToPoolListMap.put(agentInetAddr, poolList);
 		}
 		
 		if (!poolToClientSetMap.containsKey(pool)) {
-			poolToAgentSetMap.put(pool, new HashSet<InetAddress>());
-			poolToClientSetMap.put(pool, new TreeSet<OdinClient>());
-			poolToSsidListMap.put(pool, new TreeSet<String>());
+			poolToAgentSetMap.put(pool, new VersionedSet<InetAddress>());
+			poolToClientSetMap.put(pool, new VersionedSet<OdinClient>());
+			poolToSsidListMap.put(pool, new ConcurrentSkipListSet<String>());
 		}
 		
 		poolToAgentSetMap.get(GLOBAL_POOL).add(agentInetAddr);
@@ -176,7 +191,9 @@ class PoolManager {
 	
 	
 	/**
-	 * Place a client in a particular pool.
+	 * Place a client in a particular pool. Callers
+	 * hold the client's lock, so a client is only
+	 * placed by one thread at a time.
 	 *  
 	 * @param client
 	 * @param pool
@@ -184,15 +201,28 @@ class PoolManager {
 	void mapClientToPool(OdinClient client, String pool) {
 		assert (pool != null);
 		assert (pool != GLOBAL_POOL);
-						
-		String currentPool = clientToPoolMap.put(client, pool);
-				
+		
+		String currentPool = clientToPoolMap.put(client.getMacAddress().toLong(), pool);
+		
+		// Probes re-map clients all the time, leave
+		// the snapshots alone when nothing changes
+		if (pool.equals(currentPool))
+			return;
+		
 		if (currentPool != null) {
 			poolToClientSetMap.get(currentPool).remove(client);
 		}
 		
 		poolToClientSetMap.get(GLOBAL_POOL).add(client);
 		poolToClientSetMap.get(pool).add(client);
+		
+		ClientJournal j = journal;
+		if (j != null)
+			j.poolChanged(client.getMacAddress(), pool);
+		
+		ChangeFeed f = changeFeed;
+		if (f != null)
+			f.poolChanged(client.getMacAddress(), pool);
 	}
 	
 	
@@ -202,24 +232,54 @@ class PoolManager {
 	 * @param client
 	 */
 	void removeClientPoolMapping(OdinClient client) {
-		String currentPool = clientToPoolMap.get(client);
+		String currentPool = clientToPoolMap.remove(client.getMacAddress().toLong());
 		
 		if (currentPool != null) {
 			poolToClientSetMap.get(currentPool).remove(client);
-			clientToPoolMap.remove(client);
+			
+			ClientJournal j = journal;
+			if (j != null)
+				j.poolChanged(client.getMacAddress(), null);
+			
+			ChangeFeed f = changeFeed;
+			if (f != null)
+				f.poolChanged(client.getMacAddress(), null);
 		}
 	}
 	
 	
+	/**
+	 * Persist changes to client-pool mappings from now on
+	 * 
+	 * @param journal
+	 */
+	void setJournal(ClientJournal journal) {
+		this.journal = journal;
+	}
+	
+	
+	/**
+	 * Log changes to client-pool mappings to a feed from now on
+	 * 
+	 * @param changeFeed
+	 */
+	void setChangeFeed(ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+	
+	
 	/**
 	 * Get the set of clients that have connected to a
-	 * particular pool
+	 * particular pool. The set is an immutable snapshot,
+	 * and a new one is returned after the pool changes.
 	 * 
 	 * @param pool
 	 * @return Immutable set of OdinClient instances in that pool
 	 */
 	Set<OdinClient> getClientsFromPool(String pool) {
-		return Collections.unmodifiableSet(poolToClientSetMap.get(pool));
+		VersionedSet<OdinClient> clients = poolToClientSetMap.get(pool);
+		
+		return (clients == null) ? Collections.<OdinClient>emptySet() : clients.snapshot();
 	}
 	
 	
@@ -230,12 +290,32 @@ class PoolManager {
 	 * @return
 	 */
 	String getPoolForClient(OdinClient client) {
-		return clientToPoolMap.get(client);
+		return clientToPoolMap.get(client.getMacAddress().toLong());
 	}
 	
+	
+	/**
+	 * Get the pool that the client is connected to 
+	 * 
+	 * @param clientHwAddress the client's MAC address as a long
+	 * @return the pool, or null if the client isn't in one
+	 */
+	String getPoolForClient(long clientHwAddress) {
+		return clientToPoolMap.get(clientHwAddress);
+	}
+	
+	
+	/**
+	 * Get the agents of a pool. The set is an immutable
+	 * snapshot, and a new one is returned after the pool
+	 * changes.
+	 * 
+	 * @param pool
+	 * @return Immutable set of the agents' addresses
+	 */
 	Set<InetAddress> getAgentAddrsForPool(String pool) {
-		Set<InetAddress> ret = poolToAgentSetMap.get(pool);
+		VersionedSet<InetAddress> ret = poolToAgentSetMap.get(pool);
 		
-		return (ret == null) ? Collections.<InetAddress>emptySet() : ret; 
+		return (ret == null) ? Collections.<InetAddress>emptySet() : ret.snapshot(); 
 	}
 }
\ No newline at end of file
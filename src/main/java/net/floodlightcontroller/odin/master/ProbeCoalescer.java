@@ -0,0 +1,222 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Merges the bursts of probe requests that a scanning client causes.
+ * A client probes on every channel, and every agent in range forwards
+ * each probe to the master. Once the master has acted on a probe, the
+ * same probe is dropped for a short window:
+ *
+ *  - probes for a particular SSID, from any agent, since the first
+ *    one already placed the client
+ *  - broadcast probes from the agent that already answered, since
+ *    the other agents in range still have to answer them
+ *
+ * Every probe, dropped or not, is recorded as a sighting of the
+ * client by its agent, which applications can use for placement.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class ProbeCoalescer {
+	static final long DEFAULT_WINDOW_MILLIS = 100;
+	static final long SIGHTING_TTL_MILLIS = 10000;
+
+	// Expired entries are swept every so many probes
+	private static final int PURGE_INTERVAL = 4096;
+
+	private final ConcurrentMap<MACAddress, ClientProbes> clients = new ConcurrentHashMap<MACAddress, ClientProbes>();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private volatile long windowNanos;
+
+
+	/**
+	 * @param windowMillis time for which a probe that was acted upon
+	 *        suppresses its duplicates, 0 to never suppress them
+	 */
+	ProbeCoalescer(long windowMillis) {
+		setWindowMillis(windowMillis);
+	}
+
+
+	void setWindowMillis(long windowMillis) {
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, 0));
+	}
+
+
+	long getWindowMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+	}
+
+
+	/**
+	 * Record a probe, and check whether an earlier one already
+	 * took care of it.
+	 *
+	 * @param clientHwAddress client that sent the probe
+	 * @param ssid SSID probed for, or the empty string for a broadcast probe
+	 * @param odinAgentAddr agent that forwarded the probe
+	 * @param now time of arrival, from System.nanoTime()
+	 * @return true if the probe is a duplicate and should be dropped
+	 */
+	boolean coalesce(MACAddress clientHwAddress, String ssid, InetAddress odinAgentAddr, long now) {
+		if (received.incrementAndGet() % PURGE_INTERVAL == 0)
+			purge(now);
+
+		ClientProbes probes = clients.get(clientHwAddress);
+
+		if (probes == null) {
+			ClientProbes fresh = new ClientProbes();
+			probes = clients.putIfAbsent(clientHwAddress, fresh);
+
+			if (probes == null)
+				probes = fresh;
+		}
+
+		boolean duplicate;
+
+		synchronized (probes) {
+			probes.sightings.put(odinAgentAddr, now);
+
+			Long decided = "".equals(ssid) ? probes.broadcastDecisions.get(odinAgentAddr)
+										   : probes.ssidDecisions.get(ssid);
+			duplicate = (decided != null && now - decided < windowNanos);
+		}
+
+		if (duplicate)
+			coalesced.incrementAndGet();
+
+		return duplicate;
+	}
+
+
+	/**
+	 * Record that the master acted on a probe, so that its
+	 * duplicates are dropped for the rest of the window.
+	 */
+	void decided(MACAddress clientHwAddress, String ssid, InetAddress odinAgentAddr, long now) {
+		if (windowNanos == 0)
+			return;
+
+		ClientProbes probes = clients.get(clientHwAddress);
+
+		// Purged in the meantime
+		if (probes == null)
+			return;
+
+		synchronized (probes) {
+			if ("".equals(ssid))
+				probes.broadcastDecisions.put(odinAgentAddr, now);
+			else
+				probes.ssidDecisions.put(ssid, now);
+		}
+	}
+
+
+	/**
+	 * @param clientHwAddress
+	 * @param now current time, from System.nanoTime()
+	 * @return agents that forwarded a probe from the client
+	 *         in the last SIGHTING_TTL_MILLIS
+	 */
+	Set<InetAddress> getAgentsHearingClient(MACAddress clientHwAddress, long now) {
+		ClientProbes probes = clients.get(clientHwAddress);
+		Set<InetAddress> agents = new HashSet<InetAddress>();
+
+		if (probes == null)
+			return agents;
+
+		long ttl = TimeUnit.MILLISECONDS.toNanos(SIGHTING_TTL_MILLIS);
+
+		synchronized (probes) {
+			for (Map.Entry<InetAddress, Long> entry: probes.sightings.entrySet()) {
+				if (now - entry.getValue() < ttl)
+					agents.add(entry.getKey());
+			}
+		}
+
+		return agents;
+	}
+
+
+	/**
+	 * @return number of probes seen
+	 */
+	long getReceived() {
+		return received.get();
+	}
+
+
+	/**
+	 * @return number of probes dropped as duplicates
+	 */
+	long getCoalesced() {
+		return coalesced.get();
+	}
+
+
+	/**
+	 * @return fraction of the probes seen that were dropped
+	 */
+	double getDedupRatio() {
+		long total = received.get();
+
+		return (total == 0) ? 0 : (double) coalesced.get() / total;
+	}
+
+
+	/**
+	 * Drop decisions that are out of their window, and clients
+	 * that haven't been heard from for SIGHTING_TTL_MILLIS.
+	 */
+	void purge(long now) {
+		long ttl = TimeUnit.MILLISECONDS.toNanos(SIGHTING_TTL_MILLIS);
+		Iterator<Map.Entry<MACAddress, ClientProbes>> it = clients.entrySet().iterator();
+
+		while (it.hasNext()) {
+			ClientProbes probes = it.next().getValue();
+
+			synchronized (probes) {
+				expire(probes.ssidDecisions, now, windowNanos);
+				expire(probes.broadcastDecisions, now, windowNanos);
+				expire(probes.sightings, now, ttl);
+
+				if (probes.sightings.isEmpty())
+					it.remove();
+			}
+		}
+	}
+
+
+	private static <K> void expire(Map<K, Long> times, long now, long maxAge) {
+		Iterator<Long> it = times.values().iterator();
+
+		while (it.hasNext()) {
+			if (now - it.next() >= maxAge)
+				it.remove();
+		}
+	}
+
+
+	/**
+	 * Probes from a single client, guarded by its own monitor
+	 */
+	private static class ClientProbes {
+		final Map<InetAddress, Long> sightings = new HashMap<InetAddress, Long>();
+		final Map<String, Long> ssidDecisions = new HashMap<String, Long>();
+		final Map<InetAddress, Long> broadcastDecisions = new HashMap<InetAddress, Long>();
+	}
+}
@@ -0,0 +1,129 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pulls spectral scans from the agents into a ChannelOccupancyStore.
+ * On each round, the scan is requested from every agent before any
+ * answer is waited on, as for an rxstats sweep, so a round takes
+ * about as long as the slowest agent that makes the deadline. Agents
+ * that miss it are skipped for the round.
+ *
+ * Each agent's scan is read into the same OdinSpectralScan every
+ * round. An agent that misses the deadline may still fill its scan
+ * later, so its scan is dropped and a new one is used next time.
+ *
+ * Rounds are run by one thread at a time.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class SpectralScanCollector {
+	protected static Logger log = LoggerFactory.getLogger(SpectralScanCollector.class);
+
+	private final ChannelOccupancyStore store;
+	private final Map<InetAddress, OdinSpectralScan> scans = new HashMap<InetAddress, OdinSpectralScan>();
+
+	// Counters, read by getStats() from other threads
+	private volatile long rounds = 0;
+	private volatile long scansCollected = 0;
+	private volatile long scansMissed = 0;
+	private volatile long lastRoundMicros = 0;
+	private final LatencyHistogram roundLatency = new LatencyHistogram();
+
+
+	SpectralScanCollector(ChannelOccupancyStore store) {
+		this.store = store;
+	}
+
+
+	/**
+	 * Collect a scan from each agent, and drop the series
+	 * of agents that are no longer registered
+	 *
+	 * @param agents the registered agents
+	 * @param now when the round started, in ms
+	 * @param timeoutMs deadline for each agent, from the start of the round
+	 * @return number of agents that answered in time
+	 */
+	int collect(Collection<IOdinAgent> agents, long now, long timeoutMs) {
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		List<InetAddress> agentAddrs = new ArrayList<InetAddress>(agents.size());
+		List<Future<OdinSpectralScan>> futures = new ArrayList<Future<OdinSpectralScan>>(agents.size());
+
+		for (IOdinAgent agent: agents) {
+			InetAddress agentAddr = agent.getIpAddress();
+
+			agentAddrs.add(agentAddr);
+			futures.add(agent.getSpectralScanAsync(scans.get(agentAddr)));
+		}
+
+		int collected = 0;
+		int missed = 0;
+
+		for (int i = 0; i < futures.size(); i++) {
+			InetAddress agentAddr = agentAddrs.get(i);
+
+			try {
+				OdinSpectralScan scan = futures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+				store.record(agentAddr, now, scan);
+				scans.put(agentAddr, scan);
+				collected++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				scans.remove(agentAddr);
+				missed++;
+			} catch (ExecutionException e) {
+				log.warn("Could not retrieve the spectral scan from agent " + agentAddr + ": " + e.getCause());
+				scans.remove(agentAddr);
+				missed++;
+			} catch (TimeoutException e) {
+				log.warn("Agent " + agentAddr + " missed the spectral scan deadline of " + timeoutMs + "ms");
+				scans.remove(agentAddr);
+				missed++;
+			}
+		}
+
+		scans.keySet().retainAll(agentAddrs);
+		store.retainAgents(agentAddrs);
+
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		roundLatency.record(micros);
+		lastRoundMicros = micros;
+		scansCollected += collected;
+		scansMissed += missed;
+		rounds++;
+
+		return collected;
+	}
+
+
+	/**
+	 * @return rounds run, scans collected and missed,
+	 *         and how long rounds took
+	 */
+	Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("rounds", rounds);
+		stats.put("scansCollected", scansCollected);
+		stats.put("scansMissed", scansMissed);
+		stats.put("lastRoundMicros", lastRoundMicros);
+		stats.put("roundLatency", roundLatency.toMap());
+
+		return stats;
+	}
+}
@@ -0,0 +1,50 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of reentrant locks, picked by the hash of a key.
+ * Keys that share a stripe share a lock, so this trades a little
+ * false contention for a bounded number of lock objects that never
+ * have to be created or cleaned up as clients and agents come and go.
+ *
+ * A thread must not hold two stripes of the same StripedLock at
+ * once, since two keys can map to stripes in either order.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class StripedLock {
+	private final Lock[] stripes;
+	private final int mask;
+
+	/**
+	 * @param numStripes number of locks, rounded up to a power of two
+	 */
+	StripedLock(int numStripes) {
+		int size = Integer.highestOneBit(Math.max(numStripes, 1) * 2 - 1);
+
+		stripes = new Lock[size];
+		mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+
+	/**
+	 * @param key the object to lock
+	 * @return the lock guarding key
+	 */
+	Lock get(Object key) {
+		int h = key.hashCode();
+
+		// Spread the high bits down, as in HashMap
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+
+		return stripes[h & mask];
+	}
+}
@@ -4,6 +4,7 @@ import java.net.InetAddress;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
 
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.odin.master.IOdinAgent;
@@ -19,9 +20,11 @@ import net.floodlightcontroller.util.MACAddress;
  */
 class StubOdinAgent implements IOdinAgent {
 
+	private static final int CLICK_CODE_OK = 200;
+
 	private IOFSwitch sw = null;
 	private InetAddress ipAddr = null;
-	private long lastHeard;
+	private volatile long lastHeard;
 	private ConcurrentSkipListSet<OdinClient> clientList = new ConcurrentSkipListSet<OdinClient>();
 	
 	@Override
@@ -29,6 +32,12 @@ class StubOdinAgent implements IOdinAgent {
 		clientList.add(oc);
 	}
 
+	@Override
+	public Future<Integer> addClientLvapAsync(OdinClient oc) {
+		addClientLvap(oc);
+		return OdinAgentFuture.completed(CLICK_CODE_OK);
+	}
+
 	@Override
 	public InetAddress getIpAddress() {
 		return ipAddr;
@@ -39,6 +48,34 @@ class StubOdinAgent implements IOdinAgent {
 		return null;
 	}
 
+	@Override
+	public Future<Map<MACAddress, Map<String, String>>> getRxStatsAsync() {
+		return OdinAgentFuture.completed(getRxStats());
+	}
+
+	@Override
+	public OdinRxStatsTable getRxStatsTable(OdinRxStatsTable table) {
+		if (table == null)
+			return new OdinRxStatsTable();
+
+		table.clear();
+		return table;
+	}
+
+	@Override
+	public Future<OdinRxStatsTable> getRxStatsTableAsync(OdinRxStatsTable table) {
+		return OdinAgentFuture.completed(getRxStatsTable(table));
+	}
+
+	@Override
+	public Future<OdinSpectralScan> getSpectralScanAsync(OdinSpectralScan scan) {
+		if (scan == null)
+			return OdinAgentFuture.completed(new OdinSpectralScan());
+
+		scan.clear();
+		return OdinAgentFuture.completed(scan);
+	}
+
 	@Override
 	public IOFSwitch getSwitch() {
 		return sw;
@@ -49,6 +86,11 @@ class StubOdinAgent implements IOdinAgent {
 		return clientList;
 	}
 
+	@Override
+	public Future<Set<OdinClient>> getLvapsRemoteAsync() {
+		return OdinAgentFuture.completed(getLvapsRemote());
+	}
+
 	@Override
 	public int init(InetAddress host) {
 		this.ipAddr = host;
@@ -61,6 +103,12 @@ class StubOdinAgent implements IOdinAgent {
 		clientList.remove(oc);
 	}
 
+	@Override
+	public Future<Integer> removeClientLvapAsync(OdinClient oc) {
+		removeClientLvap(oc);
+		return OdinAgentFuture.completed(CLICK_CODE_OK);
+	}
+
 	@Override
 	public void setSwitch(IOFSwitch sw) {
 		this.sw = sw;
@@ -93,4 +141,8 @@ class StubOdinAgent implements IOdinAgent {
 	public void sendProbeResponse(MACAddress clientHwAddr, MACAddress bssid,
 			Set<String> ssidLists) {
 	}
+
+	@Override
+	public void close() {
+	}
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Keeps the subscriptions of each pool, already in the form that
+ * agents expect, and remembers which version of each pool's table
+ * every agent was last sent. Registering or removing a subscription
+ * only touches its own pool's table, and an agent is only sent its
+ * table again if a pool it belongs to has changed since.
+ *
+ * Agents take their whole subscription table in one write, so the
+ * table is rebuilt from the pools' compiled entries when it is sent.
+ *
+ * At most one push per agent is outstanding: a push that is already
+ * running for an agent picks up any change made while it runs, so
+ * tables reach each agent in order.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class SubscriptionRegistry {
+	private static final String WILD_CARD = "*";
+	private static final String WILD_CARD_MAC = MACAddress.valueOf("00:00:00:00:00:00").toString();
+
+	private long lastId = 0;
+	private final Map<Long, String> poolForId = new HashMap<Long, String>();
+	private final Map<String, PoolTable> pools = new HashMap<String, PoolTable>();
+	private final Map<InetAddress, AgentTable> agents = new HashMap<InetAddress, AgentTable>();
+
+	private long pushes = 0;
+
+
+	/**
+	 * Add a subscription to a pool
+	 *
+	 * @param pool
+	 * @param oes the subscription
+	 * @return the subscription's id
+	 */
+	synchronized long add(String pool, OdinEventSubscription oes) {
+		long id = ++lastId;
+		PoolTable table = pools.get(pool);
+
+		if (table == null) {
+			table = new PoolTable();
+			pools.put(pool, table);
+		}
+
+		final String addr = oes.getClient();
+		table.entries.put(id, id + " "
+							+ (addr.equals(WILD_CARD) ? WILD_CARD_MAC : addr) + " "
+							+ oes.getStatistic() + " "
+							+ oes.getRelation().ordinal() + " "
+							+ oes.getValue() + " ");
+		table.version++;
+		poolForId.put(id, pool);
+
+		return id;
+	}
+
+
+	/**
+	 * Remove a subscription
+	 *
+	 * @param id the subscription's id
+	 * @return the pool the subscription was in, or null
+	 *         if there is no such subscription
+	 */
+	synchronized String remove(long id) {
+		String pool = poolForId.remove(id);
+
+		if (pool != null) {
+			PoolTable table = pools.get(pool);
+			table.entries.remove(id);
+			table.version++;
+		}
+
+		return pool;
+	}
+
+
+	/**
+	 * Forget what an agent was sent, e.g. because it has
+	 * restarted, so that the next push sends it everything
+	 *
+	 * @param agentAddr
+	 */
+	synchronized void resetAgent(InetAddress agentAddr) {
+		AgentTable table = agents.get(agentAddr);
+
+		if (table != null)
+			table.versions.clear();
+	}
+
+
+	/**
+	 * Claim the right to push to an agent
+	 *
+	 * @param agentAddr
+	 * @return true if the caller should start a push, false if
+	 *         one is already running and will see the change
+	 */
+	synchronized boolean startPush(InetAddress agentAddr) {
+		AgentTable table = agents.get(agentAddr);
+
+		if (table == null) {
+			table = new AgentTable();
+			agents.put(agentAddr, table);
+		}
+
+		if (table.pushing)
+			return false;
+
+		table.pushing = true;
+		return true;
+	}
+
+
+	/**
+	 * Get the table to send to an agent, if it is out of date.
+	 * Must only be called by the push started with startPush(),
+	 * which ends once this returns null.
+	 *
+	 * @param agentAddr
+	 * @param agentPools pools the agent belongs to
+	 * @return the agent's subscription table, or null if
+	 *         the agent is up to date
+	 */
+	synchronized String nextTable(InetAddress agentAddr, Collection<String> agentPools) {
+		AgentTable agent = agents.get(agentAddr);
+		Map<String, Long> versions = new HashMap<String, Long>();
+
+		for (String pool: agentPools) {
+			PoolTable table = pools.get(pool);
+			versions.put(pool, (table == null) ? 0 : table.version);
+		}
+
+		if (versions.equals(agent.versions)) {
+			agent.pushing = false;
+			return null;
+		}
+
+		agent.versions = versions;
+		pushes++;
+
+		return compile(agentPools);
+	}
+
+
+	/**
+	 * End a push that failed part way. The agent is sent
+	 * everything on its next push.
+	 *
+	 * @param agentAddr
+	 */
+	synchronized void abortPush(InetAddress agentAddr) {
+		AgentTable agent = agents.get(agentAddr);
+
+		if (agent != null) {
+			agent.versions.clear();
+			agent.pushing = false;
+		}
+	}
+
+
+	/**
+	 * Get the subscription table of a set of pools
+	 *
+	 * @param agentPools
+	 * @return the table, as agents expect it
+	 */
+	synchronized String compile(Collection<String> agentPools) {
+		StringBuilder sb = new StringBuilder();
+		Set<String> seen = new HashSet<String>();
+		int count = 0;
+
+		for (String pool: agentPools) {
+			PoolTable table = pools.get(pool);
+
+			if (table == null || !seen.add(pool))
+				continue;
+
+			for (String entry: table.entries.values()) {
+				sb.append(entry);
+				count++;
+			}
+		}
+
+		return count + " " + sb.toString();
+	}
+
+
+	/**
+	 * @return number of tables sent to agents
+	 */
+	synchronized long getPushes() {
+		return pushes;
+	}
+
+
+	private static class PoolTable {
+		final Map<Long, String> entries = new LinkedHashMap<Long, String>();
+		long version = 0;
+	}
+
+
+	private static class AgentTable {
+		Map<String, Long> versions = new HashMap<String, Long>();
+		boolean pushing = false;
+	}
+}
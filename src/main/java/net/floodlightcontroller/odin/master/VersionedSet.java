@@ -0,0 +1,90 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent set that hands out immutable snapshots of itself.
+ * Every change bumps a version number, and a snapshot is only
+ * copied when it is asked for after a change, so readers that
+ * poll a set that rarely changes share one copy between them.
+ *
+ * Snapshots can be iterated for as long as the reader likes.
+ * A new snapshot is returned after every change, so comparing
+ * snapshots by reference tells whether the set has changed.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class VersionedSet<T> {
+	private final Set<T> members = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+	private final AtomicLong version = new AtomicLong();
+	private volatile Snapshot<T> snapshot = new Snapshot<T>(0, Collections.<T>emptySet());
+
+
+	/**
+	 * @return true if the set did not already contain element
+	 */
+	boolean add(T element) {
+		if (!members.add(element))
+			return false;
+
+		version.incrementAndGet();
+		return true;
+	}
+
+
+	/**
+	 * @return true if the set contained element
+	 */
+	boolean remove(T element) {
+		if (!members.remove(element))
+			return false;
+
+		version.incrementAndGet();
+		return true;
+	}
+
+
+	boolean contains(T element) {
+		return members.contains(element);
+	}
+
+
+	int size() {
+		return members.size();
+	}
+
+
+	/**
+	 * @return an immutable copy of the set as of the last change
+	 */
+	Set<T> snapshot() {
+		Snapshot<T> current = snapshot;
+		long now = version.get();
+
+		if (current.version == now)
+			return current.elements;
+
+		// The version is read before copying, so a change that
+		// races with the copy makes the next reader copy again
+		Set<T> elements = Collections.unmodifiableSet(new HashSet<T>(members));
+		snapshot = new Snapshot<T>(now, elements);
+
+		return elements;
+	}
+
+
+	private static class Snapshot<T> {
+		final long version;
+		final Set<T> elements;
+
+		Snapshot(long version, Set<T> elements) {
+			this.version = version;
+			this.elements = elements;
+		}
+	}
+}
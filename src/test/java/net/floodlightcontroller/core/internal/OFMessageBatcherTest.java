@@ -0,0 +1,132 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jboss.netty.channel.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class OFMessageBatcherTest extends FloodlightTestCase {
+    protected BasicFactory factory;
+    protected Channel channel;
+    protected ScheduledExecutorService executor;
+    protected OFMessageBatcher batcher;
+    protected Capture<List<OFMessage>> writes;
+    protected Capture<Runnable> deadline;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new BasicFactory();
+        channel = createMock(Channel.class);
+        executor = createMock(ScheduledExecutorService.class);
+        batcher = new OFMessageBatcher(channel, 4, 200, executor);
+        writes = new Capture<List<OFMessage>>(CaptureType.ALL);
+        deadline = new Capture<Runnable>(CaptureType.ALL);
+    }
+
+    protected OFMessage flowMod() {
+        return factory.getMessage(OFType.FLOW_MOD);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, Long> getReasons() {
+        return (Map<String, Long>) batcher.getStats().get("flushReasons");
+    }
+
+    @Test
+    public void testDeadlineFlush() throws Exception {
+        expect(executor.schedule(capture(deadline), eq(200L),
+                                 eq(TimeUnit.MICROSECONDS))).andReturn(null);
+        expect(channel.write(capture(writes))).andReturn(null);
+        replay(channel, executor);
+
+        // Only the first message of a batch arms the deadline
+        batcher.write(flowMod());
+        batcher.write(flowMod());
+        assertEquals(2, batcher.getPendingCount());
+        assertFalse(writes.hasCaptured());
+
+        deadline.getValue().run();
+        verify(channel, executor);
+        assertEquals(1, writes.getValues().size());
+        assertEquals(2, writes.getValue().size());
+        assertEquals(0, batcher.getPendingCount());
+        assertEquals(Long.valueOf(1), getReasons().get("DEADLINE"));
+
+        // Nothing left, so a late deadline writes nothing
+        deadline.getValue().run();
+        assertEquals(1, writes.getValues().size());
+    }
+
+    @Test
+    public void testSizeFlush() throws Exception {
+        expect(executor.schedule(capture(deadline), anyLong(),
+                                 eq(TimeUnit.MICROSECONDS))).andReturn(null);
+        expect(channel.write(capture(writes))).andReturn(null);
+        replay(channel, executor);
+
+        for (int i = 0; i < 4; i++) {
+            batcher.write(flowMod());
+        }
+        verify(channel, executor);
+        assertEquals(4, writes.getValue().size());
+        assertEquals(Long.valueOf(1), getReasons().get("SIZE"));
+
+        Map<String, Object> stats = batcher.getStats();
+        assertEquals(1L, stats.get("batches"));
+        assertEquals(4L, stats.get("messages"));
+        @SuppressWarnings("unchecked")
+        Map<String, Long> sizes = (Map<String, Long>) stats.get("batchSizes");
+        assertEquals(Long.valueOf(1), sizes.get("4"));
+    }
+
+    @Test
+    public void testOtherMessagesKeepOrder() throws Exception {
+        expect(executor.schedule(capture(deadline), anyLong(),
+                                 eq(TimeUnit.MICROSECONDS))).andReturn(null);
+        expect(channel.write(capture(writes))).andReturn(null).times(2);
+        replay(channel, executor);
+
+        // A barrier goes out right away, behind the queued flow mod
+        OFMessage fm = flowMod();
+        OFMessage barrier = factory.getMessage(OFType.BARRIER_REQUEST);
+        batcher.write(fm);
+        batcher.write(barrier);
+        assertEquals(2, writes.getValue().size());
+        assertSame(fm, writes.getValue().get(0));
+        assertSame(barrier, writes.getValue().get(1));
+
+        // And so does a list, along with anything queued by now
+        batcher.flush();
+        batcher.write(writes.getValue());
+        verify(channel, executor);
+        assertEquals(Long.valueOf(2), getReasons().get("IMMEDIATE"));
+        assertEquals(Long.valueOf(0), getReasons().get("EXPLICIT"));
+    }
+
+    @Test
+    public void testExplicitFlush() throws Exception {
+        expect(executor.schedule(capture(deadline), anyLong(),
+                                 eq(TimeUnit.MICROSECONDS))).andReturn(null);
+        expect(channel.write(capture(writes))).andReturn(null);
+        replay(channel, executor);
+
+        batcher.write(flowMod());
+        batcher.flush();
+        verify(channel, executor);
+        assertEquals(1, writes.getValue().size());
+        assertEquals(Long.valueOf(1), getReasons().get("EXPLICIT"));
+    }
+}
@@ -18,6 +18,7 @@ import org.junit.Test;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFVendor;
+import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.vendor.OFVendorData;
 import org.openflow.vendor.nicira.OFNiciraVendorData;
 import org.openflow.vendor.nicira.OFRoleRequestVendorData;
@@ -233,4 +234,23 @@ public class OFSwitchImplTest extends FloodlightTestCase {
         assertEquals(null, sw.role);
         assertEquals(0, sw.pendingRoleRequests.size());
     }
+    
+    @Test
+    public void testWrittenSwitchesOnlyTrackedInBatch() throws Exception {
+        expect(sw.channel.write(anyObject())).andReturn(null).anyTimes();
+        replay(sw.channel);
+        OFMessage po = new BasicFactory().getMessage(OFType.PACKET_OUT);
+
+        // A thread outside a batch doesn't hold on to the switch
+        sw.write(po, null);
+        assertNull(OFSwitchImpl.local_written_switches.get());
+
+        OFSwitchImpl.start_batch();
+        sw.write(po, null);
+        assertTrue(OFSwitchImpl.local_written_switches.get().contains(sw));
+
+        OFSwitchImpl.flush_all();
+        assertNull(OFSwitchImpl.local_written_switches.get());
+        assertEquals(0, sw.batcher.pending.size());
+    }
 }
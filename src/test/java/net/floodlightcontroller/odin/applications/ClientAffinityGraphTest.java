@@ -0,0 +1,149 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class ClientAffinityGraphTest {
+	private final MACAddress client1 = MACAddress.valueOf("00:00:00:00:00:01");
+
+	private InetAddress agent(int i) throws Exception {
+		return InetAddress.getByName("172.17.2." + i);
+	}
+
+	@Test
+	public void testMovesToStrongerAgent() throws Exception {
+		ClientAffinityGraph graph = new ClientAffinityGraph(10, 0, 15, 1000, 5000);
+		graph.setAgent(client1, agent(1));
+		graph.observe(client1, agent(1), 150, 0);
+		graph.observe(client1, agent(2), 160, 0);
+
+		// Not worth the margin
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 0).isEmpty());
+
+		graph.observe(client1, agent(2), 170, 100);
+		List<ClientAffinityGraph.Move> moves = graph.plan(graph.takeDirty(10), 10, 100);
+		assertEquals(1, moves.size());
+		assertEquals(agent(2), moves.get(0).to);
+		assertEquals(1, graph.getLoad(agent(2)));
+		assertEquals(0, graph.getLoad(agent(1)));
+
+		// Stays put for the dwell time, even if agent 1 gets better
+		graph.observe(client1, agent(1), 200, 200);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 200).isEmpty());
+		graph.observe(client1, agent(1), 200, 1200);
+		assertEquals(1, graph.plan(graph.takeDirty(10), 10, 1200).size());
+	}
+
+	@Test
+	public void testSpreadsLoadWithinCapacity() throws Exception {
+		// Equal signal everywhere, so only the load matters
+		ClientAffinityGraph graph = new ClientAffinityGraph(4, 100, 1, 0, 5000);
+		List<MACAddress> clients = new ArrayList<MACAddress>();
+
+		for (int i = 0; i < 8; i++) {
+			MACAddress client = MACAddress.valueOf(i + 1);
+			clients.add(client);
+			graph.setAgent(client, agent(1));
+
+			for (int a = 1; a <= 3; a++) {
+				graph.observe(client, agent(a), 150, 0);
+			}
+		}
+
+		// Agent 1 starts out overloaded
+		assertEquals(8, graph.getLoad(agent(1)));
+
+		// Handoffs are limited per cycle
+		List<ClientAffinityGraph.Move> moves = graph.plan(graph.takeDirty(100), 2, 1);
+		assertEquals(2, moves.size());
+		assertEquals(6, graph.getLoad(agent(1)));
+
+		moves = graph.plan(clients, 100, 2);
+		assertEquals(3, moves.size());
+		assertTrue(graph.getLoad(agent(1)) <= 3);
+		assertTrue(graph.getLoad(agent(2)) <= 3);
+		assertTrue(graph.getLoad(agent(3)) <= 3);
+		assertEquals(8, graph.getLoad(agent(1)) + graph.getLoad(agent(2)) + graph.getLoad(agent(3)));
+
+		// Balanced, nothing left to do
+		assertTrue(graph.plan(clients, 100, 3).isEmpty());
+	}
+
+	@Test
+	public void testOnlyChangedClientsAreLookedAt() throws Exception {
+		ClientAffinityGraph graph = new ClientAffinityGraph(10, 0, 15, 0, 5000);
+
+		for (int i = 0; i < 100; i++) {
+			MACAddress client = MACAddress.valueOf(i + 1);
+			graph.setAgent(client, agent(1));
+			graph.observe(client, agent(1), 150, 0);
+		}
+
+		assertEquals(100, graph.getNumDirty());
+		assertEquals(40, graph.takeDirty(40).size());
+		assertEquals(60, graph.takeDirty(100).size());
+		assertEquals(0, graph.getNumDirty());
+
+		graph.observe(client1, agent(1), 151, 1);
+		assertEquals(Collections.singletonList(client1), graph.takeDirty(100));
+	}
+
+	@Test
+	public void testStaleReportsAndRecount() throws Exception {
+		ClientAffinityGraph graph = new ClientAffinityGraph(10, 0, 15, 0, 1000);
+		graph.setAgent(client1, agent(1));
+		graph.observe(client1, agent(1), 100, 0);
+		graph.observe(client1, agent(2), 200, 0);
+
+		// Agent 2 hasn't heard the client for too long
+		graph.observe(client1, agent(1), 100, 2000);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 2000).isEmpty());
+
+		// Client moved by someone else, then left
+		Map<MACAddress, InetAddress> agents = new HashMap<MACAddress, InetAddress>();
+		agents.put(client1, agent(3));
+		graph.recount(agents);
+		assertEquals(0, graph.getLoad(agent(1)));
+		assertEquals(1, graph.getLoad(agent(3)));
+
+		graph.recount(new HashMap<MACAddress, InetAddress>());
+		assertEquals(0, graph.getNumClients());
+		assertEquals(0, graph.getLoad(agent(3)));
+	}
+
+	@Test
+	public void testCurrentAgentGoesQuiet() throws Exception {
+		ClientAffinityGraph graph = new ClientAffinityGraph(10, 0, 15, 0, 1000);
+		graph.setAgent(client1, agent(1));
+		graph.observe(client1, agent(1), 160, 0);
+		graph.observe(client1, agent(2), 150, 0);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 0).isEmpty());
+
+		// The client's own agent only reports changes, so its last
+		// report still stands long after, and agent 2 is no better
+		graph.observe(client1, agent(2), 155, 5000);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 5000).isEmpty());
+		graph.observe(client1, agent(2), 155, 10000);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 10000).isEmpty());
+
+		// But a real improvement still moves it
+		graph.observe(client1, agent(2), 180, 11000);
+		assertEquals(1, graph.plan(graph.takeDirty(10), 10, 11000).size());
+
+		// Placed where no agent has reported it yet: left alone
+		graph.setAgent(client1, agent(3));
+		graph.observe(client1, agent(2), 180, 12000);
+		assertTrue(graph.plan(graph.takeDirty(10), 10, 12000).isEmpty());
+	}
+}
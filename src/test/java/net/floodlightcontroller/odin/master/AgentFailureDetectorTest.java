@@ -0,0 +1,85 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AgentFailureDetectorTest {
+
+	private IOdinAgent agent(String ipAddress) throws Exception {
+		IOdinAgent agent = new StubOdinAgent();
+		agent.init(InetAddress.getByName(ipAddress));
+		return agent;
+	}
+
+	@Test
+	public void testSuspectAndFail() throws Exception {
+		AgentFailureDetector detector = new AgentFailureDetector();
+		IOdinAgent agent1 = agent("172.17.2.161");
+		IOdinAgent agent2 = agent("172.17.2.162");
+		IOdinAgent agent3 = agent("172.17.2.163");
+		detector.register(agent1, 0);
+		detector.register(agent2, 0);
+		detector.register(agent3, 0);
+
+		List<IOdinAgent> suspected = new ArrayList<IOdinAgent>();
+		assertTrue(detector.sweep(400, 500, 1000, suspected).isEmpty());
+		assertTrue(suspected.isEmpty());
+
+		// Suspected once, not on every sweep
+		detector.heartbeat(agent2.getIpAddress(), 600);
+		assertTrue(detector.sweep(700, 500, 1000, suspected).isEmpty());
+		assertEquals(2, suspected.size());
+		suspected.clear();
+		assertTrue(detector.sweep(800, 500, 1000, suspected).isEmpty());
+		assertTrue(suspected.isEmpty());
+
+		// Agents that fail together are returned together
+		List<IOdinAgent> failed = detector.sweep(1000, 500, 1000, null);
+		assertEquals(2, failed.size());
+		assertTrue(failed.contains(agent1) && failed.contains(agent3));
+		assertEquals(1, detector.size());
+		assertFalse(detector.heartbeat(agent1.getIpAddress(), 1000));
+
+		assertEquals(agent2, detector.sweep(1600, 500, 1000, null).get(0));
+		assertEquals(3L, detector.getStats().get("failures"));
+	}
+
+	@Test
+	public void testManyAgents() throws Exception {
+		AgentFailureDetector detector = new AgentFailureDetector();
+		List<IOdinAgent> agents = new ArrayList<IOdinAgent>();
+
+		for (int i = 0; i < 1000; i++) {
+			IOdinAgent agent = agent("10.0." + (i / 256) + "." + (i % 256));
+			agents.add(agent);
+			detector.register(agent, 0);
+		}
+
+		// Keep every other agent alive, and unregister a few
+		for (int i = 0; i < 1000; i += 2) {
+			detector.heartbeat(agents.get(i).getIpAddress(), 900);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(detector.unregister(agents.get(i).getIpAddress()));
+		}
+
+		List<IOdinAgent> failed = detector.sweep(1000, 500, 1000, null);
+		assertEquals(495, failed.size());
+
+		for (IOdinAgent agent: failed) {
+			assertEquals(1, agents.indexOf(agent) % 2);
+		}
+
+		assertEquals(495, detector.size());
+		assertEquals(495, detector.sweep(1900, 500, 1000, null).size());
+		assertEquals(0, detector.size());
+	}
+}
@@ -0,0 +1,178 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AgentOnboarderTest {
+
+	/**
+	 * Agents whose LVAP tables take until the test releases them
+	 */
+	private static class BlockingStages implements AgentOnboarder.Stages {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger reading = new AtomicInteger();
+		final AtomicInteger maxReading = new AtomicInteger();
+		final Set<InetAddress> registered = Collections.newSetFromMap(new ConcurrentHashMap<InetAddress, Boolean>());
+		final Set<InetAddress> pushed = Collections.newSetFromMap(new ConcurrentHashMap<InetAddress, Boolean>());
+		final Set<InetAddress> closed = Collections.newSetFromMap(new ConcurrentHashMap<InetAddress, Boolean>());
+
+		@Override
+		public IOdinAgent connect(InetAddress agentAddr) {
+			if (agentAddr.getAddress()[3] == 0)
+				throw new RuntimeException("connection refused");
+
+			IOdinAgent agent = new StubOdinAgent() {
+				@Override
+				public void close() {
+					closed.add(getIpAddress());
+				}
+			};
+			agent.init(agentAddr);
+			return agent;
+		}
+
+		@Override
+		public Set<OdinClient> readLvapTable(IOdinAgent agent) {
+			if (agent.getIpAddress().getAddress()[3] == (byte) 255)
+				throw new RuntimeException("connection reset");
+
+			int n = reading.incrementAndGet();
+			int max;
+			while (n > (max = maxReading.get()) && !maxReading.compareAndSet(max, n));
+
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			reading.decrementAndGet();
+			return Collections.emptySet();
+		}
+
+		@Override
+		public boolean register(IOdinAgent agent, Set<OdinClient> lvaps) {
+			return registered.add(agent.getIpAddress());
+		}
+
+		@Override
+		public void pushFlows(IOdinAgent agent) {
+			pushed.add(agent.getIpAddress());
+		}
+	}
+
+	private void awaitIdle(AgentOnboarder onboarder) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (!Integer.valueOf(0).equals(onboarder.getStats().get("inProgress"))) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testBoundedParallelism() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		BlockingStages stages = new BlockingStages();
+		AgentOnboarder onboarder = new AgentOnboarder(stages, executor);
+		onboarder.setParallelism(4);
+
+		try {
+			for (int i = 1; i <= 12; i++) {
+				assertTrue(onboarder.onboard(InetAddress.getByName("172.17.2." + i)));
+			}
+
+			// Pings while an agent is being registered don't start another registration
+			InetAddress agentAddr = InetAddress.getByName("172.17.2.1");
+			assertTrue(onboarder.isOnboarding(agentAddr));
+			assertFalse(onboarder.onboard(agentAddr));
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (stages.reading.get() < 4) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+			Thread.sleep(50);
+			assertEquals(4, stages.reading.get());
+
+			stages.release.countDown();
+			awaitIdle(onboarder);
+
+			assertEquals(4, stages.maxReading.get());
+			assertEquals(12, stages.registered.size());
+			assertEquals(12, stages.pushed.size());
+			assertEquals(12L, onboarder.getStats().get("registered"));
+			assertEquals(1L, onboarder.getStats().get("coalescedPings"));
+			assertTrue(stages.closed.isEmpty());
+			assertFalse(onboarder.isOnboarding(agentAddr));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailedAgentCanRetry() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		BlockingStages stages = new BlockingStages();
+		stages.release.countDown();
+		AgentOnboarder onboarder = new AgentOnboarder(stages, executor);
+
+		try {
+			InetAddress agentAddr = InetAddress.getByName("172.17.2.0");
+			assertTrue(onboarder.onboard(agentAddr));
+			awaitIdle(onboarder);
+			assertEquals(1L, onboarder.getStats().get("failed"));
+
+			// The next ping tries again
+			assertTrue(onboarder.onboard(agentAddr));
+			awaitIdle(onboarder);
+			assertEquals(2L, onboarder.getStats().get("failed"));
+			assertTrue(stages.registered.isEmpty());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testUnregisteredAgentIsClosed() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		BlockingStages stages = new BlockingStages();
+		stages.release.countDown();
+		AgentOnboarder onboarder = new AgentOnboarder(stages, executor);
+
+		try {
+			InetAddress agentAddr = InetAddress.getByName("172.17.2.1");
+			assertTrue(onboarder.onboard(agentAddr));
+			awaitIdle(onboarder);
+			assertTrue(stages.closed.isEmpty());
+
+			// Already in the agent map
+			assertTrue(onboarder.onboard(agentAddr));
+			awaitIdle(onboarder);
+			assertEquals(Collections.singleton(agentAddr), stages.closed);
+
+			// Its LVAP table can't be read
+			InetAddress brokenAddr = InetAddress.getByName("172.17.2.255");
+			assertTrue(onboarder.onboard(brokenAddr));
+			awaitIdle(onboarder);
+			assertEquals(1L, onboarder.getStats().get("failed"));
+			assertTrue(stages.closed.contains(brokenAddr));
+			assertEquals(1L, onboarder.getStats().get("registered"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
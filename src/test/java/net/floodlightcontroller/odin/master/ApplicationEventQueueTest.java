@@ -0,0 +1,166 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.odin.master.ApplicationEventQueue.OverflowPolicy;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class ApplicationEventQueueTest {
+	private final MACAddress client1 = MACAddress.valueOf("00:00:00:00:00:01");
+	private final MACAddress client2 = MACAddress.valueOf("00:00:00:00:00:02");
+	private final OdinEventSubscription oes = new OdinEventSubscription();
+
+	/**
+	 * Runs tasks only when the test says so
+	 */
+	private static class ManualExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	private static class RecordingCallback implements BatchNotificationCallback {
+		final List<Long> values = new ArrayList<Long>();
+		final List<Integer> batchSizes = new ArrayList<Integer>();
+
+		@Override
+		public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+			values.add(cntx.value);
+		}
+
+		@Override
+		public void execBatch(OdinEventSubscription oes, List<NotificationCallbackContext> batch) {
+			batchSizes.add(batch.size());
+
+			for (NotificationCallbackContext cntx: batch) {
+				values.add(cntx.value);
+			}
+		}
+	}
+
+	private NotificationCallbackContext event(MACAddress client, long value) {
+		return new NotificationCallbackContext(client, null, value);
+	}
+
+	@Test
+	public void testBatchesInOrder() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		RecordingCallback cb = new RecordingCallback();
+		ApplicationEventQueue queue = new ApplicationEventQueue(cb, executor, 1, 100, 4, OverflowPolicy.DROP_OLDEST);
+
+		for (long i = 0; i < 10; i++) {
+			queue.offer(1, oes, event(client1, i));
+		}
+
+		// One wakeup for the lane, however many events
+		assertEquals(1, executor.tasks.size());
+		assertEquals(10, queue.getDepth());
+
+		// Each wakeup delivers one batch, then hands the thread back
+		executor.tasks.remove(0).run();
+		assertEquals(6, queue.getDepth());
+		assertEquals(1, executor.tasks.size());
+
+		executor.runAll();
+
+		assertEquals(0, queue.getDepth());
+		assertEquals(10, cb.values.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Long.valueOf(i), cb.values.get(i));
+		}
+
+		List<Integer> expected = new ArrayList<Integer>();
+		expected.add(4);
+		expected.add(4);
+		expected.add(2);
+		assertEquals(expected, cb.batchSizes);
+	}
+
+	@Test
+	public void testOverflow() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		RecordingCallback cb = new RecordingCallback();
+		ApplicationEventQueue dropOldest = new ApplicationEventQueue(cb, executor, 1, 3, 10, OverflowPolicy.DROP_OLDEST);
+
+		for (long i = 0; i < 5; i++) {
+			dropOldest.offer(1, oes, event(client1, i));
+		}
+		executor.runAll();
+		assertEquals("[2, 3, 4]", cb.values.toString());
+		assertEquals(2L, dropOldest.getStats().get("dropped"));
+
+		cb = new RecordingCallback();
+		ApplicationEventQueue coalesce = new ApplicationEventQueue(cb, executor, 1, 3, 10, OverflowPolicy.COALESCE_PER_CLIENT);
+		coalesce.offer(1, oes, event(client1, 0));
+		coalesce.offer(1, oes, event(client2, 1));
+		coalesce.offer(2, oes, event(client1, 2));
+
+		// Overwrites the client's queued event, in place
+		coalesce.offer(1, oes, event(client1, 3));
+		coalesce.offer(1, oes, event(client2, 4));
+		executor.runAll();
+		assertEquals("[3, 4, 2]", cb.values.toString());
+		assertEquals(2L, coalesce.getStats().get("coalesced"));
+	}
+
+	@Test
+	public void testSlowApplicationDoesNotBlockPublishers() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1000);
+
+		NotificationCallback slow = new NotificationCallback() {
+			@Override
+			public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}
+		};
+
+		try {
+			ApplicationEventQueue queue = new ApplicationEventQueue(slow, executor, 4, 1000, 32, OverflowPolicy.DROP_OLDEST);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < 1000; i++) {
+				queue.offer(1, oes, event(MACAddress.valueOf(i), i));
+			}
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+			release.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+
+			// Counted once the callback returns
+			long deadline = System.currentTimeMillis() + 1000;
+			while (queue.getDepth() > 0 || !Long.valueOf(1000).equals(queue.getStats().get("delivered"))) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class ChangeFeedTest {
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> getChanges(Map<String, Object> ret) {
+		return (List<Map<String, Object>>) ret.get("changes");
+	}
+
+	@Test
+	public void testChangesSince() throws Exception {
+		ChangeFeed feed = new ChangeFeed(16);
+		MACAddress client = MACAddress.valueOf("00:00:00:00:00:01");
+
+		feed.clientRemoved(client);
+		feed.ipChanged(client, InetAddress.getByName("172.17.1.1"));
+		feed.poolChanged(client, "pool-1");
+		assertEquals(3, feed.getLastSeq());
+
+		Map<String, Object> ret = feed.getChangesSince(0, 2, 0);
+		assertEquals(2L, ret.get("seq"));
+		assertEquals(false, ret.get("reset"));
+		List<Map<String, Object>> changes = getChanges(ret);
+		assertEquals(2, changes.size());
+		assertEquals("CLIENT_REMOVED", changes.get(0).get("type"));
+		assertEquals("00:00:00:00:00:01", changes.get(0).get("client"));
+		assertEquals("172.17.1.1", changes.get(1).get("ipAddress"));
+
+		ret = feed.getChangesSince(2, 10, 0);
+		assertEquals(3L, ret.get("seq"));
+		assertEquals("pool-1", getChanges(ret).get(0).get("pool"));
+
+		// Nothing new
+		ret = feed.getChangesSince(3, 10, 0);
+		assertEquals(3L, ret.get("seq"));
+		assertTrue(getChanges(ret).isEmpty());
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		ChangeFeed feed = new ChangeFeed(4);
+
+		for (int i = 1; i <= 10; i++) {
+			feed.clientRemoved(MACAddress.valueOf(i));
+		}
+
+		// 7 to 10 are kept, so a reader at 6 is fine
+		Map<String, Object> ret = feed.getChangesSince(6, 10, 0);
+		assertEquals(false, ret.get("reset"));
+		assertEquals(4, getChanges(ret).size());
+
+		// One at 5 missed a change
+		ret = feed.getChangesSince(5, 10, 0);
+		assertEquals(true, ret.get("reset"));
+		assertEquals(7L, getChanges(ret).get(0).get("seq"));
+		assertEquals(10L, ret.get("seq"));
+
+		// One from before a restart
+		ret = feed.getChangesSince(42, 10, 0);
+		assertEquals(true, ret.get("reset"));
+		assertEquals(4, getChanges(ret).size());
+	}
+
+	@Test
+	public void testWaitForChange() throws Exception {
+		final ChangeFeed feed = new ChangeFeed(16);
+		final AtomicReference<Map<String, Object>> result = new AtomicReference<Map<String, Object>>();
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result.set(feed.getChangesSince(0, 10, 10000));
+				} catch (InterruptedException e) {
+					// Fails below
+				}
+			}
+		};
+
+		long start = System.currentTimeMillis();
+		reader.start();
+		Thread.sleep(50);
+		assertNull(result.get());
+
+		feed.clientRemoved(MACAddress.valueOf(1));
+		reader.join(5000);
+		assertEquals(1, getChanges(result.get()).size());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		// Gives up when the time is up
+		assertTrue(getChanges(feed.getChangesSince(1, 10, 20)).isEmpty());
+	}
+
+	@Test
+	public void testWaitingReadersAreCapped() throws Exception {
+		final ChangeFeed feed = new ChangeFeed(16);
+		List<Thread> readers = new ArrayList<Thread>();
+
+		for (int i = 0; i < ChangeFeed.MAX_WAITING; i++) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						feed.getChangesSince(0, 10, 10000);
+					} catch (InterruptedException e) {
+						// Joined below
+					}
+				}
+			};
+			reader.start();
+			readers.add(reader);
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (feed.getWaiting() < ChangeFeed.MAX_WAITING) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+
+		// One more reader isn't held
+		long start = System.currentTimeMillis();
+		assertTrue(getChanges(feed.getChangesSince(0, 10, 10000)).isEmpty());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		feed.clientRemoved(MACAddress.valueOf(1));
+		for (Thread reader: readers) {
+			reader.join(5000);
+		}
+		assertEquals(0, feed.getWaiting());
+	}
+}
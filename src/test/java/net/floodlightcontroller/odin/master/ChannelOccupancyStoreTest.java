@@ -0,0 +1,101 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ChannelOccupancyStoreTest {
+
+	private static OdinSpectralScan scan(int... channelBusyNoise) {
+		OdinSpectralScan scan = new OdinSpectralScan();
+
+		for (int i = 0; i < channelBusyNoise.length; i += 3) {
+			scan.put(channelBusyNoise[i], channelBusyNoise[i + 1], channelBusyNoise[i + 2]);
+		}
+
+		return scan;
+	}
+
+	@Test
+	public void testSeriesWrapsAround() throws Exception {
+		InetAddress agent = InetAddress.getByName("172.17.2.1");
+		ChannelOccupancyStore store = new ChannelOccupancyStore(4);
+
+		for (int t = 1; t <= 6; t++) {
+			store.record(agent, t * 1000, scan(1, t * 10, -90 - t));
+		}
+
+		// Only the last four scans are kept, oldest first
+		OdinChannelOccupancy occupancy = store.getOccupancy(agent, 1, 0);
+		assertEquals(4, occupancy.size());
+		assertEquals(agent, occupancy.getAgentAddr());
+		assertEquals(1, occupancy.getChannel());
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals((i + 3) * 1000, occupancy.getTimeMillis(i));
+			assertEquals((i + 3) * 10, occupancy.getBusy(i));
+			assertEquals(-93 - i, occupancy.getNoise(i));
+		}
+
+		assertEquals(45.0, occupancy.getMeanBusy(), 0.001);
+
+		// Windowed
+		occupancy = store.getOccupancy(agent, 1, 5000);
+		assertEquals(2, occupancy.size());
+		assertEquals(5000, occupancy.getTimeMillis(0));
+		assertEquals(0, store.getOccupancy(agent, 1, 7000).size());
+
+		assertNull(store.getOccupancy(agent, 6, 0));
+		assertNull(store.getOccupancy(InetAddress.getByName("172.17.2.2"), 1, 0));
+		assertNull(store.getOccupancy(agent, 300, 0));
+	}
+
+	@Test
+	public void testInterferenceIndex() throws Exception {
+		InetAddress a1 = InetAddress.getByName("172.17.2.1");
+		InetAddress a2 = InetAddress.getByName("172.17.2.2");
+		InetAddress a3 = InetAddress.getByName("172.17.2.3");
+		ChannelOccupancyStore store = new ChannelOccupancyStore(ChannelOccupancyStore.DEFAULT_HISTORY);
+
+		store.record(a1, 1000, scan(1, 20, -95, 6, 80, -90));
+		store.record(a1, 2000, scan(1, 40, -95, 6, 60, -90));
+		store.record(a2, 2000, scan(1, 10, -95, 11, 5, -95));
+		store.record(a3, 2000, scan(1, 100, -95));
+
+		// a1 averages 30% on channel 1, a2 10%
+		Map<Integer, Double> index = store.getInterferenceIndex(Arrays.asList(a1, a2), 0);
+		assertEquals(3, index.size());
+		assertEquals(0.2, index.get(1), 0.001);
+		assertEquals(0.7, index.get(6), 0.001);
+		assertEquals(0.05, index.get(11), 0.001);
+
+		// Only a1's second scan is recent enough
+		index = store.getInterferenceIndex(Collections.singletonList(a1), 1500);
+		assertEquals(0.4, index.get(1), 0.001);
+		assertEquals(0.6, index.get(6), 0.001);
+
+		assertTrue(store.getInterferenceIndex(Arrays.asList(a1, a2), 3000).isEmpty());
+	}
+
+	@Test
+	public void testRetainAgents() throws Exception {
+		InetAddress a1 = InetAddress.getByName("172.17.2.1");
+		InetAddress a2 = InetAddress.getByName("172.17.2.2");
+		ChannelOccupancyStore store = new ChannelOccupancyStore(ChannelOccupancyStore.DEFAULT_HISTORY);
+
+		store.record(a1, 1000, scan(1, 20, -95));
+		store.record(a2, 1000, scan(1, 20, -95));
+		store.retainAgents(Collections.singletonList(a2));
+
+		assertEquals(Collections.singleton(a2), store.getAgentAddrs());
+		assertNull(store.getOccupancy(a1, 1, 0));
+		assertEquals(1, store.getSummary(0).size());
+	}
+}
@@ -0,0 +1,186 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientJournalTest {
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("odin-journal", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+
+		if (children != null) {
+			for (File child: children) {
+				delete(child);
+			}
+		}
+
+		file.delete();
+	}
+
+	private OdinClient client(long mac) throws Exception {
+		List<String> ssids = new ArrayList<String>();
+		ssids.add("odin");
+		Lvap lvap = new Lvap(MACAddress.valueOf(mac | 0x001bb3000000L), ssids);
+
+		return new OdinClient(MACAddress.valueOf(mac), InetAddress.getByName("0.0.0.0"), lvap);
+	}
+
+	private Map<MACAddress, ClientJournal.Entry> byClient(Collection<ClientJournal.Entry> entries) {
+		Map<MACAddress, ClientJournal.Entry> map = new HashMap<MACAddress, ClientJournal.Entry>();
+
+		for (ClientJournal.Entry entry: entries) {
+			map.put(entry.clientHwAddress, entry);
+		}
+
+		return map;
+	}
+
+	private void awaitWritten(ClientJournal journal, long records) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (!Long.valueOf(records).equals(journal.getStats().get("records"))) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testRecoverAfterRestart() throws Exception {
+		ClientJournal journal = new ClientJournal(dir, ClientJournal.DEFAULT_CAPACITY);
+		assertTrue(journal.open().isEmpty());
+
+		IOdinAgent agent = new StubOdinAgent();
+		agent.init(InetAddress.getByName("172.17.2.161"));
+
+		OdinClient client1 = client(1);
+		OdinClient client2 = client(2);
+		journal.clientAdded(client1);
+		journal.clientAdded(client2);
+		journal.agentChanged(client1.getMacAddress(), agent);
+		journal.ipChanged(client1.getMacAddress(), InetAddress.getByName("172.17.1.51"));
+		journal.poolChanged(client1.getMacAddress(), "pool-1");
+		journal.clientRemoved(client2.getMacAddress());
+		journal.close();
+
+		journal = new ClientJournal(dir, ClientJournal.DEFAULT_CAPACITY);
+		Map<MACAddress, ClientJournal.Entry> entries = byClient(journal.open());
+		journal.close();
+
+		assertEquals(1, entries.size());
+		ClientJournal.Entry entry = entries.get(client1.getMacAddress());
+		assertEquals(InetAddress.getByName("172.17.1.51"), entry.ipAddress);
+		assertEquals(InetAddress.getByName("172.17.2.161"), entry.agentAddress);
+		assertEquals(client1.getLvap().getBssid(), entry.bssid);
+		assertEquals(client1.getLvap().getSsids(), entry.ssids);
+		assertEquals("pool-1", entry.pool);
+	}
+
+	@Test
+	public void testCompactsWhenFull() throws Exception {
+		// Room for a handful of records at a time
+		ClientJournal journal = new ClientJournal(dir, 256);
+		journal.open();
+
+		for (long i = 1; i <= 100; i++) {
+			journal.clientAdded(client(i));
+			journal.poolChanged(MACAddress.valueOf(i), "pool-" + (i % 3));
+		}
+		awaitWritten(journal, 200);
+		assertTrue((Long) journal.getStats().get("compactions") > 10);
+		journal.close();
+
+		journal = new ClientJournal(dir, 256);
+		Map<MACAddress, ClientJournal.Entry> entries = byClient(journal.open());
+		journal.close();
+
+		assertEquals(100, entries.size());
+		for (long i = 1; i <= 100; i++) {
+			assertEquals("pool-" + (i % 3), entries.get(MACAddress.valueOf(i)).pool);
+		}
+		assertEquals(0L, journal.getStats().get("failures"));
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws Exception {
+		ClientJournal journal = new ClientJournal(dir, ClientJournal.DEFAULT_CAPACITY);
+		journal.open();
+
+		OdinClient client1 = client(1);
+		journal.clientAdded(client1);
+		journal.poolChanged(client1.getMacAddress(), "pool-1");
+		awaitWritten(journal, 2);
+
+		// Crash: copy the files as they are, and tear the last record
+		File crashed = new File(dir, "crashed");
+		crashed.mkdirs();
+		copy(new File(dir, "clients.snapshot"), new File(crashed, "clients.snapshot"));
+		File journalFile = new File(crashed, "clients.journal");
+		copy(new File(dir, "clients.journal"), journalFile);
+		journal.close();
+
+		RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+		try {
+			int first = raf.readInt();
+			raf.seek(8 + first + 8 + 2);
+			raf.write(0xff);
+		} finally {
+			raf.close();
+		}
+
+		journal = new ClientJournal(crashed, ClientJournal.DEFAULT_CAPACITY);
+		Map<MACAddress, ClientJournal.Entry> entries = byClient(journal.open());
+		journal.close();
+
+		assertEquals(1, entries.size());
+		assertNull(entries.get(client1.getMacAddress()).pool);
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		FileOutputStream out = new FileOutputStream(to);
+
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+	private static final int KEYS = 10000;
+
+	private static ConsistentHashRing ring(String... nodes) {
+		return new ConsistentHashRing(Arrays.asList(nodes), ConsistentHashRing.DEFAULT_POINTS_PER_NODE);
+	}
+
+	@Test
+	public void testSameRingFromAnyOrder() throws Exception {
+		ConsistentHashRing a = ring("m0", "m1", "m2");
+		ConsistentHashRing b = ring("m2", "m0", "m1");
+
+		assertEquals(Arrays.asList("m0", "m1", "m2"), a.getNodes());
+
+		for (long key = 0; key < KEYS; key++) {
+			assertEquals(a.getOwner(key), b.getOwner(key));
+		}
+	}
+
+	@Test
+	public void testKeysAreSpread() throws Exception {
+		ConsistentHashRing r = ring("m0", "m1", "m2", "m3");
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+
+		// Dense keys, like consecutive agent addresses
+		for (long key = 0; key < KEYS; key++) {
+			String owner = r.getOwner(0x0a000000L + key);
+			Integer count = counts.get(owner);
+			counts.put(owner, (count == null) ? 1 : count + 1);
+		}
+
+		assertEquals(4, counts.size());
+
+		for (int count: counts.values()) {
+			assertTrue("" + counts, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3);
+		}
+	}
+
+	@Test
+	public void testFewKeysMoveOnLeave() throws Exception {
+		ConsistentHashRing before = ring("m0", "m1", "m2", "m3");
+		ConsistentHashRing after = ring("m0", "m1", "m3");
+		int moved = 0;
+
+		for (long key = 0; key < KEYS; key++) {
+			String owner = before.getOwner(key);
+
+			if (owner.equals("m2")) {
+				moved++;
+				assertTrue(!after.getOwner(key).equals("m2"));
+			}
+			else {
+				// Only the leaving node's keys change hands
+				assertEquals(owner, after.getOwner(key));
+			}
+		}
+
+		assertTrue(moved < KEYS / 4 * 1.3);
+	}
+
+	@Test
+	public void testFewKeysMoveOnJoin() throws Exception {
+		ConsistentHashRing before = ring("m0", "m1", "m2");
+		ConsistentHashRing after = ring("m0", "m1", "m2", "m3");
+		int moved = 0;
+
+		for (long key = 0; key < KEYS; key++) {
+			String owner = after.getOwner(key);
+
+			if (!owner.equals(before.getOwner(key))) {
+				moved++;
+				// Keys only move to the node that joined
+				assertEquals("m3", owner);
+			}
+		}
+
+		assertTrue(moved > 0 && moved < KEYS / 4 * 1.3);
+	}
+
+	@Test
+	public void testSingleNode() throws Exception {
+		ConsistentHashRing r = ring("m0");
+
+		assertEquals("m0", r.getOwner(Long.MIN_VALUE));
+		assertEquals("m0", r.getOwner(Long.MAX_VALUE));
+		assertEquals("m0", r.getOwner(0));
+	}
+}
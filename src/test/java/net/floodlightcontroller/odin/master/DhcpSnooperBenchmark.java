@@ -0,0 +1,216 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Compares how many packet-ins a second the master can check for
+ * DHCP replies by decoding each frame into a packet tree and walking
+ * it, as receive() used to, against reading the fields off the raw
+ * frame with DhcpSnooper. Frames are a mix of TCP, UDP and ARP, with
+ * a small share of DHCP replies.
+ *
+ * Settings are read from -Dodin.dhcpbench.* system properties, see
+ * Config. Run it with "ant odin-dhcp-bench".
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class DhcpSnooperBenchmark {
+
+	static class Config {
+		int frames = 10000;
+		double dhcpShare = 0.01;
+		long warmupMillis = 3000;
+		long durationMillis = 5000;
+		long seed = 1;
+
+		static Config fromSystemProperties() {
+			Config cfg = new Config();
+			cfg.frames = Integer.getInteger("odin.dhcpbench.frames", cfg.frames);
+			cfg.dhcpShare = Double.parseDouble(System.getProperty("odin.dhcpbench.dhcpShare", String.valueOf(cfg.dhcpShare)));
+			cfg.warmupMillis = Long.getLong("odin.dhcpbench.warmupMillis", cfg.warmupMillis);
+			cfg.durationMillis = Long.getLong("odin.dhcpbench.durationMillis", cfg.durationMillis);
+			cfg.seed = Long.getLong("odin.dhcpbench.seed", cfg.seed);
+
+			return cfg;
+		}
+	}
+
+	/**
+	 * One way of finding DHCP replies
+	 */
+	private interface Path {
+		/**
+		 * @return sum of the client hw addresses of the
+		 *         DHCP replies found, to compare paths by
+		 */
+		long scan(byte[][] frames);
+	}
+
+	private static final Path DECODED = new Path() {
+		@Override
+		public long scan(byte[][] frames) {
+			long sum = 0;
+
+			for (byte[] data: frames) {
+				Ethernet frame = new Ethernet();
+				frame.deserialize(data, 0, data.length);
+
+				IPacket payload = frame.getPayload(); // IP
+				if (payload == null)
+					continue;
+
+				IPacket p2 = payload.getPayload(); // TCP or UDP
+				if (p2 == null)
+					continue;
+
+				IPacket p3 = p2.getPayload(); // Application
+				if ((p3 != null) && (p3 instanceof DHCP)) {
+					DHCP packet = (DHCP) p3;
+
+					if (packet.getOpCode() == DHCP.OPCODE_REPLY && packet.getYourIPAddress() != 0)
+						sum += MACAddress.valueOf(packet.getClientHardwareAddress()).toLong();
+				}
+			}
+
+			return sum;
+		}
+	};
+
+	private static final Path SNOOPED = new Path() {
+		@Override
+		public long scan(byte[][] frames) {
+			long sum = 0;
+
+			for (byte[] data: frames) {
+				int bootp = DhcpSnooper.findReply(data);
+
+				if (bootp >= 0 && DhcpSnooper.getYourIpAddress(data, bootp) != 0)
+					sum += DhcpSnooper.getClientHwAddress(data, bootp);
+			}
+
+			return sum;
+		}
+	};
+
+	private final Config cfg;
+	private final byte[][] frames;
+	private int dhcpFrames = 0;
+
+
+	DhcpSnooperBenchmark(Config cfg) {
+		this.cfg = cfg;
+		this.frames = new byte[cfg.frames][];
+
+		Random random = new Random(cfg.seed);
+
+		for (int i = 0; i < cfg.frames; i++) {
+			MACAddress client = MACAddress.valueOf(random.nextLong() & 0xffffffffffffL);
+			double kind = random.nextDouble();
+			Ethernet eth;
+
+			if (kind < cfg.dhcpShare) {
+				eth = DhcpSnooperTest.dhcpReply(client, "10.0." + random.nextInt(256) + "." + (random.nextInt(254) + 1), (short) 68);
+				dhcpFrames++;
+			}
+			else if (kind < 0.8) {
+				TCP tcp = new TCP();
+				tcp.setSourcePort((short) (1024 + random.nextInt(60000)));
+				tcp.setDestinationPort((short) 80);
+				tcp.setPayload(new Data(new byte[random.nextInt(1400)]));
+				eth = DhcpSnooperTest.ipFrame(client, IPv4.PROTOCOL_TCP, tcp);
+			}
+			else if (kind < 0.95) {
+				eth = DhcpSnooperTest.udpFrame(client, (short) (1024 + random.nextInt(60000)), (short) 53,
+											new Data(new byte[random.nextInt(512)]));
+			}
+			else {
+				ARP arp = new ARP()
+					.setHardwareType(ARP.HW_TYPE_ETHERNET)
+					.setProtocolType(ARP.PROTO_TYPE_IP)
+					.setHardwareAddressLength((byte) 6)
+					.setProtocolAddressLength((byte) 4)
+					.setOpCode(ARP.OP_REQUEST)
+					.setSenderHardwareAddress(client.toBytes())
+					.setSenderProtocolAddress(new byte[4])
+					.setTargetHardwareAddress(new byte[6])
+					.setTargetProtocolAddress(new byte[4]);
+				eth = new Ethernet()
+					.setSourceMACAddress(client.toBytes())
+					.setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+					.setEtherType(Ethernet.TYPE_ARP);
+				eth.setPayload(arp);
+			}
+
+			frames[i] = eth.serialize();
+		}
+	}
+
+
+	Map<String, Object> run() {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("frames", cfg.frames);
+		report.put("dhcpFrames", dhcpFrames);
+
+		long decodedSum = DECODED.scan(frames);
+		long snoopedSum = SNOOPED.scan(frames);
+
+		if (decodedSum != snoopedSum)
+			throw new IllegalStateException("The paths found different DHCP replies");
+
+		// Both are warmed up before either is measured
+		measure(DECODED, cfg.warmupMillis);
+		measure(SNOOPED, cfg.warmupMillis);
+
+		double decoded = measure(DECODED, cfg.durationMillis);
+		double snooped = measure(SNOOPED, cfg.durationMillis);
+
+		report.put("decodedPacketsPerSec", Math.round(decoded));
+		report.put("snoopedPacketsPerSec", Math.round(snooped));
+		report.put("speedup", Math.round(snooped / decoded * 10) / 10.0);
+
+		return report;
+	}
+
+
+	/**
+	 * @return frames scanned a second
+	 */
+	private double measure(Path path, long millis) {
+		long expected = path.scan(frames);
+		long scanned = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1000000;
+		long now;
+
+		do {
+			// Checking the result keeps the scan from being optimised away
+			if (path.scan(frames) != expected)
+				throw new IllegalStateException("Scans found different DHCP replies");
+
+			scanned += frames.length;
+			now = System.nanoTime();
+		} while (now < end);
+
+		return scanned * 1e9 / (now - start);
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		Map<String, Object> report = new DhcpSnooperBenchmark(Config.fromSystemProperties()).run();
+		System.out.println(new ObjectMapper().defaultPrettyPrintingWriter().writeValueAsString(report));
+	}
+}
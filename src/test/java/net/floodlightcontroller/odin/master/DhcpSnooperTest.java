@@ -0,0 +1,123 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class DhcpSnooperTest {
+	private final MACAddress client = MACAddress.valueOf("00:11:22:33:44:55");
+
+	/**
+	 * Build a DHCP reply frame
+	 */
+	static Ethernet dhcpReply(MACAddress client, String yourIp, short dstPort) {
+		DHCP dhcp = new DHCP()
+			.setOpCode(DHCP.OPCODE_REPLY)
+			.setHardwareType((byte) 1)
+			.setHardwareAddressLength((byte) 6)
+			.setTransactionId(42)
+			.setYourIPAddress(IPv4.toIPv4Address(yourIp))
+			.setClientHardwareAddress(client.toBytes())
+			.setOptions(new ArrayList<DHCPOption>());
+
+		return udpFrame(client, (short) 67, dstPort, dhcp);
+	}
+
+	static Ethernet udpFrame(MACAddress client, short srcPort, short dstPort, IPacket payload) {
+		UDP udp = new UDP();
+		udp.setSourcePort(srcPort);
+		udp.setDestinationPort(dstPort);
+		udp.setPayload(payload);
+
+		return ipFrame(client, IPv4.PROTOCOL_UDP, udp);
+	}
+
+	static Ethernet ipFrame(MACAddress client, byte protocol, IPacket payload) {
+		IPv4 ip = new IPv4()
+			.setSourceAddress("172.17.1.254")
+			.setDestinationAddress("255.255.255.255")
+			.setProtocol(protocol)
+			.setTtl((byte) 64);
+		ip.setPayload(payload);
+
+		Ethernet eth = new Ethernet()
+			.setSourceMACAddress("00:00:00:00:00:fe")
+			.setDestinationMACAddress(client.toBytes())
+			.setEtherType(Ethernet.TYPE_IPv4);
+		eth.setPayload(ip);
+
+		return eth;
+	}
+
+	@Test
+	public void testReply() throws Exception {
+		byte[] data = dhcpReply(client, "172.17.1.10", (short) 68).serialize();
+		int bootp = DhcpSnooper.findReply(data);
+
+		assertEquals(14 + 20 + 8, bootp);
+		assertEquals(IPv4.toIPv4Address("172.17.1.10"), DhcpSnooper.getYourIpAddress(data, bootp));
+		assertEquals(client.toLong(), DhcpSnooper.getClientHwAddress(data, bootp));
+	}
+
+	@Test
+	public void testVlanTaggedReply() throws Exception {
+		Ethernet eth = dhcpReply(client, "172.17.1.10", (short) 68);
+		eth.setVlanID((short) 10);
+		byte[] data = eth.serialize();
+		int bootp = DhcpSnooper.findReply(data);
+
+		assertEquals(18 + 20 + 8, bootp);
+		assertEquals(client.toLong(), DhcpSnooper.getClientHwAddress(data, bootp));
+	}
+
+	@Test
+	public void testOtherFrames() throws Exception {
+		// Requests, replies to a relay, and plain UDP
+		DHCP request = new DHCP()
+			.setOpCode(DHCP.OPCODE_REQUEST)
+			.setHardwareType((byte) 1)
+			.setHardwareAddressLength((byte) 6)
+			.setClientHardwareAddress(client.toBytes())
+			.setOptions(new ArrayList<DHCPOption>());
+		assertEquals(-1, DhcpSnooper.findReply(udpFrame(client, (short) 67, (short) 68, request).serialize()));
+		assertEquals(-1, DhcpSnooper.findReply(dhcpReply(client, "172.17.1.10", (short) 67).serialize()));
+		assertEquals(-1, DhcpSnooper.findReply(udpFrame(client, (short) 5000, (short) 68, new Data(new byte[300])).serialize()));
+
+		// Later fragments
+		Ethernet eth = dhcpReply(client, "172.17.1.10", (short) 68);
+		((IPv4) eth.getPayload()).setFragmentOffset((short) 100);
+		assertEquals(-1, DhcpSnooper.findReply(eth.serialize()));
+
+		// Not IP
+		eth = dhcpReply(client, "172.17.1.10", (short) 68);
+		eth.setEtherType(Ethernet.TYPE_ARP);
+		assertEquals(-1, DhcpSnooper.findReply(eth.serialize()));
+	}
+
+	@Test
+	public void testTruncatedFrames() throws Exception {
+		byte[] data = dhcpReply(client, "172.17.1.10", (short) 68).serialize();
+		int bootp = DhcpSnooper.findReply(data);
+
+		// Cut off before the end of chaddr
+		for (int len = 0; len < bootp + 34; len++) {
+			assertEquals(-1, DhcpSnooper.findReply(Arrays.copyOf(data, len)));
+		}
+
+		assertEquals(-1, DhcpSnooper.findReply(null));
+		assertTrue(DhcpSnooper.findReply(Arrays.copyOf(data, bootp + 34)) > 0);
+	}
+}
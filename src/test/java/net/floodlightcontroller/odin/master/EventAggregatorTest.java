@@ -0,0 +1,141 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+
+import net.floodlightcontroller.odin.master.OdinEventSubscription.Aggregate;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class EventAggregatorTest {
+	private final MACAddress client1 = MACAddress.valueOf("00:00:00:00:00:01");
+
+	private IOdinAgent agent(String ipAddress) throws Exception {
+		IOdinAgent agent = new StubOdinAgent();
+		agent.init(InetAddress.getByName(ipAddress));
+		return agent;
+	}
+
+	private Long feed(EventAggregator aggregator, IOdinAgent agent, long value, long now) {
+		NotificationCallbackContext out = aggregator.update(new NotificationCallbackContext(client1, agent, value), now);
+		return (out == null) ? null : out.value;
+	}
+
+	@Test
+	public void testEwma() throws Exception {
+		IOdinAgent agent1 = agent("172.17.2.161");
+		IOdinAgent agent2 = agent("172.17.2.162");
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setEwma(0.5);
+		EventAggregator aggregator = EventAggregator.forSubscription(oes);
+
+		assertEquals(Long.valueOf(100), feed(aggregator, agent1, 100, 0));
+		assertEquals(Long.valueOf(50), feed(aggregator, agent1, 0, 1));
+		assertEquals(Long.valueOf(75), feed(aggregator, agent1, 100, 2));
+
+		// Each agent's events are a separate stream
+		assertEquals(Long.valueOf(10), feed(aggregator, agent2, 10, 3));
+
+		// Changes smaller than minChange are held back
+		oes.setMinChange(10);
+		assertNull(feed(aggregator, agent1, 80, 4));
+		assertEquals(Long.valueOf(95), feed(aggregator, agent1, 112, 5));
+	}
+
+	@Test
+	public void testWindows() throws Exception {
+		IOdinAgent agent1 = agent("172.17.2.161");
+		long[] values = {5, 1, 4, 3, 8, 2, 2, 9};
+
+		OdinEventSubscription min = new OdinEventSubscription();
+		min.setWindow(Aggregate.WINDOW_MIN, 3, 0);
+		OdinEventSubscription max = new OdinEventSubscription();
+		max.setWindow(Aggregate.WINDOW_MAX, 3, 0);
+		OdinEventSubscription mean = new OdinEventSubscription();
+		mean.setWindow(Aggregate.WINDOW_MEAN, 3, 0);
+
+		EventAggregator minAggregator = EventAggregator.forSubscription(min);
+		EventAggregator maxAggregator = EventAggregator.forSubscription(max);
+		EventAggregator meanAggregator = EventAggregator.forSubscription(mean);
+
+		for (int i = 0; i < values.length; i++) {
+			long lo = Long.MAX_VALUE;
+			long hi = Long.MIN_VALUE;
+			long sum = 0;
+			int from = Math.max(0, i - 2);
+
+			for (int j = from; j <= i; j++) {
+				lo = Math.min(lo, values[j]);
+				hi = Math.max(hi, values[j]);
+				sum += values[j];
+			}
+
+			assertEquals(Long.valueOf(lo), feed(minAggregator, agent1, values[i], i));
+			assertEquals(Long.valueOf(hi), feed(maxAggregator, agent1, values[i], i));
+			assertEquals(Long.valueOf(Math.round((double) sum / (i - from + 1))),
+							feed(meanAggregator, agent1, values[i], i));
+		}
+
+		// Time-bounded windows forget old samples
+		OdinEventSubscription timed = new OdinEventSubscription();
+		timed.setWindow(Aggregate.WINDOW_MAX, 0, 1000);
+		EventAggregator timedAggregator = EventAggregator.forSubscription(timed);
+
+		assertEquals(Long.valueOf(50), feed(timedAggregator, agent1, 50, 0));
+		assertEquals(Long.valueOf(50), feed(timedAggregator, agent1, 10, 500));
+		assertEquals(Long.valueOf(20), feed(timedAggregator, agent1, 20, 1200));
+	}
+
+	@Test
+	public void testRate() throws Exception {
+		IOdinAgent agent1 = agent("172.17.2.161");
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setRateOfChange();
+		EventAggregator aggregator = EventAggregator.forSubscription(oes);
+
+		// Nothing to compare the first event to
+		assertNull(feed(aggregator, agent1, 1000, 0));
+		assertEquals(Long.valueOf(500), feed(aggregator, agent1, 1500, 1000));
+		assertEquals(Long.valueOf(-2000), feed(aggregator, agent1, 500, 1500));
+	}
+
+	@Test
+	public void testBestAgent() throws Exception {
+		IOdinAgent agent1 = agent("172.17.2.161");
+		IOdinAgent agent2 = agent("172.17.2.162");
+		IOdinAgent agent3 = agent("172.17.2.163");
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setBestAgent(2, 1, 1000);
+		EventAggregator aggregator = EventAggregator.forSubscription(oes);
+
+		NotificationCallbackContext out = aggregator.update(new NotificationCallbackContext(client1, agent1, 40), 0);
+		assertSame(agent1, out.agent);
+		assertEquals(1, out.topAgents.size());
+
+		out = aggregator.update(new NotificationCallbackContext(client1, agent2, 60), 10);
+		assertSame(agent2, out.agent);
+		assertEquals(60, out.value);
+		assertSame(agent1, out.topAgents.get(1));
+
+		// No change in the ranking, no event
+		assertNull(aggregator.update(new NotificationCallbackContext(client1, agent1, 45), 20));
+		assertNull(aggregator.update(new NotificationCallbackContext(client1, agent3, 10), 30));
+
+		// agent2 goes quiet and drops out
+		out = aggregator.update(new NotificationCallbackContext(client1, agent3, 50), 1500);
+		assertSame(agent3, out.agent);
+		assertEquals(1, out.topAgents.size());
+
+		assertEquals(5, aggregator.getReceived());
+		assertEquals(3, aggregator.getEmitted());
+	}
+
+	@Test
+	public void testNoneIsNotAggregated() throws Exception {
+		assertNull(EventAggregator.forSubscription(new OdinEventSubscription()));
+	}
+}
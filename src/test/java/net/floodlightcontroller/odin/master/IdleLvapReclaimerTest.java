@@ -0,0 +1,76 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class IdleLvapReclaimerTest {
+	private final MACAddress client1 = MACAddress.valueOf("00:00:00:00:00:01");
+	private final MACAddress client2 = MACAddress.valueOf("00:00:00:00:00:02");
+
+	@Test
+	public void testExpiry() throws Exception {
+		IdleLvapReclaimer reclaimer = new IdleLvapReclaimer();
+		reclaimer.arm(client1, 3);
+		reclaimer.arm(client2, 3);
+
+		assertTrue(reclaimer.advance().isEmpty());
+		assertTrue(reclaimer.advance().isEmpty());
+
+		// Both are handed out together
+		List<MACAddress> due = reclaimer.advance();
+		assertEquals(2, due.size());
+		assertTrue(due.contains(client1) && due.contains(client2));
+		assertFalse(reclaimer.isArmed(client1));
+		assertEquals(0, reclaimer.size());
+	}
+
+	@Test
+	public void testRearmAndCancel() throws Exception {
+		IdleLvapReclaimer reclaimer = new IdleLvapReclaimer();
+		reclaimer.arm(client1, 2);
+		reclaimer.arm(client2, 2);
+		reclaimer.advance();
+
+		// Activity pushes the timer back
+		reclaimer.arm(client1, 2);
+		assertTrue(reclaimer.cancel(client2));
+		assertFalse(reclaimer.cancel(client2));
+
+		assertTrue(reclaimer.advance().isEmpty());
+		assertEquals(Collections.singletonList(client1), reclaimer.advance());
+
+		assertEquals(3L, reclaimer.getStats().get("armed"));
+		assertEquals(1L, reclaimer.getStats().get("cancelled"));
+		assertEquals(1L, reclaimer.getStats().get("expired"));
+	}
+
+	@Test
+	public void testLongTimeouts() throws Exception {
+		IdleLvapReclaimer reclaimer = new IdleLvapReclaimer();
+		int ticks = 2 * IdleLvapReclaimer.WHEEL_SIZE + 5;
+		reclaimer.arm(client1, ticks);
+		reclaimer.arm(client2, IdleLvapReclaimer.WHEEL_SIZE);
+
+		List<Integer> expiredAt = new ArrayList<Integer>();
+
+		for (int i = 1; i <= ticks; i++) {
+			if (!reclaimer.advance().isEmpty())
+				expiredAt.add(i);
+		}
+
+		// Timers outlive several turns of the wheel
+		List<Integer> expected = new ArrayList<Integer>();
+		expected.add(IdleLvapReclaimer.WHEEL_SIZE);
+		expected.add(ticks);
+		assertEquals(expected, expiredAt);
+	}
+}
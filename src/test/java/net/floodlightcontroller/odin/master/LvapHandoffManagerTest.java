@@ -0,0 +1,189 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LvapHandoffManagerTest {
+	private static final int BARRIER_XID = 7;
+
+	private final MACAddress clientHwAddr = MACAddress.valueOf("00:00:00:00:00:01");
+
+	private ScheduledExecutorService executor;
+	private ClientManager clientManager;
+	private LvapHandoffManager handoffManager;
+	private OdinClient client;
+	private StubOdinAgent oldAgent;
+	private PendingOdinAgent newAgent;
+	private IOFSwitch sw;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		executor = new ScheduledThreadPoolExecutor(2);
+		clientManager = new ClientManager();
+		handoffManager = new LvapHandoffManager(clientManager, new ReentrantReadWriteLock().readLock(), executor);
+
+		sw = EasyMock.createNiceMock(IOFSwitch.class);
+		EasyMock.expect(sw.getId()).andReturn(1L).anyTimes();
+		EasyMock.expect(sw.getNextTransactionId()).andReturn(BARRIER_XID).anyTimes();
+		sw.write(EasyMock.isA(List.class), EasyMock.<FloodlightContext>isNull());
+		EasyMock.expectLastCall().anyTimes();
+		EasyMock.replay(sw);
+
+		oldAgent = new StubOdinAgent();
+		oldAgent.init(InetAddress.getByName("172.17.2.161"));
+		newAgent = new PendingOdinAgent();
+		newAgent.init(InetAddress.getByName("172.17.2.162"));
+		newAgent.setSwitch(sw);
+
+		List<String> ssids = new ArrayList<String>();
+		ssids.add("odin");
+		Lvap lvap = new Lvap(MACAddress.valueOf("00:1B:B3:00:00:01"), ssids);
+		client = new OdinClient(clientHwAddr, InetAddress.getByName("172.17.2.51"), lvap);
+		clientManager.addClient(client);
+
+		oldAgent.addClientLvap(client);
+		lvap.setAgent(oldAgent);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testMakeBeforeBreak() throws Exception {
+		handoffManager.handoff(client, oldAgent, newAgent);
+
+		// Nothing moves until the new agent has the LVAP
+		Thread.sleep(50);
+		assertSame(oldAgent, client.getLvap().getAgent());
+		assertTrue(newAgent.getLvapsLocal().contains(client));
+
+		newAgent.staged.set(200);
+		waitFor(newAgent, client.getLvap());
+		assertTrue(oldAgent.getLvapsLocal().contains(client));
+
+		// The old agent keeps it until the switch answers the barrier
+		handoffManager.barrierReplied(sw, BARRIER_XID);
+		waitForCompletion();
+
+		assertFalse(oldAgent.getLvapsLocal().contains(client));
+		assertTrue(newAgent.getLvapsLocal().contains(client));
+
+		Map<String, Object> stats = handoffManager.getStats();
+		assertEquals(1L, stats.get("completed"));
+		assertEquals(0L, stats.get("aborted"));
+		assertEquals(0L, stats.get("barrierTimeouts"));
+		assertEquals(1L, ((Map<?, ?>) stats.get("total")).get("count"));
+	}
+
+	@Test
+	public void testStagingFails() throws Exception {
+		handoffManager.handoff(client, oldAgent, newAgent);
+		newAgent.staged.setException(new IllegalStateException("Click said no"));
+		waitForCompletion();
+
+		assertSame(oldAgent, client.getLvap().getAgent());
+		assertTrue(oldAgent.getLvapsLocal().contains(client));
+		assertFalse(newAgent.getLvapsLocal().contains(client));
+		assertEquals(1L, handoffManager.getStats().get("aborted"));
+	}
+
+	@Test
+	public void testStagingRefused() throws Exception {
+		handoffManager.handoff(client, oldAgent, newAgent);
+
+		// The write is answered, but with an error code
+		newAgent.staged.set(520);
+		waitForCompletion();
+
+		assertSame(oldAgent, client.getLvap().getAgent());
+		assertTrue(oldAgent.getLvapsLocal().contains(client));
+		assertFalse(newAgent.getLvapsLocal().contains(client));
+		assertEquals(1L, handoffManager.getStats().get("aborted"));
+		assertEquals(0L, handoffManager.getStats().get("completed"));
+	}
+
+	@Test
+	public void testOvertaken() throws Exception {
+		StubOdinAgent otherAgent = new StubOdinAgent();
+		otherAgent.init(InetAddress.getByName("172.17.2.163"));
+
+		handoffManager.handoff(client, oldAgent, newAgent);
+
+		// The client moves elsewhere while the LVAP is being staged
+		otherAgent.addClientLvap(client);
+		client.getLvap().setAgent(otherAgent);
+
+		newAgent.staged.set(200);
+		waitForCompletion();
+
+		assertSame(otherAgent, client.getLvap().getAgent());
+		assertFalse(newAgent.getLvapsLocal().contains(client));
+		assertEquals(1L, handoffManager.getStats().get("aborted"));
+	}
+
+	@Test
+	public void testBarrierTimeout() throws Exception {
+		handoffManager.handoff(client, oldAgent, newAgent);
+		newAgent.staged.set(200);
+		waitForCompletion();
+
+		assertSame(newAgent, client.getLvap().getAgent());
+		assertFalse(oldAgent.getLvapsLocal().contains(client));
+		assertEquals(1L, handoffManager.getStats().get("barrierTimeouts"));
+	}
+
+	private void waitFor(IOdinAgent agent, Lvap lvap) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 1000;
+
+		while (lvap.getAgent() != agent && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+
+		assertSame(agent, lvap.getAgent());
+	}
+
+	private void waitForCompletion() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 1000;
+
+		while (!Integer.valueOf(0).equals(handoffManager.getStats().get("inFlight"))
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+
+		assertEquals(0, handoffManager.getStats().get("inFlight"));
+	}
+
+	/**
+	 * Acknowledges the LVAP only when the test says so
+	 */
+	private static class PendingOdinAgent extends StubOdinAgent {
+		final OdinAgentFuture<Integer> staged = new OdinAgentFuture<Integer>();
+
+		@Override
+		public Future<Integer> addClientLvapAsync(OdinClient oc) {
+			addClientLvap(oc);
+			return staged;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.util.U16;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LvapManagerTest {
+	protected static Logger log = LoggerFactory.getLogger(LvapManagerTest.class);
+
+	/**
+	 * A flow-mod built the way LvapManager used to build them
+	 */
+	private OFFlowMod legacyFlowMod(String match, short outPort) {
+		OFFlowMod flow = new OFFlowMod();
+		OFMatch ofMatch = new OFMatch();
+		ofMatch.fromString(match);
+
+		OFActionOutput actionOutput = new OFActionOutput ();
+		actionOutput.setPort(outPort);
+		actionOutput.setLength((short) OFActionOutput.MINIMUM_LENGTH);
+
+		List<OFAction> actionList = new ArrayList<OFAction>();
+		actionList.add(actionOutput);
+
+		flow.setCookie(12345);
+		flow.setPriority((short) 200);
+		flow.setMatch(ofMatch);
+		flow.setIdleTimeout((short) 0);
+		flow.setActions(actionList);
+		flow.setLength(U16.t(OFFlowMod.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH));
+
+		return flow;
+	}
+
+	private byte[] serialise(OFMessage msg) {
+		ChannelBuffer buf = ChannelBuffers.buffer(msg.getLengthU());
+		msg.writeTo(buf);
+		return buf.array();
+	}
+
+	@Test
+	public void testDefaultOFModList() throws Exception {
+		LvapManager lvapManager = new LvapManager();
+		InetAddress addr = InetAddress.getByName("172.17.2.51");
+
+		List<OFMessage> flows = lvapManager.getDefaultOFModList(addr);
+		OFFlowMod fromClient = legacyFlowMod("in_port=2,dl_type=0x0800,nw_src=172.17.2.51", (short) 1);
+		OFFlowMod toClient = legacyFlowMod("in_port=1,dl_type=0x0800,nw_dst=172.17.2.51", (short) 2);
+
+		assertEquals(2, flows.size());
+		assertEquals(fromClient, flows.get(0));
+		assertEquals(toClient, flows.get(1));
+		assertArrayEquals(serialise(fromClient), serialise(flows.get(0)));
+		assertArrayEquals(serialise(toClient), serialise(flows.get(1)));
+
+		// The transaction id is patched in too
+		flows.get(0).setXid(42);
+		fromClient.setXid(42);
+		assertArrayEquals(serialise(fromClient), serialise(flows.get(0)));
+
+		// Ports are configurable
+		lvapManager.setPorts((short) 3, (short) 7);
+		flows = lvapManager.getDefaultOFModList(addr);
+		assertArrayEquals(serialise(legacyFlowMod("in_port=7,dl_type=0x0800,nw_src=172.17.2.51", (short) 3)),
+						serialise(flows.get(0)));
+		assertArrayEquals(serialise(legacyFlowMod("in_port=3,dl_type=0x0800,nw_dst=172.17.2.51", (short) 7)),
+						serialise(flows.get(1)));
+	}
+
+	/**
+	 * Micro-benchmark: build and serialise the flows for 10000 clients
+	 * with the old and the new code paths. Timings are logged.
+	 */
+	@Test
+	public void testDefaultOFModListBenchmark() throws Exception {
+		final int numClients = 10000;
+		LvapManager lvapManager = new LvapManager();
+		InetAddress[] addrs = new InetAddress[numClients];
+		ChannelBuffer buf = ChannelBuffers.buffer(numClients * 2 * (OFFlowMod.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH));
+
+		for (int i = 0; i < numClients; i++) {
+			addrs[i] = InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+		}
+
+		for (int round = 0; round < 2; round++) {
+			buf.clear();
+			long start = System.nanoTime();
+			for (InetAddress addr: addrs) {
+				legacyFlowMod("in_port=2,dl_type=0x0800,nw_src=" + addr.getHostAddress(), (short) 1).writeTo(buf);
+				legacyFlowMod("in_port=1,dl_type=0x0800,nw_dst=" + addr.getHostAddress(), (short) 2).writeTo(buf);
+			}
+			long legacyNanos = System.nanoTime() - start;
+			byte[] expected = buf.array().clone();
+
+			buf.clear();
+			start = System.nanoTime();
+			for (InetAddress addr: addrs) {
+				for (OFMessage msg: lvapManager.getDefaultOFModList(addr)) {
+					msg.writeTo(buf);
+				}
+			}
+			long templateNanos = System.nanoTime() - start;
+
+			assertArrayEquals(expected, buf.array());
+
+			log.info("Flows for " + numClients + " clients: legacy " + (legacyNanos / 1000)
+					+ "us, templates " + (templateNanos / 1000) + "us");
+		}
+	}
+}
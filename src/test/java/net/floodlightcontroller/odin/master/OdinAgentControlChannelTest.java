@@ -0,0 +1,174 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the OdinAgent control channel against a fake
+ * Click control socket.
+ */
+public class OdinAgentControlChannelTest {
+	private ServerSocket serverSocket;
+	private FakeControlSocket fakeControlSocket;
+	private OdinAgentControlChannel channel;
+
+	private static final OdinAgentControlChannel.ReadHandlerParser<String> IDENTITY =
+			new OdinAgentControlChannel.ReadHandlerParser<String>() {
+				@Override
+				public String parse(ChannelBuffer data) {
+					return data.toString(Charset.forName("US-ASCII"));
+				}
+			};
+
+	/**
+	 * Answers READ odinagent.<x> with "payload-<x>", WRITEs with 200,
+	 * and anything against an unknown element with 511. Replies are
+	 * only sent once `batch` commands have been received, so that
+	 * the client has to pipeline them and the replies arrive
+	 * coalesced in a single write.
+	 */
+	private class FakeControlSocket extends Thread {
+		private final int batch;
+		final List<String> commands = new ArrayList<String>();
+
+		FakeControlSocket(int batch) {
+			this.batch = batch;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Socket sock = serverSocket.accept();
+				BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+				OutputStream out = sock.getOutputStream();
+				out.write("Click::ControlSocket/1.3\r\n".getBytes());
+				out.flush();
+
+				StringBuilder replies = new StringBuilder();
+				String line;
+				while ((line = in.readLine()) != null) {
+					commands.add(line);
+					String[] fields = line.split(" ");
+
+					if (!fields[1].startsWith("odinagent.")) {
+						replies.append("511 No element named '" + fields[1] + "'\r\n");
+					}
+					else if (fields[0].equals("READ")) {
+						String data = "payload-" + fields[1].substring("odinagent.".length()) + "\n";
+						replies.append("200 Read handler '" + fields[1] + "' OK\r\n");
+						replies.append("DATA " + data.length() + "\r\n");
+						replies.append(data);
+					}
+					else {
+						replies.append("200 Write handler '" + fields[1] + "' OK\r\n");
+					}
+
+					if (commands.size() % batch == 0) {
+						out.write(replies.toString().getBytes());
+						out.flush();
+						replies.setLength(0);
+					}
+				}
+			} catch (Exception e) {
+				// test is over
+			}
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		serverSocket = new ServerSocket(0);
+		channel = new OdinAgentControlChannel();
+	}
+
+	@After
+	public void teardown() throws Exception {
+		channel.close();
+		serverSocket.close();
+	}
+
+	private void connect(int batch) throws Exception {
+		fakeControlSocket = new FakeControlSocket(batch);
+		fakeControlSocket.start();
+		assertTrue(channel.connect(InetAddress.getByName("127.0.0.1"), serverSocket.getLocalPort()));
+	}
+
+	/**
+	 * Pipelined reads and writes should each be completed
+	 * with their own response.
+	 */
+	@Test
+	public void testPipelinedCommands() throws Exception {
+		connect(4);
+
+		Future<String> read1 = channel.read("odinagent.table", IDENTITY);
+		Future<Integer> write1 = channel.write("odinagent.add_vap", "00:00:00:00:00:01");
+		Future<String> read2 = channel.read("odinagent.rxstats", IDENTITY);
+		Future<Integer> write2 = channel.write("odinagent.remove_vap", "00:00:00:00:00:01");
+
+		assertEquals("payload-table\n", read1.get(2, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(200), write1.get(2, TimeUnit.SECONDS));
+		assertEquals("payload-rxstats\n", read2.get(2, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(200), write2.get(2, TimeUnit.SECONDS));
+		assertEquals(4, fakeControlSocket.commands.size());
+		assertEquals("WRITE odinagent.add_vap 00:00:00:00:00:01", fakeControlSocket.commands.get(1));
+	}
+
+	/**
+	 * A failed read should fail only its own future, and
+	 * not throw off the correlation of later replies.
+	 */
+	@Test
+	public void testErrorReply() throws Exception {
+		connect(3);
+
+		Future<String> bad = channel.read("nosuchelement.table", IDENTITY);
+		Future<Integer> write = channel.write("nosuchelement.add_vap", "x");
+		Future<String> good = channel.read("odinagent.table", IDENTITY);
+
+		try {
+			bad.get(2, TimeUnit.SECONDS);
+			fail("Read against a missing element should fail");
+		} catch (ExecutionException e) {
+			// expected
+		}
+		assertEquals(Integer.valueOf(511), write.get(2, TimeUnit.SECONDS));
+		assertEquals("payload-table\n", good.get(2, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Commands issued without a connection fail right away
+	 */
+	@Test
+	public void testNotConnected() throws Exception {
+		Future<String> read = channel.read("odinagent.table", IDENTITY);
+		assertTrue(read.isDone());
+
+		try {
+			read.get();
+			fail("Read without a connection should fail");
+		} catch (ExecutionException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class OdinAgentHandlerParserTest {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int RX_STAT_NUM_PROPERTIES = 5;
+
+	private ChannelBuffer buffer(String s) {
+		return ChannelBuffers.copiedBuffer(s, ASCII);
+	}
+
+	static String rxStatsTable(int numStations) {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < numStations; i++) {
+			sb.append(MACAddress.valueOf(0x001122000000L + i).toString().toUpperCase());
+			sb.append(" rate:" + (i % 54));
+			sb.append(" noise:-" + (90 + i % 5));
+			sb.append(" signal:" + (150 + i % 60));
+			sb.append(" packets:" + (i * 7));
+			sb.append(" last_received:" + (1000 + i) + ".250000\n");
+		}
+
+		return sb.toString();
+	}
+
+	@Test
+	public void testParseRxStats() throws Exception {
+		String payload = "00:00:00:00:00:01 rate:54 noise:-95 signal:190 packets:12 last_received:1342.5\n"
+					   + "malformed row\n"
+					   + "00:00:00:00:00:0G rate:54 noise:-95 signal:190 packets:12 last_received:1342.5\n"
+					   + "00:0B:6B:84:B2:87 rate:11 noise:-92 signal:160 packets:3 last_received:1345.0\n";
+
+		Map<MACAddress, Map<String, String>> stats = OdinAgentHandlerParser.parseRxStats(buffer(payload), RX_STAT_NUM_PROPERTIES);
+
+		assertEquals(2, stats.size());
+		assertEquals("190", stats.get(MACAddress.valueOf("00:00:00:00:00:01")).get("signal"));
+		assertEquals("-95", stats.get(MACAddress.valueOf("00:00:00:00:00:01")).get("noise"));
+		assertEquals("1342.5", stats.get(MACAddress.valueOf("00:00:00:00:00:01")).get("last_received"));
+		assertEquals("160", stats.get(MACAddress.valueOf("00:0b:6b:84:b2:87")).get("signal"));
+		assertEquals("3", stats.get(MACAddress.valueOf("00:0b:6b:84:b2:87")).get("packets"));
+
+		assertTrue(OdinAgentHandlerParser.parseRxStats(buffer(""), RX_STAT_NUM_PROPERTIES).isEmpty());
+	}
+
+	@Test
+	public void testParseRxStatsTable() throws Exception {
+		String payload = "00:00:00:00:00:01 rate:54 noise:-95 signal:190 packets:12 last_received:1342.5\n"
+					   + "00:00:00:00:00:02 rate:54 noise:-95 signal:x packets:12 last_received:1342.5\n"
+					   + "00:0B:6B:84:B2:87 rate:11 noise:-92 signal:160 packets:3 last_received:1345.000250123\n";
+
+		OdinRxStatsTable table = new OdinRxStatsTable();
+		table.put(0x42L, 0, 0, 0, 0, 0);
+		OdinAgentHandlerParser.parseRxStats(buffer(payload), RX_STAT_NUM_PROPERTIES, table);
+
+		// Stale rows are dropped, and so is the row with a bad signal value
+		assertEquals(2, table.size());
+		assertEquals(-1, table.indexOf(0x42L));
+		assertEquals(-1, table.indexOf(MACAddress.valueOf("00:00:00:00:00:02")));
+
+		int row = table.indexOf(MACAddress.valueOf("00:00:00:00:00:01"));
+		assertEquals(190, table.getSignal(row));
+		assertEquals(-95, table.getNoise(row));
+		assertEquals(54, table.getRate(row));
+		assertEquals(12, table.getPackets(row));
+		assertEquals(1342500000L, table.getLastReceivedMicros(row));
+
+		row = table.indexOf(MACAddress.valueOf("00:0b:6b:84:b2:87"));
+		assertEquals(160, table.getSignal(row));
+		assertEquals(1345000250L, table.getLastReceivedMicros(row));
+	}
+
+	@Test
+	public void testParseSpectralScan() throws Exception {
+		String payload = "1 busy:12 noise:-95\n"
+					   + "6 noise:-92 busy:87 rssi:-40\n"
+					   + "11 busy:101 noise:-95\n"
+					   + "36 noise:-90\n"
+					   + "0 busy:5 noise:-95\n"
+					   + "x busy:5 noise:-95\n"
+					   + "149 busy:0\n";
+
+		OdinSpectralScan scan = new OdinSpectralScan();
+		scan.put(44, 50, -90);
+		OdinAgentHandlerParser.parseSpectralScan(buffer(payload), scan);
+
+		// Rows without a busy value, or out of range, are dropped
+		assertEquals(3, scan.size());
+		assertEquals(1, scan.getChannel(0));
+		assertEquals(12, scan.getBusy(0));
+		assertEquals(-95, scan.getNoise(0));
+		assertEquals(6, scan.getChannel(1));
+		assertEquals(87, scan.getBusy(1));
+		assertEquals(-92, scan.getNoise(1));
+		assertEquals(149, scan.getChannel(2));
+		assertEquals(0, scan.getBusy(2));
+		assertEquals(-128, scan.getNoise(2));
+
+		assertEquals(0, OdinAgentHandlerParser.parseSpectralScan(buffer(""), scan).size());
+	}
+
+	@Test
+	public void testParseLvapTable() throws Exception {
+		String payload = "00:00:00:00:00:01 172.17.2.51 00:1b:b3:00:00:01 odin odin-1\n"
+					   + "00:00:00:00:00:02 0.0.0.0 00:1b:b3:00:00:02 odin\n"
+					   + "00:00:00:00:00:03 172.17.2.300 00:1b:b3:00:00:03 odin\n"
+					   + "\n"
+					   + "00:00:00:00:00:04 172.17.2.54 00:1b:b3:00:00:04 odin\n";
+
+		StubOdinAgent agent = new StubOdinAgent();
+		Set<OdinClient> clients = OdinAgentHandlerParser.parseLvapTable(buffer(payload), agent);
+
+		// Row 3 has a bad address, and parsing stops at the empty row
+		assertEquals(2, clients.size());
+
+		OdinClient first = null;
+		for (OdinClient oc: clients) {
+			if (oc.getMacAddress().equals(MACAddress.valueOf("00:00:00:00:00:01")))
+				first = oc;
+			assertEquals(agent, oc.getLvap().getAgent());
+		}
+
+		assertEquals(InetAddress.getByName("172.17.2.51"), first.getIpAddress());
+		assertEquals(MACAddress.valueOf("00:1b:b3:00:00:01"), first.getLvap().getBssid());
+		assertEquals(2, first.getLvap().getSsids().size());
+		assertEquals("odin-1", first.getLvap().getSsids().get(1));
+	}
+
+	@Test
+	public void testParseAddresses() throws Exception {
+		ChannelBuffer buf = buffer("0a:1B:2c:3D:4e:5F");
+		assertEquals(0x0a1b2c3d4e5fL, OdinAgentHandlerParser.parseMacAddress(buf, 0, buf.writerIndex()));
+
+		buf = buffer("0a:1B:2c:3D:4e");
+		assertEquals(-1L, OdinAgentHandlerParser.parseMacAddress(buf, 0, buf.writerIndex()));
+
+		buf = buffer("10.0.255.1");
+		byte[] addr = OdinAgentHandlerParser.parseIpv4Address(buf, 0, buf.writerIndex());
+		assertEquals(InetAddress.getByName("10.0.255.1"), InetAddress.getByAddress(addr));
+
+		buf = buffer("10.0.1");
+		assertNull(OdinAgentHandlerParser.parseIpv4Address(buf, 0, buf.writerIndex()));
+		buf = buffer("10.0.1.1.1");
+		assertNull(OdinAgentHandlerParser.parseIpv4Address(buf, 0, buf.writerIndex()));
+	}
+
+
+	/**
+	 * A table of 1000 stations parses the same into the map as into
+	 * the typed table. See RxStatsParserBenchmark for timings against
+	 * the old read and split() path.
+	 */
+	@Test
+	public void testParseLargeRxStatsTable() throws Exception {
+		final int numStations = 1000;
+		byte[] payload = rxStatsTable(numStations).getBytes(ASCII);
+
+		Map<MACAddress, Map<String, String>> stats = OdinAgentHandlerParser.parseRxStats(ChannelBuffers.wrappedBuffer(payload),
+																	RX_STAT_NUM_PROPERTIES);
+		OdinRxStatsTable table = OdinAgentHandlerParser.parseRxStats(ChannelBuffers.wrappedBuffer(payload),
+										RX_STAT_NUM_PROPERTIES, new OdinRxStatsTable());
+		assertEquals(numStations, stats.size());
+		assertEquals(numStations, table.size());
+
+		for (int i = 0; i < numStations; i++) {
+			MACAddress sta = MACAddress.valueOf(0x001122000000L + i);
+			Map<String, String> properties = stats.get(sta);
+			int row = table.indexOf(sta);
+
+			assertEquals(String.valueOf(150 + i % 60), properties.get("signal"));
+			assertEquals(150 + i % 60, table.getSignal(row));
+			assertEquals(i * 7L, table.getPackets(row));
+			assertEquals(Long.parseLong(properties.get("packets")), table.getPackets(row));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OdinAgentProtocolServerTest {
+	private RecordingOdinMaster odinMaster;
+	private OdinAgentProtocolServer server;
+	private ExecutorService executor;
+	private InetAddress agentAddr;
+
+	/**
+	 * Records what the protocol server hands to the master
+	 */
+	private static class RecordingOdinMaster extends OdinMaster {
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		final List<Map<Long, Long>> publishes = Collections.synchronizedList(new ArrayList<Map<Long, Long>>());
+
+		@Override
+		void receivePing(InetAddress odinAgentAddr) {
+			events.add("ping " + odinAgentAddr.getHostAddress());
+		}
+
+		@Override
+		void receiveProbe(InetAddress odinAgentAddr, MACAddress clientHwAddress, String ssid) {
+			events.add("probe " + clientHwAddress + " [" + ssid + "]");
+		}
+
+		@Override
+		void receivePublish(MACAddress clientHwAddress, InetAddress odinAgentAddr, Map<Long, Long> subscriptionIds) {
+			events.add("publish " + clientHwAddress);
+			publishes.add(subscriptionIds);
+		}
+	}
+
+	private void dispatch(String msg) {
+		server.dispatch(ChannelBuffers.wrappedBuffer(msg.getBytes()), agentAddr);
+	}
+
+	@Before
+	public void setup() throws Exception {
+		odinMaster = new RecordingOdinMaster();
+		executor = Executors.newFixedThreadPool(2);
+		server = new OdinAgentProtocolServer(odinMaster, 0, executor);
+		agentAddr = InetAddress.getByName("127.0.0.1");
+	}
+
+	@After
+	public void teardown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testDispatch() throws Exception {
+		dispatch("ping\n");
+		dispatch("PROBE 00:0B:6B:84:B2:87 ");
+		dispatch("probe 00:00:00:00:00:01 Odin Net");
+		dispatch("publish 00:00:00:00:00:02 2 7:-3 12:40");
+		dispatch("publish 00:00:00:00:00:03 0");
+
+		assertEquals("ping 127.0.0.1", odinMaster.events.get(0));
+		assertEquals("probe 00:0B:6B:84:B2:87 []", odinMaster.events.get(1));
+		assertEquals("probe 00:00:00:00:00:01 [odin net]", odinMaster.events.get(2));
+		assertEquals("publish 00:00:00:00:00:02", odinMaster.events.get(3));
+		assertEquals(2, odinMaster.publishes.get(0).size());
+		assertEquals(Long.valueOf(-3), odinMaster.publishes.get(0).get(7L));
+		assertEquals(Long.valueOf(40), odinMaster.publishes.get(0).get(12L));
+		assertTrue(odinMaster.publishes.get(1).isEmpty());
+		assertEquals(5, odinMaster.events.size());
+
+		// Malformed messages are dropped
+		dispatch("");
+		dispatch("probe");
+		dispatch("probe 00:00:00:00:00");
+		dispatch("publish 00:00:00:00:00:02");
+		dispatch("publish 00:00:00:00:00:02 x");
+		dispatch("publish 00:00:00:00:00:02 2 7:1");
+		dispatch("publish 00:00:00:00:00:02 1 7");
+		dispatch("hello 00:00:00:00:00:02");
+		assertEquals(5, odinMaster.events.size());
+	}
+
+	@Test
+	public void testReceive() throws Exception {
+		final int numClients = 2000;
+
+		DatagramSocket probe = new DatagramSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+
+		server = new OdinAgentProtocolServer(odinMaster, port, executor);
+		Thread receiver = new Thread(server);
+		receiver.setDaemon(true);
+		receiver.start();
+
+		DatagramSocket sock = new DatagramSocket();
+		Set<String> expected = new HashSet<String>();
+
+		try {
+			// Give the receiver time to bind
+			long deadline = System.currentTimeMillis() + 5000;
+			while (odinMaster.events.isEmpty() && System.currentTimeMillis() < deadline) {
+				byte[] data = "ping".getBytes();
+				sock.send(new DatagramPacket(data, data.length, agentAddr, port));
+				Thread.sleep(20);
+			}
+			assertTrue(odinMaster.events.size() > 0);
+			Thread.sleep(100);
+			odinMaster.events.clear();
+
+			// Bursts, so that the receiver finds several datagrams per wakeup
+			for (int i = 0; i < numClients; i++) {
+				MACAddress client = MACAddress.valueOf(0x00aabb000000L + i);
+				byte[] data = ("probe " + client + " odin").getBytes();
+				sock.send(new DatagramPacket(data, data.length, agentAddr, port));
+				expected.add("probe " + client + " [odin]");
+
+				if (i % 100 == 99)
+					Thread.sleep(5);
+			}
+
+			deadline = System.currentTimeMillis() + 5000;
+			while (odinMaster.events.size() < numClients && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+
+			assertEquals(expected, new HashSet<String>(odinMaster.events));
+		} finally {
+			sock.close();
+			receiver.interrupt();
+		}
+	}
+}
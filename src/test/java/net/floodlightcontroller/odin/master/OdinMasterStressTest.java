@@ -0,0 +1,339 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.test.MockThreadPoolService;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.easymock.EasyMock;
+import org.jboss.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives concurrent pings, probes, publishes, handoffs and network
+ * changes through the agent protocol server, then checks that the
+ * master's view of clients, agents and pools is still consistent.
+ */
+public class OdinMasterStressTest {
+	private static final String POOL = "pool-1";
+	private static final String SSID = "odin";
+	private static final String EXTRA_SSID = "odin-extra";
+	private static final int NUM_AGENTS = 4;
+	private static final int NUM_CLIENTS = 200;
+	private static final int MESSAGES_PER_AGENT = 4000;
+	private static final int NUM_HANDLER_THREADS = 8;
+
+	private MockFloodlightProvider mockFloodlightProvider;
+	private OdinMaster odinMaster;
+	private AgentManager agentManager;
+	private ClientManager clientManager;
+	private PoolManager poolManager;
+	private ThreadPoolExecutor handlerExecutor;
+	private int masterPort;
+
+	private final List<InetAddress> agentAddrs = new ArrayList<InetAddress>();
+	private final List<DatagramSocket> agentSockets = new ArrayList<DatagramSocket>();
+	private final List<MACAddress> clients = new ArrayList<MACAddress>();
+	private final AtomicInteger handlerErrors = new AtomicInteger();
+
+	// Callback bookkeeping
+	private final ConcurrentMap<MACAddress, AtomicInteger> inFlightPerClient = new ConcurrentHashMap<MACAddress, AtomicInteger>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final AtomicInteger overlappingCallbacks = new AtomicInteger();
+	private final AtomicInteger callbacks = new AtomicInteger();
+
+	private void addSwitch(InetAddress addr, long id) {
+		IOFSwitch sw = EasyMock.createNiceMock(IOFSwitch.class);
+		Channel ch = EasyMock.createMock(Channel.class);
+		expect(sw.getChannel()).andReturn(ch).anyTimes();
+		expect(ch.getRemoteAddress()).andReturn((SocketAddress) new InetSocketAddress(addr, 6633)).anyTimes();
+		expect(sw.getId()).andReturn(id).anyTimes();
+		EasyMock.replay(sw);
+		EasyMock.replay(ch);
+		mockFloodlightProvider.getSwitches().put(id, sw);
+	}
+
+	private void send(int agent, String msg) throws Exception {
+		byte[] data = msg.getBytes();
+		agentSockets.get(agent).send(new DatagramPacket(data, data.length,
+											InetAddress.getByName("127.0.0.1"), masterPort));
+	}
+
+	private void awaitQuiescence() throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		int idleRounds = 0;
+
+		while (idleRounds < 5 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+
+			if (handlerExecutor.getActiveCount() == 0 && handlerExecutor.getQueue().isEmpty())
+				idleRounds++;
+			else
+				idleRounds = 0;
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		// Agents are told apart by source address, so each one
+		// sends from its own loopback address
+		for (int i = 1; i <= NUM_AGENTS; i++) {
+			InetAddress addr = InetAddress.getByName("127.0.0." + i);
+			DatagramSocket sock;
+
+			try {
+				sock = new DatagramSocket(new InetSocketAddress(addr, 0));
+			} catch (Exception e) {
+				sock = null;
+			}
+
+			Assume.assumeNotNull(sock);
+			agentAddrs.add(addr);
+			agentSockets.add(sock);
+		}
+
+		FloodlightModuleContext cntx = new FloodlightModuleContext();
+		RestApiServer restApi = new RestApiServer();
+		mockFloodlightProvider = new MockFloodlightProvider();
+		OdinAgentFactory.setOdinAgentType("MockOdinAgent");
+
+		clientManager = new ClientManager();
+		poolManager = new PoolManager();
+		agentManager = new AgentManager(clientManager, poolManager);
+		agentManager.setAgentTimeout(60000);
+		odinMaster = new OdinMaster(agentManager, clientManager, new LvapManager(), poolManager);
+
+		cntx.addService(IFloodlightProviderService.class, mockFloodlightProvider);
+		cntx.addService(IRestApiService.class, restApi);
+		MockThreadPoolService tp = new MockThreadPoolService();
+		cntx.addService(IThreadPoolService.class, tp);
+		restApi.init(cntx);
+		odinMaster.init(cntx);
+		odinMaster.setExecutor(tp.getScheduledExecutor());
+		agentManager.setFloodlightProvider(mockFloodlightProvider);
+
+		for (int i = 0; i < NUM_AGENTS; i++) {
+			addSwitch(agentAddrs.get(i), i + 1);
+			poolManager.addPoolForAgent(agentAddrs.get(i), POOL);
+		}
+		odinMaster.addNetwork(POOL, SSID);
+
+		for (int i = 0; i < NUM_CLIENTS; i++) {
+			clients.add(MACAddress.valueOf(0x00aabb000000L + i));
+		}
+
+		handlerExecutor = new ThreadPoolExecutor(NUM_HANDLER_THREADS, NUM_HANDLER_THREADS,
+									0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+			@Override
+			protected void afterExecute(Runnable r, Throwable t) {
+				if (t != null) {
+					t.printStackTrace();
+					handlerErrors.incrementAndGet();
+				}
+			}
+		};
+
+		DatagramSocket probe = new DatagramSocket(0);
+		masterPort = probe.getLocalPort();
+		probe.close();
+
+		Thread server = new Thread(new OdinAgentProtocolServer(odinMaster, masterPort, handlerExecutor));
+		server.setDaemon(true);
+		server.start();
+	}
+
+	@After
+	public void teardown() {
+		if (handlerExecutor != null)
+			handlerExecutor.shutdownNow();
+
+		for (DatagramSocket sock: agentSockets) {
+			sock.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentEvents() throws Exception {
+		// Register the agents
+		long deadline = System.currentTimeMillis() + 5000;
+		while (agentManager.getAgents().size() < NUM_AGENTS && System.currentTimeMillis() < deadline) {
+			for (int i = 0; i < NUM_AGENTS; i++) {
+				send(i, "ping");
+			}
+			Thread.sleep(50);
+		}
+		assertEquals(NUM_AGENTS, agentManager.getAgents().size());
+
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setSubscription("*", "signal", OdinEventSubscription.Relation.GREATER_THAN, 0);
+		final long subscriptionId = odinMaster.registerSubscription(POOL, oes, new NotificationCallback() {
+			private final Random random = new Random();
+
+			@Override
+			public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+				AtomicInteger perClient = inFlightPerClient.get(cntx.clientHwAddress);
+				if (perClient.incrementAndGet() > 1)
+					overlappingCallbacks.incrementAndGet();
+
+				int now = inFlight.incrementAndGet();
+				int max;
+				while (now > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, now));
+
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				// Apps call back into the master from their callbacks
+				if (cntx.value % 4 == 0) {
+					odinMaster.handoffClientToAp(POOL, cntx.clientHwAddress,
+							agentAddrs.get(random.nextInt(NUM_AGENTS)));
+				}
+
+				callbacks.incrementAndGet();
+				inFlight.decrementAndGet();
+				perClient.decrementAndGet();
+			}
+		});
+
+		for (MACAddress client: clients) {
+			inFlightPerClient.put(client, new AtomicInteger());
+		}
+
+		final AtomicInteger senderErrors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		// One sender per agent: mostly probes and publishes, with pings
+		for (int a = 0; a < NUM_AGENTS; a++) {
+			final int agent = a;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(agent);
+
+					try {
+						for (int i = 0; i < MESSAGES_PER_AGENT; i++) {
+							MACAddress client = clients.get(random.nextInt(NUM_CLIENTS));
+
+							if (i % 100 == 0) {
+								send(agent, "ping");
+							}
+							else if (random.nextInt(10) < 6) {
+								send(agent, "probe " + client + " " + SSID);
+							}
+							else {
+								send(agent, "publish " + client + " 1 " + subscriptionId + ":" + i);
+							}
+
+							if (i % 200 == 0)
+								Thread.sleep(5);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						senderErrors.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		// Applications handing off clients directly
+		for (int t = 0; t < 2; t++) {
+			final int seed = 100 + t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+
+					for (int i = 0; i < 2000; i++) {
+						odinMaster.handoffClientToAp(POOL, clients.get(random.nextInt(NUM_CLIENTS)),
+								agentAddrs.get(random.nextInt(NUM_AGENTS)));
+					}
+				}
+			});
+		}
+
+		// Network changes, which touch every LVAP in the pool
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 20; i++) {
+					odinMaster.addNetwork(POOL, EXTRA_SSID);
+					odinMaster.removeNetwork(POOL, EXTRA_SSID);
+				}
+			}
+		});
+
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join(30000);
+		}
+
+		awaitQuiescence();
+
+		assertEquals(0, senderErrors.get());
+		assertEquals(0, handlerErrors.get());
+
+		// A client's events never reach an application concurrently,
+		// but those of different clients do.
+		assertEquals(0, overlappingCallbacks.get());
+		assertTrue(callbacks.get() > 0);
+		assertTrue("Callbacks for different clients should run in parallel", maxInFlight.get() > 1);
+
+		// Every client that was heard has an LVAP on exactly one
+		// agent, and that is the agent the master thinks it is on.
+		assertTrue(clientManager.getClients().size() > 0);
+
+		for (OdinClient oc: clientManager.getClients().values()) {
+			IOdinAgent agent = oc.getLvap().getAgent();
+			assertNotNull(agent);
+			assertTrue(agentManager.isTracked(agent.getIpAddress()));
+
+			int hosts = 0;
+			for (IOdinAgent candidate: agentManager.getAgents().values()) {
+				if (candidate.getLvapsLocal().contains(oc)) {
+					hosts++;
+					assertTrue(candidate == agent);
+				}
+			}
+			assertEquals("LVAP of " + oc.getMacAddress() + " is on " + hosts + " agents", 1, hosts);
+
+			assertEquals(POOL, poolManager.getPoolForClient(oc));
+			assertTrue(poolManager.getClientsFromPool(POOL).contains(oc));
+			assertEquals(new HashSet<String>(poolManager.getSsidListForPool(POOL)),
+						new HashSet<String>(oc.getLvap().getSsids()));
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests collecting rxstats from all agents of a pool at once
+ */
+public class OdinRxStatsSweepTest {
+	private static final String POOL = "pool-1";
+	private static final long AGENT_DELAY_MS = 300;
+
+	private ScheduledExecutorService agentExecutor;
+	private OdinMaster odinMaster;
+	private PoolManager poolManager;
+	private final Map<InetAddress, IOdinAgent> agents = new HashMap<InetAddress, IOdinAgent>();
+
+	/**
+	 * Answers rxstats requests after a delay, or never
+	 * if the delay is negative.
+	 */
+	private class DelayedOdinAgent extends StubOdinAgent {
+		private final long delayMs;
+		private final long staHwAddr;
+
+		DelayedOdinAgent(long delayMs, long staHwAddr) {
+			this.delayMs = delayMs;
+			this.staHwAddr = staHwAddr;
+		}
+
+		@Override
+		public Future<OdinRxStatsTable> getRxStatsTableAsync(OdinRxStatsTable table) {
+			final OdinRxStatsTable rxStats = (table == null) ? new OdinRxStatsTable() : table;
+			final OdinAgentFuture<OdinRxStatsTable> future = new OdinAgentFuture<OdinRxStatsTable>();
+
+			if (delayMs >= 0) {
+				agentExecutor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						rxStats.clear();
+						rxStats.put(staHwAddr, 180, -90, 54, 1, 0);
+						future.set(rxStats);
+					}
+				}, delayMs, TimeUnit.MILLISECONDS);
+			}
+
+			return future;
+		}
+	}
+
+	private void addAgent(String ipAddress, long delayMs, long staHwAddr) throws Exception {
+		InetAddress addr = InetAddress.getByName(ipAddress);
+		agents.put(addr, new DelayedOdinAgent(delayMs, staHwAddr));
+		poolManager.addPoolForAgent(addr, POOL);
+	}
+
+	@Before
+	public void setup() throws Exception {
+		agentExecutor = new ScheduledThreadPoolExecutor(4);
+		poolManager = new PoolManager();
+		ClientManager clientManager = new ClientManager();
+		AgentManager agentManager = new AgentManager(clientManager, poolManager) {
+			@Override
+			protected IOdinAgent getAgent(InetAddress agentInetAddr) {
+				return agents.get(agentInetAddr);
+			}
+		};
+		odinMaster = new OdinMaster(agentManager, clientManager, new LvapManager(), poolManager);
+	}
+
+	@After
+	public void teardown() {
+		agentExecutor.shutdownNow();
+	}
+
+	/**
+	 * Requests go out to all agents together, so the sweep
+	 * should take about as long as the slowest agent, and
+	 * not the sum of all of them.
+	 */
+	@Test
+	public void testSweepIsConcurrent() throws Exception {
+		for (int i = 1; i <= 4; i++) {
+			addAgent("172.17.2." + i, AGENT_DELAY_MS, i);
+		}
+
+		OdinRxStatsSweep sweep = odinMaster.getRxStatsFromAgents(POOL, 5000, null);
+
+		assertEquals(4, sweep.getStats().size());
+		assertTrue(sweep.getMissingAgents().isEmpty());
+		assertTrue(sweep.getDurationMicros() < TimeUnit.MILLISECONDS.toMicros(AGENT_DELAY_MS * 3));
+
+		for (int i = 1; i <= 4; i++) {
+			InetAddress addr = InetAddress.getByName("172.17.2." + i);
+			assertEquals(0, sweep.getTable(addr).indexOf(i));
+			assertTrue(sweep.getLatencyMicros(addr) >= TimeUnit.MILLISECONDS.toMicros(AGENT_DELAY_MS));
+		}
+	}
+
+	/**
+	 * Slow and dead agents should be reported as missing,
+	 * without holding back the agents that did answer.
+	 */
+	@Test
+	public void testPartialResults() throws Exception {
+		addAgent("172.17.2.1", 0, 1);
+		addAgent("172.17.2.2", 2000, 2);
+		addAgent("172.17.2.3", -1, 3);
+
+		InetAddress fast = InetAddress.getByName("172.17.2.1");
+		InetAddress slow = InetAddress.getByName("172.17.2.2");
+		InetAddress dead = InetAddress.getByName("172.17.2.3");
+
+		OdinRxStatsSweep sweep = odinMaster.getRxStatsFromAgents(POOL, AGENT_DELAY_MS, null);
+
+		assertEquals(1, sweep.getStats().size());
+		assertNotNull(sweep.getTable(fast));
+		assertNull(sweep.getTable(slow));
+		assertEquals(-1, sweep.getLatencyMicros(dead));
+		assertEquals(2, sweep.getMissingAgents().size());
+		assertTrue(sweep.getMissingAgents().contains(slow));
+		assertTrue(sweep.getMissingAgents().contains(dead));
+		assertTrue(sweep.getDurationMicros() < TimeUnit.MILLISECONDS.toMicros(2000));
+
+		// The table of an agent that answered is refilled in the next sweep
+		OdinRxStatsSweep next = odinMaster.getRxStatsFromAgents(POOL, AGENT_DELAY_MS, sweep);
+		assertSame(sweep.getTable(fast), next.getTable(fast));
+	}
+}
@@ -0,0 +1,91 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class OdinRxStatsTableTest {
+
+	/**
+	 * Rows should stay addressable by MAC across growth,
+	 * and a cleared table should be empty but reusable.
+	 */
+	@Test
+	public void testPutGrowAndClear() {
+		OdinRxStatsTable table = new OdinRxStatsTable(1);
+
+		for (int i = 0; i < 1000; i++) {
+			table.put(0x001122000000L + i, 100 + i % 100, -90, 54, i, 1000000L * i);
+		}
+
+		assertEquals(1000, table.size());
+
+		for (int i = 0; i < 1000; i++) {
+			int row = table.indexOf(0x001122000000L + i);
+			assertEquals(i, row);
+			assertEquals(100 + i % 100, table.getSignal(row));
+			assertEquals(i, table.getPackets(row));
+		}
+
+		assertEquals(-1, table.indexOf(0x001122000000L + 1000));
+
+		// Overwriting a station keeps its row
+		assertEquals(7, table.put(0x001122000007L, 1, 2, 3, 4, 5));
+		assertEquals(1000, table.size());
+		assertEquals(2, table.getNoise(7));
+
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(-1, table.indexOf(0x001122000007L));
+
+		table.put(MACAddress.valueOf("00:11:22:00:00:07").toLong(), 1, 2, 3, 4, 5);
+		assertEquals(0, table.indexOf(MACAddress.valueOf("00:11:22:00:00:07")));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRowOutOfBounds() {
+		new OdinRxStatsTable().getSignal(0);
+	}
+
+	/**
+	 * A table the agent didn't fill in time may still be filled
+	 * by a late reply, so it shouldn't be handed back
+	 */
+	@Test
+	public void testFailedPollDropsTable() {
+		final OdinAgentFuture<OdinRxStatsTable> reply = new OdinAgentFuture<OdinRxStatsTable>();
+		OdinAgent agent = new OdinAgent() {
+			@Override
+			public Future<OdinRxStatsTable> getRxStatsTableAsync(OdinRxStatsTable table) {
+				return reply;
+			}
+		};
+
+		OdinRxStatsTable table = new OdinRxStatsTable();
+		table.put(0x001122000001L, 1, 2, 3, 4, 5);
+		reply.setException(new IOException("Connection reset"));
+
+		OdinRxStatsTable result = agent.getRxStatsTable(table);
+		assertNotSame(table, result);
+		assertEquals(0, result.size());
+		assertEquals(1, table.size());
+
+		// A table that was filled is handed back
+		final OdinAgentFuture<OdinRxStatsTable> filled = new OdinAgentFuture<OdinRxStatsTable>();
+		agent = new OdinAgent() {
+			@Override
+			public Future<OdinRxStatsTable> getRxStatsTableAsync(OdinRxStatsTable table) {
+				filled.set(table);
+				return filled;
+			}
+		};
+		assertSame(table, agent.getRxStatsTable(table));
+	}
+}
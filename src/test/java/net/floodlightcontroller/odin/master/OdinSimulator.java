@@ -0,0 +1,1092 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.threadpool.ThreadPool;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * Runs a real OdinMaster against thousands of emulated agents, to
+ * see how it holds up before a rollout. Each agent has its own
+ * loopback address (127.1.x.y), a Click control socket served by
+ * SimulatedClickServer, an OpenFlow switch that answers barriers,
+ * and a UDP socket it pings, probes and publishes from.
+ *
+ * Clients walk about a floor with the agents on a grid, following
+ * the random waypoint model. An agent hears a client if the signal,
+ * by log-distance path loss with per-link shadowing and per-report
+ * fading, is above its sensitivity. Clients join over a ramp-up
+ * period and scan periodically, and agents publish the signal of
+ * every client they hear against the subscriptions the master has
+ * pushed them. A mobility application hands clients off to the
+ * agent that hears them best, with hysteresis.
+ *
+ * The report has:
+ *
+ *  - how long the agents took to register
+ *  - probe-to-LVAP latency: from a client's first probe until an
+ *    agent is told to add its LVAP
+ *  - handoff latency: from the application's request until the new
+ *    agent has the LVAP, and until the old agent has dropped it
+ *  - publishes sent, and events delivered to the application
+ *  - heap usage, sampled while running and after a final GC
+ *  - the master's own handoff, probe and registration counters
+ *
+ * Heap figures include the simulation's state, which is small next
+ * to the master's. Run it with "ant odin-sim", with settings given
+ * as odin.sim.* system properties, e.g.
+ *
+ *   ant odin-sim -Dodin.sim.agents=2000 -Dodin.sim.clients=20000
+ *
+ * With odin.sim.masters set above 1, the agents are split between a
+ * cluster of masters on localhost (see MasterCluster). Each agent
+ * pings one of them, as if masters were picked by anycast, and each
+ * master's mobility application also pulls clients held by another
+ * master over to its agents when they hear them well. One master
+ * can be stopped part way through the run, to see its agents and
+ * clients taken over by the others; its agents then ping the next
+ * master up.
+ *
+ * Every agent takes three file descriptors, so the open file limit
+ * may need raising for large runs.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class OdinSimulator {
+	private static final String POOL = "pool-1";
+	private static final String SSID = "odin-sim";
+	private static final int CONTROL_SOCKET_PORT = 6777;
+	private static final long TICK_MILLIS = 20;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// Radio model
+	private static final double TX_DBM_AT_1M = -30;
+	private static final double PATH_LOSS_EXPONENT = 3.5;
+	private static final double SENSITIVITY_DBM = -85;
+
+	// Agents report signal strengths offset by 256
+	private static final int SIGNAL_OFFSET = 256;
+
+	/**
+	 * Settings of a run. Defaults can be overridden
+	 * by odin.sim.<field> system properties.
+	 */
+	static class Config {
+		int agents = 1000;
+		int clients = 10000;
+		long durationMillis = 60000;
+		long rampMillis = 10000; // clients join over this long
+		long onboardTimeoutMillis = 60000;
+		double spacing = 30; // m between agents
+		double speed = 1.5; // m/s, mean walking speed
+		double shadowingDb = 4; // per client and agent
+		double fadingDb = 2; // per report
+		long pingIntervalMillis = 1000;
+		long publishIntervalMillis = 1000;
+		long scanIntervalMillis = 10000;
+		long handoffHysteresis = 6; // dB
+		long handoffHoldMillis = 3000; // between handoffs of a client
+		long switchLatencyMicros = 500; // before barriers are answered
+		int senderThreads = 2;
+		int masters = 1;
+		long clusterTimeoutMillis = 1000;
+		long stopMasterAtMillis = 0; // into the traffic, 0 to keep all masters up
+		double pullDbm = -65; // signal at which a master pulls another's client over
+		long seed = 1;
+
+		static Config fromSystemProperties() {
+			Config cfg = new Config();
+			cfg.agents = Integer.getInteger("odin.sim.agents", cfg.agents);
+			cfg.clients = Integer.getInteger("odin.sim.clients", cfg.clients);
+			cfg.durationMillis = Long.getLong("odin.sim.durationMillis", cfg.durationMillis);
+			cfg.rampMillis = Long.getLong("odin.sim.rampMillis", cfg.rampMillis);
+			cfg.onboardTimeoutMillis = Long.getLong("odin.sim.onboardTimeoutMillis", cfg.onboardTimeoutMillis);
+			cfg.spacing = getDouble("odin.sim.spacing", cfg.spacing);
+			cfg.speed = getDouble("odin.sim.speed", cfg.speed);
+			cfg.shadowingDb = getDouble("odin.sim.shadowingDb", cfg.shadowingDb);
+			cfg.fadingDb = getDouble("odin.sim.fadingDb", cfg.fadingDb);
+			cfg.pingIntervalMillis = Long.getLong("odin.sim.pingIntervalMillis", cfg.pingIntervalMillis);
+			cfg.publishIntervalMillis = Long.getLong("odin.sim.publishIntervalMillis", cfg.publishIntervalMillis);
+			cfg.scanIntervalMillis = Long.getLong("odin.sim.scanIntervalMillis", cfg.scanIntervalMillis);
+			cfg.handoffHysteresis = Long.getLong("odin.sim.handoffHysteresis", cfg.handoffHysteresis);
+			cfg.handoffHoldMillis = Long.getLong("odin.sim.handoffHoldMillis", cfg.handoffHoldMillis);
+			cfg.switchLatencyMicros = Long.getLong("odin.sim.switchLatencyMicros", cfg.switchLatencyMicros);
+			cfg.senderThreads = Integer.getInteger("odin.sim.senderThreads", cfg.senderThreads);
+			cfg.masters = Integer.getInteger("odin.sim.masters", cfg.masters);
+			cfg.clusterTimeoutMillis = Long.getLong("odin.sim.clusterTimeoutMillis", cfg.clusterTimeoutMillis);
+			cfg.stopMasterAtMillis = Long.getLong("odin.sim.stopMasterAtMillis", cfg.stopMasterAtMillis);
+			cfg.pullDbm = getDouble("odin.sim.pullDbm", cfg.pullDbm);
+			cfg.seed = Long.getLong("odin.sim.seed", cfg.seed);
+
+			return cfg;
+		}
+
+		private static double getDouble(String property, double def) {
+			String value = System.getProperty(property);
+
+			return (value == null) ? def : Double.parseDouble(value);
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("agents", agents);
+			map.put("clients", clients);
+			map.put("durationMillis", durationMillis);
+			map.put("rampMillis", rampMillis);
+			map.put("spacing", spacing);
+			map.put("speed", speed);
+			map.put("pingIntervalMillis", pingIntervalMillis);
+			map.put("publishIntervalMillis", publishIntervalMillis);
+			map.put("scanIntervalMillis", scanIntervalMillis);
+			map.put("handoffHysteresis", handoffHysteresis);
+			map.put("handoffHoldMillis", handoffHoldMillis);
+			map.put("masters", masters);
+			map.put("stopMasterAtMillis", stopMasterAtMillis);
+			map.put("seed", seed);
+
+			return map;
+		}
+	}
+
+	private final Config cfg;
+	private final int cols;
+	private final double width;
+	private final double height;
+	private final double range;
+
+	// Agents
+	private final List<InetAddress> agentAddrs = new ArrayList<InetAddress>();
+	private final Map<InetAddress, Integer> agentIndex = new HashMap<InetAddress, Integer>();
+	private final List<DatagramChannel> agentChannels = new ArrayList<DatagramChannel>();
+	private final AtomicReferenceArray<Subscription[]> agentSubscriptions;
+
+	// Clients
+	private final SimClient[] clients;
+	private final Map<MACAddress, SimClient> clientsByHwAddr = new HashMap<MACAddress, SimClient>();
+	private final ConcurrentMap<MACAddress, PendingHandoff> pendingHandoffs = new ConcurrentHashMap<MACAddress, PendingHandoff>();
+
+	// Masters
+	private final List<SimMaster> masters = new ArrayList<SimMaster>();
+	private SimulatedClickServer clickServer;
+
+	private ScheduledExecutorService simExecutor;
+	private final List<ScheduledFuture<?>> tasks = new ArrayList<ScheduledFuture<?>>();
+
+	// Measurements
+	private final LatencyHistogram probeToLvapLatency = new LatencyHistogram();
+	private final LatencyHistogram handoffStageLatency = new LatencyHistogram();
+	private final LatencyHistogram handoffLatency = new LatencyHistogram();
+	private final AtomicLong pings = new AtomicLong();
+	private final AtomicLong probes = new AtomicLong();
+	private final AtomicLong publishes = new AtomicLong();
+	private final AtomicLong publishEvents = new AtomicLong();
+	private final AtomicLong sendErrors = new AtomicLong();
+	private final AtomicLong callbacks = new AtomicLong();
+	private final AtomicLong handoffsRequested = new AtomicLong();
+	private final AtomicLong pullsRequested = new AtomicLong();
+	private final AtomicLong maxHeapUsed = new AtomicLong();
+	private long heapBaseline;
+
+
+	OdinSimulator(Config cfg) {
+		this.cfg = cfg;
+		this.cols = (int) Math.ceil(Math.sqrt(cfg.agents));
+		this.width = cols * cfg.spacing;
+		this.height = ((cfg.agents + cols - 1) / cols) * cfg.spacing;
+		this.range = Math.pow(10, (TX_DBM_AT_1M - SENSITIVITY_DBM + cfg.shadowingDb + 2 * cfg.fadingDb)
+									/ (10 * PATH_LOSS_EXPONENT));
+		this.agentSubscriptions = new AtomicReferenceArray<Subscription[]>(cfg.agents);
+		this.clients = new SimClient[cfg.clients];
+	}
+
+
+	/**
+	 * @return the loopback address of the i-th agent
+	 */
+	static InetAddress getAgentAddr(int i) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {127, 1, (byte) (i / 250 + 1), (byte) (i % 250 + 1)});
+	}
+
+
+	/**
+	 * Run the simulation
+	 *
+	 * @return the report
+	 */
+	Map<String, Object> run() throws Exception {
+		assert (cfg.agents <= 250 * 250);
+
+		try {
+			setup();
+
+			long onboardingMillis = onboard();
+			startTraffic();
+			Thread.sleep(cfg.durationMillis);
+			stopTraffic();
+			awaitHandoffs();
+
+			return report(onboardingMillis);
+		} finally {
+			teardown();
+		}
+	}
+
+
+	private void setup() throws Exception {
+		heapBaseline = heapUsedAfterGc();
+		Random random = new Random(cfg.seed);
+
+		for (int i = 0; i < cfg.agents; i++) {
+			InetAddress addr = getAgentAddr(i);
+			DatagramChannel ch = DatagramChannel.open();
+			ch.socket().bind(new InetSocketAddress(addr, 0));
+			agentAddrs.add(addr);
+			agentIndex.put(addr, i);
+			agentChannels.add(ch);
+		}
+
+		for (int i = 0; i < cfg.clients; i++) {
+			SimClient client = new SimClient(MACAddress.valueOf(0x02aa00000000L + i));
+			client.x = random.nextDouble() * width;
+			client.y = random.nextDouble() * height;
+			client.joinAt = (long) (random.nextDouble() * cfg.rampMillis);
+			client.nextPublishAt = client.joinAt + (long) (random.nextDouble() * cfg.publishIntervalMillis);
+			client.nextScanAt = client.joinAt;
+			client.pickWaypoint(random);
+			clients[i] = client;
+			clientsByHwAddr.put(client.hwAddr, client);
+		}
+
+		clickServer = new SimulatedClickServer(CONTROL_SOCKET_PORT, new ClickListener());
+		clickServer.start();
+
+		OdinAgentFactory.setOdinAgentType("OdinAgent");
+		simExecutor = Executors.newScheduledThreadPool(cfg.senderThreads + 2);
+
+		// A free port for each master
+		Map<String, InetSocketAddress> members = new LinkedHashMap<String, InetSocketAddress>();
+		List<DatagramSocket> probes = new ArrayList<DatagramSocket>();
+
+		for (int i = 0; i < cfg.masters; i++) {
+			DatagramSocket probe = new DatagramSocket(0);
+			members.put("m" + i, new InetSocketAddress(InetAddress.getByName("127.0.0.1"), probe.getLocalPort()));
+			probes.add(probe);
+		}
+
+		for (DatagramSocket probe: probes) {
+			probe.close();
+		}
+
+		for (Map.Entry<String, InetSocketAddress> member: members.entrySet()) {
+			SimMaster master = new SimMaster(member.getKey(), member.getValue());
+			masters.add(master);
+			master.start(members);
+		}
+	}
+
+
+	private void teardown() {
+		if (simExecutor != null)
+			simExecutor.shutdownNow();
+
+		for (SimMaster master: masters) {
+			master.stop();
+		}
+
+		if (clickServer != null)
+			clickServer.stop();
+
+		for (DatagramChannel ch: agentChannels) {
+			try {
+				ch.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+	}
+
+
+	/**
+	 * An OpenFlow switch for an agent, that answers barriers
+	 * after the configured latency. Each master has its own
+	 * connection to the switch.
+	 */
+	private void addSwitch(final SimMaster master, InetAddress addr, long id) throws IOException {
+		final IOFSwitch sw = EasyMock.createNiceMock(IOFSwitch.class);
+		Channel ch = EasyMock.createNiceMock(Channel.class);
+		final AtomicInteger xid = new AtomicInteger();
+
+		expect(ch.getRemoteAddress()).andReturn((SocketAddress) new InetSocketAddress(addr, 6633)).anyTimes();
+		expect(sw.getChannel()).andReturn(ch).anyTimes();
+		expect(sw.getId()).andReturn(id).anyTimes();
+		expect(sw.getNextTransactionId()).andAnswer(new IAnswer<Integer>() {
+			@Override
+			public Integer answer() {
+				return xid.incrementAndGet();
+			}
+		}).anyTimes();
+
+		sw.write(EasyMock.<List<OFMessage>>anyObject(), EasyMock.<FloodlightContext>anyObject());
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() {
+				@SuppressWarnings("unchecked")
+				List<OFMessage> msgs = (List<OFMessage>) EasyMock.getCurrentArguments()[0];
+
+				for (OFMessage msg: msgs) {
+					if (msg.getType() == OFType.BARRIER_REQUEST)
+						replyToBarrier(master, sw, msg.getXid());
+				}
+
+				return null;
+			}
+		}).anyTimes();
+
+		EasyMock.replay(sw);
+		EasyMock.replay(ch);
+		master.floodlightProvider.getSwitches().put(id, sw);
+	}
+
+
+	private void replyToBarrier(final SimMaster master, final IOFSwitch sw, int xid) {
+		final OFBarrierReply reply = new OFBarrierReply();
+		reply.setXid(xid);
+
+		simExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				master.odinMaster.receive(sw, reply, null);
+			}
+		}, cfg.switchLatencyMicros, TimeUnit.MICROSECONDS);
+	}
+
+
+	/**
+	 * Start the agents pinging, and wait for them all to register
+	 *
+	 * @return how long they took, in ms
+	 */
+	private long onboard() throws InterruptedException {
+		long start = System.currentTimeMillis();
+
+		tasks.add(simExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < cfg.agents; i++) {
+					send(i, "ping");
+					pings.incrementAndGet();
+				}
+			}
+		}, 0, cfg.pingIntervalMillis, TimeUnit.MILLISECONDS));
+
+		tasks.add(simExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				long used = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+				long max;
+				while (used > (max = maxHeapUsed.get()) && !maxHeapUsed.compareAndSet(max, used));
+			}
+		}, 0, 500, TimeUnit.MILLISECONDS));
+
+		long deadline = start + cfg.onboardTimeoutMillis;
+
+		while (getAgentsRegistered() < cfg.agents && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		return System.currentTimeMillis() - start;
+	}
+
+
+	private void startTraffic() throws InterruptedException {
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setSubscription("*", "signal", OdinEventSubscription.Relation.GREATER_THAN,
+								(long) (SIGNAL_OFFSET + SENSITIVITY_DBM));
+		for (SimMaster master: masters) {
+			master.odinMaster.registerSubscription(POOL, oes, new MobilityCallback(master));
+		}
+
+		// Give the subscription a moment to reach the agents
+		long deadline = System.currentTimeMillis() + 5000;
+
+		for (int i = 0; i < cfg.agents && System.currentTimeMillis() < deadline; ) {
+			if (agentSubscriptions.get(i) != null && agentSubscriptions.get(i).length > 0)
+				i++;
+			else
+				Thread.sleep(10);
+		}
+
+		final long start = System.currentTimeMillis();
+
+		for (int t = 0; t < cfg.senderThreads; t++) {
+			tasks.add(simExecutor.scheduleAtFixedRate(new ClientSender(t, start), 0,
+									TICK_MILLIS, TimeUnit.MILLISECONDS));
+		}
+
+		if (cfg.masters > 1 && cfg.stopMasterAtMillis > 0) {
+			tasks.add(simExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					masters.get(masters.size() - 1).stop();
+				}
+			}, cfg.stopMasterAtMillis, TimeUnit.MILLISECONDS));
+		}
+	}
+
+
+	private void stopTraffic() {
+		for (ScheduledFuture<?> task: tasks) {
+			task.cancel(false);
+		}
+	}
+
+
+	/**
+	 * Let the handoffs in flight finish
+	 */
+	private void awaitHandoffs() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		for (SimMaster master: masters) {
+			while (master.up && System.currentTimeMillis() < deadline
+					&& !Integer.valueOf(0).equals(master.odinMaster.getHandoffStats().get("inFlight"))) {
+				Thread.sleep(10);
+			}
+		}
+
+		// and the agents' acknowledgements to arrive
+		Thread.sleep(200);
+	}
+
+
+	private Map<String, Object> report(long onboardingMillis) {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		double seconds = cfg.durationMillis / 1000.0;
+		Set<MACAddress> placed = new HashSet<MACAddress>();
+		int mismatched = 0;
+
+		// Every client with an LVAP has it on exactly one agent,
+		// the one its master has it on, and only one master has it
+		for (SimMaster master: masters) {
+			if (!master.up)
+				continue;
+
+			for (OdinClient oc: master.clientManager.getClients().values()) {
+				IOdinAgent agent = oc.getLvap().getAgent();
+
+				if (agent == null)
+					continue;
+
+				if (!placed.add(oc.getMacAddress()))
+					mismatched++;
+
+				mismatched += countMismatches(oc, agent);
+			}
+		}
+
+		report.put("config", cfg.toMap());
+		report.put("agentsRegistered", getAgentsRegistered());
+		report.put("onboardingMillis", onboardingMillis);
+		report.put("clientsPlaced", placed.size());
+		report.put("lvapMismatches", mismatched);
+		report.put("pingsSent", pings.get());
+		report.put("probesSent", probes.get());
+		report.put("publishesSent", publishes.get());
+		report.put("publishesPerSecond", (long) (publishes.get() / seconds));
+		report.put("publishEventsSent", publishEvents.get());
+		report.put("eventsDelivered", callbacks.get());
+		report.put("eventsDeliveredPerSecond", (long) (callbacks.get() / seconds));
+		report.put("sendErrors", sendErrors.get());
+		report.put("probeToLvap", probeToLvapLatency.toMap());
+		report.put("handoffsRequested", handoffsRequested.get());
+		report.put("pullsRequested", pullsRequested.get());
+		report.put("handoffStaged", handoffStageLatency.toMap());
+		report.put("handoffCompleted", handoffLatency.toMap());
+
+		if (masters.size() == 1) {
+			report.put("masterHandoffs", masters.get(0).odinMaster.getHandoffStats());
+			report.put("masterProbes", masters.get(0).odinMaster.getProbeStats());
+			report.put("masterOnboarding", masters.get(0).odinMaster.getOnboardingStats());
+			report.put("masterEventQueues", masters.get(0).odinMaster.getEventQueueStats());
+		}
+		else {
+			List<Map<String, Object>> masterReports = new ArrayList<Map<String, Object>>();
+
+			for (SimMaster master: masters) {
+				masterReports.add(master.report());
+			}
+
+			report.put("masters", masterReports);
+		}
+
+		report.put("agentCommands", clickServer.getCommandCounts());
+
+		long heapAfterGc = heapUsedAfterGc();
+		Map<String, Object> heap = new LinkedHashMap<String, Object>();
+		heap.put("baselineBytes", heapBaseline);
+		heap.put("peakBytes", maxHeapUsed.get());
+		heap.put("afterGcBytes", heapAfterGc);
+		heap.put("bytesPerClient", placed.isEmpty() ? 0 : (heapAfterGc - heapBaseline) / placed.size());
+		report.put("heap", heap);
+
+		return report;
+	}
+
+
+	/**
+	 * @return 0 if the client's LVAP is on its agent and no other
+	 */
+	private int countMismatches(OdinClient oc, IOdinAgent agent) {
+		int mismatched = 0;
+		int hosts = 0;
+
+		for (InetAddress addr: agentAddrs) {
+			if (clickServer.getLvaps(addr).contains(oc.getMacAddress())) {
+				hosts++;
+
+				if (!addr.equals(agent.getIpAddress()))
+					mismatched++;
+			}
+		}
+
+		if (hosts != 1)
+			mismatched++;
+
+		return mismatched;
+	}
+
+
+	/**
+	 * @return agents registered with the masters that are up
+	 */
+	private int getAgentsRegistered() {
+		int agents = 0;
+
+		for (SimMaster master: masters) {
+			if (master.up)
+				agents += master.agentManager.getAgents().size();
+		}
+
+		return agents;
+	}
+
+
+	private static long heapUsedAfterGc() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+
+	private void send(int agent, String msg) {
+		// The agent's own master, or the next one up
+		for (int i = 0; i < masters.size(); i++) {
+			SimMaster master = masters.get((agent + i) % masters.size());
+
+			if (!master.up)
+				continue;
+
+			ByteBuffer buf = ByteBuffer.wrap(msg.getBytes(ASCII));
+
+			try {
+				try {
+					agentChannels.get(agent).send(buf, master.addr);
+				} catch (PortUnreachableException e) {
+					// Left over from a datagram to a master that has
+					// since stopped. This one wasn't sent
+					agentChannels.get(agent).send(buf, master.addr);
+				}
+			} catch (IOException e) {
+				sendErrors.incrementAndGet();
+			}
+
+			return;
+		}
+	}
+
+
+	/**
+	 * @return the signal at which an agent hears a client,
+	 *         as the agent reports it
+	 */
+	private long signal(SimClient client, int agent, Random random) {
+		double ax = (agent % cols + 0.5) * cfg.spacing;
+		double ay = (agent / cols + 0.5) * cfg.spacing;
+		double d = Math.max(1, Math.hypot(client.x - ax, client.y - ay));
+
+		// Shadowing is fixed for a client and agent
+		long h = (client.hwAddr.toLong() * 0x9E3779B97F4A7C15L) ^ (agent * 0xC2B2AE3D27D4EB4FL);
+		h ^= (h >>> 29);
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= (h >>> 32);
+		double shadowing = ((h & 0xffff) / 65535.0 * 2 - 1) * cfg.shadowingDb;
+
+		double dbm = TX_DBM_AT_1M - 10 * PATH_LOSS_EXPONENT * Math.log10(d)
+						+ shadowing + random.nextGaussian() * cfg.fadingDb;
+
+		return Math.round(SIGNAL_OFFSET + dbm);
+	}
+
+
+	/**
+	 * @return the agents that hear the client, and how well,
+	 *         as pairs of agent index and signal
+	 */
+	private int hear(SimClient client, Random random, long[] heard) {
+		int n = 0;
+		int minCol = Math.max(0, (int) ((client.x - range) / cfg.spacing));
+		int maxCol = Math.min(cols - 1, (int) ((client.x + range) / cfg.spacing));
+		int minRow = Math.max(0, (int) ((client.y - range) / cfg.spacing));
+		int maxRow = (int) ((client.y + range) / cfg.spacing);
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				int agent = row * cols + col;
+
+				if (agent >= cfg.agents || n == heard.length)
+					continue;
+
+				long signal = signal(client, agent, random);
+
+				if (signal >= SIGNAL_OFFSET + SENSITIVITY_DBM)
+					heard[n++] = ((long) agent << 32) | signal;
+			}
+		}
+
+		return n;
+	}
+
+
+	/**
+	 * Moves a share of the clients, and sends their
+	 * agents' probes and publishes
+	 */
+	private class ClientSender implements Runnable {
+		private final int shard;
+		private final long start;
+		private final Random random;
+		private final long[] heard = new long[64];
+		private long lastRun;
+
+		ClientSender(int shard, long start) {
+			this.shard = shard;
+			this.start = start;
+			this.random = new Random(cfg.seed + shard);
+			this.lastRun = start;
+		}
+
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			long elapsed = now - start;
+			double dt = (now - lastRun) / 1000.0;
+			lastRun = now;
+
+			for (int i = shard; i < clients.length; i += cfg.senderThreads) {
+				SimClient client = clients[i];
+
+				if (elapsed < client.joinAt)
+					continue;
+
+				client.move(dt, random);
+				boolean scan = elapsed >= client.nextScanAt;
+				boolean publish = elapsed >= client.nextPublishAt;
+
+				if (!scan && !publish)
+					continue;
+
+				int n = hear(client, random, heard);
+
+				if (scan) {
+					client.nextScanAt += cfg.scanIntervalMillis;
+
+					if (client.firstProbeNanos == 0 && n > 0)
+						client.firstProbeNanos = System.nanoTime();
+
+					for (int j = 0; j < n; j++) {
+						send((int) (heard[j] >>> 32), "probe " + client.hwAddr + " " + SSID);
+						probes.incrementAndGet();
+					}
+				}
+
+				if (publish) {
+					client.nextPublishAt += cfg.publishIntervalMillis;
+
+					for (int j = 0; j < n; j++) {
+						publish(client, (int) (heard[j] >>> 32), heard[j] & 0xffffffffL);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Publish the signal against the agent's subscriptions,
+		 * as the agent would
+		 */
+		private void publish(SimClient client, int agent, long signal) {
+			Subscription[] subscriptions = agentSubscriptions.get(agent);
+
+			if (subscriptions == null)
+				return;
+
+			StringBuilder sb = null;
+			int count = 0;
+
+			for (Subscription sub: subscriptions) {
+				if (sub.matches(client.hwAddr.toLong(), signal)) {
+					if (sb == null)
+						sb = new StringBuilder();
+
+					sb.append(' ').append(sub.id).append(':').append(signal);
+					count++;
+				}
+			}
+
+			if (count > 0) {
+				send(agent, "publish " + client.hwAddr + " " + count + sb.toString());
+				publishes.incrementAndGet();
+				publishEvents.addAndGet(count);
+			}
+		}
+	}
+
+
+	/**
+	 * Hands clients off to the agent that hears them best
+	 */
+	private class MobilityCallback implements NotificationCallback {
+		private final SimMaster master;
+		private final ConcurrentMap<MACAddress, Map<InetAddress, Long>> signals =
+										new ConcurrentHashMap<MACAddress, Map<InetAddress, Long>>();
+		private final ConcurrentMap<MACAddress, Long> lastHandoff = new ConcurrentHashMap<MACAddress, Long>();
+
+		MobilityCallback(SimMaster master) {
+			this.master = master;
+		}
+
+		@Override
+		public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+			callbacks.incrementAndGet();
+
+			// A client's events arrive in order, one at a time
+			Map<InetAddress, Long> heard = signals.get(cntx.clientHwAddress);
+
+			if (heard == null) {
+				heard = new HashMap<InetAddress, Long>();
+				signals.put(cntx.clientHwAddress, heard);
+			}
+
+			InetAddress agentAddr = cntx.agent.getIpAddress();
+			heard.put(agentAddr, cntx.value);
+
+			OdinClient oc = master.odinMaster.getClientFromHwAddress(POOL, cntx.clientHwAddress);
+			long now = System.currentTimeMillis();
+			Long last = lastHandoff.get(cntx.clientHwAddress);
+
+			// Another master holds the client, and only hears it through
+			// its own agents. Pull it over if one of ours hears it well
+			if (oc == null) {
+				if (masters.size() > 1 && cntx.value >= SIGNAL_OFFSET + cfg.pullDbm
+						&& (last == null || now - last >= cfg.handoffHoldMillis)) {
+					lastHandoff.put(cntx.clientHwAddress, now);
+					pullsRequested.incrementAndGet();
+					master.odinMaster.handoffClientToAp(POOL, cntx.clientHwAddress, agentAddr);
+				}
+
+				return;
+			}
+
+			if (oc.getLvap().getAgent() == null)
+				return;
+
+			InetAddress current = oc.getLvap().getAgent().getIpAddress();
+			Long currentSignal = heard.get(current);
+
+			if (agentAddr.equals(current)
+					|| (currentSignal != null && cntx.value < currentSignal + cfg.handoffHysteresis)
+					|| (last != null && now - last < cfg.handoffHoldMillis))
+				return;
+
+			lastHandoff.put(cntx.clientHwAddress, now);
+			pendingHandoffs.put(cntx.clientHwAddress, new PendingHandoff(current, agentAddr, System.nanoTime()));
+			handoffsRequested.incrementAndGet();
+			master.odinMaster.handoffClientToAp(POOL, cntx.clientHwAddress, agentAddr);
+		}
+	}
+
+
+	/**
+	 * A master, with its own connections to the agents' switches
+	 */
+	private class SimMaster {
+		final String id;
+		final InetSocketAddress addr;
+		final MockFloodlightProvider floodlightProvider = new MockFloodlightProvider();
+		final ThreadPool threadPool = new ThreadPool();
+		final ClientManager clientManager = new ClientManager();
+		final PoolManager poolManager = new PoolManager();
+		final AgentManager agentManager = new AgentManager(clientManager, poolManager);
+		final OdinMaster odinMaster = new OdinMaster(agentManager, clientManager, new LvapManager(), poolManager);
+		volatile boolean up = true;
+
+		SimMaster(String id, InetSocketAddress addr) {
+			this.id = id;
+			this.addr = addr;
+		}
+
+		/**
+		 * @param members every master, this one included
+		 */
+		void start(Map<String, InetSocketAddress> members) throws Exception {
+			FloodlightModuleContext cntx = new FloodlightModuleContext();
+			cntx.addService(IFloodlightProviderService.class, floodlightProvider);
+			cntx.addService(IThreadPoolService.class, threadPool);
+			threadPool.init(cntx);
+
+			agentManager.setAgentTimeout((int) Math.max(60000, cfg.durationMillis));
+			odinMaster.init(cntx);
+			odinMaster.setExecutor(threadPool.getScheduledExecutor());
+			agentManager.setFloodlightProvider(floodlightProvider);
+
+			for (int i = 0; i < cfg.agents; i++) {
+				addSwitch(this, agentAddrs.get(i), i + 1);
+				poolManager.addPoolForAgent(agentAddrs.get(i), POOL);
+			}
+			odinMaster.addNetwork(POOL, SSID);
+
+			// As in OdinMaster.startUp()
+			ScheduledExecutorService executor = threadPool.getScheduledExecutor();
+
+			if (members.size() > 1) {
+				odinMaster.startCluster(new MasterCluster(id, members, cfg.clusterTimeoutMillis / 4,
+															cfg.clusterTimeoutMillis));
+			}
+
+			executor.execute(new OdinAgentProtocolServer(odinMaster, addr.getPort(), executor));
+		}
+
+		void stop() {
+			up = false;
+
+			if (odinMaster.getCluster() != null)
+				odinMaster.getCluster().stop();
+
+			if (threadPool.getScheduledExecutor() != null)
+				threadPool.getScheduledExecutor().shutdownNow();
+		}
+
+		Map<String, Object> report() {
+			Map<String, Object> report = new LinkedHashMap<String, Object>();
+			report.put("id", id);
+			report.put("up", up);
+			report.put("cluster", odinMaster.getClusterStats());
+			report.put("handoffs", odinMaster.getHandoffStats());
+			report.put("probes", odinMaster.getProbeStats());
+			report.put("onboarding", odinMaster.getOnboardingStats());
+
+			return report;
+		}
+	}
+
+
+	private class ClickListener implements SimulatedClickServer.Listener {
+		@Override
+		public void lvapAdded(InetAddress agentAddr, MACAddress clientHwAddr) {
+			long now = System.nanoTime();
+			SimClient client = clientsByHwAddr.get(clientHwAddr);
+
+			if (client != null && !client.placed) {
+				client.placed = true;
+
+				if (client.firstProbeNanos != 0)
+					probeToLvapLatency.record(TimeUnit.NANOSECONDS.toMicros(now - client.firstProbeNanos));
+			}
+
+			PendingHandoff handoff = pendingHandoffs.get(clientHwAddr);
+
+			if (handoff != null && handoff.to.equals(agentAddr))
+				handoffStageLatency.record(TimeUnit.NANOSECONDS.toMicros(now - handoff.requestedNanos));
+		}
+
+		@Override
+		public void lvapRemoved(InetAddress agentAddr, MACAddress clientHwAddr) {
+			PendingHandoff handoff = pendingHandoffs.get(clientHwAddr);
+
+			if (handoff != null && handoff.from.equals(agentAddr) && pendingHandoffs.remove(clientHwAddr, handoff))
+				handoffLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - handoff.requestedNanos));
+		}
+
+		@Override
+		public void subscriptionsChanged(InetAddress agentAddr, String table) {
+			Integer agent = agentIndex.get(agentAddr);
+
+			if (agent != null)
+				agentSubscriptions.set(agent, Subscription.parseTable(table));
+		}
+	}
+
+
+	/**
+	 * An entry of an agent's subscription table:
+	 *
+	 *   <id> <sta_mac> <statistic> <relation> <value>
+	 *
+	 * preceded by the number of entries
+	 */
+	static class Subscription {
+		final long id;
+		final long hwAddr; // 0 for any client
+		final String statistic;
+		final OdinEventSubscription.Relation relation;
+		final double value;
+
+		Subscription(long id, long hwAddr, String statistic, OdinEventSubscription.Relation relation, double value) {
+			this.id = id;
+			this.hwAddr = hwAddr;
+			this.statistic = statistic;
+			this.relation = relation;
+			this.value = value;
+		}
+
+		static Subscription[] parseTable(String table) {
+			String[] tokens = table.trim().split("\\s+");
+			int count = Integer.parseInt(tokens[0]);
+			Subscription[] subscriptions = new Subscription[count];
+
+			for (int i = 0; i < count; i++) {
+				int base = 1 + i * 5;
+				subscriptions[i] = new Subscription(Long.parseLong(tokens[base]),
+									MACAddress.valueOf(tokens[base + 1]).toLong(),
+									tokens[base + 2],
+									OdinEventSubscription.Relation.values()[Integer.parseInt(tokens[base + 3])],
+									Double.parseDouble(tokens[base + 4]));
+			}
+
+			return subscriptions;
+		}
+
+		boolean matches(long clientHwAddr, long signal) {
+			if ((hwAddr != 0 && hwAddr != clientHwAddr) || !statistic.equals("signal"))
+				return false;
+
+			switch (relation) {
+			case EQUALS:
+				return signal == value;
+			case GREATER_THAN:
+				return signal > value;
+			case LESSER_THAN:
+				return signal < value;
+			default:
+				return false;
+			}
+		}
+	}
+
+
+	private class SimClient {
+		final MACAddress hwAddr;
+		double x, y;
+		double toX, toY;
+		double speed;
+		long joinAt;
+		long nextScanAt;
+		long nextPublishAt;
+		volatile long firstProbeNanos;
+		volatile boolean placed;
+
+		SimClient(MACAddress hwAddr) {
+			this.hwAddr = hwAddr;
+		}
+
+		void pickWaypoint(Random random) {
+			toX = random.nextDouble() * width;
+			toY = random.nextDouble() * height;
+			speed = cfg.speed * (0.5 + random.nextDouble());
+		}
+
+		void move(double dt, Random random) {
+			double dx = toX - x;
+			double dy = toY - y;
+			double d = Math.hypot(dx, dy);
+			double step = speed * dt;
+
+			if (step >= d) {
+				x = toX;
+				y = toY;
+				pickWaypoint(random);
+			}
+			else {
+				x += dx / d * step;
+				y += dy / d * step;
+			}
+		}
+	}
+
+
+	private static class PendingHandoff {
+		final InetAddress from;
+		final InetAddress to;
+		final long requestedNanos;
+
+		PendingHandoff(InetAddress from, InetAddress to, long requestedNanos) {
+			this.from = from;
+			this.to = to;
+			this.requestedNanos = requestedNanos;
+		}
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		Map<String, Object> report = new OdinSimulator(Config.fromSystemProperties()).run();
+		System.out.println(new ObjectMapper().defaultPrettyPrintingWriter().writeValueAsString(report));
+
+		// The agents' control channels keep non-daemon threads
+		System.exit(0);
+	}
+}
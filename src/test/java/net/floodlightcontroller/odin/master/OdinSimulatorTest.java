@@ -0,0 +1,104 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Runs the simulator on a small deployment, with clients
+ * moving fast enough to be handed off within the run, first
+ * on one master and then on a cluster that loses a master.
+ */
+public class OdinSimulatorTest {
+
+	private static boolean canBind() {
+		try {
+			DatagramSocket sock = new DatagramSocket(new InetSocketAddress(OdinSimulator.getAgentAddr(0), 0));
+			sock.close();
+			ServerSocket server = new ServerSocket(6777);
+			server.close();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSmallDeployment() throws Exception {
+		Assume.assumeTrue(canBind());
+
+		OdinSimulator.Config cfg = new OdinSimulator.Config();
+		cfg.agents = 16;
+		cfg.clients = 100;
+		cfg.durationMillis = 4000;
+		cfg.rampMillis = 500;
+		cfg.speed = 20;
+		cfg.scanIntervalMillis = 1000;
+		cfg.publishIntervalMillis = 100;
+		cfg.handoffHoldMillis = 500;
+
+		Map<String, Object> report = new OdinSimulator(cfg).run();
+
+		assertEquals(16, report.get("agentsRegistered"));
+		assertEquals(100, report.get("clientsPlaced"));
+		assertEquals(0, report.get("lvapMismatches"));
+		assertEquals(0L, report.get("sendErrors"));
+		assertEquals(100L, ((Map<String, Object>) report.get("probeToLvap")).get("count"));
+		assertTrue((Long) report.get("eventsDelivered") > 0);
+		assertTrue((Long) report.get("handoffsRequested") > 0);
+		assertTrue((Long) ((Map<String, Object>) report.get("handoffCompleted")).get("count") > 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testShardedDeployment() throws Exception {
+		Assume.assumeTrue(canBind());
+
+		OdinSimulator.Config cfg = new OdinSimulator.Config();
+		cfg.agents = 16;
+		cfg.clients = 100;
+		cfg.durationMillis = 5000;
+		cfg.rampMillis = 500;
+		cfg.speed = 20;
+		cfg.scanIntervalMillis = 1000;
+		cfg.publishIntervalMillis = 100;
+		cfg.handoffHoldMillis = 500;
+		cfg.masters = 3;
+		cfg.clusterTimeoutMillis = 500;
+		cfg.stopMasterAtMillis = 2000;
+
+		Map<String, Object> report = new OdinSimulator(cfg).run();
+
+		// The masters left up take over the stopped master's agents
+		assertEquals(16, report.get("agentsRegistered"));
+		assertEquals(100, report.get("clientsPlaced"));
+		assertEquals(0, report.get("lvapMismatches"));
+		assertEquals(0L, report.get("sendErrors"));
+
+		List<Map<String, Object>> masters = (List<Map<String, Object>>) report.get("masters");
+		assertEquals(3, masters.size());
+
+		int up = 0;
+
+		for (Map<String, Object> master: masters) {
+			if (!(Boolean) master.get("up"))
+				continue;
+
+			up++;
+			Map<String, Object> cluster = (Map<String, Object>) master.get("cluster");
+			assertEquals(2, ((List<String>) cluster.get("liveMembers")).size());
+			assertTrue((Long) cluster.get("ownershipChanges") > 0);
+		}
+
+		assertEquals(2, up);
+	}
+}
@@ -2,16 +2,20 @@ package net.floodlightcontroller.odin.master;
 
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -43,6 +47,7 @@ import org.easymock.EasyMock;
 import org.jboss.netty.channel.Channel;
 import org.junit.Before;
 import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
 
 public class OdinTest {
 	protected MockFloodlightProvider mockFloodlightProvider;
@@ -125,6 +130,7 @@ public class OdinTest {
         try {
 			restApi.init(cntx);
 	        odinMaster.init(cntx);
+	        odinMaster.setExecutor(tp.getScheduledExecutor());
 	        
 		} catch (FloodlightModuleException e) {
 			// TODO Auto-generated catch block
@@ -170,6 +176,153 @@ public class OdinTest {
 		assertEquals(clientManager.getClients().size(),0);
     }
     
+    /**
+     * Page through the clients, and follow the change
+     * feed from where the snapshot was taken
+     * 
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testClientSnapshotAndChangeFeed() throws Exception {
+    	poolManager.addPoolForAgent(InetAddress.getByName("172.17.2.161"), "pool-1");
+    	
+    	for (int i = 5; i >= 1; i--) {
+    		MACAddress sta = MACAddress.valueOf(i);
+    		addClientToClientManagerSingleSsid(sta, InetAddress.getByName("172.17.1." + i), sta, "odin");
+    		poolManager.mapClientToPool(clientManager.getClient(sta), "pool-1");
+    	}
+    	
+    	Map<String, Object> page = odinMaster.getClientSnapshot(null, 2);
+    	long seq = (Long) page.get("seq");
+    	assertEquals(10L, seq);
+    	assertEquals(5, page.get("total"));
+    	List<OdinClient> clients = (List<OdinClient>) page.get("clients");
+    	assertEquals(MACAddress.valueOf(1), clients.get(0).getMacAddress());
+    	assertEquals(MACAddress.valueOf(2), clients.get(1).getMacAddress());
+    	
+    	// A change made while paging
+    	clientManager.setClientIpAddress(clientManager.getClient(MACAddress.valueOf(4)), InetAddress.getByName("172.17.1.40"));
+    	
+    	page = odinMaster.getClientSnapshot(MACAddress.valueOf((String) page.get("next")), 2);
+    	clients = (List<OdinClient>) page.get("clients");
+    	assertEquals(MACAddress.valueOf(3), clients.get(0).getMacAddress());
+    	assertEquals(MACAddress.valueOf(4), clients.get(1).getMacAddress());
+    	
+    	page = odinMaster.getClientSnapshot(MACAddress.valueOf((String) page.get("next")), 2);
+    	clients = (List<OdinClient>) page.get("clients");
+    	assertEquals(1, clients.size());
+    	assertNull(page.get("next"));
+    	
+    	// The change shows up in the feed too
+    	Map<String, Object> changes = odinMaster.getChangesSince(seq, 100, 0);
+    	assertEquals(11L, changes.get("seq"));
+    	List<Map<String, Object>> list = (List<Map<String, Object>>) changes.get("changes");
+    	assertEquals(1, list.size());
+    	assertEquals("CLIENT_IP_CHANGED", list.get(0).get("type"));
+    	assertEquals("172.17.1.40", list.get(0).get("ipAddress"));
+    	
+    	clientManager.removeClient(MACAddress.valueOf(5));
+    	changes = odinMaster.getChangesSince(11, 100, 0);
+    	list = (List<Map<String, Object>>) changes.get("changes");
+    	assertEquals("CLIENT_REMOVED", list.get(0).get("type"));
+    	assertEquals("00:00:00:00:00:05", list.get(0).get("client"));
+    	
+    	// The snapshot agrees with the feed
+    	page = odinMaster.getClientSnapshot(null, 10);
+    	assertEquals(4, page.get("total"));
+    	for (OdinClient oc: (List<OdinClient>) page.get("clients")) {
+    		assertFalse(oc.getMacAddress().equals(MACAddress.valueOf(5)));
+    	}
+    	
+    	// A client that isn't mapped to any pool
+    	addClientToClientManagerSingleSsid(MACAddress.valueOf(6), InetAddress.getByName("172.17.1.6"), MACAddress.valueOf(6), "odin");
+    	page = odinMaster.getClientSnapshot(null, 10);
+    	assertEquals(5, page.get("total"));
+    	clients = (List<OdinClient>) page.get("clients");
+    	assertEquals(MACAddress.valueOf(6), clients.get(4).getMacAddress());
+    	
+    	// A client that comes back with a new IP address
+    	clientManager.removeClient(MACAddress.valueOf(3));
+    	addClientToClientManagerSingleSsid(MACAddress.valueOf(3), InetAddress.getByName("172.17.1.30"), MACAddress.valueOf(3), "odin");
+    	page = odinMaster.getClientSnapshot(MACAddress.valueOf(2), 1);
+    	clients = (List<OdinClient>) page.get("clients");
+    	assertEquals(MACAddress.valueOf(3), clients.get(0).getMacAddress());
+    	assertEquals(InetAddress.getByName("172.17.1.30"), clients.get(0).getIpAddress());
+    	assertEquals(5, page.get("total"));
+    }
+    
+    /**
+     * Clients restored from the journal have no agent until one
+     * turns out to host their LVAP, so their idle LVAP timers are
+     * armed, and they are dropped if none does
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRestoredClientsAreArmed() throws Exception {
+    	File dir = File.createTempFile("odin-journal", "");
+    	dir.delete();
+    	dir.mkdirs();
+    	
+    	try {
+    		ClientJournal journal = new ClientJournal(dir, ClientJournal.DEFAULT_CAPACITY);
+    		journal.open();
+    		for (int i = 1; i <= 2; i++) {
+    			MACAddress sta = MACAddress.valueOf(i);
+    			journal.clientAdded(new OdinClient(sta, InetAddress.getByName(i == 1 ? "0.0.0.0" : "172.17.1.2"),
+    									new Lvap(sta, Collections.singletonList("odin"))));
+    		}
+    		journal.close();
+    		
+    		odinMaster.restoreClients(new ClientJournal(dir, ClientJournal.DEFAULT_CAPACITY));
+    		assertEquals(2, clientManager.getClients().size());
+    		assertNull(clientManager.getClient(MACAddress.valueOf(1)).getLvap().getAgent());
+    		assertEquals(2, odinMaster.getIdleLvapStats().get("pending"));
+    		assertEquals(true, odinMaster.getClientJournalStats().get("enabled"));
+    	} finally {
+    		odinMaster.stop();
+    		
+    		for (File f: dir.listFiles()) {
+    			f.delete();
+    		}
+    		dir.delete();
+    	}
+    }
+    
+        /**
+     * DHCP replies sent up by an agent's switch update
+     * the client's IP address, others are ignored
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDhcpReply() throws Exception {
+    	String ipAddress1 = "172.17.2.161";
+    	MACAddress clientMacAddr1 = MACAddress.valueOf("00:00:00:00:00:01");
+    	
+    	poolManager.addPoolForAgent(InetAddress.getByName(ipAddress1), "pool-1");
+    	poolManager.addNetworkForPool("pool-1", "odin");
+    	addAgentWithMockSwitch(ipAddress1, 12345);
+    	
+    	IOdinAgent agent = agentManager.getAgent(InetAddress.getByName(ipAddress1));
+    	addClientToClientManagerSingleSsid(clientMacAddr1, InetAddress.getByName("0.0.0.0"), clientMacAddr1, "odin");
+    	clientManager.setClientAgent(clientManager.getClient(clientMacAddr1), agent);
+    	
+    	OFPacketIn pi = new OFPacketIn();
+    	pi.setPacketData(DhcpSnooperTest.dhcpReply(clientMacAddr1, "172.17.1.10", (short) 68).serialize());
+    	
+    	// From a switch that isn't an agent's
+    	IOFSwitch other = EasyMock.createNiceMock(IOFSwitch.class);
+    	EasyMock.replay(other);
+    	odinMaster.receive(other, pi, null);
+    	assertEquals(InetAddress.getByName("0.0.0.0"), clientManager.getClient(clientMacAddr1).getIpAddress());
+    	
+    	odinMaster.receive(agent.getSwitch(), pi, null);
+    	assertEquals(InetAddress.getByName("172.17.1.10"), clientManager.getClient(clientMacAddr1).getIpAddress());
+    	assertNotNull(clientManager.getClient(clientMacAddr1).getLvap().getOFMessageList());
+    }
+    
     /**
      *  Make sure that the agent tracker does not
      *  track an agent if there isn't a corresponding
@@ -214,8 +367,149 @@ public class OdinTest {
         agentManager.receivePing(InetAddress.getByName("172.17.5.63"));
         assertEquals(agentManager.getAgents().size(),1);
     }
+
+
+    /**
+     * Test that an agent that pings before its switch
+     * connects is registered as soon as the switch does
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAgentRegisteredOnSwitchConnect() throws Exception {
+    	InetAddress agentAddr = InetAddress.getByName("172.17.2.161");
+
+    	odinMaster.receivePing(agentAddr);
+    	assertEquals(agentManager.getAgents().size(),0);
+
+    	IOFSwitch sw1 = EasyMock.createNiceMock(IOFSwitch.class);
+    	Channel ch = EasyMock.createMock(Channel.class);
+        expect(sw1.getChannel()).andReturn(ch).anyTimes();
+        expect(ch.getRemoteAddress()).andReturn((SocketAddress) new InetSocketAddress(agentAddr, 12345)).anyTimes();
+        expect(sw1.getId()).andReturn(1L).anyTimes();
+        EasyMock.replay(sw1);
+        EasyMock.replay(ch);
+
+        // No further ping is needed
+        mockFloodlightProvider.getSwitches().put(1L, sw1);
+        odinMaster.addedSwitch(sw1);
+        assertEquals(agentManager.getAgents().size(),1);
+        assertEquals(agentManager.getAgent(agentAddr).getSwitch(), sw1);
+
+        // The agent goes with its switch
+        mockFloodlightProvider.getSwitches().remove(1L);
+        odinMaster.removedSwitch(sw1);
+        assertEquals(agentManager.getAgents().size(),0);
+
+        odinMaster.receivePing(agentAddr);
+        assertEquals(agentManager.getAgents().size(),0);
+    }
+
+
+    /**
+     * An agent that pinged long before its switch connected has
+     * likely gone, and isn't registered until it pings again.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testParkedPingExpires() throws Exception {
+    	InetAddress agentAddr = InetAddress.getByName("172.17.2.162");
+    	agentManager.setAgentTimeout(20);
+
+    	odinMaster.receivePing(agentAddr);
+    	Thread.sleep(50);
+
+    	IOFSwitch sw1 = EasyMock.createNiceMock(IOFSwitch.class);
+    	Channel ch = EasyMock.createMock(Channel.class);
+        expect(sw1.getChannel()).andReturn(ch).anyTimes();
+        expect(ch.getRemoteAddress()).andReturn((SocketAddress) new InetSocketAddress(agentAddr, 12345)).anyTimes();
+        expect(sw1.getId()).andReturn(1L).anyTimes();
+        EasyMock.replay(sw1);
+        EasyMock.replay(ch);
+
+        mockFloodlightProvider.getSwitches().put(1L, sw1);
+        odinMaster.addedSwitch(sw1);
+        assertEquals(agentManager.getAgents().size(),0);
+
+        odinMaster.receivePing(agentAddr);
+        assertEquals(agentManager.getAgents().size(),1);
+    }
+
     
-    
+    /**
+     * The thread pool isn't a dependency of the master, so the
+     * module loader may initialise it after the master. Agents
+     * should still register and clients be handed off once the
+     * master has started.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testThreadPoolInitialisedAfterMaster() throws Exception {
+    	// Like ThreadPool, no executor until init()
+    	MockThreadPoolService tp = new MockThreadPoolService() {
+    		private volatile boolean initialised = false;
+    		
+    		@Override
+    		public ScheduledExecutorService getScheduledExecutor() {
+    			return initialised ? super.getScheduledExecutor() : null;
+    		}
+    		
+    		@Override
+    		public void init(FloodlightModuleContext context) {
+    			initialised = true;
+    		}
+    	};
+    	
+    	FloodlightModuleContext context = new FloodlightModuleContext();
+    	context.addService(IFloodlightProviderService.class, mockFloodlightProvider);
+    	context.addService(IRestApiService.class, new RestApiServer());
+    	context.addService(IThreadPoolService.class, tp);
+    	
+    	clientManager = new ClientManager();
+    	poolManager = new PoolManager();
+    	agentManager = new AgentManager(clientManager, poolManager);
+    	odinMaster = new OdinMaster(agentManager, clientManager, new LvapManager(), poolManager);
+    	
+    	odinMaster.init(context);
+    	tp.init(context);
+    	
+    	// As startUp() does
+    	odinMaster.setExecutor(tp.getScheduledExecutor());
+    	agentManager.setFloodlightProvider(mockFloodlightProvider);
+    	
+    	InetAddress agentAddr1 = InetAddress.getByName("172.17.2.161");
+    	InetAddress agentAddr2 = InetAddress.getByName("172.17.2.162");
+    	MACAddress clientMacAddr = MACAddress.valueOf("00:00:00:00:00:01");
+    	poolManager.addPoolForAgent(agentAddr1, "pool-1");
+    	poolManager.addPoolForAgent(agentAddr2, "pool-1");
+    	poolManager.addNetworkForPool("pool-1", "odin");
+    	
+    	long id = 1;
+    	for (InetAddress agentAddr: new InetAddress[] {agentAddr1, agentAddr2}) {
+    		IOFSwitch sw = EasyMock.createNiceMock(IOFSwitch.class);
+    		Channel ch = EasyMock.createMock(Channel.class);
+    		expect(sw.getChannel()).andReturn(ch).anyTimes();
+    		expect(ch.getRemoteAddress()).andReturn((SocketAddress) new InetSocketAddress(agentAddr, 12345)).anyTimes();
+    		expect(sw.getId()).andReturn(id).anyTimes();
+    		EasyMock.replay(sw);
+    		EasyMock.replay(ch);
+    		mockFloodlightProvider.getSwitches().put(id++, sw);
+    		
+    		odinMaster.receivePing(agentAddr);
+    	}
+    	
+    	assertEquals(2, agentManager.getAgents().size());
+    	
+    	addClientToClientManagerSingleSsid(clientMacAddr, InetAddress.getByName("172.17.2.51"), MACAddress.valueOf("00:00:00:00:11:11"), "odin");
+    	odinMaster.receiveProbe(agentAddr1, clientMacAddr, "odin");
+    	assertEquals(agentAddr1, clientManager.getClients().get(clientMacAddr).getLvap().getAgent().getIpAddress());
+    	
+    	odinMaster.handoffClientToAp("pool-1", clientMacAddr, agentAddr2);
+    	assertEquals(agentAddr2, clientManager.getClients().get(clientMacAddr).getLvap().getAgent().getIpAddress());
+    }
+
     /**
      * Test to see if OdinAgentTracker.receiveProbe()
      * works correctly with a single SSID
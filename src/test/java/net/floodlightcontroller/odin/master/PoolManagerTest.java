@@ -0,0 +1,79 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Set;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class PoolManagerTest {
+
+	private OdinClient client(long hwAddress) throws Exception {
+		Lvap lvap = new Lvap(MACAddress.valueOf(hwAddress), new ArrayList<String>());
+		return new OdinClient(MACAddress.valueOf(hwAddress), InetAddress.getByName("0.0.0.0"), lvap);
+	}
+
+	@Test
+	public void testClientSnapshots() throws Exception {
+		PoolManager poolManager = new PoolManager();
+		poolManager.addPoolForAgent(InetAddress.getByName("172.17.2.161"), "pool-1");
+		poolManager.addPoolForAgent(InetAddress.getByName("172.17.2.162"), "pool-2");
+
+		OdinClient oc1 = client(1);
+		OdinClient oc2 = client(2);
+		poolManager.mapClientToPool(oc1, "pool-1");
+
+		Set<OdinClient> snapshot = poolManager.getClientsFromPool("pool-1");
+		assertEquals(1, snapshot.size());
+
+		// Unchanged pools hand out the same snapshot
+		poolManager.mapClientToPool(oc1, "pool-1");
+		assertSame(snapshot, poolManager.getClientsFromPool("pool-1"));
+
+		// Changes don't show up in snapshots that were handed out,
+		// so they can be iterated while the pool changes
+		for (OdinClient oc: snapshot) {
+			poolManager.mapClientToPool(oc2, "pool-1");
+			poolManager.mapClientToPool(oc, "pool-2");
+		}
+		assertEquals(1, snapshot.size());
+		assertTrue(snapshot.contains(oc1));
+
+		assertEquals(1, poolManager.getClientsFromPool("pool-1").size());
+		assertTrue(poolManager.getClientsFromPool("pool-1").contains(client(2)));
+		assertTrue(poolManager.getClientsFromPool("pool-2").contains(client(1)));
+		assertEquals(2, poolManager.getClientsFromPool(PoolManager.GLOBAL_POOL).size());
+
+		assertEquals("pool-2", poolManager.getPoolForClient(1L));
+		assertEquals("pool-1", poolManager.getPoolForClient(client(2)));
+
+		poolManager.removeClientPoolMapping(client(1));
+		assertNull(poolManager.getPoolForClient(1L));
+		assertTrue(poolManager.getClientsFromPool("pool-2").isEmpty());
+		assertTrue(poolManager.getClientsFromPool("no-such-pool").isEmpty());
+	}
+
+	@Test
+	public void testAgentSnapshots() throws Exception {
+		PoolManager poolManager = new PoolManager();
+		InetAddress agent1 = InetAddress.getByName("172.17.2.161");
+		InetAddress agent2 = InetAddress.getByName("172.17.2.162");
+
+		poolManager.addPoolForAgent(agent1, "pool-1");
+		Set<InetAddress> snapshot = poolManager.getAgentAddrsForPool("pool-1");
+		poolManager.addPoolForAgent(agent2, "pool-1");
+
+		assertEquals(1, snapshot.size());
+		assertEquals(2, poolManager.getAgentAddrsForPool("pool-1").size());
+		assertEquals(2, poolManager.getAgentAddrsForPool(PoolManager.GLOBAL_POOL).size());
+		assertFalse(poolManager.getAgentAddrsForPool("pool-2").contains(agent1));
+	}
+}
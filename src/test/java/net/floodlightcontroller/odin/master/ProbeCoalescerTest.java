@@ -0,0 +1,80 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class ProbeCoalescerTest {
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final MACAddress client = MACAddress.valueOf("00:00:00:00:00:01");
+
+	@Test
+	public void testDirectedProbes() throws Exception {
+		ProbeCoalescer coalescer = new ProbeCoalescer(100);
+		InetAddress agent1 = InetAddress.getByName("172.17.2.161");
+		InetAddress agent2 = InetAddress.getByName("172.17.2.162");
+
+		// Nothing is dropped until the master has acted on a probe
+		assertFalse(coalescer.coalesce(client, "odin", agent1, 0));
+		assertFalse(coalescer.coalesce(client, "odin", agent2, MS));
+		coalescer.decided(client, "odin", agent1, 0);
+
+		// Duplicates from any agent are dropped within the window...
+		assertTrue(coalescer.coalesce(client, "odin", agent1, 10 * MS));
+		assertTrue(coalescer.coalesce(client, "odin", agent2, 20 * MS));
+		assertFalse(coalescer.coalesce(client, "odin-2", agent2, 20 * MS));
+
+		// ...but not after it
+		assertFalse(coalescer.coalesce(client, "odin", agent2, 100 * MS));
+
+		assertEquals(6, coalescer.getReceived());
+		assertEquals(2, coalescer.getCoalesced());
+		assertEquals(2.0 / 6, coalescer.getDedupRatio(), 0.0001);
+
+		HashSet<InetAddress> both = new HashSet<InetAddress>();
+		both.add(agent1);
+		both.add(agent2);
+		assertEquals(both, coalescer.getAgentsHearingClient(client, 100 * MS));
+		assertTrue(coalescer.getAgentsHearingClient(MACAddress.valueOf("00:00:00:00:00:02"), 0).isEmpty());
+	}
+
+	@Test
+	public void testBroadcastProbes() throws Exception {
+		ProbeCoalescer coalescer = new ProbeCoalescer(100);
+		InetAddress agent1 = InetAddress.getByName("172.17.2.161");
+		InetAddress agent2 = InetAddress.getByName("172.17.2.162");
+
+		assertFalse(coalescer.coalesce(client, "", agent1, 0));
+		coalescer.decided(client, "", agent1, 0);
+
+		// Every agent still answers broadcast probes once
+		assertTrue(coalescer.coalesce(client, "", agent1, MS));
+		assertFalse(coalescer.coalesce(client, "", agent2, MS));
+	}
+
+	@Test
+	public void testDisabledAndPurge() throws Exception {
+		ProbeCoalescer coalescer = new ProbeCoalescer(0);
+		InetAddress agent = InetAddress.getByName("172.17.2.161");
+
+		assertFalse(coalescer.coalesce(client, "odin", agent, 0));
+		coalescer.decided(client, "odin", agent, 0);
+		assertFalse(coalescer.coalesce(client, "odin", agent, 0));
+		assertEquals(0, coalescer.getCoalesced());
+
+		// Sightings are kept even with coalescing off, until they expire
+		long ttl = TimeUnit.MILLISECONDS.toNanos(ProbeCoalescer.SIGHTING_TTL_MILLIS);
+		assertEquals(1, coalescer.getAgentsHearingClient(client, ttl - 1).size());
+		coalescer.purge(ttl);
+		assertTrue(coalescer.getAgentsHearingClient(client, 0).isEmpty());
+	}
+}
@@ -0,0 +1,210 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Compares how long it takes to read and parse an agent's rxstats
+ * table the way OdinAgent used to, one char at a time into a String
+ * and then split() on rows and properties, against parsing it off
+ * the receive buffer with OdinAgentHandlerParser, into a map and
+ * into a reused OdinRxStatsTable.
+ *
+ * Settings are read from -Dodin.rxstatsbench.* system properties,
+ * see Config. Run it with "ant odin-rxstats-bench".
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+public class RxStatsParserBenchmark {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int RX_STAT_NUM_PROPERTIES = 5;
+
+	static class Config {
+		int stations = 1000;
+		long warmupMillis = 3000;
+		long durationMillis = 5000;
+
+		static Config fromSystemProperties() {
+			Config cfg = new Config();
+			cfg.stations = Integer.getInteger("odin.rxstatsbench.stations", cfg.stations);
+			cfg.warmupMillis = Long.getLong("odin.rxstatsbench.warmupMillis", cfg.warmupMillis);
+			cfg.durationMillis = Long.getLong("odin.rxstatsbench.durationMillis", cfg.durationMillis);
+
+			return cfg;
+		}
+	}
+
+	/**
+	 * One way of reading an rxstats table
+	 */
+	private interface Path {
+		/**
+		 * @return sum of the stations' signals, to compare paths by
+		 */
+		long parse(byte[] payload);
+	}
+
+	private static final Path LEGACY = new Path() {
+		@Override
+		public long parse(byte[] payload) {
+			try {
+				return sumSignals(legacyReadAndParse(payload));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final Path PARSER = new Path() {
+		@Override
+		public long parse(byte[] payload) {
+			return sumSignals(OdinAgentHandlerParser.parseRxStats(ChannelBuffers.wrappedBuffer(payload),
+																	RX_STAT_NUM_PROPERTIES));
+		}
+	};
+
+	private static final Path TABLE = new Path() {
+		private final OdinRxStatsTable table = new OdinRxStatsTable();
+
+		@Override
+		public long parse(byte[] payload) {
+			OdinAgentHandlerParser.parseRxStats(ChannelBuffers.wrappedBuffer(payload), RX_STAT_NUM_PROPERTIES, table);
+			long sum = 0;
+
+			for (int row = 0; row < table.size(); row++) {
+				sum += table.getSignal(row);
+			}
+
+			return sum;
+		}
+	};
+
+	private final Config cfg;
+	private final byte[] payload;
+
+
+	RxStatsParserBenchmark(Config cfg) {
+		this.cfg = cfg;
+		this.payload = OdinAgentHandlerParserTest.rxStatsTable(cfg.stations).getBytes(ASCII);
+	}
+
+
+	/**
+	 * The way OdinAgent used to read and parse rxstats
+	 */
+	private static Map<MACAddress, Map<String, String>> legacyReadAndParse(byte[] payload) throws IOException {
+		BufferedReader inBuf = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload)));
+		int numBytes = payload.length;
+		String line = "";
+
+		while (numBytes != 0) {
+			numBytes--;
+			char[] buf = new char[1];
+			inBuf.read(buf);
+			line = line + new String(buf);
+		}
+
+		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
+
+		for (String elem : line.split("\n")) {
+			String row[] = elem.split(" ");
+
+			if (row.length != RX_STAT_NUM_PROPERTIES + 1) {
+				continue;
+			}
+
+			MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
+			Map<String, String> innerMap = new HashMap<String, String>();
+
+			for (int i = 1; i < RX_STAT_NUM_PROPERTIES + 1; i += 1) {
+				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
+			}
+
+			ret.put(eth, Collections.unmodifiableMap(innerMap));
+		}
+
+		return ret;
+	}
+
+
+	private static long sumSignals(Map<MACAddress, Map<String, String>> stats) {
+		long sum = 0;
+
+		for (Map<String, String> properties: stats.values()) {
+			sum += Integer.parseInt(properties.get("signal"));
+		}
+
+		return sum;
+	}
+
+
+	Map<String, Object> run() {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("stations", cfg.stations);
+		report.put("payloadBytes", payload.length);
+
+		long legacySum = LEGACY.parse(payload);
+
+		if (PARSER.parse(payload) != legacySum || TABLE.parse(payload) != legacySum)
+			throw new IllegalStateException("The paths parsed different rxstats");
+
+		// All are warmed up before any is measured
+		measure(LEGACY, cfg.warmupMillis);
+		measure(PARSER, cfg.warmupMillis);
+		measure(TABLE, cfg.warmupMillis);
+
+		double legacy = measure(LEGACY, cfg.durationMillis);
+		double parser = measure(PARSER, cfg.durationMillis);
+		double table = measure(TABLE, cfg.durationMillis);
+
+		report.put("legacyMicros", Math.round(legacy));
+		report.put("parserMicros", Math.round(parser));
+		report.put("tableMicros", Math.round(table));
+		report.put("parserSpeedup", Math.round(legacy / parser * 10) / 10.0);
+		report.put("tableSpeedup", Math.round(legacy / table * 10) / 10.0);
+
+		return report;
+	}
+
+
+	/**
+	 * @return mean time to parse the table, in us
+	 */
+	private double measure(Path path, long millis) {
+		long expected = path.parse(payload);
+		long parsed = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1000000;
+		long now;
+
+		do {
+			// Checking the result keeps the parse from being optimised away
+			if (path.parse(payload) != expected)
+				throw new IllegalStateException("Parses of the same table differ");
+
+			parsed++;
+			now = System.nanoTime();
+		} while (now < end);
+
+		return (now - start) / 1e3 / parsed;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		Map<String, Object> report = new RxStatsParserBenchmark(Config.fromSystemProperties()).run();
+		System.out.println(new ObjectMapper().defaultPrettyPrintingWriter().writeValueAsString(report));
+	}
+}
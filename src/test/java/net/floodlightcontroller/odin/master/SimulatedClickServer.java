@@ -0,0 +1,358 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * The Click control sockets of any number of emulated agents, served
+ * by one selector thread. Every agent has its own loopback address,
+ * and the server listens on the wildcard address, so a connection
+ * belongs to the agent whose address it was made to.
+ *
+ * The server keeps each agent's LVAP table, answers the odinagent
+ * READ and WRITE handlers the way Click does, and tells a listener
+ * about the writes that matter to the simulation.
+ *
+ * @author Lalith Suresh <suresh.lalith@gmail.com>
+ *
+ */
+class SimulatedClickServer implements Runnable {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final String BANNER = "Click::ControlSocket/1.3\r\n";
+	private static final String ELEMENT = "odinagent.";
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Told about writes to the agents, on the server's thread
+	 */
+	interface Listener {
+		void lvapAdded(InetAddress agentAddr, MACAddress clientHwAddr);
+		void lvapRemoved(InetAddress agentAddr, MACAddress clientHwAddr);
+		void subscriptionsChanged(InetAddress agentAddr, String table);
+	}
+
+	private final int port;
+	private final Listener listener;
+	private final ConcurrentMap<InetAddress, ConcurrentMap<MACAddress, String>> lvaps =
+										new ConcurrentHashMap<InetAddress, ConcurrentMap<MACAddress, String>>();
+	private final ConcurrentMap<String, AtomicLong> commands = new ConcurrentHashMap<String, AtomicLong>();
+
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private Thread thread;
+
+
+	SimulatedClickServer(int port, Listener listener) {
+		this.port = port;
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Bind the control socket port and start serving
+	 *
+	 * @throws IOException if the port can't be bound
+	 */
+	void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		thread = new Thread(this, "OdinSimClick");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Close the port and every agent's connection
+	 */
+	void stop() {
+		if (thread == null)
+			return;
+
+		thread.interrupt();
+		selector.wakeup();
+
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * @return the clients with an LVAP on the agent
+	 */
+	Set<MACAddress> getLvaps(InetAddress agentAddr) {
+		return getTable(agentAddr).keySet();
+	}
+
+
+	/**
+	 * @return number of commands received, by handler
+	 */
+	Map<String, Long> getCommandCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, AtomicLong> entry: commands.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return counts;
+	}
+
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					try {
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept();
+						else {
+							if (key.isReadable())
+								read(key);
+							if (key.isValid() && key.isWritable())
+								write(key);
+						}
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key: selector.keys()) {
+				close(key);
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+	}
+
+
+	private void accept() throws IOException {
+		SocketChannel ch;
+
+		while ((ch = serverChannel.accept()) != null) {
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+
+			Connection conn = new Connection(ch.socket().getLocalAddress());
+			SelectionKey key = ch.register(selector, SelectionKey.OP_READ, conn);
+			conn.send(key, BANNER);
+		}
+	}
+
+
+	private void read(SelectionKey key) throws IOException {
+		Connection conn = (Connection) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		if (ch.read(conn.in) < 0) {
+			close(key);
+			return;
+		}
+
+		conn.in.flip();
+
+		// Handle every complete line
+		int start = conn.in.position();
+
+		for (int i = start; i < conn.in.limit(); i++) {
+			if (conn.in.get(i) == '\n') {
+				int end = (i > start && conn.in.get(i - 1) == '\r') ? i - 1 : i;
+				byte[] line = new byte[end - start];
+				conn.in.position(start);
+				conn.in.get(line);
+				String reply;
+
+				try {
+					reply = handle(conn.agentAddr, new String(line, ASCII));
+				} catch (RuntimeException e) {
+					reply = "500 " + e + "\r\n";
+				}
+
+				conn.send(key, reply);
+				start = i + 1;
+			}
+		}
+
+		conn.in.position(start);
+		conn.in.compact();
+
+		// Commands are short, except for subscription tables
+		if (!conn.in.hasRemaining()) {
+			ByteBuffer bigger = ByteBuffer.allocate(conn.in.capacity() * 2);
+			conn.in.flip();
+			bigger.put(conn.in);
+			conn.in = bigger;
+		}
+	}
+
+
+	private void write(SelectionKey key) throws IOException {
+		Connection conn = (Connection) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		while (!conn.out.isEmpty()) {
+			ByteBuffer buf = conn.out.getFirst();
+			ch.write(buf);
+
+			if (buf.hasRemaining())
+				return;
+
+			conn.out.removeFirst();
+		}
+
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+
+	private void close(SelectionKey key) {
+		key.cancel();
+
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Already gone
+		}
+	}
+
+
+	/**
+	 * Run a command, and build Click's reply
+	 */
+	private String handle(InetAddress agentAddr, String line) {
+		String[] parts = line.split(" ", 3);
+
+		if (parts.length < 2)
+			return "500 Syntax error\r\n";
+
+		String handler = parts[1].startsWith(ELEMENT) ? parts[1].substring(ELEMENT.length()) : null;
+		String arg = (parts.length > 2) ? parts[2] : "";
+		count(parts[0] + " " + parts[1]);
+
+		if (handler == null)
+			return "511 No element named '" + parts[1] + "'\r\n";
+
+		if (parts[0].equals("READ")) {
+			String data = "";
+
+			if (handler.equals("table")) {
+				StringBuilder sb = new StringBuilder();
+
+				for (String lvap: getTable(agentAddr).values()) {
+					sb.append(lvap).append('\n');
+				}
+
+				data = sb.toString();
+			}
+
+			return "200 Read handler '" + parts[1] + "' OK\r\nDATA " + data.length() + "\r\n" + data;
+		}
+
+		if (!parts[0].equals("WRITE"))
+			return "500 Syntax error\r\n";
+
+		if (handler.equals("add_vap") || handler.equals("set_vap")) {
+			MACAddress clientHwAddr = MACAddress.valueOf(arg.split(" ")[0]);
+
+			if (getTable(agentAddr).put(clientHwAddr, arg) == null)
+				listener.lvapAdded(agentAddr, clientHwAddr);
+		}
+		else if (handler.equals("remove_vap")) {
+			MACAddress clientHwAddr = MACAddress.valueOf(arg.trim());
+
+			if (getTable(agentAddr).remove(clientHwAddr) != null)
+				listener.lvapRemoved(agentAddr, clientHwAddr);
+		}
+		else if (handler.equals("subscriptions")) {
+			listener.subscriptionsChanged(agentAddr, arg);
+		}
+
+		return "200 Write handler '" + parts[1] + "' OK\r\n";
+	}
+
+
+	private ConcurrentMap<MACAddress, String> getTable(InetAddress agentAddr) {
+		ConcurrentMap<MACAddress, String> table = lvaps.get(agentAddr);
+
+		if (table == null) {
+			table = new ConcurrentHashMap<MACAddress, String>();
+			ConcurrentMap<MACAddress, String> existing = lvaps.putIfAbsent(agentAddr, table);
+
+			if (existing != null)
+				table = existing;
+		}
+
+		return table;
+	}
+
+
+	private void count(String command) {
+		AtomicLong n = commands.get(command);
+
+		if (n == null) {
+			n = new AtomicLong();
+			AtomicLong existing = commands.putIfAbsent(command, n);
+
+			if (existing != null)
+				n = existing;
+		}
+
+		n.incrementAndGet();
+	}
+
+
+	private static class Connection {
+		final InetAddress agentAddr;
+		final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+		ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		Connection(InetAddress agentAddr) {
+			this.agentAddr = agentAddr;
+		}
+
+		void send(SelectionKey key, String reply) {
+			out.add(ByteBuffer.wrap(reply.getBytes(ASCII)));
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+}
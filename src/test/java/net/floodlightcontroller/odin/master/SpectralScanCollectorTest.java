@@ -0,0 +1,105 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SpectralScanCollectorTest {
+
+	/**
+	 * Answers with a fixed scan, fails, or never answers
+	 */
+	private static class ScanningAgent extends StubOdinAgent {
+		enum Mode { ANSWER, FAIL, SILENT }
+
+		Mode mode = Mode.ANSWER;
+		int busy;
+		final List<OdinSpectralScan> passedIn = new ArrayList<OdinSpectralScan>();
+
+		ScanningAgent(String addr, int busy) throws Exception {
+			init(InetAddress.getByName(addr));
+			this.busy = busy;
+		}
+
+		@Override
+		public Future<OdinSpectralScan> getSpectralScanAsync(OdinSpectralScan scan) {
+			passedIn.add(scan);
+			OdinAgentFuture<OdinSpectralScan> future = new OdinAgentFuture<OdinSpectralScan>();
+
+			if (mode == Mode.ANSWER) {
+				if (scan == null)
+					scan = new OdinSpectralScan();
+
+				scan.clear();
+				scan.put(1, busy, -95);
+				scan.put(6, busy / 2, -92);
+				future.set(scan);
+			}
+			else if (mode == Mode.FAIL) {
+				future.setException(new IOException("Connection reset"));
+			}
+
+			return future;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCollect() throws Exception {
+		ChannelOccupancyStore store = new ChannelOccupancyStore(ChannelOccupancyStore.DEFAULT_HISTORY);
+		SpectralScanCollector collector = new SpectralScanCollector(store);
+		ScanningAgent a1 = new ScanningAgent("172.17.2.1", 40);
+		ScanningAgent a2 = new ScanningAgent("172.17.2.2", 20);
+		ScanningAgent a3 = new ScanningAgent("172.17.2.3", 80);
+		a2.mode = ScanningAgent.Mode.FAIL;
+		a3.mode = ScanningAgent.Mode.SILENT;
+
+		List<IOdinAgent> agents = Arrays.<IOdinAgent>asList(a1, a2, a3);
+
+		assertEquals(1, collector.collect(agents, 1000, 50));
+		assertEquals(1, store.getOccupancy(a1.getIpAddress(), 1, 0).size());
+		assertEquals(20, store.getOccupancy(a1.getIpAddress(), 6, 0).getBusy(0));
+		assertNull(store.getOccupancy(a2.getIpAddress(), 1, 0));
+		assertNull(store.getOccupancy(a3.getIpAddress(), 1, 0));
+
+		// Everyone answers, and a1's scan is refilled
+		a2.mode = ScanningAgent.Mode.ANSWER;
+		a3.mode = ScanningAgent.Mode.ANSWER;
+		assertEquals(3, collector.collect(agents, 2000, 50));
+		assertSame(a1.passedIn.get(0), null);
+		assertNotSame(null, a1.passedIn.get(1));
+
+		// The silent agent's scan wasn't reused
+		assertNull(a3.passedIn.get(1));
+
+		Map<Integer, Double> index = store.getInterferenceIndex(Arrays.asList(a1.getIpAddress(), a2.getIpAddress(),
+																			a3.getIpAddress()), 0);
+		assertEquals((0.4 + 0.2 + 0.8) / 3, index.get(1), 0.001);
+
+		// a2 is gone
+		assertEquals(2, collector.collect(Arrays.<IOdinAgent>asList(a1, a3), 3000, 50));
+		assertNull(store.getOccupancy(a2.getIpAddress(), 1, 0));
+		assertEquals(3, store.getOccupancy(a1.getIpAddress(), 1, 0).size());
+
+		Map<String, Object> stats = collector.getStats();
+		assertEquals(3L, stats.get("rounds"));
+		assertEquals(6L, stats.get("scansCollected"));
+		assertEquals(2L, stats.get("scansMissed"));
+		assertEquals(3L, ((Map<String, Object>) stats.get("roundLatency")).get("count"));
+
+		assertEquals(0, collector.collect(Collections.<IOdinAgent>emptyList(), 4000, 50));
+		assertEquals(Collections.emptySet(), store.getAgentAddrs());
+	}
+}
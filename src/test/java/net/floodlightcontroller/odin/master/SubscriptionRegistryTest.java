@@ -0,0 +1,85 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.odin.master.OdinEventSubscription.Relation;
+
+import org.junit.Test;
+
+public class SubscriptionRegistryTest {
+
+	private OdinEventSubscription subscription(String client, double value) {
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setSubscription(client, "signal", Relation.GREATER_THAN, value);
+		return oes;
+	}
+
+	private List<String> pools(String... names) {
+		List<String> list = new ArrayList<String>();
+
+		for (String name: names)
+			list.add(name);
+
+		return list;
+	}
+
+	@Test
+	public void testPerPoolTables() throws Exception {
+		SubscriptionRegistry registry = new SubscriptionRegistry();
+
+		long id1 = registry.add(PoolManager.GLOBAL_POOL, subscription("*", 180));
+		long id2 = registry.add("pool-1", subscription("00:00:00:00:00:01", 200));
+		long id3 = registry.add("pool-2", subscription("00:00:00:00:00:02", 210));
+
+		assertEquals("1 " + id1 + " 00:00:00:00:00:00 signal 1 180.0 ",
+					registry.compile(pools(PoolManager.GLOBAL_POOL)));
+		assertEquals("2 " + id2 + " 00:00:00:00:00:01 signal 1 200.0 " + id1 + " 00:00:00:00:00:00 signal 1 180.0 ",
+					registry.compile(pools("pool-1", PoolManager.GLOBAL_POOL)));
+
+		assertEquals("pool-2", registry.remove(id3));
+		assertNull(registry.remove(id3));
+		assertEquals("0 ", registry.compile(pools("pool-2")));
+	}
+
+	@Test
+	public void testOnlyChangedAgentsArePushed() throws Exception {
+		SubscriptionRegistry registry = new SubscriptionRegistry();
+		InetAddress agent1 = InetAddress.getByName("172.17.2.161");
+		InetAddress agent2 = InetAddress.getByName("172.17.2.162");
+		List<String> pools1 = pools("pool-1", PoolManager.GLOBAL_POOL);
+		List<String> pools2 = pools("pool-2", PoolManager.GLOBAL_POOL);
+
+		// New agents get a table, once
+		for (InetAddress agent: new InetAddress[] {agent1, agent2}) {
+			assertTrue(registry.startPush(agent));
+			assertFalse(registry.startPush(agent));
+		}
+		assertEquals("0 ", registry.nextTable(agent1, pools1));
+		assertNull(registry.nextTable(agent1, pools1));
+		assertEquals("0 ", registry.nextTable(agent2, pools2));
+		assertNull(registry.nextTable(agent2, pools2));
+
+		// A change to pool-1 leaves agent2 alone
+		long id = registry.add("pool-1", subscription("*", 180));
+		assertTrue(registry.startPush(agent1));
+		assertTrue(registry.startPush(agent2));
+		assertEquals("1 " + id + " 00:00:00:00:00:00 signal 1 180.0 ", registry.nextTable(agent1, pools1));
+		assertNull(registry.nextTable(agent1, pools1));
+		assertNull(registry.nextTable(agent2, pools2));
+
+		// A restarted agent is sent everything again
+		registry.resetAgent(agent1);
+		assertTrue(registry.startPush(agent1));
+		assertEquals("1 " + id + " 00:00:00:00:00:00 signal 1 180.0 ", registry.nextTable(agent1, pools1));
+		assertNull(registry.nextTable(agent1, pools1));
+
+		assertEquals(4, registry.getPushes());
+	}
+}